@@ -0,0 +1,72 @@
+package uk.ac.imperial.pipe.analysis;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Outcome of a structural deadlock check by a {@link SiphonTrapAnalyser}
+ */
+public final class DeadlockCheckResult {
+    /**
+     * What the check could conclude
+     */
+    public enum Verdict {
+        /**
+         * Every minimal siphon contains an initially marked trap, so no reachable marking is dead
+         */
+        DEADLOCK_FREE,
+
+        /**
+         * A siphon without an initially marked trap was found, the Petri net may or may not deadlock
+         */
+        INCONCLUSIVE,
+
+        /**
+         * The Petri net is not ordinary, so the check does not apply
+         */
+        NOT_APPLICABLE
+    }
+
+    /**
+     * What the check could conclude
+     */
+    private final Verdict verdict;
+
+    /**
+     * Ids of the places of a siphon without an initially marked trap
+     */
+    private final Set<String> witness;
+
+    /**
+     * Constructor
+     * @param verdict what the check could conclude
+     * @param witness ids of the places of a siphon without an initially marked trap, empty unless inconclusive
+     */
+    public DeadlockCheckResult(Verdict verdict, Set<String> witness) {
+        this.verdict = verdict;
+        this.witness = Collections.unmodifiableSet(witness);
+    }
+
+    /**
+     * @return what the check could conclude
+     */
+    public Verdict getVerdict() {
+        return verdict;
+    }
+
+    /**
+     * @return true if no reachable marking is dead
+     */
+    public boolean isDeadlockFree() {
+        return verdict == Verdict.DEADLOCK_FREE;
+    }
+
+    /**
+     * Once every place of the witness is empty it stays empty and every transition taking from it is dead
+     *
+     * @return ids of the places of a siphon without an initially marked trap, empty unless inconclusive
+     */
+    public Set<String> getWitness() {
+        return witness;
+    }
+}
@@ -0,0 +1,230 @@
+package uk.ac.imperial.pipe.analysis;
+
+import uk.ac.imperial.pipe.animation.CompiledPetriNet;
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Sparse integer incidence matrix C = Post - Pre of a Petri net.
+ * <p/>
+ * Rows are the marking cells of a {@link CompiledPetriNet}, so place p's count of token k is row
+ * {@link CompiledPetriNet#cell(int, int)}, and columns are its transition numbers. Only non zero
+ * entries are stored, row by row: the entries of row r are rowStart(r) to rowEnd(r) - 1, each with
+ * a column and a value.
+ * <p/>
+ * Constant arc weights are floored to integers as they are when firing. An entry where a pre or
+ * post weight is a functional expression has no fixed value; it is flagged by
+ * {@link #isFunctional(int, int)} and only its constant part is stored.
+ */
+public final class IncidenceMatrix {
+    /**
+     * Compiled Petri net the matrix was built from
+     */
+    private final CompiledPetriNet compiled;
+
+    /**
+     * Entries of row r are rowStart[r] to rowStart[r + 1] - 1
+     */
+    private final int[] rowStart;
+
+    /**
+     * Column of each entry
+     */
+    private final int[] columns;
+
+    /**
+     * Value of each entry
+     */
+    private final int[] values;
+
+    /**
+     * Bit row * columns + column is set for each functional entry
+     */
+    private final BitSet functional = new BitSet();
+
+    /**
+     * Constructor
+     * @param petriNet Petri net to build the matrix of
+     */
+    public IncidenceMatrix(PetriNet petriNet) {
+        this(new CompiledPetriNet(petriNet));
+    }
+
+    /**
+     * Constructor
+     * @param compiled compiled Petri net to build the matrix of
+     */
+    public IncidenceMatrix(CompiledPetriNet compiled) {
+        this.compiled = compiled;
+        int rows = compiled.getMarkingSize();
+        List<Map<Integer, Integer>> entries = new ArrayList<>(rows);
+        for (int row = 0; row < rows; row++) {
+            entries.add(new TreeMap<Integer, Integer>());
+        }
+        for (int t = 0; t < compiled.getTransitionCount(); t++) {
+            for (int i = compiled.preStart(t); i < compiled.preEnd(t); i++) {
+                add(entries, compiled.preCell(i), t, compiled.preWeight(i), -1);
+            }
+            for (int i = compiled.postStart(t); i < compiled.postEnd(t); i++) {
+                add(entries, compiled.postCell(i), t, compiled.postWeight(i), 1);
+            }
+        }
+
+        rowStart = new int[rows + 1];
+        List<Integer> columnList = new ArrayList<>();
+        List<Integer> valueList = new ArrayList<>();
+        for (int row = 0; row < rows; row++) {
+            for (Map.Entry<Integer, Integer> entry : entries.get(row).entrySet()) {
+                if (entry.getValue() != 0) {
+                    columnList.add(entry.getKey());
+                    valueList.add(entry.getValue());
+                }
+            }
+            rowStart[row + 1] = columnList.size();
+        }
+        columns = new int[columnList.size()];
+        values = new int[valueList.size()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = columnList.get(i);
+            values[i] = valueList.get(i);
+        }
+    }
+
+    /**
+     * Adds an arc weight to an entry, flagging it if the weight is functional
+     *
+     * @param entries column -> value of each row
+     * @param row marking cell
+     * @param column transition number
+     * @param weight constant weight or {@link CompiledPetriNet#FUNCTIONAL_WEIGHT}
+     * @param sign -1 for a pre weight, 1 for a post weight
+     */
+    private void add(List<Map<Integer, Integer>> entries, int row, int column, int weight, int sign) {
+        Integer current = entries.get(row).get(column);
+        int value = current == null ? 0 : current;
+        if (weight == CompiledPetriNet.FUNCTIONAL_WEIGHT) {
+            functional.set(row * compiled.getTransitionCount() + column);
+        } else {
+            value += sign * weight;
+        }
+        entries.get(row).put(column, value);
+    }
+
+    /**
+     * @return compiled Petri net numbering the rows and columns
+     */
+    public CompiledPetriNet getCompiledPetriNet() {
+        return compiled;
+    }
+
+    /**
+     * @return number of rows, one per marking cell
+     */
+    public int getRowCount() {
+        return rowStart.length - 1;
+    }
+
+    /**
+     * @return number of columns, one per transition
+     */
+    public int getColumnCount() {
+        return compiled.getTransitionCount();
+    }
+
+    /**
+     * @return number of non zero entries
+     */
+    public int getEntryCount() {
+        return columns.length;
+    }
+
+    /**
+     * @param row marking cell
+     * @return first entry of the row
+     */
+    public int rowStart(int row) {
+        return rowStart[row];
+    }
+
+    /**
+     * @param row marking cell
+     * @return entry one past the last entry of the row
+     */
+    public int rowEnd(int row) {
+        return rowStart[row + 1];
+    }
+
+    /**
+     * @param entry entry number
+     * @return transition number of the entry
+     */
+    public int column(int entry) {
+        return columns[entry];
+    }
+
+    /**
+     * @param entry entry number
+     * @return change in the cell's count when the column's transition fires
+     */
+    public int value(int entry) {
+        return values[entry];
+    }
+
+    /**
+     * @param row marking cell
+     * @param column transition number
+     * @return change in the cell's count when the transition fires, the constant part for a functional entry
+     */
+    public int get(int row, int column) {
+        for (int i = rowStart[row]; i < rowStart[row + 1]; i++) {
+            if (columns[i] == column) {
+                return values[i];
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @param row marking cell
+     * @param column transition number
+     * @return true if a weight between the cell's place and the transition is a functional expression
+     */
+    public boolean isFunctional(int row, int column) {
+        return functional.get(row * compiled.getTransitionCount() + column);
+    }
+
+    /**
+     * @return true if any entry is functional
+     */
+    public boolean hasFunctionalEntries() {
+        return !functional.isEmpty();
+    }
+
+    /**
+     * @param row marking cell
+     * @return true if any entry of the row is functional
+     */
+    public boolean isFunctionalRow(int row) {
+        int start = row * compiled.getTransitionCount();
+        int next = functional.nextSetBit(start);
+        return next >= 0 && next < start + compiled.getTransitionCount();
+    }
+
+    /**
+     * @param column transition number
+     * @return true if any entry of the column is functional
+     */
+    public boolean isFunctionalColumn(int column) {
+        for (int row = 0; row < getRowCount(); row++) {
+            if (isFunctional(row, column)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,121 @@
+package uk.ac.imperial.pipe.analysis;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Semi-positive invariant of a Petri net, a non negative integer vector stored sparsely as the
+ * indices of its support and their coefficients.
+ * <p/>
+ * For a P-invariant y the indices are marking cells and y.M is the same in every reachable marking
+ * M. For a T-invariant x the indices are transition numbers and firing each transition x times in
+ * any order returns to the marking it started from.
+ */
+public final class Invariant {
+    /**
+     * Indices with a non zero coefficient, ascending
+     */
+    private final int[] indices;
+
+    /**
+     * Coefficient of each index
+     */
+    private final int[] coefficients;
+
+    /**
+     * Constructor
+     * @param indices indices with a non zero coefficient, ascending
+     * @param coefficients positive coefficient of each index
+     */
+    public Invariant(int[] indices, int[] coefficients) {
+        if (indices.length != coefficients.length) {
+            throw new IllegalArgumentException("Expected a coefficient for each of the " + indices.length + " indices");
+        }
+        this.indices = indices.clone();
+        this.coefficients = coefficients.clone();
+    }
+
+    /**
+     * @return number of indices in the support
+     */
+    public int size() {
+        return indices.length;
+    }
+
+    /**
+     * @param i position in the support
+     * @return index at the position
+     */
+    public int getIndex(int i) {
+        return indices[i];
+    }
+
+    /**
+     * @param i position in the support
+     * @return coefficient of the index at the position
+     */
+    public int getCoefficient(int i) {
+        return coefficients[i];
+    }
+
+    /**
+     * @param index cell or transition number
+     * @return coefficient of the index, zero if it is not in the support
+     */
+    public int get(int index) {
+        int i = Arrays.binarySearch(indices, index);
+        return i < 0 ? 0 : coefficients[i];
+    }
+
+    /**
+     * @return indices with a non zero coefficient
+     */
+    public BitSet getSupport() {
+        BitSet support = new BitSet();
+        for (int index : indices) {
+            support.set(index);
+        }
+        return support;
+    }
+
+    /**
+     * @param vector vector indexed the same way as the invariant, such as a marking
+     * @return sum of each coefficient multiplied by the vector's value at its index
+     */
+    public long evaluate(int[] vector) {
+        long sum = 0;
+        for (int i = 0; i < indices.length; i++) {
+            sum += (long) coefficients[i] * vector[indices[i]];
+        }
+        return sum;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        Invariant invariant = (Invariant) o;
+        return Arrays.equals(indices, invariant.indices) && Arrays.equals(coefficients, invariant.coefficients);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(indices) + Arrays.hashCode(coefficients);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("[");
+        for (int i = 0; i < indices.length; i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append(indices[i]).append('=').append(coefficients[i]);
+        }
+        return builder.append(']').toString();
+    }
+}
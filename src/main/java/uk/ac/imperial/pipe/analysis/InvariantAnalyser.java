@@ -0,0 +1,543 @@
+package uk.ac.imperial.pipe.analysis;
+
+import uk.ac.imperial.pipe.animation.CompiledPetriNet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Computes the minimal support semi-positive P- and T-invariants of an {@link IncidenceMatrix}
+ * with the Farkas algorithm.
+ * <p/>
+ * Every row starts as a row of the matrix paired with a unit vector. Columns are eliminated one at
+ * a time, replacing the rows with a positive and a negative entry in the column by non negative
+ * combinations of them, until the matrix part is zero and the unit part holds the invariants.
+ * The column producing the fewest new rows is eliminated first, and a combination is dropped
+ * before it is built if another row's support lies within the union of its parents' supports,
+ * since it could not have a minimal support. Rows are sparse throughout.
+ * <p/>
+ * A P-invariant must hold whatever value a functional weight takes, so cells with a functional
+ * entry are left out of P-invariants and transitions with one are left out of T-invariants.
+ * Results are computed on first use and kept. Instances are not thread safe.
+ */
+public final class InvariantAnalyser {
+    /**
+     * Matrix whose invariants are computed
+     */
+    private final IncidenceMatrix matrix;
+
+    /**
+     * P-invariants, null until first computed
+     */
+    private List<Invariant> placeInvariants;
+
+    /**
+     * T-invariants, null until first computed
+     */
+    private List<Invariant> transitionInvariants;
+
+    /**
+     * Constructor
+     * @param matrix matrix whose invariants are computed
+     */
+    public InvariantAnalyser(IncidenceMatrix matrix) {
+        this.matrix = matrix;
+    }
+
+    /**
+     * @return minimal support P-invariants, indexed by marking cell
+     */
+    public List<Invariant> getPlaceInvariants() {
+        if (placeInvariants == null) {
+            List<Row> rows = new ArrayList<>();
+            for (int row = 0; row < matrix.getRowCount(); row++) {
+                if (!matrix.isFunctionalRow(row)) {
+                    int start = matrix.rowStart(row);
+                    int size = matrix.rowEnd(row) - start;
+                    int[] columns = new int[size];
+                    long[] values = new long[size];
+                    for (int i = 0; i < size; i++) {
+                        columns[i] = matrix.column(start + i);
+                        values[i] = matrix.value(start + i);
+                    }
+                    rows.add(new Row(columns, values, row));
+                }
+            }
+            placeInvariants = solve(rows);
+        }
+        return placeInvariants;
+    }
+
+    /**
+     * @return minimal support T-invariants, indexed by transition number
+     */
+    public List<Invariant> getTransitionInvariants() {
+        if (transitionInvariants == null) {
+            List<List<Integer>> cells = new ArrayList<>();
+            List<List<Long>> values = new ArrayList<>();
+            for (int column = 0; column < matrix.getColumnCount(); column++) {
+                cells.add(new ArrayList<Integer>());
+                values.add(new ArrayList<Long>());
+            }
+            for (int row = 0; row < matrix.getRowCount(); row++) {
+                for (int i = matrix.rowStart(row); i < matrix.rowEnd(row); i++) {
+                    cells.get(matrix.column(i)).add(row);
+                    values.get(matrix.column(i)).add((long) matrix.value(i));
+                }
+            }
+            List<Row> rows = new ArrayList<>();
+            for (int column = 0; column < matrix.getColumnCount(); column++) {
+                if (!matrix.isFunctionalColumn(column)) {
+                    int size = cells.get(column).size();
+                    int[] rowCells = new int[size];
+                    long[] rowValues = new long[size];
+                    for (int i = 0; i < size; i++) {
+                        rowCells[i] = cells.get(column).get(i);
+                        rowValues[i] = values.get(column).get(i);
+                    }
+                    rows.add(new Row(rowCells, rowValues, column));
+                }
+            }
+            transitionInvariants = solve(rows);
+        }
+        return transitionInvariants;
+    }
+
+    /**
+     * @return true if every cell is in the support of a P-invariant, so the Petri net is bounded
+     * from any initial marking
+     */
+    public boolean isCoveredByPlaceInvariants() {
+        BitSet covered = new BitSet();
+        for (Invariant invariant : getPlaceInvariants()) {
+            covered.or(invariant.getSupport());
+        }
+        return covered.cardinality() == matrix.getRowCount();
+    }
+
+    /**
+     * @return true if every transition is in the support of a T-invariant
+     */
+    public boolean isCoveredByTransitionInvariants() {
+        BitSet covered = new BitSet();
+        for (Invariant invariant : getTransitionInvariants()) {
+            covered.or(invariant.getSupport());
+        }
+        return covered.cardinality() == matrix.getColumnCount();
+    }
+
+    /**
+     * A cell in the support of a P-invariant y can hold at most y.M0 / y(cell) tokens
+     *
+     * @param initial initial marking, indexed by marking cell
+     * @return the smallest bound any P-invariant gives each cell, {@link CompiledPetriNet#INFINITY}
+     * for cells in no P-invariant
+     */
+    public int[] getCellBounds(int[] initial) {
+        int[] bounds = new int[matrix.getRowCount()];
+        Arrays.fill(bounds, CompiledPetriNet.INFINITY);
+        for (Invariant invariant : getPlaceInvariants()) {
+            long total = invariant.evaluate(initial);
+            for (int i = 0; i < invariant.size(); i++) {
+                long bound = total / invariant.getCoefficient(i);
+                int cell = invariant.getIndex(i);
+                if (bound < bounds[cell]) {
+                    bounds[cell] = (int) bound;
+                }
+            }
+        }
+        return bounds;
+    }
+
+    /**
+     * Eliminates every column of the rows' matrix parts
+     *
+     * @param rows rows to eliminate, each with a unit vector
+     * @return minimal support invariants read from the unit vectors
+     */
+    private static List<Invariant> solve(List<Row> rows) {
+        while (true) {
+            int column = chooseColumn(rows);
+            if (column < 0) {
+                break;
+            }
+            List<Row> positive = new ArrayList<>();
+            List<Row> negative = new ArrayList<>();
+            List<Row> next = new ArrayList<>();
+            for (Row row : rows) {
+                long value = row.get(column);
+                if (value > 0) {
+                    positive.add(row);
+                } else if (value < 0) {
+                    negative.add(row);
+                } else {
+                    next.add(row);
+                }
+            }
+            for (Row p : positive) {
+                for (Row n : negative) {
+                    BitSet union = (BitSet) p.support.clone();
+                    union.or(n.support);
+                    if (isMinimalCandidate(union, p, n, rows)) {
+                        next.add(Row.combine(p, n, column));
+                    }
+                }
+            }
+            rows = removeNonMinimal(next);
+        }
+
+        List<Invariant> invariants = new ArrayList<>(rows.size());
+        for (Row row : removeNonMinimal(rows)) {
+            invariants.add(row.toInvariant());
+        }
+        return Collections.unmodifiableList(invariants);
+    }
+
+    /**
+     * @param rows current rows
+     * @return column whose elimination adds the fewest rows, or -1 if every matrix part is zero
+     */
+    private static int chooseColumn(List<Row> rows) {
+        Map<Integer, long[]> counts = new HashMap<>();
+        for (Row row : rows) {
+            for (int i = 0; i < row.columns.length; i++) {
+                long[] count = counts.get(row.columns[i]);
+                if (count == null) {
+                    count = new long[2];
+                    counts.put(row.columns[i], count);
+                }
+                count[row.values[i] > 0 ? 0 : 1]++;
+            }
+        }
+        int best = -1;
+        long bestGrowth = Long.MAX_VALUE;
+        for (Map.Entry<Integer, long[]> entry : counts.entrySet()) {
+            long[] count = entry.getValue();
+            long growth = count[0] * count[1] - count[0] - count[1];
+            if (growth < bestGrowth || growth == bestGrowth && entry.getKey() < best) {
+                best = entry.getKey();
+                bestGrowth = growth;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @param union union of the supports of the two parents
+     * @param p parent with a positive entry
+     * @param n parent with a negative entry
+     * @param rows every current row
+     * @return false if another row's support lies within the union, so the combination is not minimal
+     */
+    private static boolean isMinimalCandidate(BitSet union, Row p, Row n, List<Row> rows) {
+        for (Row row : rows) {
+            if (row != p && row != n && isSubset(row.support, union)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param rows rows to filter
+     * @return rows without duplicates or rows whose support strictly contains another row's support
+     */
+    private static List<Row> removeNonMinimal(List<Row> rows) {
+        List<Row> result = new ArrayList<>(rows.size());
+        Set<Row> seen = new HashSet<>();
+        for (Row row : rows) {
+            if (!seen.add(row)) {
+                continue;
+            }
+            boolean minimal = true;
+            for (Row other : rows) {
+                if (other != row && !other.support.equals(row.support) && isSubset(other.support, row.support)) {
+                    minimal = false;
+                    break;
+                }
+            }
+            if (minimal) {
+                result.add(row);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param subset candidate subset
+     * @param set candidate superset
+     * @return true if every bit of subset is in set
+     */
+    private static boolean isSubset(BitSet subset, BitSet set) {
+        BitSet remaining = (BitSet) subset.clone();
+        remaining.andNot(set);
+        return remaining.isEmpty();
+    }
+
+    /**
+     * @param a value
+     * @param b value
+     * @return a * b
+     * @throws ArithmeticException if the product overflows
+     */
+    private static long multiply(long a, long b) {
+        long product = a * b;
+        if (a != 0 && (product / a != b || a == -1 && b == Long.MIN_VALUE)) {
+            throw new ArithmeticException("Invariant coefficients overflow");
+        }
+        return product;
+    }
+
+    /**
+     * @param a value
+     * @param b value
+     * @return a + b
+     * @throws ArithmeticException if the sum overflows
+     */
+    private static long add(long a, long b) {
+        long sum = a + b;
+        if (((a ^ sum) & (b ^ sum)) < 0) {
+            throw new ArithmeticException("Invariant coefficients overflow");
+        }
+        return sum;
+    }
+
+    /**
+     * @param a value
+     * @param b value
+     * @return greatest common divisor of the magnitudes
+     */
+    private static long gcd(long a, long b) {
+        a = Math.abs(a);
+        b = Math.abs(b);
+        while (b != 0) {
+            long t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    /**
+     * Row of the Farkas algorithm: a sparse matrix part still to be eliminated and a sparse non
+     * negative combination of the original rows
+     */
+    private static final class Row {
+        /**
+         * Columns of the non zero matrix entries, ascending
+         */
+        private final int[] columns;
+
+        /**
+         * Value of each non zero matrix entry
+         */
+        private final long[] values;
+
+        /**
+         * Original rows combined, ascending
+         */
+        private final int[] indices;
+
+        /**
+         * Positive coefficient of each original row
+         */
+        private final long[] coefficients;
+
+        /**
+         * Original rows combined
+         */
+        private final BitSet support = new BitSet();
+
+        /**
+         * Constructor for an original row
+         * @param columns columns of the non zero matrix entries, ascending
+         * @param values value of each entry
+         * @param index number of the original row
+         */
+        Row(int[] columns, long[] values, int index) {
+            this(columns, values, new int[]{index}, new long[]{1});
+        }
+
+        /**
+         * Constructor
+         * @param columns columns of the non zero matrix entries, ascending
+         * @param values value of each entry
+         * @param indices original rows combined, ascending
+         * @param coefficients coefficient of each original row
+         */
+        private Row(int[] columns, long[] values, int[] indices, long[] coefficients) {
+            this.columns = columns;
+            this.values = values;
+            this.indices = indices;
+            this.coefficients = coefficients;
+            for (int index : indices) {
+                support.set(index);
+            }
+        }
+
+        /**
+         * @param column column number
+         * @return matrix entry in the column
+         */
+        long get(int column) {
+            int i = Arrays.binarySearch(columns, column);
+            return i < 0 ? 0 : values[i];
+        }
+
+        /**
+         * @param p row with a positive entry in the column
+         * @param n row with a negative entry in the column
+         * @param column column to cancel
+         * @return smallest positive combination of the rows with a zero entry in the column
+         */
+        static Row combine(Row p, Row n, int column) {
+            long pFactor = -n.get(column);
+            long nFactor = p.get(column);
+            long divisor = gcd(pFactor, nFactor);
+            pFactor /= divisor;
+            nFactor /= divisor;
+
+            SparseSum matrixPart = SparseSum.of(p.columns, p.values, pFactor, n.columns, n.values, nFactor);
+            SparseSum unitPart = SparseSum.of(p.indices, p.coefficients, pFactor, n.indices, n.coefficients, nFactor);
+            long common = 0;
+            for (int i = 0; i < matrixPart.size; i++) {
+                common = gcd(common, matrixPart.values[i]);
+            }
+            for (int i = 0; i < unitPart.size; i++) {
+                common = gcd(common, unitPart.values[i]);
+            }
+            matrixPart.divide(common);
+            unitPart.divide(common);
+            return new Row(matrixPart.trimmedIndices(), matrixPart.trimmedValues(),
+                    unitPart.trimmedIndices(), unitPart.trimmedValues());
+        }
+
+        /**
+         * @return invariant of the unit part
+         */
+        Invariant toInvariant() {
+            int[] ints = new int[coefficients.length];
+            for (int i = 0; i < ints.length; i++) {
+                if (coefficients[i] > Integer.MAX_VALUE) {
+                    throw new ArithmeticException("Invariant coefficients overflow");
+                }
+                ints[i] = (int) coefficients[i];
+            }
+            return new Invariant(indices, ints);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Row)) {
+                return false;
+            }
+            Row row = (Row) o;
+            return Arrays.equals(indices, row.indices) && Arrays.equals(coefficients, row.coefficients)
+                    && Arrays.equals(columns, row.columns) && Arrays.equals(values, row.values);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Arrays.hashCode(indices) + Arrays.hashCode(coefficients);
+        }
+    }
+
+    /**
+     * Merged sum of two scaled sparse vectors, without zero entries
+     */
+    private static final class SparseSum {
+        /**
+         * Indices of the non zero entries, ascending
+         */
+        private final int[] indices;
+
+        /**
+         * Value of each non zero entry
+         */
+        private final long[] values;
+
+        /**
+         * Number of non zero entries
+         */
+        private int size = 0;
+
+        /**
+         * Constructor
+         * @param capacity maximum number of entries
+         */
+        private SparseSum(int capacity) {
+            indices = new int[capacity];
+            values = new long[capacity];
+        }
+
+        /**
+         * @param aIndices indices of the first vector, ascending
+         * @param aValues values of the first vector
+         * @param aFactor factor of the first vector
+         * @param bIndices indices of the second vector, ascending
+         * @param bValues values of the second vector
+         * @param bFactor factor of the second vector
+         * @return aFactor * a + bFactor * b
+         */
+        static SparseSum of(int[] aIndices, long[] aValues, long aFactor, int[] bIndices, long[] bValues,
+                            long bFactor) {
+            SparseSum sum = new SparseSum(aIndices.length + bIndices.length);
+            int i = 0;
+            int j = 0;
+            while (i < aIndices.length || j < bIndices.length) {
+                int index;
+                long value;
+                if (j == bIndices.length || i < aIndices.length && aIndices[i] < bIndices[j]) {
+                    index = aIndices[i];
+                    value = multiply(aFactor, aValues[i++]);
+                } else if (i == aIndices.length || bIndices[j] < aIndices[i]) {
+                    index = bIndices[j];
+                    value = multiply(bFactor, bValues[j++]);
+                } else {
+                    index = aIndices[i];
+                    value = add(multiply(aFactor, aValues[i++]), multiply(bFactor, bValues[j++]));
+                }
+                if (value != 0) {
+                    sum.indices[sum.size] = index;
+                    sum.values[sum.size++] = value;
+                }
+            }
+            return sum;
+        }
+
+        /**
+         * @param divisor common divisor of every value, ignored if zero
+         */
+        void divide(long divisor) {
+            if (divisor > 1) {
+                for (int i = 0; i < size; i++) {
+                    values[i] /= divisor;
+                }
+            }
+        }
+
+        /**
+         * @return indices of the non zero entries
+         */
+        int[] trimmedIndices() {
+            return Arrays.copyOf(indices, size);
+        }
+
+        /**
+         * @return values of the non zero entries
+         */
+        long[] trimmedValues() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
@@ -0,0 +1,445 @@
+package uk.ac.imperial.pipe.analysis;
+
+import com.google.common.primitives.Doubles;
+import uk.ac.imperial.pipe.models.petrinet.Arc;
+import uk.ac.imperial.pipe.models.petrinet.ArcType;
+import uk.ac.imperial.pipe.models.petrinet.InboundArc;
+import uk.ac.imperial.pipe.models.petrinet.OutboundArc;
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+import uk.ac.imperial.pipe.models.petrinet.Place;
+import uk.ac.imperial.pipe.models.petrinet.Transition;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Structural deadlock check for ordinary Petri nets based on siphons and traps.
+ * <p/>
+ * A siphon is a set of places every input transition of which is also an output transition, so
+ * once empty it stays empty. A trap is a set of places every output transition of which is also
+ * an input transition, so once marked it stays marked. In a dead marking of an ordinary Petri net
+ * the empty places form a siphon, so if every minimal siphon contains an initially marked trap no
+ * reachable marking is dead.
+ * <p/>
+ * Minimal siphons are enumerated by branch and bound: a set grows from a seed place by picking,
+ * for an input transition with no input place in the set, one of its input places, choosing the
+ * transition with the fewest choices. Places already tried on an earlier branch are excluded and
+ * sets containing a siphon already found are pruned. The largest trap in a siphon is found as a
+ * fixed point, and the check stops at the first siphon whose largest trap is unmarked, returning
+ * it as a witness.
+ * <p/>
+ * The check only applies to ordinary Petri nets: a single token, arc weights of one and no
+ * inhibitor arcs or capacities. Timing and priorities do not change whether a marking is dead.
+ */
+public final class SiphonTrapAnalyser {
+    /**
+     * Ids of the places, ordered by id
+     */
+    private final String[] placeIds;
+
+    /**
+     * True for each place holding a token in the initial marking
+     */
+    private final BitSet marked = new BitSet();
+
+    /**
+     * Input places of each transition
+     */
+    private final int[][] transitionInputs;
+
+    /**
+     * Input transitions of each place
+     */
+    private final int[][] placeInputs;
+
+    /**
+     * Output transitions of each place
+     */
+    private final int[][] placeOutputs;
+
+    /**
+     * Output places of each transition
+     */
+    private final BitSet[] transitionOutputs;
+
+    /**
+     * True if the Petri net is ordinary
+     */
+    private final boolean ordinary;
+
+    /**
+     * Constructor, takes a snapshot of the Petri net's structure and current marking
+     * @param petriNet Petri net to check
+     */
+    public SiphonTrapAnalyser(PetriNet petriNet) {
+        Map<String, Place> places = new TreeMap<>();
+        for (Place place : petriNet.getPlaces()) {
+            places.put(place.getId(), place);
+        }
+        Map<String, Transition> transitions = new TreeMap<>();
+        for (Transition transition : petriNet.getTransitions()) {
+            transitions.put(transition.getId(), transition);
+        }
+
+        placeIds = places.keySet().toArray(new String[places.size()]);
+        Map<String, Integer> placeIndices = new HashMap<>();
+        int p = 0;
+        boolean isOrdinary = petriNet.getTokens().size() <= 1;
+        for (Place place : places.values()) {
+            placeIndices.put(place.getId(), p);
+            for (Integer count : place.getTokenCounts().values()) {
+                if (count > 0) {
+                    marked.set(p);
+                }
+            }
+            isOrdinary &= !place.hasCapacityRestriction();
+            p++;
+        }
+        Map<String, Integer> transitionIndices = new HashMap<>();
+        int t = 0;
+        for (String id : transitions.keySet()) {
+            transitionIndices.put(id, t++);
+        }
+
+        List<List<Integer>> inputs = emptyLists(transitions.size());
+        List<List<Integer>> outputs = emptyLists(transitions.size());
+        List<List<Integer>> placeIn = emptyLists(placeIds.length);
+        List<List<Integer>> placeOut = emptyLists(placeIds.length);
+        for (InboundArc arc : petriNet.getInboundArcs()) {
+            isOrdinary &= arc.getType() == ArcType.NORMAL && hasUnitWeight(arc);
+            int place = placeIndices.get(arc.getSource().getId());
+            int transition = transitionIndices.get(arc.getTarget().getId());
+            if (arc.getType() == ArcType.NORMAL) {
+                inputs.get(transition).add(place);
+                placeOut.get(place).add(transition);
+            }
+        }
+        for (OutboundArc arc : petriNet.getOutboundArcs()) {
+            isOrdinary &= hasUnitWeight(arc);
+            int transition = transitionIndices.get(arc.getSource().getId());
+            int place = placeIndices.get(arc.getTarget().getId());
+            outputs.get(transition).add(place);
+            placeIn.get(place).add(transition);
+        }
+        ordinary = isOrdinary;
+
+        transitionInputs = toArrays(inputs);
+        placeInputs = toArrays(placeIn);
+        placeOutputs = toArrays(placeOut);
+        transitionOutputs = new BitSet[transitions.size()];
+        for (t = 0; t < transitionOutputs.length; t++) {
+            transitionOutputs[t] = new BitSet();
+            for (int place : outputs.get(t)) {
+                transitionOutputs[t].set(place);
+            }
+        }
+    }
+
+    /**
+     * @param arc arc to check
+     * @return true if the arc carries exactly one token
+     */
+    private static boolean hasUnitWeight(Arc<?, ?> arc) {
+        double total = 0;
+        for (String weight : arc.getTokenWeights().values()) {
+            Double value = Doubles.tryParse(weight);
+            if (value == null) {
+                return false;
+            }
+            total += value;
+        }
+        return total == 1;
+    }
+
+    /**
+     * @param count number of lists
+     * @return count empty lists
+     */
+    private static List<List<Integer>> emptyLists(int count) {
+        List<List<Integer>> lists = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            lists.add(new ArrayList<Integer>());
+        }
+        return lists;
+    }
+
+    /**
+     * @param lists lists to convert
+     * @return the lists as arrays
+     */
+    private static int[][] toArrays(List<List<Integer>> lists) {
+        int[][] arrays = new int[lists.size()][];
+        for (int i = 0; i < arrays.length; i++) {
+            arrays[i] = new int[lists.get(i).size()];
+            for (int j = 0; j < arrays[i].length; j++) {
+                arrays[i][j] = lists.get(i).get(j);
+            }
+        }
+        return arrays;
+    }
+
+    /**
+     * @return true if the Petri net is ordinary so {@link #check()} can conclude deadlock freedom
+     */
+    public boolean isOrdinary() {
+        return ordinary;
+    }
+
+    /**
+     * Checks whether every minimal siphon contains an initially marked trap
+     *
+     * @return deadlock free, or a siphon without an initially marked trap
+     */
+    public DeadlockCheckResult check() {
+        if (!ordinary) {
+            return new DeadlockCheckResult(DeadlockCheckResult.Verdict.NOT_APPLICABLE, Collections.<String>emptySet());
+        }
+        for (int[] inputs : transitionInputs) {
+            if (inputs.length == 0) {
+                return new DeadlockCheckResult(DeadlockCheckResult.Verdict.DEADLOCK_FREE,
+                        Collections.<String>emptySet());
+            }
+        }
+        if (transitionInputs.length == 0) {
+            return new DeadlockCheckResult(DeadlockCheckResult.Verdict.INCONCLUSIVE, Collections.<String>emptySet());
+        }
+        Search search = new Search(true);
+        search.run();
+        if (search.witness != null) {
+            return new DeadlockCheckResult(DeadlockCheckResult.Verdict.INCONCLUSIVE, toIds(minimise(search.witness)));
+        }
+        return new DeadlockCheckResult(DeadlockCheckResult.Verdict.DEADLOCK_FREE, Collections.<String>emptySet());
+    }
+
+    /**
+     * @return ids of the places of every minimal siphon
+     */
+    public List<Set<String>> getMinimalSiphons() {
+        Search search = new Search(false);
+        search.run();
+        List<Set<String>> siphons = new ArrayList<>();
+        for (BitSet siphon : search.siphons) {
+            if (isMinimal(siphon, search.siphons)) {
+                siphons.add(toIds(siphon));
+            }
+        }
+        return siphons;
+    }
+
+    /**
+     * @param places set of places
+     * @return true if every input transition of the places is also an output transition
+     */
+    public boolean isSiphon(BitSet places) {
+        return findUnsupported(places) < 0;
+    }
+
+    /**
+     * @param places set of places
+     * @return true if every output transition of the places is also an input transition
+     */
+    public boolean isTrap(BitSet places) {
+        return maximalTrap(places).equals(places);
+    }
+
+    /**
+     * @param places set of places
+     * @return ids of the places
+     */
+    private Set<String> toIds(BitSet places) {
+        Set<String> ids = new LinkedHashSet<>();
+        for (int p = places.nextSetBit(0); p >= 0; p = places.nextSetBit(p + 1)) {
+            ids.add(placeIds[p]);
+        }
+        return ids;
+    }
+
+    /**
+     * @param places set of places
+     * @return an input transition of the places with no input place in the set and the fewest
+     * input places, or -1 if the set is a siphon
+     */
+    private int findUnsupported(BitSet places) {
+        int best = -1;
+        for (int p = places.nextSetBit(0); p >= 0; p = places.nextSetBit(p + 1)) {
+            for (int t : placeInputs[p]) {
+                if (!hasInputIn(t, places) && (best < 0 || transitionInputs[t].length < transitionInputs[best].length)) {
+                    best = t;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @param transition transition number
+     * @param places set of places
+     * @return true if one of the transition's input places is in the set
+     */
+    private boolean hasInputIn(int transition, BitSet places) {
+        for (int place : transitionInputs[transition]) {
+            if (places.get(place)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes places with an output transition that puts nothing back into the set until none remain
+     *
+     * @param places set of places
+     * @return largest trap contained in the places
+     */
+    private BitSet maximalTrap(BitSet places) {
+        BitSet trap = (BitSet) places.clone();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int p = trap.nextSetBit(0); p >= 0; p = trap.nextSetBit(p + 1)) {
+                for (int t : placeOutputs[p]) {
+                    if (!transitionOutputs[t].intersects(trap)) {
+                        trap.clear(p);
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+        }
+        return trap;
+    }
+
+    /**
+     * @param siphon siphon without an initially marked trap
+     * @return a minimal siphon within it, which has no initially marked trap either
+     */
+    private BitSet minimise(BitSet siphon) {
+        BitSet result = (BitSet) siphon.clone();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int p = result.nextSetBit(0); p >= 0; p = result.nextSetBit(p + 1)) {
+                result.clear(p);
+                if (result.isEmpty() || !isSiphon(result)) {
+                    result.set(p);
+                } else {
+                    changed = true;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param siphon siphon found
+     * @param siphons every siphon found
+     * @return true if no other siphon found is a strict subset
+     */
+    private static boolean isMinimal(BitSet siphon, List<BitSet> siphons) {
+        for (BitSet other : siphons) {
+            if (other != siphon && !other.equals(siphon) && isSubset(other, siphon)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param subset candidate subset
+     * @param set candidate superset
+     * @return true if every bit of subset is in set
+     */
+    private static boolean isSubset(BitSet subset, BitSet set) {
+        BitSet remaining = (BitSet) subset.clone();
+        remaining.andNot(set);
+        return remaining.isEmpty();
+    }
+
+    /**
+     * Branch and bound enumeration of siphons
+     */
+    private final class Search {
+        /**
+         * True to stop at the first siphon without an initially marked trap
+         */
+        private final boolean stopAtWitness;
+
+        /**
+         * Siphons found, each containing no siphon found before it
+         */
+        private final List<BitSet> siphons = new ArrayList<>();
+
+        /**
+         * First siphon found without an initially marked trap
+         */
+        private BitSet witness;
+
+        /**
+         * Constructor
+         * @param stopAtWitness true to stop at the first siphon without an initially marked trap
+         */
+        Search(boolean stopAtWitness) {
+            this.stopAtWitness = stopAtWitness;
+        }
+
+        /**
+         * Searches from every place, excluding the places seeded before it
+         */
+        void run() {
+            BitSet excluded = new BitSet();
+            for (int p = 0; p < placeIds.length && !isStopped(); p++) {
+                BitSet seed = new BitSet();
+                seed.set(p);
+                grow(seed, excluded);
+                excluded.set(p);
+            }
+        }
+
+        /**
+         * @return true once a witness has been found and the search should stop
+         */
+        private boolean isStopped() {
+            return stopAtWitness && witness != null;
+        }
+
+        /**
+         * @param places set being grown into a siphon
+         * @param excluded places that may not be added
+         */
+        private void grow(BitSet places, BitSet excluded) {
+            for (BitSet siphon : siphons) {
+                if (isSubset(siphon, places)) {
+                    return;
+                }
+            }
+            int transition = findUnsupported(places);
+            if (transition < 0) {
+                siphons.add(places);
+                if (!maximalTrap(places).intersects(marked)) {
+                    witness = places;
+                }
+                return;
+            }
+            BitSet branchExcluded = (BitSet) excluded.clone();
+            for (int place : transitionInputs[transition]) {
+                if (isStopped()) {
+                    return;
+                }
+                if (!branchExcluded.get(place)) {
+                    BitSet next = (BitSet) places.clone();
+                    next.set(place);
+                    grow(next, branchExcluded);
+                    branchExcluded = (BitSet) branchExcluded.clone();
+                    branchExcluded.set(place);
+                }
+            }
+        }
+    }
+}
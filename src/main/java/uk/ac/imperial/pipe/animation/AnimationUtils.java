@@ -6,6 +6,9 @@ import uk.ac.imperial.pipe.models.petrinet.PetriNet;
 import uk.ac.imperial.state.HashedStateBuilder;
 import uk.ac.imperial.state.State;
 
+import java.util.BitSet;
+import java.util.Random;
+
 /**
  * Utility class for useful static methods for animation
  */
@@ -30,4 +33,21 @@ public final class AnimationUtils {
         return builder.build();
     }
 
+    /**
+     * @param set set of transition numbers
+     * @param random source of randomness
+     * @return a uniformly chosen member of the set or -1 if it is empty
+     */
+    static int randomMember(BitSet set, Random random) {
+        int size = set.cardinality();
+        if (size == 0) {
+            return -1;
+        }
+        int member = set.nextSetBit(0);
+        for (int skip = random.nextInt(size); skip > 0; skip--) {
+            member = set.nextSetBit(member + 1);
+        }
+        return member;
+    }
+
 }
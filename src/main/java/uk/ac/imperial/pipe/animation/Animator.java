@@ -2,6 +2,7 @@ package uk.ac.imperial.pipe.animation;
 
 import uk.ac.imperial.pipe.models.petrinet.Transition;
 
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -52,14 +53,65 @@ public interface Animator {
      */
     void fireTransition(Transition transition);
 
+    /**
+     * Fires the transitions in order against an internal marking, skipping any that are not
+     * enabled when their turn comes. The resulting marking is applied to each changed place once,
+     * followed by a single {@link uk.ac.imperial.pipe.models.petrinet.PetriNet#MARKING_CHANGE_MESSAGE}.
+     * Each firing is recorded and can be undone individually.
+     *
+     * @param transitions transitions to fire
+     * @return number of transitions fired
+     */
+    int fireSequence(List<Transition> transitions);
+
+    /**
+     * Fires randomly chosen enabled transitions against an internal marking, stopping early
+     * if none are enabled, and applies the result like {@link #fireSequence(List)}
+     *
+     * @param steps number of transitions to fire
+     * @return number of transitions fired
+     */
+    int fireRandom(int steps);
+
     /**
      * Removes tokens from places out of the transition
      * Adds tokens to the places into the transition according to the arc weight
      * Enables fired transition
+     * <p/>
+     * If the transition was the last recorded firing this is the same as {@link #undo()}. Otherwise
+     * a state the transition could have fired in to reach the current state is worked out, with arc
+     * weights evaluated against that earlier state, and the backward firing is recorded as a step
+     * of its own that can be undone and redone
      *
+     * @throws IllegalStateException if the transition cannot have fired into the current state
      * @param transition transition to fire backwards
      */
-    // TODO: NOT SURE IF BETTER TO JUST HAVE UNDO/REDO IN ANIMATION HISTORY? HAVE TO STORE ENTIRE PETRI
-    //       NET STATES SO MAYBE NOT?
     void fireTransitionBackwards(Transition transition);
+
+    /**
+     * Reverts the last firing by replaying its recorded token changes backwards,
+     * without evaluating any arc weights
+     *
+     * @return true if there was a firing to undo
+     */
+    boolean undo();
+
+    /**
+     * Reapplies the last undone firing from its recorded token changes
+     *
+     * @return true if there was a firing to redo
+     */
+    boolean redo();
+
+    /**
+     * Undoes or redoes firings until the given number of recorded firings is applied
+     *
+     * @param step number of firings to have applied, between 0 and the number recorded
+     */
+    void jumpTo(int step);
+
+    /**
+     * @return number of recorded firings currently applied
+     */
+    int getStep();
 }
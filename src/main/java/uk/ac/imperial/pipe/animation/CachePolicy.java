@@ -0,0 +1,114 @@
+package uk.ac.imperial.pipe.animation;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Describes how the animation logic caches results per state.
+ * <p/>
+ * Caches built from a policy always record statistics so that hit, miss and eviction counts
+ * can be inspected to decide whether memory is better spent on the cache or on recomputation.
+ * Size bounds count entries rather than bytes, see {@link PetriNetAnimationLogic#getCacheSize()}
+ * for what each entry keeps alive.
+ */
+public final class CachePolicy {
+    /**
+     * Value of maximumSize when the cache is not size bounded
+     */
+    private static final long UNBOUNDED = -1;
+
+    /**
+     * How values are referenced by the cache
+     */
+    private enum References {
+        STRONG, SOFT, WEAK
+    }
+
+    /**
+     * Maximum number of entries, or {@link #UNBOUNDED}
+     */
+    private final long maximumSize;
+
+    /**
+     * How values are referenced by the cache
+     */
+    private final References references;
+
+    /**
+     * Constructor
+     * @param maximumSize maximum number of entries, or {@link #UNBOUNDED}
+     * @param references how values are referenced by the cache
+     */
+    private CachePolicy(long maximumSize, References references) {
+        this.maximumSize = maximumSize;
+        this.references = references;
+    }
+
+    /**
+     * @return policy that keeps every entry until the cache is cleared
+     */
+    public static CachePolicy unbounded() {
+        return new CachePolicy(UNBOUNDED, References.STRONG);
+    }
+
+    /**
+     * @param maximumSize maximum number of entries to keep
+     * @return policy that evicts the least recently used entries once maximumSize is reached
+     */
+    public static CachePolicy maximumSize(long maximumSize) {
+        if (maximumSize < 0) {
+            throw new IllegalArgumentException("Maximum size cannot be negative: " + maximumSize);
+        }
+        return new CachePolicy(maximumSize, References.STRONG);
+    }
+
+    /**
+     * @return policy whose values may be reclaimed by the garbage collector in response to memory demand
+     */
+    public static CachePolicy softValues() {
+        return new CachePolicy(UNBOUNDED, References.SOFT);
+    }
+
+    /**
+     * @return policy whose values are reclaimed as soon as nothing else references them
+     */
+    public static CachePolicy weakValues() {
+        return new CachePolicy(UNBOUNDED, References.WEAK);
+    }
+
+    /**
+     * @return policy that never keeps an entry, every lookup is recomputed
+     */
+    public static CachePolicy disabled() {
+        return new CachePolicy(0, References.STRONG);
+    }
+
+    /**
+     * @param <K> key type
+     * @param <V> value type
+     * @return new empty thread safe cache following this policy
+     */
+    public <K, V> Cache<K, V> build() {
+        CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder().recordStats();
+        if (maximumSize != UNBOUNDED) {
+            builder.maximumSize(maximumSize);
+        }
+        switch (references) {
+            case SOFT:
+                builder.softValues();
+                break;
+            case WEAK:
+                builder.weakValues();
+                break;
+            default:
+                break;
+        }
+        return builder.build();
+    }
+
+    @Override
+    public String toString() {
+        return "CachePolicy{maximumSize=" + (maximumSize == UNBOUNDED ? "unbounded" : maximumSize) + ", values="
+                + references.name().toLowerCase() + "}";
+    }
+}
@@ -0,0 +1,1151 @@
+package uk.ac.imperial.pipe.animation;
+
+import uk.ac.imperial.pipe.models.petrinet.ArcType;
+import uk.ac.imperial.pipe.models.petrinet.InboundArc;
+import uk.ac.imperial.pipe.models.petrinet.OutboundArc;
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+import uk.ac.imperial.pipe.models.petrinet.PetriNetComponent;
+import uk.ac.imperial.pipe.models.petrinet.Place;
+import uk.ac.imperial.pipe.models.petrinet.Token;
+import uk.ac.imperial.pipe.models.petrinet.Transition;
+import uk.ac.imperial.pipe.parsers.CompiledExpression;
+import uk.ac.imperial.pipe.parsers.ExpressionContext;
+import uk.ac.imperial.state.State;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Immutable, integer indexed snapshot of a Petri net's structure used to implement the
+ * firing rule with array loops rather than id based map lookups.
+ * <p/>
+ * Places, tokens and transitions are numbered in order of their id so that two snapshots of
+ * equal Petri nets share the same numbering. A marking is an int array of
+ * {@link #getMarkingSize()} cells where the count of token k in place p is stored at
+ * {@link #cell(int, int)}.
+ * <p/>
+ * The pre (inbound) and post (outbound) incidence of each transition is stored in compressed
+ * sparse row form, one entry per (arc, token) pair. Constant arc weights are resolved when the
+ * snapshot is taken, functional weights are kept as compiled expressions and evaluated against
+ * the marking being fired.
+ * <p/>
+ * A dependency graph records, for each transition, the transitions whose enabling or rate may
+ * change when it fires. These are the transitions reading a place the fired transition consumes
+ * from or produces into, through a normal, inhibitor or capacity restricted arc or through a place
+ * referenced by one of their functional weights or their rate. It allows the enabled transitions
+ * of a successor to be derived from those of its parent by rechecking only the affected transitions.
+ * <p/>
+ * Changes made to the Petri net after the snapshot was taken are not reflected in it,
+ * {@link #isCurrent()} tells whether any have been made.
+ */
+public final class CompiledPetriNet {
+    /**
+     * Weight stored for an incidence entry whose weight is a functional expression
+     */
+    public static final int FUNCTIONAL_WEIGHT = -1;
+
+    /**
+     * Marking value treated as an infinite number of tokens
+     */
+    public static final int INFINITY = Integer.MAX_VALUE;
+
+    /**
+     * Most guesses {@link #unfire(int, int[])} makes before giving up
+     */
+    private static final int MAXIMUM_UNFIRE_GUESSES = 64;
+
+    /**
+     * Orders components by their id
+     */
+    private static final Comparator<PetriNetComponent> BY_ID = new Comparator<PetriNetComponent>() {
+        @Override
+        public int compare(PetriNetComponent o1, PetriNetComponent o2) {
+            return o1.getId().compareTo(o2.getId());
+        }
+    };
+
+    /**
+     * Petri net this snapshot was compiled from
+     */
+    private final PetriNet petriNet;
+
+    /**
+     * Structure version of the Petri net when the snapshot was taken
+     */
+    private final long structureVersion;
+
+    /**
+     * Places indexed by place number
+     */
+    private final Place[] places;
+
+    /**
+     * Token ids indexed by token number
+     */
+    private final String[] tokenIds;
+
+    /**
+     * Transitions indexed by transition number
+     */
+    private final Transition[] transitions;
+
+    /**
+     * Place id -> place number
+     */
+    private final Map<String, Integer> placeIndices = new HashMap<>();
+
+    /**
+     * Token id -> token number
+     */
+    private final Map<String, Integer> tokenIndices = new HashMap<>();
+
+    /**
+     * Transition id -> transition number
+     */
+    private final Map<String, Integer> transitionIndices = new HashMap<>();
+
+    /**
+     * Capacity of each place, 0 for no restriction
+     */
+    private final int[] capacities;
+
+    /**
+     * True if the transition is timed
+     */
+    private final boolean[] timed;
+
+    /**
+     * Priority of each transition
+     */
+    private final int[] priorities;
+
+    /**
+     * True if the transition has infinite server semantics
+     */
+    private final boolean[] infiniteServer;
+
+    /**
+     * Compiled rate, or weight for immediate transitions, of each transition
+     */
+    private final CompiledExpression[] rateExpression;
+
+    /**
+     * Rate of each transition whose rate is a constant, NaN otherwise
+     */
+    private final double[] constantRate;
+
+    /**
+     * Pre incidence entries of transition t are preStart[t] to preStart[t + 1] - 1
+     */
+    private final int[] preStart;
+
+    /**
+     * Marking cell each pre incidence entry consumes from
+     */
+    private final int[] preCell;
+
+    /**
+     * Constant weight of each pre incidence entry, or {@link #FUNCTIONAL_WEIGHT}
+     */
+    private final int[] preWeight;
+
+    /**
+     * Compiled weight of each functional pre incidence entry
+     */
+    private final CompiledExpression[] preExpression;
+
+    /**
+     * Post incidence entries of transition t are postStart[t] to postStart[t + 1] - 1
+     */
+    private final int[] postStart;
+
+    /**
+     * Marking cell each post incidence entry produces into
+     */
+    private final int[] postCell;
+
+    /**
+     * Constant weight of each post incidence entry, or {@link #FUNCTIONAL_WEIGHT}
+     */
+    private final int[] postWeight;
+
+    /**
+     * Compiled weight of each functional post incidence entry
+     */
+    private final CompiledExpression[] postExpression;
+
+    /**
+     * Inhibitor places of transition t are inhibitorPlace[inhibitorStart[t]] to
+     * inhibitorPlace[inhibitorStart[t + 1] - 1]
+     */
+    private final int[] inhibitorStart;
+
+    /**
+     * Place number of each inhibitor arc
+     */
+    private final int[] inhibitorPlace;
+
+    /**
+     * Capacity restricted output places of transition t are capacityPlace[capacityStart[t]] to
+     * capacityPlace[capacityStart[t + 1] - 1]
+     */
+    private final int[] capacityStart;
+
+    /**
+     * Place number of each capacity restricted output place
+     */
+    private final int[] capacityPlace;
+
+    /**
+     * Transitions affected by firing transition t are affected[affectedStart[t]] to
+     * affected[affectedStart[t + 1] - 1]
+     */
+    private final int[] affectedStart;
+
+    /**
+     * Transition number of each affected transition
+     */
+    private final int[] affected;
+
+    /**
+     * Transitions that are immediate
+     */
+    private final BitSet immediateMask = new BitSet();
+
+    /**
+     * Immediate transitions grouped by priority, highest priority first
+     */
+    private final BitSet[] priorityMasks;
+
+    /**
+     * Takes a snapshot of the Petri net's current structure
+     *
+     * @param petriNet Petri net to compile
+     */
+    public CompiledPetriNet(PetriNet petriNet) {
+        this.petriNet = petriNet;
+        structureVersion = petriNet.getStructureVersion();
+        places = sorted(petriNet.getPlaces()).toArray(new Place[0]);
+        List<Token> tokens = sorted(petriNet.getTokens());
+        transitions = sorted(petriNet.getTransitions()).toArray(new Transition[0]);
+
+        tokenIds = new String[tokens.size()];
+        for (int k = 0; k < tokenIds.length; k++) {
+            tokenIds[k] = tokens.get(k).getId();
+            tokenIndices.put(tokenIds[k], k);
+        }
+
+        capacities = new int[places.length];
+        for (int p = 0; p < places.length; p++) {
+            placeIndices.put(places[p].getId(), p);
+            capacities[p] = places[p].hasCapacityRestriction() ? places[p].getCapacity() : 0;
+        }
+
+        timed = new boolean[transitions.length];
+        priorities = new int[transitions.length];
+        infiniteServer = new boolean[transitions.length];
+        rateExpression = new CompiledExpression[transitions.length];
+        constantRate = new double[transitions.length];
+        preStart = new int[transitions.length + 1];
+        postStart = new int[transitions.length + 1];
+        inhibitorStart = new int[transitions.length + 1];
+        capacityStart = new int[transitions.length + 1];
+
+        IncidenceBuilder pre = new IncidenceBuilder();
+        IncidenceBuilder post = new IncidenceBuilder();
+        List<Integer> inhibitors = new ArrayList<>();
+        List<Integer> capacityRestricted = new ArrayList<>();
+        for (int t = 0; t < transitions.length; t++) {
+            Transition transition = transitions[t];
+            transitionIndices.put(transition.getId(), t);
+            timed[t] = transition.isTimed();
+            priorities[t] = transition.getPriority();
+            infiniteServer[t] = transition.isInfiniteServer();
+            rateExpression[t] = petriNet.getExpressionCache().get(transition.getRateExpr());
+            constantRate[t] = rateExpression[t].isConstant() && !rateExpression[t].hasErrors() ?
+                    rateExpression[t].getConstantValue() : Double.NaN;
+
+            for (InboundArc arc : sorted(petriNet.inboundArcs(transition))) {
+                int place = placeIndices.get(arc.getSource().getId());
+                if (arc.getType() == ArcType.INHIBITOR) {
+                    inhibitors.add(place);
+                } else {
+                    pre.add(place, arc.getTokenWeights());
+                }
+            }
+            for (OutboundArc arc : sorted(petriNet.outboundArcs(transition))) {
+                int place = placeIndices.get(arc.getTarget().getId());
+                post.add(place, arc.getTokenWeights());
+                if (capacities[place] > 0) {
+                    capacityRestricted.add(place);
+                }
+            }
+            preStart[t + 1] = pre.size();
+            postStart[t + 1] = post.size();
+            inhibitorStart[t + 1] = inhibitors.size();
+            capacityStart[t + 1] = capacityRestricted.size();
+        }
+
+        preCell = pre.cells();
+        preWeight = pre.weights();
+        preExpression = pre.expressions();
+        postCell = post.cells();
+        postWeight = post.weights();
+        postExpression = post.expressions();
+        inhibitorPlace = toArray(inhibitors);
+        capacityPlace = toArray(capacityRestricted);
+
+        affectedStart = new int[transitions.length + 1];
+        List<Integer> affectedTransitions = new ArrayList<>();
+        List<Set<Integer>> readers = getPlaceReaders();
+        for (int t = 0; t < transitions.length; t++) {
+            Set<Integer> dependents = new TreeSet<>();
+            for (int i = preStart[t]; i < preStart[t + 1]; i++) {
+                dependents.addAll(readers.get(placeOfCell(preCell[i])));
+            }
+            for (int i = postStart[t]; i < postStart[t + 1]; i++) {
+                dependents.addAll(readers.get(placeOfCell(postCell[i])));
+            }
+            affectedTransitions.addAll(dependents);
+            affectedStart[t + 1] = affectedTransitions.size();
+        }
+        affected = toArray(affectedTransitions);
+
+        TreeMap<Integer, BitSet> byPriority = new TreeMap<>(Collections.reverseOrder());
+        for (int t = 0; t < transitions.length; t++) {
+            if (!timed[t]) {
+                immediateMask.set(t);
+                if (!byPriority.containsKey(priorities[t])) {
+                    byPriority.put(priorities[t], new BitSet(transitions.length));
+                }
+                byPriority.get(priorities[t]).set(t);
+            }
+        }
+        priorityMasks = byPriority.values().toArray(new BitSet[byPriority.size()]);
+    }
+
+    /**
+     * @return for each place number the transitions whose enabling depends on the places marking
+     */
+    private List<Set<Integer>> getPlaceReaders() {
+        List<Set<Integer>> readers = new ArrayList<>(places.length);
+        for (int p = 0; p < places.length; p++) {
+            readers.add(new TreeSet<Integer>());
+        }
+        for (int t = 0; t < transitions.length; t++) {
+            for (int i = preStart[t]; i < preStart[t + 1]; i++) {
+                readers.get(placeOfCell(preCell[i])).add(t);
+                addExpressionReaders(t, preExpression[i], readers);
+            }
+            for (int i = postStart[t]; i < postStart[t + 1]; i++) {
+                addExpressionReaders(t, postExpression[i], readers);
+            }
+            addExpressionReaders(t, rateExpression[t], readers);
+            for (int i = inhibitorStart[t]; i < inhibitorStart[t + 1]; i++) {
+                readers.get(inhibitorPlace[i]).add(t);
+            }
+            for (int i = capacityStart[t]; i < capacityStart[t + 1]; i++) {
+                readers.get(capacityPlace[i]).add(t);
+            }
+        }
+        return readers;
+    }
+
+    /**
+     * Registers the transition as a reader of every place the functional weight refers to
+     *
+     * @param transition transition number
+     * @param expression functional weight, may be null for constant weights
+     * @param readers place number -> transitions reading the place
+     */
+    private void addExpressionReaders(int transition, CompiledExpression expression, List<Set<Integer>> readers) {
+        if (expression == null) {
+            return;
+        }
+        for (String placeId : expression.getMarkingPlaces()) {
+            int place = getPlaceIndex(placeId);
+            if (place >= 0) {
+                readers.get(place).add(transition);
+            }
+        }
+    }
+
+    /**
+     * @param components components to sort
+     * @param <T> component type
+     * @return components ordered by id
+     */
+    private static <T extends PetriNetComponent> List<T> sorted(Collection<T> components) {
+        List<T> result = new ArrayList<>(components);
+        Collections.sort(result, BY_ID);
+        return result;
+    }
+
+    /**
+     * @param values boxed values
+     * @return unboxed array
+     */
+    private static int[] toArray(List<Integer> values) {
+        int[] result = new int[values.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = values.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * @return Petri net this snapshot was compiled from
+     */
+    public PetriNet getPetriNet() {
+        return petriNet;
+    }
+
+    /**
+     * @return number of places
+     */
+    public int getPlaceCount() {
+        return places.length;
+    }
+
+    /**
+     * @return number of tokens
+     */
+    public int getTokenCount() {
+        return tokenIds.length;
+    }
+
+    /**
+     * @return number of transitions
+     */
+    public int getTransitionCount() {
+        return transitions.length;
+    }
+
+    /**
+     * @return number of cells in a marking, that is places * tokens
+     */
+    public int getMarkingSize() {
+        return places.length * tokenIds.length;
+    }
+
+    /**
+     * @param place place number
+     * @param token token number
+     * @return marking cell holding the count of the token in the place
+     */
+    public int cell(int place, int token) {
+        return place * tokenIds.length + token;
+    }
+
+    /**
+     * @param cell marking cell
+     * @return place number of the cell
+     */
+    public int placeOfCell(int cell) {
+        return cell / tokenIds.length;
+    }
+
+    /**
+     * @param cell marking cell
+     * @return token number of the cell
+     */
+    public int tokenOfCell(int cell) {
+        return cell % tokenIds.length;
+    }
+
+    /**
+     * @param place place number
+     * @return place
+     */
+    public Place getPlace(int place) {
+        return places[place];
+    }
+
+    /**
+     * @param placeId id of the place
+     * @return place number or -1 if the place is not in the snapshot
+     */
+    public int getPlaceIndex(String placeId) {
+        Integer index = placeIndices.get(placeId);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * @param token token number
+     * @return token id
+     */
+    public String getTokenId(int token) {
+        return tokenIds[token];
+    }
+
+    /**
+     * @param tokenId id of the token
+     * @return token number or -1 if the token is not in the snapshot
+     */
+    public int getTokenIndex(String tokenId) {
+        Integer index = tokenIndices.get(tokenId);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * @param transition transition number
+     * @return transition
+     */
+    public Transition getTransition(int transition) {
+        return transitions[transition];
+    }
+
+    /**
+     * @param transition transition of the Petri net
+     * @return transition number or -1 if the transition is not in the snapshot
+     */
+    public int getTransitionIndex(Transition transition) {
+        Integer index = transitionIndices.get(transition.getId());
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * @param place place number
+     * @return capacity of the place, 0 if it has no capacity restriction
+     */
+    public int getCapacity(int place) {
+        return capacities[place];
+    }
+
+    /**
+     * @param transition transition number
+     * @return true if the transition is timed
+     */
+    public boolean isTimed(int transition) {
+        return timed[transition];
+    }
+
+    /**
+     * @param transition transition number
+     * @return priority of the transition
+     */
+    public int getPriority(int transition) {
+        return priorities[transition];
+    }
+
+    /**
+     * @param transition transition number
+     * @return true if the transition has infinite server semantics
+     */
+    public boolean isInfiniteServer(int transition) {
+        return infiniteServer[transition];
+    }
+
+    /**
+     * @param transition transition number
+     * @return index of the transitions first pre incidence entry
+     */
+    public int preStart(int transition) {
+        return preStart[transition];
+    }
+
+    /**
+     * @param transition transition number
+     * @return index one past the transitions last pre incidence entry
+     */
+    public int preEnd(int transition) {
+        return preStart[transition + 1];
+    }
+
+    /**
+     * @param entry pre incidence entry
+     * @return marking cell the entry consumes from
+     */
+    public int preCell(int entry) {
+        return preCell[entry];
+    }
+
+    /**
+     * @param entry pre incidence entry
+     * @return constant weight of the entry or {@link #FUNCTIONAL_WEIGHT}
+     */
+    public int preWeight(int entry) {
+        return preWeight[entry];
+    }
+
+    /**
+     * @param entry pre incidence entry
+     * @return compiled functional weight of the entry, null if the weight is constant
+     */
+    public CompiledExpression preExpression(int entry) {
+        return preExpression[entry];
+    }
+
+    /**
+     * @param transition transition number
+     * @return index of the transitions first post incidence entry
+     */
+    public int postStart(int transition) {
+        return postStart[transition];
+    }
+
+    /**
+     * @param transition transition number
+     * @return index one past the transitions last post incidence entry
+     */
+    public int postEnd(int transition) {
+        return postStart[transition + 1];
+    }
+
+    /**
+     * @param entry post incidence entry
+     * @return marking cell the entry produces into
+     */
+    public int postCell(int entry) {
+        return postCell[entry];
+    }
+
+    /**
+     * @param entry post incidence entry
+     * @return constant weight of the entry or {@link #FUNCTIONAL_WEIGHT}
+     */
+    public int postWeight(int entry) {
+        return postWeight[entry];
+    }
+
+    /**
+     * @param entry post incidence entry
+     * @return compiled functional weight of the entry, null if the weight is constant
+     */
+    public CompiledExpression postExpression(int entry) {
+        return postExpression[entry];
+    }
+
+    /**
+     * @param transition transition number
+     * @return place numbers of the transitions inhibitor arcs
+     */
+    public int[] inhibitorPlaces(int transition) {
+        return Arrays.copyOfRange(inhibitorPlace, inhibitorStart[transition], inhibitorStart[transition + 1]);
+    }
+
+    /**
+     * @param transition transition number
+     * @return place numbers of the capacity restricted places the transition produces into
+     */
+    public int[] capacityPlaces(int transition) {
+        return Arrays.copyOfRange(capacityPlace, capacityStart[transition], capacityStart[transition + 1]);
+    }
+
+    /**
+     * @param transition transition number
+     * @return index of the first transition affected by firing the transition
+     */
+    public int affectedStart(int transition) {
+        return affectedStart[transition];
+    }
+
+    /**
+     * @param transition transition number
+     * @return index one past the last transition affected by firing the transition
+     */
+    public int affectedEnd(int transition) {
+        return affectedStart[transition + 1];
+    }
+
+    /**
+     * @param entry affected transition entry
+     * @return number of the transition whose enabling may change
+     */
+    public int affected(int entry) {
+        return affected[entry];
+    }
+
+    /**
+     * @return true if any arc weight is a functional expression
+     */
+    public boolean hasFunctionalWeights() {
+        for (CompiledExpression expression : preExpression) {
+            if (expression != null) {
+                return true;
+            }
+        }
+        for (CompiledExpression expression : postExpression) {
+            if (expression != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param entry pre incidence entry
+     * @param marking marking the transition fires in
+     * @return weight of the entry in the marking
+     */
+    public double preWeight(int entry, int[] marking) {
+        int weight = preWeight[entry];
+        return weight == FUNCTIONAL_WEIGHT ? evaluate(preExpression[entry], marking) : weight;
+    }
+
+    /**
+     * @param entry post incidence entry
+     * @param marking marking the transition fires in
+     * @return weight of the entry in the marking
+     */
+    public double postWeight(int entry, int[] marking) {
+        int weight = postWeight[entry];
+        return weight == FUNCTIONAL_WEIGHT ? evaluate(postExpression[entry], marking) : weight;
+    }
+
+    /**
+     * Evaluates the rate of a transition in the same way as
+     * {@link Transition#getActualRate(PetriNet, State)}, an infinite server transition's rate
+     * is multiplied by its enabling degree. For immediate transitions this is their weight.
+     *
+     * @param transition transition number
+     * @param marking marking the transition is enabled in
+     * @return rate of the transition in the marking
+     */
+    public double getRate(int transition, int[] marking) {
+        double rate = constantRate[transition];
+        if (Double.isNaN(rate)) {
+            CompiledExpression expression = rateExpression[transition];
+            if (expression.hasErrors() || !expression.allComponentsIn(petriNet)) {
+                throw new RuntimeException("Could not parse rate " + expression.getExpression());
+            }
+            rate = expression.evaluate(new MarkingContext(marking));
+            if (rate < 0) {
+                throw new RuntimeException("Rate " + expression.getExpression() + " cannot be less than zero");
+            }
+        }
+        return infiniteServer[transition] ? rate * getEnablingDegree(transition, marking) : rate;
+    }
+
+    /**
+     * The enabling degree is the number of times the transition could fire concurrently,
+     * limited by the input place with the fewest multiples of its arc weight
+     *
+     * @param transition transition number
+     * @param marking marking to check
+     * @return enabling degree of the transition, {@link Integer#MAX_VALUE} if it has no input places
+     */
+    public int getEnablingDegree(int transition, int[] marking) {
+        int degree = Integer.MAX_VALUE;
+        for (int i = preStart[transition]; i < preStart[transition + 1]; i++) {
+            int required = (int) Math.floor(preWeight(i, marking));
+            int current = required == 0 ? 0 : marking[preCell[i]] / required;
+            degree = Math.min(degree, current);
+        }
+        return degree;
+    }
+
+    /**
+     * Works out if a transition is enabled. This means that
+     * a) places connected by an incoming arc have enough tokens to fire
+     * b) places connected by an inhibitor arc are empty
+     * c) places connected by an outgoing arc have enough capacity for the new tokens
+     *
+     * @param transition transition number
+     * @param marking marking to check
+     * @return true if the transition is enabled in the marking
+     */
+    public boolean isEnabled(int transition, int[] marking) {
+        for (int i = preStart[transition]; i < preStart[transition + 1]; i++) {
+            int count = marking[preCell[i]];
+            if (count < preWeight(i, marking) && count != -1) {
+                return false;
+            }
+        }
+        for (int i = inhibitorStart[transition]; i < inhibitorStart[transition + 1]; i++) {
+            if (getTotalTokens(inhibitorPlace[i], marking) != 0) {
+                return false;
+            }
+        }
+        for (int i = capacityStart[transition]; i < capacityStart[transition + 1]; i++) {
+            if (!hasCapacityFor(transition, capacityPlace[i], marking)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param transition transition number
+     * @param place capacity restricted output place
+     * @param marking marking the transition fires in
+     * @return true if firing will not overflow the capacity of the place
+     */
+    private boolean hasCapacityFor(int transition, int place, int[] marking) {
+        int tokensIn = 0;
+        for (int i = postStart[transition]; i < postStart[transition + 1]; i++) {
+            if (placeOfCell(postCell[i]) == place) {
+                tokensIn += postWeight(i, marking);
+            }
+        }
+        int tokensOut = 0;
+        for (int i = preStart[transition]; i < preStart[transition + 1]; i++) {
+            if (placeOfCell(preCell[i]) == place) {
+                tokensOut += preWeight(i, marking);
+            }
+        }
+        return getTotalTokens(place, marking) + tokensIn - tokensOut <= capacities[place];
+    }
+
+    /**
+     * @param marking marking to check
+     * @return transition numbers of every transition enabled in the marking, before timing and
+     * priority rules are applied
+     */
+    public BitSet enabledTransitions(int[] marking) {
+        BitSet enabled = new BitSet(transitions.length);
+        for (int t = 0; t < transitions.length; t++) {
+            if (isEnabled(t, marking)) {
+                enabled.set(t);
+            }
+        }
+        return enabled;
+    }
+
+    /**
+     * Derives the enabled transitions of a successor from those of its parent, only rechecking
+     * transitions affected by the firing
+     *
+     * @param fired transition number fired in the parent marking
+     * @param successor marking reached by firing the transition
+     * @param parentEnabled enabled transitions of the parent marking, left unchanged
+     * @return transition numbers of every transition enabled in the successor, before timing and
+     * priority rules are applied
+     */
+    public BitSet enabledTransitions(int fired, int[] successor, BitSet parentEnabled) {
+        BitSet enabled = (BitSet) parentEnabled.clone();
+        for (int i = affectedStart[fired]; i < affectedStart[fired + 1]; i++) {
+            int transition = affected[i];
+            enabled.set(transition, isEnabled(transition, successor));
+        }
+        return enabled;
+    }
+
+    /**
+     * Applies the timing and priority rules to a set of enabled transitions without allocating.
+     * If any immediate transition is enabled, timed transitions cannot fire and only the enabled
+     * immediate transitions of the highest priority remain.
+     *
+     * @param enabled transition numbers enabled before timing and priority rules are applied, left unchanged
+     * @param result cleared and filled with the transitions allowed to fire, may not be enabled
+     */
+    public void filterEnabled(BitSet enabled, BitSet result) {
+        result.clear();
+        result.or(enabled);
+        if (!enabled.intersects(immediateMask)) {
+            return;
+        }
+        for (BitSet mask : priorityMasks) {
+            if (enabled.intersects(mask)) {
+                result.and(mask);
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param enabled transition numbers
+     * @return true if any of the transitions are immediate
+     */
+    public boolean containsImmediate(BitSet enabled) {
+        return enabled.intersects(immediateMask);
+    }
+
+    /**
+     * @param place place number
+     * @param marking marking
+     * @return total number of tokens of every colour in the place
+     */
+    public int getTotalTokens(int place, int[] marking) {
+        int count = 0;
+        int start = place * tokenIds.length;
+        for (int cell = start; cell < start + tokenIds.length; cell++) {
+            count += marking[cell];
+        }
+        return count;
+    }
+
+    /**
+     * Fires the transition, writing the successor marking into successor.
+     * <p/>
+     * All weights are evaluated against the marking before firing, so for example if
+     * P0 -> T0 -> P1 and T0 -> P1 has a weight of #(P0) then #(P0) refers to the number of
+     * tokens before firing. Counts of {@link #INFINITY} are left unchanged.
+     *
+     * @param transition transition number, must be enabled in the marking
+     * @param marking marking to fire in, left unchanged
+     * @param successor array of {@link #getMarkingSize()} cells to write the successor into, may not be marking
+     */
+    public void fire(int transition, int[] marking, int[] successor) {
+        System.arraycopy(marking, 0, successor, 0, marking.length);
+        for (int i = preStart[transition]; i < preStart[transition + 1]; i++) {
+            int cell = preCell[i];
+            if (marking[cell] != INFINITY) {
+                successor[cell] -= (int) preWeight(i, marking);
+            }
+        }
+        for (int i = postStart[transition]; i < postStart[transition + 1]; i++) {
+            int cell = postCell[i];
+            if (marking[cell] != INFINITY) {
+                successor[cell] += (int) postWeight(i, marking);
+            }
+        }
+    }
+
+    /**
+     * Works out a marking the transition could have fired in to reach the given marking.
+     * <p/>
+     * Weights must be evaluated against the marking before firing, which is not known yet, so
+     * they are first evaluated against the given marking and then against each resulting guess
+     * until the guess reproduces itself. Constant weights take a single guess.
+     *
+     * @param transition transition number
+     * @param marking marking reached by firing, left unchanged
+     * @return marking the transition is enabled in and fires into the given marking
+     * @throws IllegalStateException if no such marking is found
+     */
+    public int[] unfire(int transition, int[] marking) {
+        int[] guess = marking.clone();
+        int[] previous = new int[marking.length];
+        for (int attempt = 0; attempt < MAXIMUM_UNFIRE_GUESSES; attempt++) {
+            System.arraycopy(marking, 0, previous, 0, marking.length);
+            for (int i = preStart[transition]; i < preStart[transition + 1]; i++) {
+                if (marking[preCell[i]] != INFINITY) {
+                    previous[preCell[i]] += (int) preWeight(i, guess);
+                }
+            }
+            for (int i = postStart[transition]; i < postStart[transition + 1]; i++) {
+                if (marking[postCell[i]] != INFINITY) {
+                    previous[postCell[i]] -= (int) postWeight(i, guess);
+                }
+            }
+            if (Arrays.equals(previous, guess)) {
+                if (isNonNegative(previous) && isEnabled(transition, previous)) {
+                    return previous;
+                }
+                break;
+            }
+            int[] swap = guess;
+            guess = previous;
+            previous = swap;
+        }
+        throw new IllegalStateException(
+                "Transition " + transitions[transition].getId() + " cannot have fired into the marking");
+    }
+
+    /**
+     * @param marking marking to check
+     * @return true if no count is negative
+     */
+    private static boolean isNonNegative(int[] marking) {
+        for (int count : marking) {
+            if (count < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param transition transition number, must be enabled in the marking
+     * @param marking marking to fire in, left unchanged
+     * @return the successor marking
+     */
+    public int[] fire(int transition, int[] marking) {
+        int[] successor = new int[marking.length];
+        fire(transition, marking, successor);
+        return successor;
+    }
+
+    /**
+     * @return true if no component of the Petri net has been added, removed or changed in a way
+     * that alters how it fires since the snapshot was taken
+     */
+    public boolean isCurrent() {
+        return petriNet.getStructureVersion() == structureVersion;
+    }
+
+    /**
+     * @return marking of the Petri net's current token counts
+     */
+    public int[] getCurrentMarking() {
+        int[] marking = new int[getMarkingSize()];
+        for (int p = 0; p < places.length; p++) {
+            for (int k = 0; k < tokenIds.length; k++) {
+                marking[cell(p, k)] = places[p].getTokenCount(tokenIds[k]);
+            }
+        }
+        return marking;
+    }
+
+    /**
+     * @param marking token counts laid out as described by {@link #cell(int, int)}
+     * @return hash code of the marking as a {@link State}, the same as a
+     * {@link uk.ac.imperial.state.HashedState} holding every place and token of this snapshot
+     */
+    public int stateHash(int[] marking) {
+        int hash = 0;
+        for (int p = 0; p < places.length; p++) {
+            int tokens = 0;
+            for (int k = 0; k < tokenIds.length; k++) {
+                tokens += tokenIds[k].hashCode() ^ marking[cell(p, k)];
+            }
+            hash += places[p].getId().hashCode() ^ tokens;
+        }
+        return hash;
+    }
+
+    /**
+     * @param state state of the Petri net
+     * @return marking equivalent to the state, absent counts are treated as zero
+     */
+    public int[] getMarking(State state) {
+        int[] marking = new int[getMarkingSize()];
+        for (int p = 0; p < places.length; p++) {
+            Map<String, Integer> tokens = state.getTokens(places[p].getId());
+            if (tokens != null) {
+                for (int k = 0; k < tokenIds.length; k++) {
+                    Integer count = tokens.get(tokenIds[k]);
+                    marking[cell(p, k)] = count == null ? 0 : count;
+                }
+            }
+        }
+        return marking;
+    }
+
+    /**
+     * Evaluates a functional weight against a marking
+     *
+     * @param expression compiled functional expression
+     * @param marking marking to evaluate against
+     * @return evaluated weight
+     */
+    public double evaluate(CompiledExpression expression, int[] marking) {
+        if (expression.hasErrors() || !expression.allComponentsIn(petriNet)) {
+            throw new RuntimeException("Could not parse arc weight " + expression.getExpression());
+        }
+        double result = expression.evaluate(new MarkingContext(marking));
+        if (result < 0) {
+            throw new RuntimeException("Arc weight " + expression.getExpression() + " cannot be less than zero");
+        }
+        return result;
+    }
+
+    /**
+     * Collects incidence entries whilst the snapshot is being built
+     */
+    private final class IncidenceBuilder {
+        /**
+         * Marking cell of each entry
+         */
+        private final List<Integer> cells = new ArrayList<>();
+
+        /**
+         * Constant weight of each entry
+         */
+        private final List<Integer> weights = new ArrayList<>();
+
+        /**
+         * Functional weight of each entry
+         */
+        private final List<CompiledExpression> expressions = new ArrayList<>();
+
+        /**
+         * Adds an entry for each token weighted on the arc
+         * @param place place number the arc connects to
+         * @param tokenWeights token id -> weight of the arc
+         */
+        void add(int place, Map<String, String> tokenWeights) {
+            for (int k = 0; k < tokenIds.length; k++) {
+                String weight = tokenWeights.get(tokenIds[k]);
+                if (weight == null) {
+                    continue;
+                }
+                CompiledExpression expression = petriNet.getExpressionCache().get(weight);
+                cells.add(cell(place, k));
+                if (isIntegerConstant(expression)) {
+                    weights.add((int) expression.getConstantValue());
+                    expressions.add(null);
+                } else {
+                    weights.add(FUNCTIONAL_WEIGHT);
+                    expressions.add(expression);
+                }
+            }
+        }
+
+        /**
+         * @param expression compiled weight
+         * @return true if the weight can be resolved to a non negative integer now
+         */
+        private boolean isIntegerConstant(CompiledExpression expression) {
+            if (!expression.isConstant()) {
+                return false;
+            }
+            double value = expression.getConstantValue();
+            return value >= 0 && value == Math.floor(value) && value < INFINITY;
+        }
+
+        int size() {
+            return cells.size();
+        }
+
+        int[] cells() {
+            return toArray(cells);
+        }
+
+        int[] weights() {
+            return toArray(weights);
+        }
+
+        CompiledExpression[] expressions() {
+            return expressions.toArray(new CompiledExpression[expressions.size()]);
+        }
+    }
+
+    /**
+     * Reads component values from a marking of this snapshot
+     */
+    private final class MarkingContext implements ExpressionContext {
+        /**
+         * Marking to read
+         */
+        private final int[] marking;
+
+        /**
+         * Constructor
+         * @param marking marking to read
+         */
+        MarkingContext(int[] marking) {
+            this.marking = marking;
+        }
+
+        @Override
+        public double getTokenCount(String placeId) {
+            int place = getPlaceIndex(placeId);
+            return place < 0 ? 0 : getTotalTokens(place, marking);
+        }
+
+        @Override
+        public double getTokenCount(String placeId, String tokenId) {
+            int place = getPlaceIndex(placeId);
+            int token = getTokenIndex(tokenId);
+            return place < 0 || token < 0 ? 0 : marking[cell(place, token)];
+        }
+
+        @Override
+        public double getCapacity(String placeId) {
+            int place = getPlaceIndex(placeId);
+            return place < 0 ? 0 : capacities[place];
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package uk.ac.imperial.pipe.animation;
+
+import java.util.Arrays;
+
+/**
+ * History of firings recorded as the exact token deltas each firing made to a marking of a
+ * {@link CompiledPetriNet}.
+ * <p/>
+ * Undo, redo and jumping to a step replay the recorded deltas, so they never evaluate an arc
+ * weight and are correct for marking dependent weights. Only cells whose count changed are stored,
+ * so memory grows with the number of changes rather than with the size of the marking.
+ * <p/>
+ * The journal has a position: steps before it have been applied to the marking, steps after it can
+ * be redone. Recording a new firing discards any steps after the position. Instances are not thread safe.
+ */
+public final class FiringJournal {
+    /**
+     * Transition number fired at each step
+     */
+    private int[] transitions = new int[16];
+
+    /**
+     * Whether the transition of each step was fired backwards
+     */
+    private boolean[] backwards = new boolean[16];
+
+    /**
+     * Deltas of step s are deltaCells[deltaStart[s]] to deltaCells[deltaStart[s + 1] - 1]
+     */
+    private int[] deltaStart = new int[17];
+
+    /**
+     * Marking cell of each delta
+     */
+    private int[] deltaCells = new int[64];
+
+    /**
+     * Change in count of each delta
+     */
+    private int[] deltas = new int[64];
+
+    /**
+     * Number of recorded steps
+     */
+    private int size = 0;
+
+    /**
+     * Number of steps currently applied
+     */
+    private int position = 0;
+
+    /**
+     * Records a firing at the current position, discarding any steps that could have been redone.
+     * Only the cells the transition consumes from or produces into are compared.
+     *
+     * @param compiled compiled Petri net the markings belong to
+     * @param transition transition number that fired
+     * @param before marking before firing
+     * @param after marking after firing
+     */
+    public void record(CompiledPetriNet compiled, int transition, int[] before, int[] after) {
+        add(compiled, transition, before, after, false);
+    }
+
+    /**
+     * Records a backward firing at the current position, discarding any steps that could have been redone
+     *
+     * @param compiled compiled Petri net the markings belong to
+     * @param transition transition number that was fired backwards
+     * @param before marking the transition was fired backwards from
+     * @param after marking the transition could have fired in to reach before
+     */
+    public void recordBackwards(CompiledPetriNet compiled, int transition, int[] before, int[] after) {
+        add(compiled, transition, before, after, true);
+    }
+
+    /**
+     * @param compiled compiled Petri net the markings belong to
+     * @param transition transition number of the step
+     * @param before marking before the step
+     * @param after marking after the step
+     * @param backward true if the transition was fired backwards
+     */
+    private void add(CompiledPetriNet compiled, int transition, int[] before, int[] after, boolean backward) {
+        size = position;
+        ensureSteps(size + 1);
+        int start = deltaStart[size];
+        int end = start;
+        for (int i = compiled.preStart(transition); i < compiled.preEnd(transition); i++) {
+            end = addDelta(start, end, compiled.preCell(i), before, after);
+        }
+        for (int i = compiled.postStart(transition); i < compiled.postEnd(transition); i++) {
+            end = addDelta(start, end, compiled.postCell(i), before, after);
+        }
+        transitions[size] = transition;
+        backwards[size] = backward;
+        deltaStart[size + 1] = end;
+        size++;
+        position = size;
+    }
+
+    /**
+     * Adds the change of the cell to the step being recorded unless it is unchanged or already added
+     *
+     * @param start index of the steps first delta
+     * @param end index one past the steps last delta so far
+     * @param cell marking cell
+     * @param before marking before firing
+     * @param after marking after firing
+     * @return index one past the steps last delta
+     */
+    private int addDelta(int start, int end, int cell, int[] before, int[] after) {
+        int delta = after[cell] - before[cell];
+        if (delta == 0) {
+            return end;
+        }
+        for (int i = start; i < end; i++) {
+            if (deltaCells[i] == cell) {
+                return end;
+            }
+        }
+        ensureDeltas(end + 1);
+        deltaCells[end] = cell;
+        deltas[end] = delta;
+        return end + 1;
+    }
+
+    /**
+     * @return number of recorded steps
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return number of steps currently applied
+     */
+    public int getPosition() {
+        return position;
+    }
+
+    /**
+     * @return true if there is a step to undo
+     */
+    public boolean canUndo() {
+        return position > 0;
+    }
+
+    /**
+     * @return true if there is a step to redo
+     */
+    public boolean canRedo() {
+        return position < size;
+    }
+
+    /**
+     * @param step recorded step
+     * @return transition number fired at the step
+     */
+    public int getTransition(int step) {
+        checkStep(step);
+        return transitions[step];
+    }
+
+    /**
+     * @param step recorded step
+     * @return true if the transition of the step was fired backwards
+     */
+    public boolean isBackwards(int step) {
+        checkStep(step);
+        return backwards[step];
+    }
+
+    /**
+     * @param step recorded step
+     * @return index of the steps first delta
+     */
+    public int deltaStart(int step) {
+        checkStep(step);
+        return deltaStart[step];
+    }
+
+    /**
+     * @param step recorded step
+     * @return index one past the steps last delta
+     */
+    public int deltaEnd(int step) {
+        checkStep(step);
+        return deltaStart[step + 1];
+    }
+
+    /**
+     * @param index delta index
+     * @return marking cell the delta changes
+     */
+    public int deltaCell(int index) {
+        return deltaCells[index];
+    }
+
+    /**
+     * @param index delta index
+     * @return change in count made by the delta
+     */
+    public int delta(int index) {
+        return deltas[index];
+    }
+
+    /**
+     * Reverts the last applied step
+     *
+     * @param marking marking at the current position, updated in place
+     * @return transition number of the step undone
+     */
+    public int undo(int[] marking) {
+        if (!canUndo()) {
+            throw new IllegalStateException("No firing to undo");
+        }
+        position--;
+        apply(position, marking, -1);
+        return transitions[position];
+    }
+
+    /**
+     * Reapplies the next step
+     *
+     * @param marking marking at the current position, updated in place
+     * @return transition number of the step redone
+     */
+    public int redo(int[] marking) {
+        if (!canRedo()) {
+            throw new IllegalStateException("No firing to redo");
+        }
+        apply(position, marking, 1);
+        return transitions[position++];
+    }
+
+    /**
+     * Undoes or redoes steps until the given number of steps is applied
+     *
+     * @param step number of steps to have applied, between 0 and {@link #size()}
+     * @param marking marking at the current position, updated in place
+     */
+    public void jumpTo(int step, int[] marking) {
+        if (step < 0 || step > size) {
+            throw new IndexOutOfBoundsException("Step " + step + " is not between 0 and " + size);
+        }
+        while (position > step) {
+            undo(marking);
+        }
+        while (position < step) {
+            redo(marking);
+        }
+    }
+
+    /**
+     * Moves the position without applying any deltas, for callers that apply the deltas of
+     * the steps between the positions themselves
+     *
+     * @param step number of steps to have applied, between 0 and {@link #size()}
+     */
+    public void setPosition(int step) {
+        if (step < 0 || step > size) {
+            throw new IndexOutOfBoundsException("Step " + step + " is not between 0 and " + size);
+        }
+        position = step;
+    }
+
+    /**
+     * Forgets every recorded step
+     */
+    public void clear() {
+        size = 0;
+        position = 0;
+    }
+
+    /**
+     * @param step step whose deltas to apply
+     * @param marking marking to update in place
+     * @param sign 1 to apply the deltas, -1 to revert them
+     */
+    private void apply(int step, int[] marking, int sign) {
+        for (int i = deltaStart[step]; i < deltaStart[step + 1]; i++) {
+            marking[deltaCells[i]] += sign * deltas[i];
+        }
+    }
+
+    /**
+     * @param step step to check
+     */
+    private void checkStep(int step) {
+        if (step < 0 || step >= size) {
+            throw new IndexOutOfBoundsException("Step " + step + " is not between 0 and " + (size - 1));
+        }
+    }
+
+    /**
+     * @param steps number of steps that must fit
+     */
+    private void ensureSteps(int steps) {
+        if (steps > transitions.length) {
+            int capacity = Math.max(steps, transitions.length * 2);
+            transitions = Arrays.copyOf(transitions, capacity);
+            backwards = Arrays.copyOf(backwards, capacity);
+            deltaStart = Arrays.copyOf(deltaStart, capacity + 1);
+        }
+    }
+
+    /**
+     * @param count number of deltas that must fit
+     */
+    private void ensureDeltas(int count) {
+        if (count > deltaCells.length) {
+            int capacity = Math.max(count, deltaCells.length * 2);
+            deltaCells = Arrays.copyOf(deltaCells, capacity);
+            deltas = Arrays.copyOf(deltas, capacity);
+        }
+    }
+}
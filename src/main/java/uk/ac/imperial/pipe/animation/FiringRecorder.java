@@ -0,0 +1,158 @@
+package uk.ac.imperial.pipe.animation;
+
+import uk.ac.imperial.pipe.io.TraceWriter;
+import uk.ac.imperial.pipe.models.petrinet.Transition;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Fires transitions against {@link Marking}s for the animators, recording every firing in a
+ * {@link FiringJournal} and, if one is set, a trace.
+ * <p/>
+ * Instances are not thread safe.
+ */
+final class FiringRecorder {
+    /**
+     * Message of the exception thrown when no transition can be chosen
+     */
+    private static final String ERROR_NO_TRANSITIONS_TO_FIRE = "Error - no transitions to fire!";
+
+    /**
+     * Logic the transitions are fired with
+     */
+    private final PetriNetAnimationLogic animationLogic;
+
+    /**
+     * Receives the token changes of every firing
+     */
+    private final FiringJournal journal;
+
+    /**
+     * Chooses random transitions
+     */
+    private final Random random = new Random();
+
+    /**
+     * Records every firing if set
+     */
+    private TraceWriter traceWriter;
+
+    /**
+     * Number of transitions fired by the last sequence or random run
+     */
+    private int lastFired = 0;
+
+    /**
+     * Constructor
+     * @param animationLogic logic the transitions are fired with
+     * @param journal receives the token changes of every firing
+     */
+    FiringRecorder(PetriNetAnimationLogic animationLogic, FiringJournal journal) {
+        this.animationLogic = animationLogic;
+        this.journal = journal;
+    }
+
+    /**
+     * @param traceWriter trace to record every firing to, or null to stop recording
+     */
+    void setTraceWriter(TraceWriter traceWriter) {
+        this.traceWriter = traceWriter;
+    }
+
+    /**
+     * @return trace every firing is recorded to, or null
+     */
+    TraceWriter getTraceWriter() {
+        return traceWriter;
+    }
+
+    /**
+     * @param enabledTransitions transitions to choose from
+     * @return a uniformly chosen member of the transitions
+     */
+    Transition randomTransition(Set<Transition> enabledTransitions) {
+        if (enabledTransitions.isEmpty()) {
+            throw new RuntimeException(ERROR_NO_TRANSITIONS_TO_FIRE);
+        }
+        Transition[] enabledTransitionsArray = enabledTransitions.toArray(new Transition[enabledTransitions.size()]);
+        return enabledTransitionsArray[random.nextInt(enabledTransitionsArray.length)];
+    }
+
+    /**
+     * Fires the transition against the marking, recording the firing if it is enabled
+     *
+     * @param marking marking to fire against, of the animation logic's current snapshot
+     * @param transition transition to fire
+     * @return marking after firing, or marking itself if the transition is not enabled
+     */
+    Marking fire(Marking marking, Transition transition) {
+        Marking successor = (Marking) animationLogic.getFiredState(marking, transition);
+        if (successor == marking) {
+            return marking;
+        }
+        CompiledPetriNet compiled = marking.getCompiledPetriNet();
+        int index = compiled.getTransitionIndex(transition);
+        journal.record(compiled, index, marking.counts(), successor.counts());
+        if (traceWriter != null) {
+            try {
+                traceWriter.record(index, successor.counts());
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not record firing to trace", e);
+            }
+        }
+        return successor;
+    }
+
+    /**
+     * Fires the transitions in order, skipping those not enabled when their turn comes
+     *
+     * @param marking marking to start from
+     * @param transitions transitions to fire
+     * @return marking after the last firing, see {@link #getLastFired()} for how many fired
+     */
+    Marking fireSequence(Marking marking, List<Transition> transitions) {
+        int fired = 0;
+        for (Transition transition : transitions) {
+            Marking successor = fire(marking, transition);
+            if (successor != marking) {
+                marking = successor;
+                fired++;
+            }
+        }
+        lastFired = fired;
+        return marking;
+    }
+
+    /**
+     * Fires uniformly chosen enabled transitions until steps have fired or none is enabled
+     *
+     * @param marking marking to start from, of the animation logic's current snapshot
+     * @param steps number of transitions to fire
+     * @return marking after the last firing, see {@link #getLastFired()} for how many fired
+     */
+    Marking fireRandom(Marking marking, int steps) {
+        CompiledPetriNet compiled = marking.getCompiledPetriNet();
+        int fired = 0;
+        while (fired < steps) {
+            int transition = AnimationUtils.randomMember(animationLogic.getEnabledTransitionMask(marking), random);
+            if (transition < 0) {
+                break;
+            }
+            marking = fire(marking, compiled.getTransition(transition));
+            fired++;
+        }
+        lastFired = fired;
+        return marking;
+    }
+
+    /**
+     * @return number of transitions fired by the last call to {@link #fireSequence(Marking, List)}
+     * or {@link #fireRandom(Marking, int)}
+     */
+    int getLastFired() {
+        return lastFired;
+    }
+}
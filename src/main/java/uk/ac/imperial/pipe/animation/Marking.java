@@ -0,0 +1,247 @@
+package uk.ac.imperial.pipe.animation;
+
+import uk.ac.imperial.state.HashedStateBuilder;
+import uk.ac.imperial.state.State;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable marking of a {@link uk.ac.imperial.pipe.animation.CompiledPetriNet} stored as a
+ * single int array, laid out as described by the compiled Petri net.
+ * <p/>
+ * Its hash code is computed once on construction so it is cheap to use as a key in
+ * visited sets and caches. It implements {@link uk.ac.imperial.state.State} so it can be handed
+ * to code expecting a Markov chain state, the token maps it returns are created on demand.
+ * <p/>
+ * It only equals markings holding the same token counts for every place and token, as a
+ * {@link uk.ac.imperial.state.HashedState} only ever equals another HashedState. Use
+ * {@link #toHashedState()} to look a marking up among states built with a
+ * {@link uk.ac.imperial.state.HashedStateBuilder}.
+ */
+public final class Marking implements State {
+    /**
+     * Compiled Petri net that defines the layout of counts
+     */
+    private final CompiledPetriNet compiledPetriNet;
+
+    /**
+     * Token counts, see {@link CompiledPetriNet#cell(int, int)}
+     */
+    private final int[] counts;
+
+    /**
+     * Precomputed hash of counts
+     */
+    private final int hash;
+
+    /**
+     * Transitions enabled in this marking before timing and priority rules are applied,
+     * null until worked out by the animation logic
+     */
+    private volatile BitSet enabled;
+
+    /**
+     * Transitions allowed to fire in this marking once timing and priority rules are applied,
+     * null until worked out by the animation logic
+     */
+    private volatile BitSet firable;
+
+    /**
+     * Constructor, takes ownership of counts which must not be modified afterwards
+     *
+     * @param compiledPetriNet compiled Petri net that defines the layout of counts
+     * @param counts token counts of {@link CompiledPetriNet#getMarkingSize()} cells
+     */
+    public Marking(CompiledPetriNet compiledPetriNet, int[] counts) {
+        this.compiledPetriNet = compiledPetriNet;
+        this.counts = counts;
+        this.hash = compiledPetriNet.stateHash(counts);
+    }
+
+    /**
+     * @return compiled Petri net that defines the layout of this marking
+     */
+    public CompiledPetriNet getCompiledPetriNet() {
+        return compiledPetriNet;
+    }
+
+    /**
+     * @param cell marking cell
+     * @return token count stored in the cell
+     */
+    public int get(int cell) {
+        return counts[cell];
+    }
+
+    /**
+     * @return number of cells in the marking
+     */
+    public int size() {
+        return counts.length;
+    }
+
+    /**
+     * @return copy of the token counts
+     */
+    public int[] copyCounts() {
+        return counts.clone();
+    }
+
+    /**
+     * Package private access to the counts for the firing rule, callers must not modify them
+     *
+     * @return token counts backing this marking
+     */
+    int[] counts() {
+        return counts;
+    }
+
+    /**
+     * @return transitions enabled in this marking as set by {@link #setEnabled(java.util.BitSet)},
+     * or null if they have not been worked out yet. Callers must not modify them
+     */
+    BitSet getEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param enabled transitions enabled in this marking, must not be modified afterwards
+     */
+    void setEnabled(BitSet enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return transitions allowed to fire in this marking as set by {@link #setFirable(java.util.BitSet)},
+     * or null if they have not been worked out yet. Callers must not modify them
+     */
+    BitSet getFirable() {
+        return firable;
+    }
+
+    /**
+     * @param firable transitions allowed to fire in this marking, must not be modified afterwards
+     */
+    void setFirable(BitSet firable) {
+        this.firable = firable;
+    }
+
+    /**
+     * @param id place id
+     * @return token id -> count for the place, or null if the place is not part of the marking
+     */
+    @Override
+    public Map<String, Integer> getTokens(String id) {
+        int place = compiledPetriNet.getPlaceIndex(id);
+        if (place < 0) {
+            return null;
+        }
+        Map<String, Integer> tokens = new HashMap<>();
+        for (int token = 0; token < compiledPetriNet.getTokenCount(); token++) {
+            tokens.put(compiledPetriNet.getTokenId(token), counts[compiledPetriNet.cell(place, token)]);
+        }
+        return tokens;
+    }
+
+    /**
+     * @param id place id
+     * @return true if the place is part of the marking
+     */
+    @Override
+    public boolean containsTokens(String id) {
+        return compiledPetriNet.getPlaceIndex(id) >= 0;
+    }
+
+    /**
+     * @return ids of every place in the marking
+     */
+    @Override
+    public Collection<String> getPlaces() {
+        List<String> places = new ArrayList<>(compiledPetriNet.getPlaceCount());
+        for (int place = 0; place < compiledPetriNet.getPlaceCount(); place++) {
+            places.add(compiledPetriNet.getPlace(place).getId());
+        }
+        return places;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Marking)) {
+            return false;
+        }
+        Marking marking = (Marking) o;
+        if (hash != marking.hash) {
+            return false;
+        }
+        if (marking.compiledPetriNet == compiledPetriNet) {
+            return Arrays.equals(counts, marking.counts);
+        }
+        return sameTokens(marking);
+    }
+
+    /**
+     * @return state holding the same token counts that equals states built with a
+     * {@link uk.ac.imperial.state.HashedStateBuilder}
+     */
+    public State toHashedState() {
+        HashedStateBuilder builder = new HashedStateBuilder();
+        for (int place = 0; place < compiledPetriNet.getPlaceCount(); place++) {
+            String id = compiledPetriNet.getPlace(place).getId();
+            for (int token = 0; token < compiledPetriNet.getTokenCount(); token++) {
+                builder.placeWithToken(id, compiledPetriNet.getTokenId(token),
+                        counts[compiledPetriNet.cell(place, token)]);
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * @param state marking of another snapshot of the Petri net
+     * @return true if the state holds exactly the places and token counts of this marking
+     */
+    private boolean sameTokens(State state) {
+        if (state.getPlaces().size() != compiledPetriNet.getPlaceCount()) {
+            return false;
+        }
+        for (int place = 0; place < compiledPetriNet.getPlaceCount(); place++) {
+            Map<String, Integer> tokens = state.getTokens(compiledPetriNet.getPlace(place).getId());
+            if (tokens == null || tokens.size() != compiledPetriNet.getTokenCount()) {
+                return false;
+            }
+            for (int token = 0; token < compiledPetriNet.getTokenCount(); token++) {
+                Integer count = tokens.get(compiledPetriNet.getTokenId(token));
+                if (count == null || count != counts[compiledPetriNet.cell(place, token)]) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("{");
+        for (int place = 0; place < compiledPetriNet.getPlaceCount(); place++) {
+            if (place > 0) {
+                builder.append(", ");
+            }
+            builder.append(compiledPetriNet.getPlace(place).getId()).append('=').append(getTokens(
+                    compiledPetriNet.getPlace(place).getId()));
+        }
+        return builder.append('}').toString();
+    }
+}
@@ -0,0 +1,330 @@
+package uk.ac.imperial.pipe.animation;
+
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+import uk.ac.imperial.pipe.models.petrinet.Place;
+import uk.ac.imperial.pipe.models.petrinet.Transition;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Animator which fires transitions against an internal immutable {@link Marking} rather than the
+ * places of the Petri net.
+ * <p/>
+ * Firing never rebuilds the state from the places and never triggers token change events. The
+ * marking is written back to the Petri net when {@link #writeBack()} is called, on reset, and
+ * after a firing if at least the write back interval has passed since the last write back. Only
+ * places whose counts changed are written, so listeners are notified once per changed place.
+ * <p/>
+ * All methods are thread safe, the current marking can be read at any time without locking.
+ */
+public final class MarkingAnimator implements Animator {
+    /**
+     * Write back interval that only writes back when {@link #writeBack()} or {@link #reset()} is called
+     */
+    public static final long WRITE_BACK_ON_DEMAND = -1;
+
+    /**
+     * Petri net the marking is written back to
+     */
+    private final PetriNet petriNet;
+
+    /**
+     * Underlying animation logic. Its cache is disabled as every marking already keeps the
+     * transitions enabled in it, so a long run does not keep every marking it visits
+     */
+    private final PetriNetAnimationLogic animationLogic;
+
+    /**
+     * Token changes of every firing since the last refresh, reset or change to the Petri net's structure
+     */
+    private final FiringJournal journal = new FiringJournal();
+
+    /**
+     * Fires transitions and records them in the journal
+     */
+    private final FiringRecorder recorder;
+
+    /**
+     * Current marking of the animation
+     */
+    private volatile Marking current;
+
+    /**
+     * Marking restored by {@link #reset()}
+     */
+    private Marking saved;
+
+    /**
+     * Minimum number of milliseconds between automatic write backs, or {@link #WRITE_BACK_ON_DEMAND}
+     */
+    private long writeBackInterval = WRITE_BACK_ON_DEMAND;
+
+    /**
+     * Value of System.nanoTime() at the last write back
+     */
+    private long lastWriteBack = System.nanoTime();
+
+    /**
+     * Constructor, starts from the Petri net's current token counts and only writes back on demand
+     * @param petriNet Petri net to animate
+     */
+    public MarkingAnimator(PetriNet petriNet) {
+        this.petriNet = petriNet;
+        animationLogic = new PetriNetAnimationLogic(petriNet, CachePolicy.disabled());
+        recorder = new FiringRecorder(animationLogic, journal);
+        refresh();
+    }
+
+    /**
+     * @param writeBackInterval minimum number of milliseconds between automatic write backs after a firing,
+     *                          0 to write back after every firing or {@link #WRITE_BACK_ON_DEMAND}
+     */
+    public synchronized void setWriteBackInterval(long writeBackInterval) {
+        this.writeBackInterval = writeBackInterval;
+    }
+
+    /**
+     * @return current marking of the animation
+     */
+    public Marking getState() {
+        return current;
+    }
+
+    /**
+     * @return animation logic the animator fires with
+     */
+    public PetriNetAnimationLogic getAnimationLogic() {
+        return animationLogic;
+    }
+
+    /**
+     * Discards the internal marking and reads the token counts of the Petri net again,
+     * recompiling it. Structural edits are followed without it, see {@link #followStructure()},
+     * so this is only needed to pick up token counts set on the Petri net directly.
+     */
+    public synchronized void refresh() {
+        animationLogic.clear();
+        CompiledPetriNet compiled = animationLogic.getCompiledPetriNet();
+        current = new Marking(compiled, compiled.getCurrentMarking());
+        saved = current;
+        journal.clear();
+    }
+
+    /**
+     * Writes the current marking to every place whose token counts differ from it, then fires
+     * a single marking change on the Petri net if any did
+     */
+    public synchronized void writeBack() {
+        followStructure();
+        Marking marking = current;
+        CompiledPetriNet compiled = marking.getCompiledPetriNet();
+        List<Place> changed = new ArrayList<>();
+        for (int p = 0; p < compiled.getPlaceCount(); p++) {
+            Place place = compiled.getPlace(p);
+            if (differs(place, marking, p)) {
+                place.setTokenCounts(marking.getTokens(place.getId()));
+                changed.add(place);
+            }
+        }
+        if (!changed.isEmpty()) {
+            petriNet.fireMarkingChange(changed);
+        }
+        lastWriteBack = System.nanoTime();
+    }
+
+    /**
+     * Saves the current marking, allowing it to be reset at any point
+     */
+    @Override
+    public synchronized void saveState() {
+        followStructure();
+        saved = current;
+    }
+
+    /**
+     * Restores the saved marking, clears the firing history and writes it back to the Petri net
+     */
+    @Override
+    public synchronized void reset() {
+        followStructure();
+        current = saved;
+        journal.clear();
+        writeBack();
+    }
+
+    /**
+     * @return a random transition which is enabled in the current marking
+     */
+    @Override
+    public synchronized Transition getRandomEnabledTransition() {
+        followStructure();
+        return recorder.randomTransition(getEnabledTransitions());
+    }
+
+    /**
+     * @return all enabled transitions for the current marking
+     */
+    @Override
+    public Set<Transition> getEnabledTransitions() {
+        return animationLogic.getEnabledTransitions(current);
+    }
+
+    /**
+     * Fires the transition against the current marking if it is enabled
+     *
+     * @param transition transition to fire
+     */
+    @Override
+    public synchronized void fireTransition(Transition transition) {
+        followStructure();
+        current = recorder.fire(current, transition);
+        writeBackIfDue();
+    }
+
+    /**
+     * Fires the transitions in order against the current marking, writing back at most once
+     *
+     * @param transitions transitions to fire
+     * @return number of transitions fired
+     */
+    @Override
+    public synchronized int fireSequence(List<Transition> transitions) {
+        followStructure();
+        current = recorder.fireSequence(current, transitions);
+        writeBackIfDue();
+        return recorder.getLastFired();
+    }
+
+    /**
+     * Fires random transitions against the current marking, writing back at most once
+     *
+     * @param steps number of transitions to fire
+     * @return number of transitions fired
+     */
+    @Override
+    public synchronized int fireRandom(int steps) {
+        followStructure();
+        current = recorder.fireRandom(current, steps);
+        writeBackIfDue();
+        return recorder.getLastFired();
+    }
+
+    /**
+     * Undo the firing of the transition. If it was not the last recorded firing a marking it could
+     * have fired in is worked out and the backward firing is recorded as a step of its own
+     *
+     * @param transition transition to fire backwards
+     * @throws IllegalStateException if the transition cannot have fired into the current marking
+     */
+    @Override
+    public synchronized void fireTransitionBackwards(Transition transition) {
+        followStructure();
+        CompiledPetriNet compiled = current.getCompiledPetriNet();
+        int index = compiled.getTransitionIndex(transition);
+        int last = journal.getPosition() - 1;
+        if (journal.canUndo() && journal.getTransition(last) == index && !journal.isBackwards(last)) {
+            undo();
+            return;
+        }
+        int[] marking = current.counts();
+        int[] previous = compiled.unfire(index, marking);
+        journal.recordBackwards(compiled, index, marking, previous);
+        current = new Marking(compiled, previous);
+        writeBackIfDue();
+    }
+
+    /**
+     * Reverts the last recorded firing
+     *
+     * @return true if there was a firing to undo
+     */
+    @Override
+    public synchronized boolean undo() {
+        followStructure();
+        if (!journal.canUndo()) {
+            return false;
+        }
+        jumpTo(journal.getPosition() - 1);
+        return true;
+    }
+
+    /**
+     * Reapplies the last undone firing
+     *
+     * @return true if there was a firing to redo
+     */
+    @Override
+    public synchronized boolean redo() {
+        followStructure();
+        if (!journal.canRedo()) {
+            return false;
+        }
+        jumpTo(journal.getPosition() + 1);
+        return true;
+    }
+
+    /**
+     * @param step number of firings to have applied, between 0 and the number recorded
+     */
+    @Override
+    public synchronized void jumpTo(int step) {
+        followStructure();
+        int[] marking = current.copyCounts();
+        journal.jumpTo(step, marking);
+        current = new Marking(current.getCompiledPetriNet(), marking);
+        writeBackIfDue();
+    }
+
+    /**
+     * @return number of recorded firings currently applied
+     */
+    @Override
+    public synchronized int getStep() {
+        followStructure();
+        return journal.getPosition();
+    }
+
+    /**
+     * Moves the current and saved markings to the animation logic's snapshot if the Petri net's
+     * structure has changed since they were made. The recorded firings refer to cells of the old
+     * snapshot, so the history is cleared
+     */
+    private void followStructure() {
+        CompiledPetriNet compiled = animationLogic.getCompiledPetriNet();
+        if (current.getCompiledPetriNet() != compiled) {
+            current = animationLogic.getMarking(current);
+            saved = animationLogic.getMarking(saved);
+            journal.clear();
+        }
+    }
+
+    /**
+     * Writes back if automatic write backs are enabled and the interval has passed
+     */
+    private void writeBackIfDue() {
+        if (writeBackInterval == WRITE_BACK_ON_DEMAND) {
+            return;
+        }
+        if (System.nanoTime() - lastWriteBack >= writeBackInterval * 1000000L) {
+            writeBack();
+        }
+    }
+
+    /**
+     * @param place place of the Petri net
+     * @param marking marking to compare against
+     * @param p place number of the place in the marking
+     * @return true if any of the places token counts differ from the marking
+     */
+    private static boolean differs(Place place, Marking marking, int p) {
+        CompiledPetriNet compiled = marking.getCompiledPetriNet();
+        for (int k = 0; k < compiled.getTokenCount(); k++) {
+            if (place.getTokenCount(compiled.getTokenId(k)) != marking.get(compiled.cell(p, k))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -1,17 +1,16 @@
 package uk.ac.imperial.pipe.animation;
 
-import uk.ac.imperial.pipe.models.petrinet.Arc;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheStats;
 import uk.ac.imperial.pipe.models.petrinet.PetriNet;
-import uk.ac.imperial.pipe.models.petrinet.Place;
 import uk.ac.imperial.pipe.models.petrinet.Transition;
+import uk.ac.imperial.pipe.parsers.CompiledWeightParser;
 import uk.ac.imperial.pipe.parsers.FunctionalResults;
-import uk.ac.imperial.pipe.parsers.PetriNetWeightParser;
-import uk.ac.imperial.pipe.parsers.StateEvalVisitor;
-import uk.ac.imperial.state.HashedStateBuilder;
+import uk.ac.imperial.pipe.parsers.FunctionalWeightParser;
+import uk.ac.imperial.pipe.parsers.StateExpressionContext;
 import uk.ac.imperial.state.State;
 
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * This class has useful functions relevant for the animation
@@ -26,16 +25,44 @@ public final class PetriNetAnimationLogic implements AnimationLogic {
     /**
      * Cache for storing a states enabled transitions
      * Needs to be concurrent thus to handle multiple calls to methods using this data structure
-     * from different threads running in analysis modules
+     * from different threads running in analysis modules.
+     * Its size and eviction behaviour are determined by the {@link CachePolicy} it was created with.
+     * Keys are always {@link Marking}s of the current compiled Petri net
      */
-    public Map<State, Set<Transition>> cachedEnabledTransitions = new ConcurrentHashMap<>();
+    private final Cache<State, Set<Transition>> enabledTransitionCache;
 
     /**
-     * Constructor
+     * Live view of the enabled transitions cache, kept for code written against the earlier public map.
+     * Entries evicted by the cache policy disappear from it and entries put into it follow the policy
+     *
+     * @deprecated use {@link #getEnabledTransitions(State)}, {@link #getCacheSize()} and {@link #clear()}
+     */
+    @Deprecated
+    public final Map<State, Set<Transition>> cachedEnabledTransitions;
+
+    /**
+     * Integer indexed snapshot of the Petri net used to evaluate the firing rule.
+     * Created on first use and discarded by {@link #clear()} or once the Petri net's structure changes
+     */
+    private volatile CompiledPetriNet compiledPetriNet;
+
+    /**
+     * Constructor, caches the enabled transitions of every state until cleared
      * @param petriNet Petri net to perform animation logic on
      */
     public PetriNetAnimationLogic(PetriNet petriNet) {
+        this(petriNet, CachePolicy.unbounded());
+    }
+
+    /**
+     * Constructor
+     * @param petriNet Petri net to perform animation logic on
+     * @param cachePolicy policy for caching the enabled transitions of states
+     */
+    public PetriNetAnimationLogic(PetriNet petriNet, CachePolicy cachePolicy) {
         this.petriNet = petriNet;
+        this.enabledTransitionCache = cachePolicy.build();
+        this.cachedEnabledTransitions = enabledTransitionCache.asMap();
     }
 
     /**
@@ -44,34 +71,43 @@ public final class PetriNetAnimationLogic implements AnimationLogic {
      */
     @Override
     public Set<Transition> getEnabledTransitions(State state) {
-        if (cachedEnabledTransitions.containsKey(state)) {
-            return cachedEnabledTransitions.get(state);
-        }
-
-        Set<Transition> enabledTransitions = findEnabledTransitions(state);
-        boolean hasImmediate = areAnyTransitionsImmediate(enabledTransitions);
-        int maxPriority = hasImmediate ? getMaxPriority(enabledTransitions) : 0;
-
-        if (hasImmediate) {
-            removeTimedTransitions(enabledTransitions);
+        Marking marking = getMarking(state);
+        Set<Transition> cached = enabledTransitionCache.getIfPresent(marking);
+        if (cached != null) {
+            return cached;
         }
 
-        removePrioritiesLessThan(maxPriority, enabledTransitions);
-        cachedEnabledTransitions.put(state, enabledTransitions);
+        Set<Transition> enabledTransitions = findEnabledTransitions(marking);
+        enabledTransitionCache.put(marking, enabledTransitions);
         return enabledTransitions;
     }
 
+    /**
+     * Alternative to {@link #getEnabledTransitions(State)} for callers that only iterate over or
+     * count the enabled transitions. The mask is worked out once per marking and kept with it, so
+     * repeated calls for a {@link Marking} of the current compiled Petri net allocate nothing.
+     *
+     * @param state Must be a valid state for the Petri net this class represents
+     * @return numbers of the transitions in {@link #getCompiledPetriNet()} enabled in the state once
+     * timing and priority rules are applied. Callers must not modify it
+     */
+    public BitSet getEnabledTransitionMask(State state) {
+        return getFirable(getMarking(state));
+    }
+
     /**
      * @param state
-     * @return all successors of this state
+     * @return all successors of this state, as {@link Marking}s if state is a marking and as
+     * {@link uk.ac.imperial.state.HashedState}s otherwise
      */
     @Override
     public Map<State, Collection<Transition>> getSuccessors(State state) {
-        Collection<Transition> enabled = getEnabledTransitions(state);
+        Marking marking = getMarking(state);
+        Collection<Transition> enabled = getEnabledTransitions(marking);
         Map<State, Collection<Transition>> successors = new HashMap<>();
         for (Transition transition : enabled) {
 
-            State successor = getFiredState(state, transition);
+            State successor = sameType(state, fire(marking, transition));
             if (!successors.containsKey(successor)) {
                 successors.put(successor, new LinkedList<Transition>());
             }
@@ -82,7 +118,7 @@ public final class PetriNetAnimationLogic implements AnimationLogic {
     }
 
     /**
-     * Creates a map for the successor of the given state after firing the
+     * Creates the successor of the given state after firing the
      * transition.
      * calculating the decremented token counts and then calculating the incremented
      * token counts.
@@ -95,49 +131,54 @@ public final class PetriNetAnimationLogic implements AnimationLogic {
      *
      * @param state
      * @param transition
-     * @return Map of places whose token counts differ from those in the initial state
+     * @return state after firing the transition, or a state equal to state if it is not enabled. The result is
+     * a {@link Marking} if state is a marking and a {@link uk.ac.imperial.state.HashedState} otherwise
      */
-    //TODO: This method is a bit too long
     @Override
     public State getFiredState(State state, Transition transition) {
-        HashedStateBuilder builder = new HashedStateBuilder();
-        for (String placeId : state.getPlaces()) {
-            //Copy tokens
-            builder.placeWithTokens(placeId, state.getTokens(placeId));
-        }
+        return sameType(state, fire(getMarking(state), transition));
+    }
 
-        Set<Transition> enabled = getEnabledTransitions(state);
-        if (enabled.contains(transition)) {
-            //Decrement previous places
-            for (Arc<Place, Transition> arc : petriNet.inboundArcs(transition)) {
-                String placeId = arc.getSource().getId();
-                Map<String, String> arcWeights = arc.getTokenWeights();
-                for (Map.Entry<String, Integer> entry : state.getTokens(placeId).entrySet()) {
-                    String tokenId = entry.getKey();
-                    if (arcWeights.containsKey(tokenId)) {
-                        int currentCount = entry.getValue();
-                        int arcWeight = (int) getArcWeight(state, arcWeights.get(tokenId));
-                        builder.placeWithToken(placeId, tokenId, subtractWeight(currentCount, arcWeight));
-                    }
-                }
-            }
+    /**
+     * @param state state given by the caller
+     * @param marking marking with the token counts to return
+     * @return marking if state is a marking, otherwise a state that equals the caller's states
+     */
+    private static State sameType(State state, Marking marking) {
+        if (state instanceof Marking) {
+            return marking;
+        }
+        return marking.toHashedState();
+    }
 
+    /**
+     * @param marking marking of the current compiled Petri net
+     * @param transition transition to fire
+     * @return marking after firing the transition, or marking itself if it is not enabled
+     */
+    private Marking fire(Marking marking, Transition transition) {
+        CompiledPetriNet compiled = marking.getCompiledPetriNet();
+        int fired = compiled.getTransitionIndex(transition);
+        if (fired < 0 || !getFirable(marking).get(fired)) {
+            return marking;
+        }
 
-            State temporaryState = builder.build();
+        int[] counts = compiled.fire(fired, marking.counts());
+        Marking successor = new Marking(compiled, counts);
+        successor.setEnabled(compiled.enabledTransitions(fired, counts, getEnabled(marking)));
+        return successor;
+    }
 
-            for (Arc<Transition, Place> arc : petriNet.outboundArcs(transition)) {
-                String placeId = arc.getTarget().getId();
-                Map<String, String> arcWeights = arc.getTokenWeights();
-                for (Map.Entry<String, String> entry : arcWeights.entrySet()) {
-                    String tokenId = entry.getKey();
-                    int currentCount = temporaryState.getTokens(placeId).get(tokenId);
-                    int arcWeight = (int) getArcWeight(state, entry.getValue());
-                    builder.placeWithToken(placeId, tokenId, addWeight(currentCount, arcWeight));
-                }
-            }
+    /**
+     * @param state Must be a valid state for the Petri net this class represents
+     * @return the state as a marking of the current compiled Petri net, state itself if it already is one
+     */
+    public Marking getMarking(State state) {
+        CompiledPetriNet compiled = getCompiledPetriNet();
+        if (state instanceof Marking && ((Marking) state).getCompiledPetriNet() == compiled) {
+            return (Marking) state;
         }
-
-        return builder.build();
+        return new Marking(compiled, compiled.getMarking(state));
     }
 
     /**
@@ -147,8 +188,8 @@ public final class PetriNetAnimationLogic implements AnimationLogic {
      */
     @Override
     public double getArcWeight(State state, String weight) {
-        StateEvalVisitor evalVisitor = new StateEvalVisitor(petriNet, state);
-        PetriNetWeightParser parser = new PetriNetWeightParser(evalVisitor, petriNet);
+        FunctionalWeightParser<Double> parser =
+                new CompiledWeightParser(new StateExpressionContext(petriNet, state), petriNet);
         FunctionalResults<Double> result = parser.evaluateExpression(weight);
         if (result.hasErrors()) {
             //TODO:
@@ -163,141 +204,97 @@ public final class PetriNetAnimationLogic implements AnimationLogic {
      */
     @Override
     public void clear() {
-        cachedEnabledTransitions.clear();
+        enabledTransitionCache.invalidateAll();
+        compiledPetriNet = null;
     }
 
     /**
-     * Treats Integer.MAX_VALUE as infinity and so will not subtract the weight
-     * from it if this is the case
-     *
-     * @param currentWeight
-     * @param arcWeight
-     * @return subtracted weight
+     * @return hit, miss and eviction counts of the enabled transitions cache since it was created
      */
-    private int subtractWeight(int currentWeight, int arcWeight) {
-        if (currentWeight == Integer.MAX_VALUE) {
-            return currentWeight;
-        }
-        return currentWeight - arcWeight;
+    public CacheStats getCacheStats() {
+        return enabledTransitionCache.stats();
     }
 
     /**
-     * Treats Integer.MAX_VALUE as infinity and so will not add the weight
-     * to it if this is the case
+     * The cache policy bounds the number of entries, not their size. Each entry keeps its key
+     * {@link Marking} alive, and with it the marking's token counts and the enabled and firable
+     * transition masks worked out for it, so an entry costs roughly one int per cell plus two bits
+     * per transition on top of the cached set. Masks held by markings outside the cache belong to
+     * whoever holds those markings and are released with them.
      *
-     * @param currentWeight
-     * @param arcWeight
-     * @return added weight
-     */
-    private int addWeight(int currentWeight, int arcWeight) {
-        if (currentWeight == Integer.MAX_VALUE) {
-            return currentWeight;
-        }
-        return currentWeight + arcWeight;
-    }
-
-    /**
-     * @return all the currently enabled transitions in the petri net
+     * @return number of states whose enabled transitions are currently cached
      */
-    private Set<Transition> findEnabledTransitions(State state) {
-
-        Set<Transition> enabledTransitions = new HashSet<>();
-        for (Transition transition : petriNet.getTransitions()) {
-            if (isEnabled(transition, state)) {
-                enabledTransitions.add(transition);
-            }
-        }
-        return enabledTransitions;
+    public long getCacheSize() {
+        return enabledTransitionCache.size();
     }
 
     /**
-     * Works out if an transition is enabled. This means that it checks if
-     * a) places connected by an incoming arc to this transition have enough tokens to fire
-     * b) places connected by an outgoing arc to this transition have enough space to fit the
-     * new tokens (that is enough capacity).
+     * Recompiles the Petri net, and clears the enabled transitions cache, whenever a component has
+     * been added, removed or changed in a way that alters how it fires since the last snapshot.
+     * Markings of an earlier snapshot are still accepted and converted by {@link #getMarking(State)}
      *
-     * @param transition to see if it is enabled
-     * @return true if transition is enabled
+     * @return integer indexed snapshot of the Petri net's current structure
      */
-    private boolean isEnabled(Transition transition, State state) {
-        for (Arc<Place, Transition> arc : petriNet.inboundArcs(transition)) {
-            if (!arc.canFire(petriNet, state)) {
-                return false;
-            }
-        }
-        for (Arc<Transition, Place> arc : petriNet.outboundArcs(transition)) {
-            if (!arc.canFire(petriNet, state)) {
-                return false;
-            }
-        }
-        return true;
-    }
-
-
-    /**
-     * @param transitions to check if any are timed
-     * @return true if any of the transitions are immediate
-     */
-    private boolean areAnyTransitionsImmediate(Iterable<Transition> transitions) {
-        for (Transition transition : transitions) {
-            if (!transition.isTimed()) {
-                return true;
+    public CompiledPetriNet getCompiledPetriNet() {
+        CompiledPetriNet compiled = compiledPetriNet;
+        if (compiled == null || !compiled.isCurrent()) {
+            synchronized (this) {
+                compiled = compiledPetriNet;
+                if (compiled == null || !compiled.isCurrent()) {
+                    if (compiled != null) {
+                        enabledTransitionCache.invalidateAll();
+                    }
+                    compiled = new CompiledPetriNet(petriNet);
+                    compiledPetriNet = compiled;
+                }
             }
         }
-        return false;
+        return compiled;
     }
 
-
     /**
-     * @param transitions to find max priority of
-     * @return the maximum priority of immediate transitions in the collection
+     * @param marking marking of the current compiled Petri net
+     * @return all the currently enabled transitions in the petri net
      */
-    private int getMaxPriority(Iterable<Transition> transitions) {
-        int maxPriority = 0;
-        for (Transition transition : transitions) {
-            if (!transition.isTimed()) {
-                maxPriority = Math.max(maxPriority, transition.getPriority());
-            }
+    private Set<Transition> findEnabledTransitions(Marking marking) {
+        CompiledPetriNet compiled = marking.getCompiledPetriNet();
+        BitSet enabled = getFirable(marking);
+        Set<Transition> enabledTransitions = new HashSet<>();
+        for (int transition = enabled.nextSetBit(0); transition >= 0; transition = enabled.nextSetBit(transition + 1)) {
+            enabledTransitions.add(compiled.getTransition(transition));
         }
-        return maxPriority;
+        return enabledTransitions;
     }
 
-
     /**
-     * Performs in place removal transitions whose priority is less than the specified value
-     * <p/>
-     * Note we must use an iterator in order to ensure save removal
-     * whilst looping
+     * Markings reached through {@link #getFiredState(State, Transition)} already know their
+     * enabled transitions, derived incrementally from their parent. Any other marking is
+     * checked in full and remembers the result.
      *
-     * @param priority    minimum priority of transitions allowed to remain in the Collection
-     * @param transitions to remove if their priority is less than the specified value
+     * @param marking marking of the current compiled Petri net
+     * @return transitions enabled in the marking before timing and priority rules are applied
      */
-    private void removePrioritiesLessThan(int priority, Iterable<Transition> transitions) {
-        Iterator<Transition> transitionIterator = transitions.iterator();
-        while (transitionIterator.hasNext()) {
-            Transition transition = transitionIterator.next();
-            if (!transition.isTimed() && transition.getPriority() < priority) {
-                transitionIterator.remove();
-            }
+    private BitSet getEnabled(Marking marking) {
+        BitSet enabled = marking.getEnabled();
+        if (enabled == null) {
+            enabled = marking.getCompiledPetriNet().enabledTransitions(marking.counts());
+            marking.setEnabled(enabled);
         }
+        return enabled;
     }
 
     /**
-     * In place removal of timed transitions from transitions
-     * <p/>
-     * Note have to use an iterator for save deletions whilst
-     * iterating through the list
-     *
-     * @param transitions to remove timed transitions from
+     * @param marking marking of the current compiled Petri net
+     * @return transitions allowed to fire in the marking once timing and priority rules are applied
      */
-    private void removeTimedTransitions(Iterable<Transition> transitions) {
-        Iterator<Transition> transitionIterator = transitions.iterator();
-        while (transitionIterator.hasNext()) {
-            Transition transition = transitionIterator.next();
-            if (transition.isTimed()) {
-                transitionIterator.remove();
-            }
+    private BitSet getFirable(Marking marking) {
+        BitSet firable = marking.getFirable();
+        if (firable == null) {
+            BitSet enabled = getEnabled(marking);
+            firable = new BitSet(enabled.length());
+            marking.getCompiledPetriNet().filterEnabled(enabled, firable);
+            marking.setFirable(firable);
         }
+        return firable;
     }
-
 }
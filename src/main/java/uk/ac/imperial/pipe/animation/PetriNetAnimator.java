@@ -1,29 +1,43 @@
 package uk.ac.imperial.pipe.animation;
 
-import uk.ac.imperial.pipe.models.petrinet.Arc;
+import uk.ac.imperial.pipe.io.TraceWriter;
 import uk.ac.imperial.pipe.models.petrinet.Place;
 import uk.ac.imperial.pipe.models.petrinet.Transition;
 import uk.ac.imperial.pipe.models.petrinet.PetriNet;
-import uk.ac.imperial.state.State;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
  * Contains methods to help with animating the Petri net and performs
  * in place modifications to the Petri net.
+ * <p/>
+ * Every firing is recorded in a {@link FiringJournal} so that it can be undone and redone
+ * by replaying its token changes. The Petri net may be edited between calls, a change to its
+ * structure is picked up by the next call and clears the firing history.
  */
 public final class PetriNetAnimator implements Animator {
-    private static final String ERROR_NO_TRANSITIONS_TO_FIRE = "Error - no transitions to fire!";
-
-	/**
+    /**
      * Petri net to animate
      */
     private final PetriNet petriNet;
 
     /**
-     * Underlying animation logic, which returns logic as Markov Chain states
+     * Underlying animation logic, which returns logic as Markov Chain states. Its cache is
+     * disabled as every marking already keeps the transitions enabled in it, so long runs do
+     * not keep every marking they visit
+     */
+    private final PetriNetAnimationLogic animationLogic;
+
+    /**
+     * Token changes of every firing, in the compiled Petri net of the animation logic
      */
-    private final AnimationLogic animationLogic;
+    private final FiringJournal journal = new FiringJournal();
+
+    /**
+     * Compiled Petri net the recorded firings refer to
+     */
+    private CompiledPetriNet journalNet;
 
     /**
      * map of place id -> {token id -> count} and is used to save the underlying
@@ -31,16 +45,33 @@ public final class PetriNetAnimator implements Animator {
      */
     private Map<String, Map<String, Integer>> savedStateTokens = new HashMap<>();
 
+    /**
+     * Fires transitions and records them in the journal and trace
+     */
+    private final FiringRecorder recorder;
+
     /**
      * Constructor
      * @param petriNet petri net to modify the structure for for animaiton
      */
     public PetriNetAnimator(PetriNet petriNet) {
         this.petriNet = petriNet;
-        animationLogic = new PetriNetAnimationLogic(petriNet);
+        animationLogic = new PetriNetAnimationLogic(petriNet, CachePolicy.disabled());
+        recorder = new FiringRecorder(animationLogic, journal);
         saveState();
     }
 
+    /**
+     * Records the firings of the animation to a trace. Undoing, redoing, firing backwards and
+     * resetting are each recorded as a step of their own, a checkpoint of the resulting state.
+     *
+     * @param traceWriter trace started from the Petri nets current state, or null to stop recording.
+     *                    The caller remains responsible for closing it.
+     */
+    public void setTraceWriter(TraceWriter traceWriter) {
+        recorder.setTraceWriter(traceWriter);
+    }
+
     /**
      * Save the Petri net state into the saved state map
      */
@@ -53,14 +84,25 @@ public final class PetriNetAnimator implements Animator {
     }
 
     /**
-     * Reset the Petri net by applying the saved state back onto the Petri net
+     * Reset the Petri net by applying the saved state back onto the Petri net.
+     * Only places whose tokens changed are written, followed by a single marking change,
+     * and the firing history is cleared.
      */
     @Override
     public void reset() {
+        List<Place> changed = new ArrayList<>();
         for (Place place : petriNet.getPlaces()) {
             Map<String, Integer> originalTokens = savedStateTokens.get(place.getId());
-            place.setTokenCounts(originalTokens);
+            if (!place.getTokenCounts().equals(originalTokens)) {
+                place.setTokenCounts(originalTokens);
+                changed.add(place);
+            }
+        }
+        if (!changed.isEmpty()) {
+            petriNet.fireMarkingChange(changed);
         }
+        journal.clear();
+        traceCheckpoint();
     }
 
     /**
@@ -69,13 +111,7 @@ public final class PetriNetAnimator implements Animator {
      */
     @Override
     public Transition getRandomEnabledTransition() {
-        Set<Transition> enabledTransitions = getEnabledTransitions();
-        if (enabledTransitions.isEmpty()) {
-            throw new RuntimeException(ERROR_NO_TRANSITIONS_TO_FIRE);
-        }
-        Transition[] enabledTransitionsArray = enabledTransitions.toArray(new Transition[]{}); 
-        int index = new Random().nextInt(enabledTransitions.size());
-        return enabledTransitionsArray[index]; 
+        return recorder.randomTransition(getEnabledTransitions());
     }
 
     /**
@@ -84,55 +120,194 @@ public final class PetriNetAnimator implements Animator {
      */
     @Override
     public Set<Transition> getEnabledTransitions() {
-        return animationLogic.getEnabledTransitions(AnimationUtils.getState(petriNet));
+        return animationLogic.getEnabledTransitions(getCurrentMarking());
     }
 
     /**
      *
      * Fires the transition if it is enabled in the Petri net for the current underlying state
+     * and records the token changes it made
      *
      * @param transition transition to fire
      */
     @Override
     public void fireTransition(Transition transition) {
-        State newState = animationLogic.getFiredState(AnimationUtils.getState(petriNet), transition);
+        Marking before = getCurrentMarking();
+        writeMarking(before, recorder.fire(before, transition));
+    }
 
-        //Set all counts
-        for (Place place : petriNet.getPlaces()) {
-            place.setTokenCounts(newState.getTokens(place.getId()));
-        }
+    /**
+     * Fires the transitions against a marking and writes only the final marking to the Petri net
+     *
+     * @param transitions transitions to fire
+     * @return number of transitions fired
+     */
+    @Override
+    public int fireSequence(List<Transition> transitions) {
+        Marking initial = getCurrentMarking();
+        writeMarking(initial, recorder.fireSequence(initial, transitions));
+        return recorder.getLastFired();
+    }
+
+    /**
+     * Fires random transitions against a marking and writes only the final marking to the Petri net
+     *
+     * @param steps number of transitions to fire
+     * @return number of transitions fired
+     */
+    @Override
+    public int fireRandom(int steps) {
+        Marking initial = getCurrentMarking();
+        writeMarking(initial, recorder.fireRandom(initial, steps));
+        return recorder.getLastFired();
     }
 
     /**
-     * Undo the firing of the transition
+     * Undo the firing of the transition. If it was not the last recorded firing a marking it could
+     * have fired in is worked out and the backward firing is recorded as a step of its own
+     *
      * @param transition transition to fire backwards
+     * @throws IllegalStateException if the transition cannot have fired into the current marking
      */
     @Override
     public void fireTransitionBackwards(Transition transition) {
-        State state = AnimationUtils.getState(petriNet);
-        //Increment previous places
-        for (Arc<Place, Transition> arc : petriNet.inboundArcs(transition)) {
-            Place place = arc.getSource();
-            for (Map.Entry<String, String> entry : arc.getTokenWeights().entrySet()) {
-                String tokenId = entry.getKey();
-                String functionalWeight = entry.getValue();
-                double weight = animationLogic.getArcWeight(state, functionalWeight);
-                int currentCount = place.getTokenCount(tokenId);
-                int newCount = currentCount + (int) weight;
-                place.setTokenCount(tokenId, newCount);
+        Marking marking = getCurrentMarking();
+        CompiledPetriNet compiled = marking.getCompiledPetriNet();
+        int index = compiled.getTransitionIndex(transition);
+        int last = journal.getPosition() - 1;
+        if (journal.canUndo() && journal.getTransition(last) == index && !journal.isBackwards(last)) {
+            undo();
+            return;
+        }
+
+        int[] previous = compiled.unfire(index, marking.counts());
+        journal.recordBackwards(compiled, index, marking.counts(), previous);
+        writeMarking(marking, new Marking(compiled, previous));
+        traceCheckpoint();
+    }
+
+    /**
+     * Reverts the last recorded firing on the Petri net
+     *
+     * @return true if there was a firing to undo
+     */
+    @Override
+    public boolean undo() {
+        followStructure();
+        if (!journal.canUndo()) {
+            return false;
+        }
+        jumpTo(journal.getPosition() - 1);
+        return true;
+    }
+
+    /**
+     * Reapplies the last undone firing on the Petri net
+     *
+     * @return true if there was a firing to redo
+     */
+    @Override
+    public boolean redo() {
+        followStructure();
+        if (!journal.canRedo()) {
+            return false;
+        }
+        jumpTo(journal.getPosition() + 1);
+        return true;
+    }
+
+    /**
+     * Replays the token changes of every step between the current position and the given one
+     * on a marking, so each changed place is written once however far the jump is
+     *
+     * @param step number of firings to have applied, between 0 and the number recorded
+     */
+    @Override
+    public void jumpTo(int step) {
+        Marking before = getCurrentMarking();
+        int[] counts = before.copyCounts();
+        journal.jumpTo(step, counts);
+        writeMarking(before, new Marking(before.getCompiledPetriNet(), counts));
+        traceCheckpoint();
+    }
+
+    /**
+     * @return number of recorded firings currently applied
+     */
+    @Override
+    public int getStep() {
+        followStructure();
+        return journal.getPosition();
+    }
+
+    /**
+     * Sets the counts of every place that differs between the markings once, then fires a
+     * single marking change on the Petri net
+     *
+     * @param from marking the Petri net is in
+     * @param to marking to write
+     */
+    private void writeMarking(Marking from, Marking to) {
+        CompiledPetriNet compiled = to.getCompiledPetriNet();
+        int[] before = from.counts();
+        int[] after = to.counts();
+        List<Place> changed = new ArrayList<>();
+        for (int p = 0; p < compiled.getPlaceCount(); p++) {
+            Map<String, Integer> counts = null;
+            for (int k = 0; k < compiled.getTokenCount(); k++) {
+                int cell = compiled.cell(p, k);
+                if (before[cell] != after[cell]) {
+                    if (counts == null) {
+                        counts = new HashMap<>(compiled.getPlace(p).getTokenCounts());
+                    }
+                    counts.put(compiled.getTokenId(k), after[cell]);
+                }
             }
+            if (counts != null) {
+                Place place = compiled.getPlace(p);
+                place.setTokenCounts(counts);
+                changed.add(place);
+            }
+        }
+        if (!changed.isEmpty()) {
+            petriNet.fireMarkingChange(changed);
         }
+    }
 
-        //Decrement new places
-        for (Arc<Transition, Place> arc : petriNet.outboundArcs(transition)) {
-            Place place = arc.getTarget(); for (Map.Entry<String, String> entry : arc.getTokenWeights().entrySet()) {
-                String tokenId = entry.getKey();
-                String functionalWeight = entry.getValue();
-                double weight = animationLogic.getArcWeight(state, functionalWeight);
-                int oldCount = place.getTokenCount(tokenId);
-                int newCount = oldCount - (int) weight;
-                place.setTokenCount(tokenId, newCount);
+    /**
+     * Records the Petri nets current state as a checkpoint of the trace, if one is being recorded
+     */
+    private void traceCheckpoint() {
+        TraceWriter traceWriter = recorder.getTraceWriter();
+        if (traceWriter != null) {
+            try {
+                traceWriter.checkpoint(animationLogic.getCompiledPetriNet().getCurrentMarking());
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not record checkpoint to trace", e);
             }
         }
     }
+
+    /**
+     * The animation logic recompiles the Petri net once its structure changes. The recorded
+     * firings refer to cells of the old snapshot, so the history is then cleared
+     *
+     * @return snapshot of the Petri nets current structure
+     */
+    private CompiledPetriNet followStructure() {
+        CompiledPetriNet compiled = animationLogic.getCompiledPetriNet();
+        if (compiled != journalNet) {
+            journal.clear();
+            journalNet = compiled;
+        }
+        return compiled;
+    }
+
+    /**
+     * @return marking of the Petri nets current token counts in the current snapshot
+     */
+    private Marking getCurrentMarking() {
+        CompiledPetriNet compiled = followStructure();
+        return new Marking(compiled, compiled.getCurrentMarking());
+    }
 }
@@ -0,0 +1,183 @@
+package uk.ac.imperial.pipe.exploration;
+
+import uk.ac.imperial.state.State;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bitstate visited set: a Bloom filter in which a state is a handful of bits set in a large bit
+ * array, so each state costs a few bits and an exploration's memory is fixed up front.
+ * <p/>
+ * A state is new if any of its bits was clear. Once the array fills up new states are
+ * increasingly likely to find all their bits set and be omitted; the chance for the next new state
+ * is (1 - e^(-kn/m))^k for n states, m bits and k bits per state, and
+ * {@link #getOmissionProbability()} accumulates it over the states added. Two threads adding the
+ * same state at the same time may both be told it is new, which only repeats work.
+ */
+public final class BitstateVisitedSet implements ProbabilisticVisitedSet {
+    /**
+     * Number of bits set per state when none is given
+     */
+    public static final int DEFAULT_HASHES = 3;
+
+    /**
+     * Log2 of the number of words per segment, 2^27 words being 1 GiB
+     */
+    private static final int SEGMENT_BITS = 27;
+
+    /**
+     * Mask of the word within a segment
+     */
+    private static final long SEGMENT_MASK = (1L << SEGMENT_BITS) - 1;
+
+    /**
+     * Number of steps used to integrate the omission probability
+     */
+    private static final int INTEGRATION_STEPS = 1024;
+
+    /**
+     * Words of the bit array, split into segments since an array holds at most 2^31 values
+     */
+    private final AtomicLongArray[] segments;
+
+    /**
+     * Number of bits, a power of two
+     */
+    private final long bits;
+
+    /**
+     * Number of bits set per state
+     */
+    private final int hashes;
+
+    /**
+     * Number of states reported as new
+     */
+    private final AtomicLong size = new AtomicLong();
+
+    /**
+     * Constructor, sets {@link #DEFAULT_HASHES} bits per state
+     * @param bytes memory to use, rounded up to a power of two
+     */
+    public BitstateVisitedSet(long bytes) {
+        this(bytes, DEFAULT_HASHES);
+    }
+
+    /**
+     * Constructor
+     * @param bytes memory to use, rounded up to a power of two
+     * @param hashes number of bits set per state
+     */
+    public BitstateVisitedSet(long bytes, int hashes) {
+        if (bytes < 8) {
+            throw new IllegalArgumentException("At least 8 bytes are needed: " + bytes);
+        }
+        if (hashes < 1) {
+            throw new IllegalArgumentException("At least one bit per state is needed: " + hashes);
+        }
+        long words = Long.highestOneBit(bytes / 8 - 1) << 1;
+        words = Math.max(1, words);
+        this.bits = words * 64;
+        this.hashes = hashes;
+        segments = new AtomicLongArray[(int) ((words + SEGMENT_MASK) >>> SEGMENT_BITS)];
+        for (int s = 0; s < segments.length; s++) {
+            segments[s] = new AtomicLongArray((int) Math.min(words - ((long) s << SEGMENT_BITS), SEGMENT_MASK + 1));
+        }
+    }
+
+    /**
+     * Sets the state's bits, derived from one 64 bit fingerprint by double hashing
+     *
+     * @param state state to add
+     * @return true if any of the state's bits was clear
+     */
+    @Override
+    public boolean add(State state) {
+        long hash = StateFingerprint.of(state);
+        long step = StateFingerprint.mix64(hash) | 1;
+        boolean isNew = false;
+        for (int i = 0; i < hashes; i++) {
+            isNew |= set(hash & (bits - 1));
+            hash += step;
+        }
+        if (isNew) {
+            size.incrementAndGet();
+        }
+        return isNew;
+    }
+
+    /**
+     * @param bit bit number
+     * @return true if the bit was clear
+     */
+    private boolean set(long bit) {
+        long word = bit >>> 6;
+        AtomicLongArray segment = segments[(int) (word >>> SEGMENT_BITS)];
+        int index = (int) (word & SEGMENT_MASK);
+        long mask = 1L << bit;
+        while (true) {
+            long current = segment.get(index);
+            if ((current & mask) != 0) {
+                return false;
+            }
+            if (segment.compareAndSet(index, current, current | mask)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return number of states added
+     */
+    @Override
+    public long size() {
+        return size.get();
+    }
+
+    /**
+     * @return number of bits in the array
+     */
+    public long getBitCount() {
+        return bits;
+    }
+
+    /**
+     * @return number of bits set per state
+     */
+    public int getHashCount() {
+        return hashes;
+    }
+
+    /**
+     * @return probability that the next new state is wrongly reported as visited
+     */
+    public double getFalsePositiveRate() {
+        return falsePositiveRate(size.get());
+    }
+
+    /**
+     * @param states number of states added
+     * @return probability that the next new state is wrongly reported as visited
+     */
+    private double falsePositiveRate(double states) {
+        return Math.pow(-Math.expm1(-hashes * states / bits), hashes);
+    }
+
+    /**
+     * Integrates the false positive rate over the states added, the expected number of omissions,
+     * and converts it to the probability of at least one
+     *
+     * @return estimated probability that at least one new state was wrongly reported as visited
+     */
+    @Override
+    public double getOmissionProbability() {
+        double states = size.get();
+        double width = states / INTEGRATION_STEPS;
+        double expected = 0;
+        for (int i = 0; i < INTEGRATION_STEPS; i++) {
+            expected += falsePositiveRate((i + 0.5) * width) * width;
+        }
+        return -Math.expm1(-expected);
+    }
+}
@@ -0,0 +1,43 @@
+package uk.ac.imperial.pipe.exploration;
+
+import uk.ac.imperial.state.State;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Visited set which keeps every state in a concurrent hash set, so
+ * it never reports a new state as visited
+ */
+public final class ConcurrentVisitedSet implements VisitedSet {
+    /**
+     * States visited so far
+     */
+    private final Set<State> states = Collections.newSetFromMap(new ConcurrentHashMap<State, Boolean>());
+
+    /**
+     * @param state state to add
+     * @return true if the state had not been visited before
+     */
+    @Override
+    public boolean add(State state) {
+        return states.add(state);
+    }
+
+    /**
+     * @return number of states added
+     */
+    @Override
+    public long size() {
+        return states.size();
+    }
+
+    /**
+     * @param state state to look for
+     * @return true if the state has been visited
+     */
+    public boolean contains(State state) {
+        return states.contains(state);
+    }
+}
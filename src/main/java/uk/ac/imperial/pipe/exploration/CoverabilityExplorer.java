@@ -0,0 +1,278 @@
+package uk.ac.imperial.pipe.exploration;
+
+import uk.ac.imperial.pipe.animation.CompiledPetriNet;
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+import uk.ac.imperial.state.State;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Builds a minimal coverability set of a Petri net with the Karp-Miller construction, which
+ * terminates on unbounded Petri nets where a reachability exploration would run out of memory.
+ * <p/>
+ * Each new marking is compared with the markings on its path from the initial marking. If it
+ * strictly covers one of them the firings in between can be repeated forever, so every cell that
+ * grew is accelerated to {@link CompiledPetriNet#INFINITY}, an omega. Markings are pruned as in
+ * the MP algorithm: a new marking covered by a kept marking is dropped, and kept markings covered
+ * by a new one are discarded and no longer expanded. Only the antichain of kept markings and the
+ * paths to the markings waiting to be expanded stay in memory.
+ * <p/>
+ * Places read by an inhibitor arc or with a capacity are not monotone: a larger count can disable a
+ * transition. Markings are only compared when they agree on the cells of such places, so those
+ * places are never accelerated. If such a place is unbounded the construction may not terminate
+ * and the node limit should be set.
+ * <p/>
+ * Timing and priorities are ignored, so the result covers the untimed Petri net and a place
+ * bounded here is bounded under any timing. Functional arc weights are not supported.
+ * Instances are not thread safe.
+ */
+public final class CoverabilityExplorer {
+    /**
+     * Compiled Petri net to explore
+     */
+    private final CompiledPetriNet compiled;
+
+    /**
+     * True for each cell of a place read by an inhibitor arc or with a capacity
+     */
+    private final boolean[] exact;
+
+    /**
+     * Maximum number of markings to expand
+     */
+    private long maximumNodes = StateSpaceExplorer.UNBOUNDED;
+
+    /**
+     * Set by {@link #cancel()} to stop the current exploration
+     */
+    private volatile boolean cancelled = false;
+
+    /**
+     * Constructor
+     * @param petriNet Petri net to explore
+     */
+    public CoverabilityExplorer(PetriNet petriNet) {
+        this(new CompiledPetriNet(petriNet));
+    }
+
+    /**
+     * Constructor
+     * @param compiled compiled Petri net to explore
+     */
+    public CoverabilityExplorer(CompiledPetriNet compiled) {
+        if (compiled.hasFunctionalWeights()) {
+            throw new IllegalArgumentException("Coverability cannot be computed with functional arc weights");
+        }
+        this.compiled = compiled;
+        exact = new boolean[compiled.getMarkingSize()];
+        for (int p = 0; p < compiled.getPlaceCount(); p++) {
+            if (compiled.getCapacity(p) > 0) {
+                markExact(p);
+            }
+        }
+        for (int t = 0; t < compiled.getTransitionCount(); t++) {
+            for (int place : compiled.inhibitorPlaces(t)) {
+                markExact(place);
+            }
+        }
+    }
+
+    /**
+     * @param place place number whose cells must be compared exactly
+     */
+    private void markExact(int place) {
+        for (int k = 0; k < compiled.getTokenCount(); k++) {
+            exact[compiled.cell(place, k)] = true;
+        }
+    }
+
+    /**
+     * Once this many markings have been expanded the exploration stops and the result is incomplete
+     *
+     * @param maximumNodes maximum number of markings to expand
+     */
+    public void setMaximumNodes(long maximumNodes) {
+        if (maximumNodes < 1) {
+            throw new IllegalArgumentException("Maximum nodes must be at least one: " + maximumNodes);
+        }
+        this.maximumNodes = maximumNodes;
+    }
+
+    /**
+     * @return maximum number of markings to expand
+     */
+    public long getMaximumNodes() {
+        return maximumNodes;
+    }
+
+    /**
+     * Stops the exploration currently running, or the next one to start if none is running.
+     * May be called from any thread
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * @return minimal coverability set from the Petri net's current marking
+     */
+    public CoverabilityResult explore() {
+        return explore(compiled.getCurrentMarking());
+    }
+
+    /**
+     * @param initial state to start from
+     * @return minimal coverability set from the state
+     */
+    public CoverabilityResult explore(State initial) {
+        return explore(compiled.getMarking(initial));
+    }
+
+    /**
+     * @param initial marking to start from, left unchanged
+     * @return minimal coverability set from the marking
+     */
+    public CoverabilityResult explore(int[] initial) {
+        List<Node> kept = new ArrayList<>();
+        Deque<Node> work = new ArrayDeque<>();
+        Node root = new Node(null, initial.clone());
+        kept.add(root);
+        work.push(root);
+
+        long expanded = 0;
+        ExplorationResult.Status status = ExplorationResult.Status.COMPLETE;
+        int[] successor = new int[initial.length];
+        while (!work.isEmpty()) {
+            if (cancelled) {
+                status = ExplorationResult.Status.CANCELLED;
+                break;
+            }
+            if (expanded == maximumNodes) {
+                status = ExplorationResult.Status.STATE_LIMIT_REACHED;
+                break;
+            }
+            Node node = work.pop();
+            if (!node.active) {
+                continue;
+            }
+            expanded++;
+            for (int t = 0; t < compiled.getTransitionCount(); t++) {
+                if (compiled.isEnabled(t, node.marking)) {
+                    compiled.fire(t, node.marking, successor);
+                    Node child = new Node(node, successor.clone());
+                    accelerate(child);
+                    if (add(child, kept)) {
+                        work.push(child);
+                    }
+                }
+            }
+        }
+
+        List<int[]> markings = new ArrayList<>(kept.size());
+        for (Node node : kept) {
+            markings.add(node.marking);
+        }
+        cancelled = false;
+        return new CoverabilityResult(compiled, status, expanded, markings);
+    }
+
+    /**
+     * Sets every cell that grew since a covered ancestor to infinity, repeating until no ancestor
+     * is covered by a smaller marking since new infinities may make further ancestors comparable
+     *
+     * @param node newly reached node
+     */
+    private void accelerate(Node node) {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Node ancestor = node.parent; ancestor != null; ancestor = ancestor.parent) {
+                if (covers(node.marking, ancestor.marking)) {
+                    for (int cell = 0; cell < node.marking.length; cell++) {
+                        if (node.marking[cell] > ancestor.marking[cell]
+                                && node.marking[cell] != CompiledPetriNet.INFINITY) {
+                            node.marking[cell] = CompiledPetriNet.INFINITY;
+                            changed = true;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the node to the kept antichain unless it is covered by a kept node, discarding any
+     * kept nodes it covers
+     *
+     * @param node newly reached node
+     * @param kept antichain of kept nodes
+     * @return true if the node was kept and must be expanded
+     */
+    private boolean add(Node node, List<Node> kept) {
+        for (Node other : kept) {
+            if (covers(other.marking, node.marking)) {
+                return false;
+            }
+        }
+        for (int i = kept.size() - 1; i >= 0; i--) {
+            Node other = kept.get(i);
+            if (covers(node.marking, other.marking)) {
+                other.active = false;
+                Node last = kept.remove(kept.size() - 1);
+                if (i < kept.size()) {
+                    kept.set(i, last);
+                }
+            }
+        }
+        kept.add(node);
+        return true;
+    }
+
+    /**
+     * @param larger marking
+     * @param smaller marking
+     * @return true if larger has at least as many tokens in every cell as smaller and the same
+     * number in every cell that must be compared exactly
+     */
+    private boolean covers(int[] larger, int[] smaller) {
+        for (int cell = 0; cell < larger.length; cell++) {
+            if (larger[cell] < smaller[cell] || exact[cell] && larger[cell] != smaller[cell]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Marking reached in the construction with the path it was reached by
+     */
+    private static final class Node {
+        /**
+         * Node this was reached from, null for the initial marking
+         */
+        private final Node parent;
+
+        /**
+         * Marking after acceleration
+         */
+        private final int[] marking;
+
+        /**
+         * False once covered by another node, the node is then not expanded
+         */
+        private boolean active = true;
+
+        /**
+         * Constructor
+         * @param parent node this was reached from, null for the initial marking
+         * @param marking marking reached
+         */
+        Node(Node parent, int[] marking) {
+            this.parent = parent;
+            this.marking = marking;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package uk.ac.imperial.pipe.exploration;
+
+import uk.ac.imperial.pipe.animation.CompiledPetriNet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Minimal coverability set found by a {@link CoverabilityExplorer}.
+ * <p/>
+ * Every reachable marking is covered by one of the markings of a complete result, and every
+ * marking of the set can be approached arbitrarily closely by reachable markings. A cell holding
+ * {@link CompiledPetriNet#INFINITY} can hold any number of tokens, so its place is unbounded.
+ */
+public final class CoverabilityResult {
+    /**
+     * Compiled Petri net the markings are numbered by
+     */
+    private final CompiledPetriNet compiled;
+
+    /**
+     * Reason the exploration finished
+     */
+    private final ExplorationResult.Status status;
+
+    /**
+     * Number of markings expanded
+     */
+    private final long nodeCount;
+
+    /**
+     * Antichain of covering markings
+     */
+    private final List<int[]> markings;
+
+    /**
+     * Constructor
+     * @param compiled compiled Petri net the markings are numbered by
+     * @param status reason the exploration finished
+     * @param nodeCount number of markings expanded
+     * @param markings antichain of covering markings
+     */
+    public CoverabilityResult(CompiledPetriNet compiled, ExplorationResult.Status status, long nodeCount,
+                              List<int[]> markings) {
+        this.compiled = compiled;
+        this.status = status;
+        this.nodeCount = nodeCount;
+        this.markings = Collections.unmodifiableList(markings);
+    }
+
+    /**
+     * @return reason the exploration finished
+     */
+    public ExplorationResult.Status getStatus() {
+        return status;
+    }
+
+    /**
+     * @return true if every marking was expanded so the set covers every reachable marking
+     */
+    public boolean isComplete() {
+        return status == ExplorationResult.Status.COMPLETE;
+    }
+
+    /**
+     * @return number of markings expanded
+     */
+    public long getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * @return covering markings, indexed by {@link CompiledPetriNet#cell(int, int)}, not to be modified
+     */
+    public List<int[]> getMarkings() {
+        return markings;
+    }
+
+    /**
+     * @return true if no place is unbounded, only conclusive for a complete result
+     */
+    public boolean isBounded() {
+        return getUnboundedPlaceIds().isEmpty();
+    }
+
+    /**
+     * @return ids of the places found to be unbounded
+     */
+    public List<String> getUnboundedPlaceIds() {
+        List<String> ids = new ArrayList<>();
+        for (int p = 0; p < compiled.getPlaceCount(); p++) {
+            if (getBound(p) == CompiledPetriNet.INFINITY) {
+                ids.add(compiled.getPlace(p).getId());
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * @param place place number
+     * @return largest total number of tokens the place holds in a covering marking,
+     * {@link CompiledPetriNet#INFINITY} if it is unbounded
+     */
+    public int getBound(int place) {
+        int bound = 0;
+        for (int[] marking : markings) {
+            long total = 0;
+            for (int k = 0; k < compiled.getTokenCount(); k++) {
+                int count = marking[compiled.cell(place, k)];
+                if (count == CompiledPetriNet.INFINITY) {
+                    return CompiledPetriNet.INFINITY;
+                }
+                total += count;
+            }
+            bound = (int) Math.max(bound, Math.min(total, CompiledPetriNet.INFINITY - 1));
+        }
+        return bound;
+    }
+
+    /**
+     * @param placeId place id
+     * @return largest total number of tokens the place holds in a covering marking,
+     * {@link CompiledPetriNet#INFINITY} if it is unbounded
+     */
+    public int getBound(String placeId) {
+        int place = compiled.getPlaceIndex(placeId);
+        if (place < 0) {
+            throw new IllegalArgumentException("No place " + placeId + " in the Petri net");
+        }
+        return getBound(place);
+    }
+
+    /**
+     * @param marking marking indexed by {@link CompiledPetriNet#cell(int, int)}
+     * @return true if a covering marking has at least as many tokens in every cell, for a complete
+     * result false means the marking cannot be covered by any reachable marking
+     */
+    public boolean covers(int[] marking) {
+        for (int[] covering : markings) {
+            boolean covered = true;
+            for (int cell = 0; cell < marking.length && covered; cell++) {
+                covered = covering[cell] >= marking[cell];
+            }
+            if (covered) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,155 @@
+package uk.ac.imperial.pipe.exploration;
+
+import java.util.Arrays;
+
+/**
+ * Infinitesimal generator of a continuous time Markov chain in compressed sparse row form, made
+ * by a {@link CtmcExporter}.
+ * <p/>
+ * The entries of row i are held at positions {@link #getRowStart(int)} to {@link #getRowEnd(int)}
+ * of the column and value arrays, in ascending column order. Every row holds its diagonal entry,
+ * minus the total rate out of the state, even if it is zero.
+ */
+public final class CsrGenerator {
+    /**
+     * Reason the exploration finished
+     */
+    private final ExplorationResult.Status status;
+
+    /**
+     * Position of the first entry of each row, and the number of entries at the end
+     */
+    private final int[] rowStarts;
+
+    /**
+     * Column of each entry
+     */
+    private final int[] columns;
+
+    /**
+     * Value of each entry
+     */
+    private final double[] values;
+
+    /**
+     * Probability of starting in each state
+     */
+    private final double[] initial;
+
+    /**
+     * Constructor
+     * @param status reason the exploration finished
+     * @param rowStarts position of the first entry of each row, and the number of entries at the end
+     * @param columns column of each entry
+     * @param values value of each entry
+     * @param initial probability of starting in each state
+     */
+    CsrGenerator(ExplorationResult.Status status, int[] rowStarts, int[] columns, double[] values,
+                 double[] initial) {
+        this.status = status;
+        this.rowStarts = rowStarts;
+        this.columns = columns;
+        this.values = values;
+        this.initial = initial;
+    }
+
+    /**
+     * @return reason the exploration finished, rows of states left unexpanded are empty
+     *         apart from a zero diagonal unless it is {@link ExplorationResult.Status#COMPLETE}
+     */
+    public ExplorationResult.Status getStatus() {
+        return status;
+    }
+
+    /**
+     * @return number of states, which is the number of rows and columns
+     */
+    public int getStateCount() {
+        return rowStarts.length - 1;
+    }
+
+    /**
+     * @return number of stored entries
+     */
+    public int getEntryCount() {
+        return rowStarts[rowStarts.length - 1];
+    }
+
+    /**
+     * @param row row number
+     * @return position of the row's first entry
+     */
+    public int getRowStart(int row) {
+        return rowStarts[row];
+    }
+
+    /**
+     * @param row row number
+     * @return position after the row's last entry
+     */
+    public int getRowEnd(int row) {
+        return rowStarts[row + 1];
+    }
+
+    /**
+     * @param entry entry position
+     * @return column of the entry
+     */
+    public int getColumn(int entry) {
+        return columns[entry];
+    }
+
+    /**
+     * @param entry entry position
+     * @return value of the entry
+     */
+    public double getValue(int entry) {
+        return values[entry];
+    }
+
+    /**
+     * @param row row number
+     * @param column column number
+     * @return value at the row and column, 0 if not stored
+     */
+    public double get(int row, int column) {
+        int low = rowStarts[row];
+        int high = rowStarts[row + 1] - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (columns[middle] < column) {
+                low = middle + 1;
+            } else if (columns[middle] > column) {
+                high = middle - 1;
+            } else {
+                return values[middle];
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return probability of starting in each state
+     */
+    public double[] getInitialDistribution() {
+        return initial.clone();
+    }
+
+    /**
+     * Multiplies a row vector by the generator, as used by iterative solvers
+     *
+     * @param vector row vector of {@link #getStateCount()} entries
+     * @param result receives vector times the generator, may not be vector
+     */
+    public void leftMultiply(double[] vector, double[] result) {
+        Arrays.fill(result, 0);
+        for (int row = 0; row < rowStarts.length - 1; row++) {
+            double weight = vector[row];
+            if (weight != 0) {
+                for (int entry = rowStarts[row]; entry < rowStarts[row + 1]; entry++) {
+                    result[columns[entry]] += weight * values[entry];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,449 @@
+package uk.ac.imperial.pipe.exploration;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Streams the infinitesimal generator of the continuous time Markov chain of a generalised
+ * stochastic Petri net straight out of a {@link TangibleStateExplorer}, without building maps of
+ * {@link uk.ac.imperial.state.State}s.
+ * <p/>
+ * States are the tangible markings, numbered by their ids in the store. Rates of timed firings
+ * reaching the same state, directly or through immediate firings, are added into one entry,
+ * firings back into the same state are left out as they do not change the chain, and each row
+ * ends up with the diagonal entry minus its total rate. Rows are produced in state order as the
+ * exploration goes, so they can be handed to a {@link GeneratorRowListener}, gathered into a
+ * {@link CsrGenerator} in primitive arrays, or written to a file of coordinates.
+ * <p/>
+ * The coordinate file is written with NIO in big-endian order: the int 0x43544D43, the int
+ * version 1, then the long number of states, long number of initial entries and long number of
+ * generator entries, followed by each initial entry as a long state and double probability and
+ * each generator entry as a long row, long column and double value, in row order.
+ */
+public final class CtmcExporter {
+    /**
+     * First int of a coordinate file
+     */
+    public static final int COO_MAGIC = 0x43544D43;
+
+    /**
+     * Version of the coordinate file layout
+     */
+    public static final int COO_VERSION = 1;
+
+    /**
+     * Bytes before the first entry of a coordinate file
+     */
+    private static final int COO_HEADER_BYTES = 4 + 4 + 8 + 8 + 8;
+
+    /**
+     * Bytes buffered before writing to a coordinate file
+     */
+    private static final int BUFFER_BYTES = 1 << 16;
+
+    /**
+     * Store the states are numbered by
+     */
+    private final OffHeapStateStore store;
+
+    /**
+     * Explorer the rates come from
+     */
+    private final TangibleStateExplorer explorer;
+
+    /**
+     * Constructor
+     * @param store empty store the states are kept in and numbered by, its compiled Petri net is exported
+     */
+    public CtmcExporter(OffHeapStateStore store) {
+        this.store = store;
+        explorer = new TangibleStateExplorer(store);
+    }
+
+    /**
+     * @return explorer the rates come from, for changing its limits
+     */
+    public TangibleStateExplorer getExplorer() {
+        return explorer;
+    }
+
+    /**
+     * Explores from the initial marking, passing each row to the listener as soon as it is complete
+     *
+     * @param initial marking to start from
+     * @param listener receives the initial distribution and rows
+     * @return summary of the exploration
+     * @throws IllegalStateException if the store is not empty or the Petri net's structure has changed
+     * since the store's compiled Petri net was made
+     */
+    public ExplorationResult generate(int[] initial, GeneratorRowListener listener) {
+        if (store.size() != 0) {
+            throw new IllegalStateException("States must be numbered from zero so the store must be empty");
+        }
+        if (!store.getCompiledPetriNet().isCurrent()) {
+            throw new IllegalStateException("The Petri net has changed since the store's compiled Petri net was made");
+        }
+        RowAssembler assembler = new RowAssembler(listener);
+        ExplorationResult result = explorer.explore(initial, assembler);
+        assembler.finish(store.size());
+        return result;
+    }
+
+    /**
+     * @return generator of the chain from the net's current marking
+     * @throws IllegalStateException if the store is not empty, the Petri net has changed since the
+     * store's compiled Petri net was made or the chain is too large for arrays
+     */
+    public CsrGenerator toCsr() {
+        return toCsr(store.getCompiledPetriNet().getCurrentMarking());
+    }
+
+    /**
+     * @param initial marking to start from
+     * @return generator of the chain
+     * @throws IllegalStateException if the store is not empty or the chain is too large for arrays
+     */
+    public CsrGenerator toCsr(int[] initial) {
+        CsrBuilder builder = new CsrBuilder();
+        ExplorationResult result = generate(initial, builder);
+        return builder.build(result.getStatus(), (int) store.size());
+    }
+
+    /**
+     * @param file file to write the generator of the chain from the net's current marking to
+     * @return summary of the exploration
+     * @throws IOException if the file cannot be written
+     */
+    public ExplorationResult writeCoo(File file) throws IOException {
+        return writeCoo(store.getCompiledPetriNet().getCurrentMarking(), file);
+    }
+
+    /**
+     * @param initial marking to start from
+     * @param file file to write the generator of the chain to
+     * @return summary of the exploration
+     * @throws IOException if the file cannot be written
+     */
+    public ExplorationResult writeCoo(int[] initial, File file) throws IOException {
+        try (CooWriter writer = new CooWriter(file)) {
+            ExplorationResult result = generate(initial, writer);
+            writer.finish(store.size());
+            return result;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Turns the rates of a {@link TangibleStateExplorer} into complete rows
+     */
+    private static final class RowAssembler implements TangibleExplorationListener {
+        /**
+         * Receives the rows
+         */
+        private final GeneratorRowListener listener;
+
+        /**
+         * Rates out of the row being gathered
+         */
+        private final RateAccumulator rates = new RateAccumulator();
+
+        /**
+         * Row being gathered, every row before it has been passed on
+         */
+        private long row = 0;
+
+        /**
+         * Columns of the row passed on
+         */
+        private long[] columns = new long[16];
+
+        /**
+         * Values of the row passed on
+         */
+        private double[] values = new double[16];
+
+        /**
+         * Constructor
+         * @param listener receives the rows
+         */
+        private RowAssembler(GeneratorRowListener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void initial(long id, double probability) {
+            listener.initial(id, probability);
+        }
+
+        @Override
+        public void state(long id) {
+        }
+
+        @Override
+        public void rate(long source, long target, double rate) {
+            finish(source);
+            if (target != source) {
+                rates.add(target, rate);
+            }
+        }
+
+        /**
+         * Passes on every row before the given one
+         *
+         * @param end first row not to pass on
+         */
+        private void finish(long end) {
+            while (row < end) {
+                emit();
+                rates.clear();
+                row++;
+            }
+        }
+
+        /**
+         * Passes on the row being gathered with its diagonal
+         */
+        private void emit() {
+            int count = rates.size() + 1;
+            if (columns.length < count) {
+                columns = new long[Math.max(count, columns.length * 2)];
+                values = new double[columns.length];
+            }
+            double total = 0;
+            for (int i = 0; i < rates.size(); i++) {
+                columns[i] = rates.target(i);
+                total += rates.rate(i);
+            }
+            columns[count - 1] = row;
+            Arrays.sort(columns, 0, count);
+            for (int i = 0; i < count; i++) {
+                values[i] = columns[i] == row ? -total : rates.rate(rates.find(columns[i]));
+            }
+            listener.row(row, columns, values, count);
+        }
+    }
+
+    /**
+     * Gathers rows into primitive arrays
+     */
+    private static final class CsrBuilder implements GeneratorRowListener {
+        /**
+         * Position of the first entry of each row
+         */
+        private int[] rowStarts = new int[1024];
+
+        /**
+         * Column of each entry
+         */
+        private int[] columns = new int[4096];
+
+        /**
+         * Value of each entry
+         */
+        private double[] values = new double[4096];
+
+        /**
+         * Number of entries
+         */
+        private int entries = 0;
+
+        /**
+         * Initial state of each initial entry
+         */
+        private long[] initialStates = new long[4];
+
+        /**
+         * Probability of each initial entry
+         */
+        private double[] initialProbabilities = new double[4];
+
+        /**
+         * Number of initial entries
+         */
+        private int initialCount = 0;
+
+        @Override
+        public void initial(long state, double probability) {
+            if (initialCount == initialStates.length) {
+                initialStates = Arrays.copyOf(initialStates, initialCount * 2);
+                initialProbabilities = Arrays.copyOf(initialProbabilities, initialCount * 2);
+            }
+            initialStates[initialCount] = state;
+            initialProbabilities[initialCount++] = probability;
+        }
+
+        @Override
+        public void row(long row, long[] rowColumns, double[] rowValues, int count) {
+            if (row >= Integer.MAX_VALUE - 1 || (long) entries + count > Integer.MAX_VALUE - 8) {
+                throw new IllegalStateException("Generator is too large to hold in arrays, write it to a file instead");
+            }
+            if (row + 1 >= rowStarts.length) {
+                rowStarts = Arrays.copyOf(rowStarts, grow(rowStarts.length, (int) row + 2));
+            }
+            if (entries + count > columns.length) {
+                int length = grow(columns.length, entries + count);
+                columns = Arrays.copyOf(columns, length);
+                values = Arrays.copyOf(values, length);
+            }
+            rowStarts[(int) row] = entries;
+            for (int i = 0; i < count; i++) {
+                columns[entries] = (int) rowColumns[i];
+                values[entries++] = rowValues[i];
+            }
+            rowStarts[(int) row + 1] = entries;
+        }
+
+        /**
+         * @param status reason the exploration finished
+         * @param states number of states
+         * @return generator of the rows gathered
+         */
+        private CsrGenerator build(ExplorationResult.Status status, int states) {
+            double[] initial = new double[states];
+            for (int i = 0; i < initialCount; i++) {
+                initial[(int) initialStates[i]] += initialProbabilities[i];
+            }
+            return new CsrGenerator(status, Arrays.copyOf(rowStarts, states + 1), Arrays.copyOf(columns, entries),
+                    Arrays.copyOf(values, entries), initial);
+        }
+
+        /**
+         * @param length current length
+         * @param needed length needed
+         * @return new length, at least doubling while it fits an array
+         */
+        private static int grow(int length, int needed) {
+            long doubled = Math.min((long) length * 2, Integer.MAX_VALUE - 8);
+            return (int) Math.max(doubled, needed);
+        }
+    }
+
+    /**
+     * Streams rows to a coordinate file
+     */
+    private static final class CooWriter implements GeneratorRowListener, AutoCloseable {
+        /**
+         * File being written
+         */
+        private final RandomAccessFile file;
+
+        /**
+         * Channel of the file
+         */
+        private final FileChannel channel;
+
+        /**
+         * Bytes waiting to be written
+         */
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+
+        /**
+         * Number of initial entries written
+         */
+        private long initialCount = 0;
+
+        /**
+         * Number of generator entries written
+         */
+        private long entryCount = 0;
+
+        /**
+         * Constructor
+         * @param file file to write, truncated
+         * @throws IOException if the file cannot be opened
+         */
+        private CooWriter(File file) throws IOException {
+            this.file = new RandomAccessFile(file, "rw");
+            this.file.setLength(0);
+            channel = this.file.getChannel();
+            channel.position(COO_HEADER_BYTES);
+        }
+
+        @Override
+        public void initial(long state, double probability) {
+            ensure(16);
+            buffer.putLong(state).putDouble(probability);
+            initialCount++;
+        }
+
+        @Override
+        public void row(long row, long[] columns, double[] values, int count) {
+            for (int i = 0; i < count; i++) {
+                ensure(24);
+                buffer.putLong(row).putLong(columns[i]).putDouble(values[i]);
+            }
+            entryCount += count;
+        }
+
+        /**
+         * Writes the buffered entries and the header
+         *
+         * @param states number of states
+         * @throws IOException if the file cannot be written
+         */
+        private void finish(long states) throws IOException {
+            flush();
+            ByteBuffer header = ByteBuffer.allocate(COO_HEADER_BYTES);
+            header.putInt(COO_MAGIC).putInt(COO_VERSION).putLong(states).putLong(initialCount).putLong(entryCount);
+            header.flip();
+            long position = 0;
+            while (header.hasRemaining()) {
+                position += channel.write(header, position);
+            }
+        }
+
+        /**
+         * @param bytes bytes about to be put in the buffer
+         */
+        private void ensure(int bytes) {
+            if (buffer.remaining() < bytes) {
+                try {
+                    flush();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+
+        /**
+         * Writes the buffered bytes
+         *
+         * @throws IOException if the file cannot be written
+         */
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            file.close();
+        }
+    }
+
+    /**
+     * Carries a write failure out of a listener callback, which cannot throw checked exceptions
+     */
+    private static final class UncheckedIOException extends RuntimeException {
+        /**
+         * Constructor
+         * @param cause write failure
+         */
+        private UncheckedIOException(IOException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized IOException getCause() {
+            return (IOException) super.getCause();
+        }
+    }
+}
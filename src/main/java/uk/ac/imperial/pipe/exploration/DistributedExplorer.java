@@ -0,0 +1,880 @@
+package uk.ac.imperial.pipe.exploration;
+
+import uk.ac.imperial.pipe.animation.CompiledPetriNet;
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One worker of a state space exploration spread over several processes, possibly on different
+ * machines, that talk over TCP sockets.
+ * <p/>
+ * Every worker is given the same Petri net and the same list of worker addresses, and is told its
+ * own position in the list. Each state is owned by the worker picked by its hash, which alone
+ * stores it in an {@link OffHeapStateStore} and expands it with the same enabling, timing and
+ * priority rules as {@link StoredStateExplorer}. Successors owned by other workers are gathered
+ * into batches of varint encoded markings and sent to their owners, so no {@link uk.ac.imperial.state.State}
+ * objects cross the network.
+ * <p/>
+ * The first worker coordinates. Whenever it is idle it polls every worker for the number of
+ * batches sent and received and whether it is idle, and stops everyone once two polls in a row find
+ * every worker idle with every batch sent having been received. It then returns the totals of all
+ * workers, while the other workers return the totals of their own partition.
+ * <p/>
+ * Each worker runs {@link #explore(int[])} in its own thread, usually in its own JVM. Instances
+ * are not thread safe apart from {@link #cancel()}.
+ */
+public final class DistributedExplorer {
+    /**
+     * Number of markings sent in each batch when none is given
+     */
+    public static final int DEFAULT_BATCH_SIZE = 4096;
+
+    /**
+     * Milliseconds to wait for the other workers to start when none is given
+     */
+    public static final int DEFAULT_CONNECT_TIMEOUT = 30000;
+
+    /**
+     * Number of states expanded between checks for messages
+     */
+    private static final int EXPANSION_CHUNK = 1024;
+
+    /**
+     * Milliseconds an idle worker waits for a message, and the coordinator waits between polls
+     */
+    private static final long POLL_MILLIS = 5;
+
+    /**
+     * Message carrying a batch of markings
+     */
+    private static final byte BATCH = 1;
+
+    /**
+     * Message from the coordinator asking for a report
+     */
+    private static final byte PROBE = 2;
+
+    /**
+     * Message to the coordinator with a worker's counters
+     */
+    private static final byte REPORT = 3;
+
+    /**
+     * Message from the coordinator ending the exploration
+     */
+    private static final byte STOP = 4;
+
+    /**
+     * Message to the coordinator asking it to cancel the exploration
+     */
+    private static final byte CANCEL = 5;
+
+    /**
+     * Put in the inbox when a connection fails
+     */
+    private static final byte FAILED = 6;
+
+    /**
+     * Compiled Petri net to explore
+     */
+    private final CompiledPetriNet compiled;
+
+    /**
+     * Addresses every worker listens on
+     */
+    private final List<InetSocketAddress> workers;
+
+    /**
+     * Position of this worker in the list
+     */
+    private final int index;
+
+    /**
+     * Number of markings sent in each batch
+     */
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    /**
+     * Milliseconds to wait for the other workers to start
+     */
+    private int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+
+    /**
+     * Set by {@link #cancel()} to stop the current exploration
+     */
+    private volatile boolean cancelled = false;
+
+    /**
+     * Number of states each worker stored, filled in on the coordinator by a complete exploration
+     */
+    private long[] workerStates = new long[0];
+
+    /**
+     * Constructor
+     * @param petriNet Petri net to explore, must be the same on every worker
+     * @param workers addresses every worker listens on, in the same order on every worker
+     * @param index position of this worker in the list, the worker at 0 coordinates
+     */
+    public DistributedExplorer(PetriNet petriNet, List<InetSocketAddress> workers, int index) {
+        this(new CompiledPetriNet(petriNet), workers, index);
+    }
+
+    /**
+     * Constructor
+     * @param compiled compiled Petri net to explore, must be the same on every worker
+     * @param workers addresses every worker listens on, in the same order on every worker
+     * @param index position of this worker in the list, the worker at 0 coordinates
+     */
+    public DistributedExplorer(CompiledPetriNet compiled, List<InetSocketAddress> workers, int index) {
+        if (index < 0 || index >= workers.size()) {
+            throw new IllegalArgumentException("Worker " + index + " is not one of " + workers.size() + " workers");
+        }
+        this.compiled = compiled;
+        this.workers = new ArrayList<>(workers);
+        this.index = index;
+    }
+
+    /**
+     * @param batchSize number of markings gathered before a batch is sent
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least one: " + batchSize);
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return number of markings gathered before a batch is sent
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @param connectTimeout milliseconds to wait for the other workers to start
+     */
+    public void setConnectTimeout(int connectTimeout) {
+        if (connectTimeout < 1) {
+            throw new IllegalArgumentException("Connect timeout must be at least one: " + connectTimeout);
+        }
+        this.connectTimeout = connectTimeout;
+    }
+
+    /**
+     * @return milliseconds to wait for the other workers to start
+     */
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    /**
+     * @return true if this worker coordinates the exploration
+     */
+    public boolean isCoordinator() {
+        return index == 0;
+    }
+
+    /**
+     * @param marking token counts of a state
+     * @return position of the worker that owns the state
+     */
+    public int getOwner(int[] marking) {
+        return (int) ((StateFingerprint.of(marking) >>> 1) % workers.size());
+    }
+
+    /**
+     * @return number of states each worker stored in the last exploration, empty unless this
+     *         worker coordinated an exploration that completed
+     */
+    public long[] getWorkerStates() {
+        return workerStates.clone();
+    }
+
+    /**
+     * Stops the exploration currently running on every worker, or the next one this worker takes
+     * part in if none is running. May be called from any thread
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Takes part in exploring every state reachable from the initial marking, returning once
+     * every worker is done
+     *
+     * @param initial marking to start from, must be the same on every worker
+     * @return on the coordinator the totals of all workers, otherwise the totals of this worker's partition
+     * @throws IOException if the workers cannot connect or a connection fails
+     */
+    public ExplorationResult explore(int[] initial) throws IOException {
+        workerStates = new long[0];
+        try (Session session = new Session()) {
+            session.connect();
+            return session.run(initial);
+        } finally {
+            cancelled = false;
+        }
+    }
+
+    /**
+     * Message read from another worker
+     */
+    private static final class Message {
+        /**
+         * Kind of message
+         */
+        private final byte type;
+
+        /**
+         * Position of the worker that sent it
+         */
+        private final int from;
+
+        /**
+         * Numbers carried by the message
+         */
+        private final long[] values;
+
+        /**
+         * Encoded markings of a batch
+         */
+        private final byte[] bytes;
+
+        /**
+         * Why the connection failed
+         */
+        private final IOException failure;
+
+        /**
+         * Constructor
+         * @param type kind of message
+         * @param from position of the worker that sent it
+         * @param values numbers carried by the message
+         * @param bytes encoded markings of a batch, or null
+         */
+        private Message(byte type, int from, long[] values, byte[] bytes) {
+            this.type = type;
+            this.from = from;
+            this.values = values;
+            this.bytes = bytes;
+            failure = null;
+        }
+
+        /**
+         * Constructor for a failed connection
+         * @param from position of the worker the connection was to
+         * @param failure why the connection failed
+         */
+        private Message(int from, IOException failure) {
+            type = FAILED;
+            this.from = from;
+            values = new long[0];
+            bytes = null;
+            this.failure = failure;
+        }
+    }
+
+    /**
+     * Markings waiting to be sent to one worker
+     */
+    private static final class Batch {
+        /**
+         * Varint encoded markings
+         */
+        private byte[] bytes = new byte[256];
+
+        /**
+         * Number of bytes used
+         */
+        private int length = 0;
+
+        /**
+         * Number of markings
+         */
+        private int count = 0;
+
+        /**
+         * @param marking marking to append
+         */
+        private void add(int[] marking) {
+            if (bytes.length - length < marking.length * 5) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + marking.length * 5));
+            }
+            for (int value : marking) {
+                while ((value & ~0x7F) != 0) {
+                    bytes[length++] = (byte) ((value & 0x7F) | 0x80);
+                    value >>>= 7;
+                }
+                bytes[length++] = (byte) value;
+            }
+            count++;
+        }
+
+        /**
+         * Empties the batch
+         */
+        private void clear() {
+            length = 0;
+            count = 0;
+        }
+    }
+
+    /**
+     * Connections and partition of one exploration
+     */
+    private final class Session implements Closeable {
+        /**
+         * Socket the other workers connect to
+         */
+        private ServerSocket server;
+
+        /**
+         * Sockets of every connection
+         */
+        private final List<Socket> sockets = new ArrayList<>();
+
+        /**
+         * Sockets to each worker, null for this one
+         */
+        private final Socket[] outgoing = new Socket[workers.size()];
+
+        /**
+         * Streams to each worker, null for this one
+         */
+        private final DataOutputStream[] out = new DataOutputStream[workers.size()];
+
+        /**
+         * Counted down as each connection from another worker ends
+         */
+        private final CountDownLatch closed = new CountDownLatch(workers.size() - 1);
+
+        /**
+         * Markings waiting to be sent to each worker
+         */
+        private final Batch[] batches = new Batch[workers.size()];
+
+        /**
+         * Messages read from the other workers
+         */
+        private final LinkedBlockingQueue<Message> inbox = new LinkedBlockingQueue<>();
+
+        /**
+         * States owned by this worker
+         */
+        private final OffHeapStateStore store = new OffHeapStateStore(compiled);
+
+        /**
+         * Number of stored states that have been expanded
+         */
+        private long expanded = 0;
+
+        /**
+         * Number of distinct pairs of an expanded state and a successor
+         */
+        private long edges = 0;
+
+        /**
+         * Number of batches sent
+         */
+        private long sent = 0;
+
+        /**
+         * Number of batches received
+         */
+        private long received = 0;
+
+        /**
+         * Set once the exploration has ended, so failing connections are expected
+         */
+        private volatile boolean stopped = false;
+
+        /**
+         * Set once the exploration has ended normally, so connections are closed gracefully
+         */
+        private boolean finished = false;
+
+        /**
+         * Marking being expanded or decoded
+         */
+        private final int[] marking = new int[compiled.getMarkingSize()];
+
+        /**
+         * Successor being worked out
+         */
+        private final int[] successor = new int[compiled.getMarkingSize()];
+
+        /**
+         * Transitions allowed to fire in the marking being expanded
+         */
+        private final BitSet firable = new BitSet();
+
+        /**
+         * Different successors of the marking being expanded so far
+         */
+        private final int[][] reached = new int[compiled.getTransitionCount()][];
+
+        /**
+         * Hash of each different successor
+         */
+        private final int[] reachedHashes = new int[compiled.getTransitionCount()];
+
+        /**
+         * Number of different successors of the marking being expanded so far
+         */
+        private int reachedCount = 0;
+
+        /**
+         * Opens a connection to every other worker and accepts one from each
+         *
+         * @throws IOException if the workers cannot connect in time
+         */
+        private void connect() throws IOException {
+            long deadline = System.currentTimeMillis() + connectTimeout;
+            server = new ServerSocket();
+            server.setReuseAddress(true);
+            server.bind(workers.get(index));
+            for (int worker = 0; worker < workers.size(); worker++) {
+                batches[worker] = new Batch();
+                if (worker != index) {
+                    Socket socket = open(workers.get(worker), deadline);
+                    outgoing[worker] = socket;
+                    out[worker] = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                    out[worker].writeInt(index);
+                    out[worker].flush();
+                }
+            }
+            for (int accepted = 1; accepted < workers.size(); accepted++) {
+                server.setSoTimeout((int) Math.max(1, deadline - System.currentTimeMillis()));
+                Socket socket;
+                try {
+                    socket = server.accept();
+                } catch (SocketTimeoutException e) {
+                    throw new IOException("Timed out waiting for workers to connect to worker " + index, e);
+                }
+                sockets.add(socket);
+                socket.setTcpNoDelay(true);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                int from = in.readInt();
+                if (from < 0 || from >= workers.size() || from == index) {
+                    throw new IOException("Unexpected connection claiming to be worker " + from);
+                }
+                Thread receiver = new Thread(new Receiver(in, from), "Exploration worker " + index + " from " + from);
+                receiver.setDaemon(true);
+                receiver.start();
+            }
+        }
+
+        /**
+         * @param address address of a worker
+         * @param deadline time after which to give up
+         * @return socket connected to the worker
+         * @throws IOException if the worker cannot be reached in time
+         */
+        private Socket open(InetSocketAddress address, long deadline) throws IOException {
+            while (true) {
+                Socket socket = new Socket();
+                sockets.add(socket);
+                try {
+                    socket.connect(address, (int) Math.max(1, deadline - System.currentTimeMillis()));
+                    socket.setTcpNoDelay(true);
+                    return socket;
+                } catch (ConnectException | SocketTimeoutException e) {
+                    socket.close();
+                    if (System.currentTimeMillis() >= deadline) {
+                        throw new IOException("Timed out connecting to worker at " + address, e);
+                    }
+                    try {
+                        Thread.sleep(POLL_MILLIS * 10);
+                    } catch (InterruptedException interrupted) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted connecting to worker at " + address, interrupted);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Expands states and answers messages until the exploration ends
+         *
+         * @param initial marking to start from
+         * @return summary of the exploration
+         * @throws IOException if a connection fails
+         */
+        private ExplorationResult run(int[] initial) throws IOException {
+            if (getOwner(initial) == index) {
+                store.addIfAbsent(initial);
+            }
+            boolean cancelRequested = false;
+            int round = 0;
+            int reports = workers.size();
+            boolean evaluated = true;
+            long roundStarted = 0;
+            long[] totals = new long[3];
+            long[] previousTotals = null;
+            long[] states = new long[workers.size()];
+            long totalEdges = 0;
+
+            while (true) {
+                if (cancelled && !cancelRequested) {
+                    cancelRequested = true;
+                    if (isCoordinator()) {
+                        return stop(true);
+                    }
+                    send(0, CANCEL);
+                }
+                boolean idle = expanded == store.size();
+                if (idle) {
+                    flush();
+                    long wait = previousTotals == null ? POLL_MILLIS : 0;
+                    if (isCoordinator() && evaluated && System.currentTimeMillis() - roundStarted >= wait) {
+                        round++;
+                        reports = 1;
+                        evaluated = false;
+                        roundStarted = System.currentTimeMillis();
+                        totals = new long[]{sent, received, 1};
+                        states[0] = store.size();
+                        totalEdges = edges;
+                        for (int worker = 1; worker < workers.size(); worker++) {
+                            send(worker, PROBE, round);
+                        }
+                    }
+                }
+                Message message = idle ? poll() : inbox.poll();
+                while (message != null) {
+                    switch (message.type) {
+                        case BATCH:
+                            receive(message);
+                            break;
+                        case PROBE:
+                            boolean done = expanded == store.size() && isFlushed();
+                            send(0, REPORT, message.values[0], sent, received, done ? 1 : 0, store.size(), edges);
+                            break;
+                        case REPORT:
+                            if (message.values[0] == round) {
+                                totals[0] += message.values[1];
+                                totals[1] += message.values[2];
+                                totals[2] &= message.values[3];
+                                states[message.from] = message.values[4];
+                                totalEdges += message.values[5];
+                                reports++;
+                            }
+                            break;
+                        case STOP:
+                            stopped = true;
+                            finished = true;
+                            return new ExplorationResult(message.values[0] == 0 ? ExplorationResult.Status.COMPLETE
+                                    : ExplorationResult.Status.CANCELLED, store.size(), edges);
+                        case CANCEL:
+                            if (!cancelRequested) {
+                                return stop(true);
+                            }
+                            break;
+                        default:
+                            throw new IOException("Connection to worker " + message.from + " failed",
+                                    message.failure);
+                    }
+                    message = inbox.poll();
+                }
+                if (!evaluated && reports == workers.size()) {
+                    evaluated = true;
+                    boolean quiet = totals[2] == 1 && totals[0] == totals[1];
+                    if (quiet && Arrays.equals(totals, previousTotals)) {
+                        workerStates = states.clone();
+                        long total = 0;
+                        for (long count : states) {
+                            total += count;
+                        }
+                        stop(false);
+                        return new ExplorationResult(ExplorationResult.Status.COMPLETE, total, totalEdges);
+                    }
+                    previousTotals = quiet ? totals.clone() : null;
+                }
+                expand();
+            }
+        }
+
+        /**
+         * Waits briefly for a message
+         *
+         * @return message, or null if none came
+         * @throws IOException if interrupted
+         */
+        private Message poll() throws IOException {
+            try {
+                return inbox.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted waiting for other workers", e);
+            }
+        }
+
+        /**
+         * Tells every other worker to stop
+         *
+         * @param cancel true if the exploration was cancelled
+         * @return result of this worker
+         * @throws IOException if a connection fails
+         */
+        private ExplorationResult stop(boolean cancel) throws IOException {
+            stopped = true;
+            finished = true;
+            for (int worker = 1; worker < workers.size(); worker++) {
+                send(worker, STOP, cancel ? 1 : 0);
+            }
+            return new ExplorationResult(cancel ? ExplorationResult.Status.CANCELLED
+                    : ExplorationResult.Status.COMPLETE, store.size(), edges);
+        }
+
+        /**
+         * Expands a chunk of the stored states not yet expanded
+         *
+         * @throws IOException if a batch cannot be sent
+         */
+        private void expand() throws IOException {
+            for (int i = 0; i < EXPANSION_CHUNK && expanded < store.size(); i++) {
+                store.get(expanded++, marking);
+                compiled.filterEnabled(compiled.enabledTransitions(marking), firable);
+                reachedCount = 0;
+                for (int t = firable.nextSetBit(0); t >= 0; t = firable.nextSetBit(t + 1)) {
+                    compiled.fire(t, marking, successor);
+                    if (addReached()) {
+                        edges++;
+                    }
+                    int owner = getOwner(successor);
+                    if (owner == index) {
+                        store.addIfAbsent(successor);
+                    } else {
+                        batches[owner].add(successor);
+                        if (batches[owner].count >= batchSize) {
+                            sendBatch(owner);
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Remembers the successor as reached from the marking being expanded
+         *
+         * @return true if no other firing of the marking has reached it
+         */
+        private boolean addReached() {
+            int hash = Arrays.hashCode(successor);
+            for (int i = 0; i < reachedCount; i++) {
+                if (reachedHashes[i] == hash && Arrays.equals(reached[i], successor)) {
+                    return false;
+                }
+            }
+            if (reached[reachedCount] == null) {
+                reached[reachedCount] = new int[successor.length];
+            }
+            System.arraycopy(successor, 0, reached[reachedCount], 0, successor.length);
+            reachedHashes[reachedCount++] = hash;
+            return true;
+        }
+
+        /**
+         * Stores the markings of a batch
+         *
+         * @param message batch to store
+         */
+        private void receive(Message message) {
+            byte[] bytes = message.bytes;
+            int position = 0;
+            for (long i = 0; i < message.values[0]; i++) {
+                for (int cell = 0; cell < marking.length; cell++) {
+                    int value = 0;
+                    int shift = 0;
+                    byte b;
+                    do {
+                        b = bytes[position++];
+                        value |= (b & 0x7F) << shift;
+                        shift += 7;
+                    } while (b < 0);
+                    marking[cell] = value;
+                }
+                store.addIfAbsent(marking);
+            }
+            received++;
+        }
+
+        /**
+         * @return true if no markings are waiting to be sent
+         */
+        private boolean isFlushed() {
+            for (Batch batch : batches) {
+                if (batch.count > 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Sends every partly filled batch
+         *
+         * @throws IOException if a batch cannot be sent
+         */
+        private void flush() throws IOException {
+            for (int worker = 0; worker < batches.length; worker++) {
+                if (batches[worker].count > 0) {
+                    sendBatch(worker);
+                }
+            }
+        }
+
+        /**
+         * @param worker worker to send the waiting markings to
+         * @throws IOException if the batch cannot be sent
+         */
+        private void sendBatch(int worker) throws IOException {
+            Batch batch = batches[worker];
+            DataOutputStream stream = out[worker];
+            stream.writeByte(BATCH);
+            stream.writeInt(batch.count);
+            stream.writeInt(batch.length);
+            stream.write(batch.bytes, 0, batch.length);
+            stream.flush();
+            batch.clear();
+            sent++;
+        }
+
+        /**
+         * @param worker worker to send to
+         * @param type kind of message
+         * @param values numbers carried by the message
+         * @throws IOException if the message cannot be sent
+         */
+        private void send(int worker, byte type, long... values) throws IOException {
+            DataOutputStream stream = out[worker];
+            stream.writeByte(type);
+            for (long value : values) {
+                stream.writeLong(value);
+            }
+            stream.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            stopped = true;
+            try {
+                if (finished) {
+                    // Close gracefully, reading until every other worker has stopped sending so
+                    // that no connection is reset with data still unread
+                    for (int worker = 0; worker < outgoing.length; worker++) {
+                        if (outgoing[worker] != null) {
+                            out[worker].flush();
+                            outgoing[worker].shutdownOutput();
+                        }
+                    }
+                    try {
+                        closed.await(connectTimeout, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            } finally {
+                for (Socket socket : sockets) {
+                    socket.close();
+                }
+                if (server != null) {
+                    server.close();
+                }
+                store.close();
+            }
+        }
+
+        /**
+         * Reads messages from one worker into the inbox
+         */
+        private final class Receiver implements Runnable {
+            /**
+             * Stream from the worker
+             */
+            private final DataInputStream in;
+
+            /**
+             * Position of the worker
+             */
+            private final int from;
+
+            /**
+             * Constructor
+             * @param in stream from the worker
+             * @param from position of the worker
+             */
+            private Receiver(DataInputStream in, int from) {
+                this.in = in;
+                this.from = from;
+            }
+
+            @Override
+            public void run() {
+                boolean stopSeen = false;
+                try {
+                    while (true) {
+                        int type = in.read();
+                        switch (type) {
+                            case -1:
+                                // Workers close their connections once told to stop, so an early
+                                // end only matters from the coordinator or to the coordinator
+                                if (!stopped && !stopSeen && (from == 0 || isCoordinator())) {
+                                    inbox.add(new Message(from, new EOFException("Worker " + from + " disconnected")));
+                                }
+                                return;
+                            case BATCH:
+                                long count = in.readInt();
+                                byte[] bytes = new byte[in.readInt()];
+                                in.readFully(bytes);
+                                inbox.add(new Message(BATCH, from, new long[]{count}, bytes));
+                                break;
+                            case PROBE:
+                            case STOP:
+                                stopSeen |= type == STOP;
+                                inbox.add(new Message((byte) type, from, new long[]{in.readLong()}, null));
+                                break;
+                            case REPORT:
+                                long[] values = new long[6];
+                                for (int i = 0; i < values.length; i++) {
+                                    values[i] = in.readLong();
+                                }
+                                inbox.add(new Message(REPORT, from, values, null));
+                                break;
+                            case CANCEL:
+                                inbox.add(new Message(CANCEL, from, new long[0], null));
+                                break;
+                            default:
+                                throw new IOException("Unknown message type " + type + " from worker " + from);
+                        }
+                    }
+                } catch (IOException e) {
+                    if (!stopped) {
+                        inbox.add(new Message(from, e));
+                    }
+                } finally {
+                    closed.countDown();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package uk.ac.imperial.pipe.exploration;
+
+import uk.ac.imperial.pipe.models.petrinet.Transition;
+import uk.ac.imperial.state.State;
+
+import java.util.Collection;
+
+/**
+ * Receives the states and edges of a state space as they are discovered by a
+ * {@link uk.ac.imperial.pipe.exploration.StateSpaceExplorer}.
+ * <p/>
+ * Methods may be called concurrently from several threads so implementations must be thread safe.
+ */
+public interface ExplorationListener {
+    /**
+     * Called exactly once for every state reached, including the initial state,
+     * before any edge leading to it is reported
+     *
+     * @param state newly discovered state
+     */
+    void state(State state);
+
+    /**
+     * Called once for every pair of states connected by at least one transition
+     *
+     * @param source state the transitions fire in
+     * @param target state reached by firing the transitions
+     * @param transitions transitions leading from source to target
+     */
+    void edge(State source, State target, Collection<Transition> transitions);
+}
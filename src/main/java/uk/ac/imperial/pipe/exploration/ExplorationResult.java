@@ -0,0 +1,116 @@
+package uk.ac.imperial.pipe.exploration;
+
+/**
+ * Summary of a finished exploration
+ * <p/>
+ * An edge is a pair of a state and a successor it reaches by firing at least one transition. It is
+ * counted once however many transitions lead from the state to the successor, and a transition
+ * firing back into its own state counts as an edge to it.
+ */
+public final class ExplorationResult {
+    /**
+     * Reason the exploration finished
+     */
+    public enum Status {
+        /**
+         * Every reachable state was explored
+         */
+        COMPLETE,
+
+        /**
+         * The maximum number of states was reached
+         */
+        STATE_LIMIT_REACHED,
+
+        /**
+         * The exploration was cancelled
+         */
+        CANCELLED
+    }
+
+    /**
+     * Reason the exploration finished
+     */
+    private final Status status;
+
+    /**
+     * Number of states reported
+     */
+    private final long stateCount;
+
+    /**
+     * Number of distinct pairs of a state and a successor reported
+     */
+    private final long edgeCount;
+
+    /**
+     * Estimated probability that a state was omitted
+     */
+    private final double omissionProbability;
+
+    /**
+     * Constructor for an exact exploration
+     * @param status reason the exploration finished
+     * @param stateCount number of states reported
+     * @param edgeCount number of edges reported
+     */
+    public ExplorationResult(Status status, long stateCount, long edgeCount) {
+        this(status, stateCount, edgeCount, 0);
+    }
+
+    /**
+     * Constructor
+     * @param status reason the exploration finished
+     * @param stateCount number of states reported
+     * @param edgeCount number of edges reported
+     * @param omissionProbability estimated probability that a state was omitted, zero if the visited set is exact
+     */
+    public ExplorationResult(Status status, long stateCount, long edgeCount, double omissionProbability) {
+        this.status = status;
+        this.stateCount = stateCount;
+        this.edgeCount = edgeCount;
+        this.omissionProbability = omissionProbability;
+    }
+
+    /**
+     * @return reason the exploration finished
+     */
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * @return true if every reachable state was explored
+     */
+    public boolean isComplete() {
+        return status == Status.COMPLETE;
+    }
+
+    /**
+     * @return number of states reported
+     */
+    public long getStateCount() {
+        return stateCount;
+    }
+
+    /**
+     * @return number of distinct pairs of a state and a successor reported
+     */
+    public long getEdgeCount() {
+        return edgeCount;
+    }
+
+    /**
+     * @return estimated probability that a reachable state was wrongly taken as visited and omitted,
+     * zero if the visited set is exact
+     */
+    public double getOmissionProbability() {
+        return omissionProbability;
+    }
+
+    @Override
+    public String toString() {
+        return "ExplorationResult{status=" + status + ", states=" + stateCount + ", edges=" + edgeCount
+                + ", omissionProbability=" + omissionProbability + "}";
+    }
+}
@@ -0,0 +1,689 @@
+package uk.ac.imperial.pipe.exploration;
+
+import uk.ac.imperial.pipe.animation.AnimationLogic;
+import uk.ac.imperial.pipe.animation.CachePolicy;
+import uk.ac.imperial.pipe.animation.CompiledPetriNet;
+import uk.ac.imperial.pipe.animation.Marking;
+import uk.ac.imperial.pipe.animation.PetriNetAnimationLogic;
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+import uk.ac.imperial.pipe.models.petrinet.Transition;
+import uk.ac.imperial.state.State;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Breadth first exploration that keeps its frontier and visited states on disk, for state spaces
+ * too large to hold in memory.
+ * <p/>
+ * Each layer is a file of markings sorted in a fixed order. Expanding a layer buffers successors
+ * in memory and, whenever the buffer is full, sorts it and writes it out as a run. Duplicates are
+ * then removed all at once rather than on every successor: the runs are merged with each other and
+ * with the sorted file of every state visited so far, and the successors not already visited
+ * become the next layer and are merged into the visited file. At most {@link #getMergeFanIn()} runs
+ * are open at once, if a layer has more they are first merged group by group into fewer, longer
+ * runs. Files are read and written sequentially through NIO channels, so memory use is bounded by
+ * the run size and the fan-in.
+ * <p/>
+ * Markings are stored as varint encoded cells of a {@link CompiledPetriNet}, and handed to the
+ * animation logic as {@link Marking}s. Instances are not thread safe.
+ */
+public final class ExternalMemoryExplorer {
+    /**
+     * Number of successors buffered before a run is written when none is given
+     */
+    public static final int DEFAULT_RUN_SIZE = 1 << 20;
+
+    /**
+     * Number of runs merged at once when none is given
+     */
+    public static final int DEFAULT_MERGE_FAN_IN = 64;
+
+    /**
+     * Bytes buffered by each file reader and writer
+     */
+    private static final int IO_BUFFER_BYTES = 1 << 16;
+
+    /**
+     * Orders markings cell by cell
+     */
+    private static final Comparator<int[]> LEXICOGRAPHIC = new Comparator<int[]>() {
+        @Override
+        public int compare(int[] a, int[] b) {
+            for (int i = 0; i < a.length; i++) {
+                if (a[i] != b[i]) {
+                    return a[i] < b[i] ? -1 : 1;
+                }
+            }
+            return 0;
+        }
+    };
+
+    /**
+     * Logic used to work out successors
+     */
+    private final AnimationLogic animationLogic;
+
+    /**
+     * Compiled Petri net the markings are encoded with
+     */
+    private final CompiledPetriNet compiled;
+
+    /**
+     * Directory the layer, run and visited files are written to
+     */
+    private final File directory;
+
+    /**
+     * Number of successors buffered before a run is written
+     */
+    private int runSize = DEFAULT_RUN_SIZE;
+
+    /**
+     * Maximum number of runs open at once while merging
+     */
+    private int mergeFanIn = DEFAULT_MERGE_FAN_IN;
+
+    /**
+     * Number of states after which no further layer is started
+     */
+    private long maximumStates = StateSpaceExplorer.UNBOUNDED;
+
+    /**
+     * Set by {@link #cancel()} to stop the current exploration
+     */
+    private volatile boolean cancelled = false;
+
+    /**
+     * Number of states in each layer of the last exploration
+     */
+    private final List<Long> layerSizes = new ArrayList<>();
+
+    /**
+     * Constructor, explores with a {@link PetriNetAnimationLogic} that caches nothing
+     * @param petriNet Petri net to explore
+     * @param directory directory the layer, run and visited files are written to
+     */
+    public ExternalMemoryExplorer(PetriNet petriNet, File directory) {
+        this(new PetriNetAnimationLogic(petriNet, CachePolicy.disabled()), directory);
+    }
+
+    /**
+     * Constructor
+     * @param animationLogic logic used to work out successors
+     * @param directory directory the layer, run and visited files are written to
+     */
+    public ExternalMemoryExplorer(PetriNetAnimationLogic animationLogic, File directory) {
+        this(animationLogic, animationLogic.getCompiledPetriNet(), directory);
+    }
+
+    /**
+     * Constructor
+     * @param animationLogic logic used to work out successors, must accept {@link Marking}s of the compiled Petri net
+     * @param compiled compiled Petri net the markings are encoded with
+     * @param directory directory the layer, run and visited files are written to
+     */
+    public ExternalMemoryExplorer(AnimationLogic animationLogic, CompiledPetriNet compiled, File directory) {
+        this.animationLogic = animationLogic;
+        this.compiled = compiled;
+        this.directory = directory;
+    }
+
+    /**
+     * @param runSize number of successors buffered in memory before a sorted run is written
+     */
+    public void setRunSize(int runSize) {
+        if (runSize < 1) {
+            throw new IllegalArgumentException("Run size must be at least one: " + runSize);
+        }
+        this.runSize = runSize;
+    }
+
+    /**
+     * @return number of successors buffered in memory before a sorted run is written
+     */
+    public int getRunSize() {
+        return runSize;
+    }
+
+    /**
+     * Each run open while merging holds a file and a read buffer of its own, so this bounds the
+     * files and buffer memory used at once. Layers with more runs take extra merge passes
+     *
+     * @param mergeFanIn maximum number of runs merged at once
+     */
+    public void setMergeFanIn(int mergeFanIn) {
+        if (mergeFanIn < 2) {
+            throw new IllegalArgumentException("Merge fan-in must be at least two: " + mergeFanIn);
+        }
+        this.mergeFanIn = mergeFanIn;
+    }
+
+    /**
+     * @return maximum number of runs merged at once
+     */
+    public int getMergeFanIn() {
+        return mergeFanIn;
+    }
+
+    /**
+     * No layer is expanded once this many states have been found, so the count may overshoot
+     * by up to one layer
+     *
+     * @param maximumStates number of states after which no further layer is expanded
+     */
+    public void setMaximumStates(long maximumStates) {
+        if (maximumStates < 1) {
+            throw new IllegalArgumentException("Maximum states must be at least one: " + maximumStates);
+        }
+        this.maximumStates = maximumStates;
+    }
+
+    /**
+     * @return number of states after which no further layer is expanded
+     */
+    public long getMaximumStates() {
+        return maximumStates;
+    }
+
+    /**
+     * Stops the exploration currently running after the layer being expanded, or the next one to
+     * start if none is running. May be called from any thread
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * @return number of states at each depth found by the last exploration
+     */
+    public List<Long> getLayerSizes() {
+        return Collections.unmodifiableList(new ArrayList<>(layerSizes));
+    }
+
+    /**
+     * Counts every state and edge reachable from the initial state
+     *
+     * @param initial state to start from
+     * @return summary of the exploration
+     * @throws IOException if a file cannot be written or read
+     */
+    public ExplorationResult explore(State initial) throws IOException {
+        layerSizes.clear();
+        List<File> files = new ArrayList<>();
+        try {
+            File layer = newFile(files);
+            File visited = newFile(files);
+            int[] marking = toCounts(initial);
+            try (RecordWriter layerWriter = new RecordWriter(layer);
+                 RecordWriter visitedWriter = new RecordWriter(visited)) {
+                layerWriter.write(marking);
+                visitedWriter.write(marking);
+            }
+            long states = 1;
+            long edges = 0;
+            long layerSize = 1;
+            layerSizes.add(layerSize);
+
+            while (layerSize > 0 && !cancelled && states < maximumStates) {
+                List<File> runs = new ArrayList<>();
+                edges += expand(layer, runs, files);
+                runs = reduceRuns(runs, files);
+                File nextLayer = newFile(files);
+                File nextVisited = newFile(files);
+                layerSize = removeDuplicates(runs, visited, nextLayer, nextVisited);
+                delete(files, layer, visited);
+                for (File run : runs) {
+                    delete(files, run);
+                }
+                layer = nextLayer;
+                visited = nextVisited;
+                if (layerSize > 0) {
+                    states += layerSize;
+                    layerSizes.add(layerSize);
+                }
+            }
+
+            ExplorationResult.Status status;
+            if (layerSize == 0) {
+                status = ExplorationResult.Status.COMPLETE;
+            } else if (cancelled) {
+                status = ExplorationResult.Status.CANCELLED;
+            } else {
+                status = ExplorationResult.Status.STATE_LIMIT_REACHED;
+            }
+            return new ExplorationResult(status, states, edges);
+        } finally {
+            cancelled = false;
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Expands every state of the layer, writing the successors as sorted duplicate free runs
+     *
+     * @param layer file of the layer to expand
+     * @param runs receives the run files
+     * @param files every file created, to be deleted
+     * @return number of edges
+     * @throws IOException if a file cannot be written or read
+     */
+    private long expand(File layer, List<File> runs, List<File> files) throws IOException {
+        long edges = 0;
+        List<int[]> buffer = new ArrayList<>();
+        try (RecordReader reader = new RecordReader(layer, compiled.getMarkingSize())) {
+            while (reader.next()) {
+                Marking state = new Marking(compiled, reader.getRecord().clone());
+                Map<State, Collection<Transition>> successors = animationLogic.getSuccessors(state);
+                for (State successor : successors.keySet()) {
+                    buffer.add(toCounts(successor));
+                    edges++;
+                    if (buffer.size() >= runSize) {
+                        runs.add(writeRun(buffer, files));
+                        buffer.clear();
+                    }
+                }
+            }
+        }
+        if (!buffer.isEmpty()) {
+            runs.add(writeRun(buffer, files));
+        }
+        return edges;
+    }
+
+    /**
+     * @param buffer successors to write, sorted in place
+     * @param files every file created, to be deleted
+     * @return file of the sorted successors without duplicates
+     * @throws IOException if the file cannot be written
+     */
+    private File writeRun(List<int[]> buffer, List<File> files) throws IOException {
+        Collections.sort(buffer, LEXICOGRAPHIC);
+        File run = newFile(files);
+        try (RecordWriter writer = new RecordWriter(run)) {
+            int[] previous = null;
+            for (int[] marking : buffer) {
+                if (previous == null || LEXICOGRAPHIC.compare(previous, marking) != 0) {
+                    writer.write(marking);
+                }
+                previous = marking;
+            }
+        }
+        return run;
+    }
+
+    /**
+     * Merges groups of runs into longer runs until no more than the fan-in are left
+     *
+     * @param runs sorted run files, deleted once merged
+     * @param files every file created, to be deleted
+     * @return sorted run files holding the same markings, at most the fan-in of them
+     * @throws IOException if a file cannot be written or read
+     */
+    private List<File> reduceRuns(List<File> runs, List<File> files) throws IOException {
+        int cells = compiled.getMarkingSize();
+        while (runs.size() > mergeFanIn) {
+            List<File> merged = new ArrayList<>();
+            for (int start = 0; start < runs.size(); start += mergeFanIn) {
+                List<File> group = runs.subList(start, Math.min(start + mergeFanIn, runs.size()));
+                if (group.size() == 1) {
+                    merged.add(group.get(0));
+                    continue;
+                }
+                File run = newFile(files);
+                try (RunMerger merger = new RunMerger(group, cells);
+                     RecordWriter writer = new RecordWriter(run)) {
+                    while (merger.next()) {
+                        writer.write(merger.getRecord());
+                    }
+                }
+                for (File file : group) {
+                    delete(files, file);
+                }
+                merged.add(run);
+            }
+            runs = merged;
+        }
+        return runs;
+    }
+
+    /**
+     * Merges the runs with each other and with the visited states
+     *
+     * @param runs sorted run files
+     * @param visited sorted file of the states visited so far
+     * @param nextLayer receives the sorted successors not yet visited
+     * @param nextVisited receives the sorted union of the visited states and the next layer
+     * @return number of states in the next layer
+     * @throws IOException if a file cannot be written or read
+     */
+    private long removeDuplicates(List<File> runs, File visited, File nextLayer, File nextVisited)
+            throws IOException {
+        int cells = compiled.getMarkingSize();
+        long count = 0;
+        try (RunMerger merger = new RunMerger(runs, cells);
+             RecordReader visitedReader = new RecordReader(visited, cells);
+             RecordWriter layerWriter = new RecordWriter(nextLayer);
+             RecordWriter visitedWriter = new RecordWriter(nextVisited)) {
+            boolean hasVisited = visitedReader.next();
+            while (merger.next()) {
+                int[] candidate = merger.getRecord();
+                int comparison = -1;
+                while (hasVisited && (comparison = LEXICOGRAPHIC.compare(visitedReader.getRecord(), candidate)) < 0) {
+                    visitedWriter.write(visitedReader.getRecord());
+                    hasVisited = visitedReader.next();
+                }
+                if (!hasVisited || comparison > 0) {
+                    layerWriter.write(candidate);
+                    visitedWriter.write(candidate);
+                    count++;
+                }
+            }
+            while (hasVisited) {
+                visitedWriter.write(visitedReader.getRecord());
+                hasVisited = visitedReader.next();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param state state to encode
+     * @return token counts of the state
+     */
+    private int[] toCounts(State state) {
+        if (state instanceof Marking && ((Marking) state).getCompiledPetriNet() == compiled) {
+            return ((Marking) state).copyCounts();
+        }
+        return compiled.getMarking(state);
+    }
+
+    /**
+     * @param files every file created, to be deleted
+     * @return new empty file in the directory
+     * @throws IOException if the file cannot be created
+     */
+    private File newFile(List<File> files) throws IOException {
+        File file = File.createTempFile("exploration", ".states", directory);
+        files.add(file);
+        return file;
+    }
+
+    /**
+     * @param files every file created
+     * @param delete files no longer needed
+     */
+    private static void delete(List<File> files, File... delete) {
+        for (File file : delete) {
+            file.delete();
+            files.remove(file);
+        }
+    }
+
+    /**
+     * Reads several sorted run files as one sorted sequence of markings without duplicates
+     */
+    private static final class RunMerger implements Closeable {
+        /**
+         * Readers of the runs that have markings left, ordered by their current marking
+         */
+        private final PriorityQueue<RecordReader> queue;
+
+        /**
+         * Reader of every run, to be closed
+         */
+        private final List<RecordReader> readers = new ArrayList<>();
+
+        /**
+         * Marking last read
+         */
+        private final int[] record;
+
+        /**
+         * True until the first marking has been read
+         */
+        private boolean first = true;
+
+        /**
+         * Constructor
+         * @param runs sorted run files to merge
+         * @param cells number of cells in a marking
+         * @throws IOException if a file cannot be opened or read
+         */
+        RunMerger(List<File> runs, int cells) throws IOException {
+            record = new int[cells];
+            queue = new PriorityQueue<>(Math.max(1, runs.size()), new Comparator<RecordReader>() {
+                @Override
+                public int compare(RecordReader a, RecordReader b) {
+                    return LEXICOGRAPHIC.compare(a.getRecord(), b.getRecord());
+                }
+            });
+            try {
+                for (File run : runs) {
+                    RecordReader reader = new RecordReader(run, cells);
+                    readers.add(reader);
+                    if (reader.next()) {
+                        queue.add(reader);
+                    }
+                }
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        /**
+         * @return marking last read, overwritten by the next read
+         */
+        int[] getRecord() {
+            return record;
+        }
+
+        /**
+         * Reads the next marking different from the last one into the record
+         *
+         * @return false if the runs have no more markings
+         * @throws IOException if a file cannot be read
+         */
+        boolean next() throws IOException {
+            while (!queue.isEmpty()) {
+                RecordReader reader = queue.poll();
+                boolean duplicate = !first && LEXICOGRAPHIC.compare(record, reader.getRecord()) == 0;
+                System.arraycopy(reader.getRecord(), 0, record, 0, record.length);
+                first = false;
+                if (reader.next()) {
+                    queue.add(reader);
+                }
+                if (!duplicate) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (RecordReader reader : readers) {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * Sequentially writes varint encoded markings to a file
+     */
+    private static final class RecordWriter implements Closeable {
+        /**
+         * File being written
+         */
+        private final RandomAccessFile file;
+
+        /**
+         * Channel of the file
+         */
+        private final FileChannel channel;
+
+        /**
+         * Bytes waiting to be written
+         */
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(IO_BUFFER_BYTES);
+
+        /**
+         * Constructor
+         * @param file file to write, truncated
+         * @throws IOException if the file cannot be opened
+         */
+        RecordWriter(File file) throws IOException {
+            this.file = new RandomAccessFile(file, "rw");
+            this.file.setLength(0);
+            channel = this.file.getChannel();
+        }
+
+        /**
+         * @param marking marking to append
+         * @throws IOException if the file cannot be written
+         */
+        void write(int[] marking) throws IOException {
+            for (int value : marking) {
+                if (buffer.remaining() < 5) {
+                    flush();
+                }
+                while ((value & ~0x7F) != 0) {
+                    buffer.put((byte) ((value & 0x7F) | 0x80));
+                    value >>>= 7;
+                }
+                buffer.put((byte) value);
+            }
+        }
+
+        /**
+         * Writes the buffered bytes
+         *
+         * @throws IOException if the file cannot be written
+         */
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                file.close();
+            }
+        }
+    }
+
+    /**
+     * Sequentially reads varint encoded markings from a file into a reused record
+     */
+    private static final class RecordReader implements Closeable {
+        /**
+         * File being read
+         */
+        private final RandomAccessFile file;
+
+        /**
+         * Channel of the file
+         */
+        private final FileChannel channel;
+
+        /**
+         * Bytes read but not yet decoded
+         */
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(IO_BUFFER_BYTES);
+
+        /**
+         * Marking last read
+         */
+        private final int[] record;
+
+        /**
+         * True once the channel has no more bytes
+         */
+        private boolean exhausted = false;
+
+        /**
+         * Constructor
+         * @param file file to read
+         * @param cells number of cells in a marking
+         * @throws IOException if the file cannot be opened
+         */
+        RecordReader(File file, int cells) throws IOException {
+            this.file = new RandomAccessFile(file, "r");
+            channel = this.file.getChannel();
+            record = new int[cells];
+            buffer.flip();
+        }
+
+        /**
+         * @return marking last read, overwritten by the next read
+         */
+        int[] getRecord() {
+            return record;
+        }
+
+        /**
+         * Reads the next marking into the record
+         *
+         * @return false if the file has no more markings
+         * @throws IOException if the file cannot be read
+         */
+        boolean next() throws IOException {
+            if (!fill()) {
+                return false;
+            }
+            for (int cell = 0; cell < record.length; cell++) {
+                int value = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    if (!fill()) {
+                        throw new IOException("Truncated marking in exploration file");
+                    }
+                    b = buffer.get();
+                    value |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                record[cell] = value;
+            }
+            return true;
+        }
+
+        /**
+         * @return true if a byte is available, reading more from the channel if needed
+         * @throws IOException if the file cannot be read
+         */
+        private boolean fill() throws IOException {
+            while (!buffer.hasRemaining() && !exhausted) {
+                buffer.clear();
+                exhausted = channel.read(buffer) < 0;
+                buffer.flip();
+            }
+            return buffer.hasRemaining();
+        }
+
+        @Override
+        public void close() throws IOException {
+            file.close();
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package uk.ac.imperial.pipe.exploration;
+
+/**
+ * Receives the infinitesimal generator of a continuous time Markov chain one row at a time from a
+ * {@link CtmcExporter}. States are numbered by their ids in an {@link OffHeapStateStore}.
+ */
+public interface GeneratorRowListener {
+    /**
+     * Called for each state the chain may start in, before any row
+     *
+     * @param state state number
+     * @param probability probability of starting in the state
+     */
+    void initial(long state, double probability);
+
+    /**
+     * Called once for every state in order of state number. The arrays are reused for the next
+     * row so must be copied if kept.
+     *
+     * @param row state number
+     * @param columns state numbers of the row's entries in ascending order, including the row's own
+     * @param values rate into each state, the entry for the row's own state being minus the total
+     *               rate out of it
+     * @param count number of entries in the row
+     */
+    void row(long row, long[] columns, double[] values, int count);
+}
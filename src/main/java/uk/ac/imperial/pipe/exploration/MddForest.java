@@ -0,0 +1,210 @@
+package uk.ac.imperial.pipe.exploration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Quasi reduced multi-valued decision diagrams sharing one unique table.
+ * <p/>
+ * Nodes are numbered, 0 being the empty set and 1 the set holding only the empty path. A node at
+ * level k has one child at level k - 1 per local state of level k, missing trailing children
+ * meaning the empty set, so levels can gain local states after nodes have been made. Nodes with
+ * the same level and children are shared, and nodes are never freed.
+ */
+final class MddForest {
+    /**
+     * Node of the empty set
+     */
+    static final int EMPTY = 0;
+
+    /**
+     * Node of the set holding only the empty path, below the bottom level
+     */
+    static final int TERMINAL = 1;
+
+    /**
+     * Operation code of unions in the cache
+     */
+    private static final int UNION = 0;
+
+    /**
+     * Level of every node
+     */
+    private int[] levels = new int[1024];
+
+    /**
+     * Children of every node
+     */
+    private final List<int[]> children = new ArrayList<>();
+
+    /**
+     * Node of every level and list of children
+     */
+    private final Map<Key, Integer> unique = new HashMap<>();
+
+    /**
+     * Cache of union results
+     */
+    private final OperationCache cache;
+
+    /**
+     * Constructor
+     * @param cache cache for union results, may be shared with other operations using codes other than 0
+     */
+    MddForest(OperationCache cache) {
+        this.cache = cache;
+        children.add(new int[0]);
+        children.add(new int[0]);
+    }
+
+    /**
+     * @return number of nodes made, including the two terminal nodes
+     */
+    int size() {
+        return children.size();
+    }
+
+    /**
+     * @param node node number
+     * @return level of the node, 0 for the terminal nodes
+     */
+    int level(int node) {
+        return node <= TERMINAL ? 0 : levels[node];
+    }
+
+    /**
+     * @param node node number
+     * @return children of the node, which must not be changed
+     */
+    int[] children(int node) {
+        return children.get(node);
+    }
+
+    /**
+     * @param node node number
+     * @param index local state of the node's level
+     * @return child of the node for the local state
+     */
+    int child(int node, int index) {
+        int[] nodeChildren = children.get(node);
+        return index < nodeChildren.length ? nodeChildren[index] : EMPTY;
+    }
+
+    /**
+     * Finds or makes the node with the children
+     *
+     * @param level level of the node
+     * @param nodeChildren children of the node, copied
+     * @return node number, {@link #EMPTY} if every child is empty
+     */
+    int node(int level, int[] nodeChildren) {
+        int length = nodeChildren.length;
+        while (length > 0 && nodeChildren[length - 1] == EMPTY) {
+            length--;
+        }
+        if (length == 0) {
+            return EMPTY;
+        }
+        Key key = new Key(level, Arrays.copyOf(nodeChildren, length));
+        Integer existing = unique.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        int node = children.size();
+        if (node == levels.length) {
+            levels = Arrays.copyOf(levels, node * 2);
+        }
+        levels[node] = level;
+        children.add(key.children);
+        unique.put(key, node);
+        return node;
+    }
+
+    /**
+     * @param level level of both nodes
+     * @param a first node
+     * @param b second node
+     * @return node of every path of either node
+     */
+    int union(int level, int a, int b) {
+        if (a == EMPTY || a == b) {
+            return b;
+        }
+        if (b == EMPTY) {
+            return a;
+        }
+        if (level == 0) {
+            return TERMINAL;
+        }
+        if (a > b) {
+            int swap = a;
+            a = b;
+            b = swap;
+        }
+        int cached = cache.get(UNION, a, b);
+        if (cached >= 0) {
+            return cached;
+        }
+        int[] aChildren = children.get(a);
+        int[] bChildren = children.get(b);
+        int[] result = new int[Math.max(aChildren.length, bChildren.length)];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = union(level - 1, i < aChildren.length ? aChildren[i] : EMPTY,
+                    i < bChildren.length ? bChildren[i] : EMPTY);
+        }
+        int node = node(level, result);
+        cache.put(UNION, a, b, node);
+        return node;
+    }
+
+    /**
+     * Level and children identifying a node in the unique table
+     */
+    private static final class Key {
+        /**
+         * Level of the node
+         */
+        private final int level;
+
+        /**
+         * Children of the node without trailing empty children
+         */
+        private final int[] children;
+
+        /**
+         * Hash of the level and children
+         */
+        private final int hash;
+
+        /**
+         * Constructor
+         * @param level level of the node
+         * @param children children of the node without trailing empty children
+         */
+        private Key(int level, int[] children) {
+            this.level = level;
+            this.children = children;
+            hash = 31 * level + Arrays.hashCode(children);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return level == key.level && Arrays.equals(children, key.children);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,432 @@
+package uk.ac.imperial.pipe.exploration;
+
+import uk.ac.imperial.pipe.animation.CompiledPetriNet;
+import uk.ac.imperial.pipe.animation.Marking;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Store of markings of a {@link CompiledPetriNet} kept outside the Java heap, giving each distinct
+ * marking a stable id numbered from zero in the order it was added.
+ * <p/>
+ * Markings are varint encoded, typically a byte a cell, and appended to fixed size segments
+ * allocated with {@link ByteBuffer#allocateDirect(int)} or mapped from a file. An open addressing
+ * index, also off the heap, maps a hash of the encoding to the id, and an offset per id locates
+ * its encoding. The heap only holds the segment handles, so its use stays flat however many
+ * markings are stored. A file backed store is limited by disk space rather than by the direct
+ * memory limit, the operating system paging segments in and out as needed.
+ * <p/>
+ * Ids are below 2^32 - 1. Instances are not thread safe.
+ */
+public final class OffHeapStateStore implements Closeable {
+    /**
+     * Log2 of the bytes in a segment
+     */
+    private static final int SEGMENT_BITS = 26;
+
+    /**
+     * Bytes in a segment
+     */
+    private static final int SEGMENT_BYTES = 1 << SEGMENT_BITS;
+
+    /**
+     * Longs in a segment
+     */
+    private static final int SEGMENT_LONGS = SEGMENT_BYTES / 8;
+
+    /**
+     * Initial number of index slots
+     */
+    private static final int INITIAL_SLOTS = 1 << 12;
+
+    /**
+     * Largest id that can be stored
+     */
+    private static final long MAXIMUM_ID = 0xFFFFFFFEL;
+
+    /**
+     * Compiled Petri net whose markings are stored
+     */
+    private final CompiledPetriNet compiled;
+
+    /**
+     * File segments are mapped from, null if they are allocated directly
+     */
+    private final RandomAccessFile file;
+
+    /**
+     * Bytes of the file already mapped
+     */
+    private long fileLength = 0;
+
+    /**
+     * Segments holding the encoded markings
+     */
+    private final List<ByteBuffer> data = new ArrayList<>();
+
+    /**
+     * Offset of the next encoded marking within the last data segment
+     */
+    private int dataPosition = SEGMENT_BYTES;
+
+    /**
+     * Segments holding the offset of each id's encoding
+     */
+    private final List<ByteBuffer> offsets = new ArrayList<>();
+
+    /**
+     * Segments of the index, each slot holding a hash in the upper 32 bits and the id + 1 in the lower,
+     * or zero if empty
+     */
+    private ByteBuffer[] index;
+
+    /**
+     * Mask of the slot number, the number of slots being a power of two
+     */
+    private long indexMask;
+
+    /**
+     * Number of markings stored
+     */
+    private long size = 0;
+
+    /**
+     * Bytes allocated off the heap
+     */
+    private long allocated = 0;
+
+    /**
+     * Encoding of the marking being added or looked up
+     */
+    private final byte[] scratch;
+
+    /**
+     * Constructor, allocates segments with {@link ByteBuffer#allocateDirect(int)}
+     * @param compiled compiled Petri net whose markings are stored
+     */
+    public OffHeapStateStore(CompiledPetriNet compiled) {
+        this.compiled = compiled;
+        this.file = null;
+        scratch = new byte[5 * compiled.getMarkingSize() + 5];
+        createIndex(INITIAL_SLOTS);
+    }
+
+    /**
+     * Constructor, maps segments from a file which is replaced if it exists
+     * @param compiled compiled Petri net whose markings are stored
+     * @param file scratch file to map segments from, left in place by {@link #close()}
+     * @throws IOException if the file cannot be created
+     */
+    public OffHeapStateStore(CompiledPetriNet compiled, File file) throws IOException {
+        this.compiled = compiled;
+        this.file = new RandomAccessFile(file, "rw");
+        this.file.setLength(0);
+        scratch = new byte[5 * compiled.getMarkingSize() + 5];
+        createIndex(INITIAL_SLOTS);
+    }
+
+    /**
+     * @return compiled Petri net whose markings are stored
+     */
+    public CompiledPetriNet getCompiledPetriNet() {
+        return compiled;
+    }
+
+    /**
+     * @return number of markings stored
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return bytes allocated off the heap, including index tables replaced as the index grew
+     */
+    public long getAllocatedBytes() {
+        return allocated;
+    }
+
+    /**
+     * Adds the marking unless it is already stored
+     *
+     * @param marking marking of {@link CompiledPetriNet#getMarkingSize()} cells
+     * @return id of the added marking, or -(id + 1) if it was already stored
+     */
+    public long addIfAbsent(int[] marking) {
+        int length = encode(marking);
+        int hash = hash(length);
+        long slot = hash & indexMask;
+        while (true) {
+            long value = getSlot(slot);
+            if (value == 0) {
+                long id = size;
+                if (id > MAXIMUM_ID) {
+                    throw new IllegalStateException("State store is full at " + size + " states");
+                }
+                append(id, length);
+                setSlot(slot, ((long) hash << 32) | (id + 1));
+                size++;
+                if (2 * size > indexMask + 1) {
+                    createIndex(2 * (indexMask + 1));
+                }
+                return id;
+            }
+            long id = (value & 0xFFFFFFFFL) - 1;
+            if ((int) (value >>> 32) == hash && matches(id, length)) {
+                return -(id + 1);
+            }
+            slot = (slot + 1) & indexMask;
+        }
+    }
+
+    /**
+     * @param marking marking of {@link CompiledPetriNet#getMarkingSize()} cells
+     * @return id of the marking, or -1 if it is not stored
+     */
+    public long find(int[] marking) {
+        int length = encode(marking);
+        int hash = hash(length);
+        long slot = hash & indexMask;
+        while (true) {
+            long value = getSlot(slot);
+            if (value == 0) {
+                return -1;
+            }
+            long id = (value & 0xFFFFFFFFL) - 1;
+            if ((int) (value >>> 32) == hash && matches(id, length)) {
+                return id;
+            }
+            slot = (slot + 1) & indexMask;
+        }
+    }
+
+    /**
+     * Decodes a stored marking
+     *
+     * @param id id of the marking
+     * @param marking array of {@link CompiledPetriNet#getMarkingSize()} cells to decode into
+     */
+    public void get(long id, int[] marking) {
+        if (id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException("No state " + id + " in a store of " + size);
+        }
+        long offset = getOffset(id);
+        ByteBuffer segment = data.get((int) (offset >>> SEGMENT_BITS));
+        int position = (int) (offset & (SEGMENT_BYTES - 1));
+        int length = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = segment.get(position++);
+            length |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        for (int cell = 0; cell < marking.length; cell++) {
+            int value = 0;
+            shift = 0;
+            do {
+                b = segment.get(position++);
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            marking[cell] = value;
+        }
+    }
+
+    /**
+     * @param id id of the marking
+     * @return the stored marking
+     */
+    public Marking getMarking(long id) {
+        int[] counts = new int[compiled.getMarkingSize()];
+        get(id, counts);
+        return new Marking(compiled, counts);
+    }
+
+    /**
+     * Releases the file of a file backed store. Direct segments are released once the store is
+     * garbage collected.
+     *
+     * @throws IOException if the file cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        if (file != null) {
+            file.close();
+        }
+    }
+
+    /**
+     * Encodes the marking into scratch
+     *
+     * @param marking marking to encode
+     * @return number of bytes in the encoding
+     */
+    private int encode(int[] marking) {
+        if (marking.length != compiled.getMarkingSize()) {
+            throw new IllegalArgumentException("Marking has " + marking.length + " cells, expected "
+                    + compiled.getMarkingSize());
+        }
+        int length = 0;
+        for (int value : marking) {
+            if (value < 0) {
+                throw new IllegalArgumentException("Token counts cannot be negative: " + value);
+            }
+            while ((value & ~0x7F) != 0) {
+                scratch[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            scratch[length++] = (byte) value;
+        }
+        return length;
+    }
+
+    /**
+     * @param length number of bytes of scratch to hash
+     * @return well mixed hash of the encoding
+     */
+    private int hash(int length) {
+        long hash = length;
+        for (int i = 0; i < length; i++) {
+            hash = (hash ^ scratch[i]) * 0x9e3779b97f4a7c15L;
+        }
+        return (int) (StateFingerprint.mix64(hash) >>> 32);
+    }
+
+    /**
+     * @param id id of a stored marking
+     * @param length number of bytes of scratch
+     * @return true if the stored encoding equals scratch
+     */
+    private boolean matches(long id, int length) {
+        long offset = getOffset(id);
+        ByteBuffer segment = data.get((int) (offset >>> SEGMENT_BITS));
+        int position = (int) (offset & (SEGMENT_BYTES - 1));
+        int stored = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = segment.get(position++);
+            stored |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        if (stored != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (segment.get(position + i) != scratch[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Appends scratch, preceded by its length, as the encoding of the id
+     *
+     * @param id id being added
+     * @param length number of bytes of scratch
+     */
+    private void append(long id, int length) {
+        if (SEGMENT_BYTES - dataPosition < length + 5) {
+            data.add(allocate(SEGMENT_BYTES));
+            dataPosition = 0;
+        }
+        ByteBuffer segment = data.get(data.size() - 1);
+        setOffset(id, ((long) (data.size() - 1) << SEGMENT_BITS) | dataPosition);
+        int value = length;
+        while ((value & ~0x7F) != 0) {
+            segment.put(dataPosition++, (byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        segment.put(dataPosition++, (byte) value);
+        for (int i = 0; i < length; i++) {
+            segment.put(dataPosition++, scratch[i]);
+        }
+    }
+
+    /**
+     * @param id stored id
+     * @return offset of its encoding, the segment number in the upper bits
+     */
+    private long getOffset(long id) {
+        return offsets.get((int) (id / SEGMENT_LONGS)).getLong((int) (id % SEGMENT_LONGS) * 8);
+    }
+
+    /**
+     * @param id id being added
+     * @param offset offset of its encoding
+     */
+    private void setOffset(long id, long offset) {
+        if (id % SEGMENT_LONGS == 0) {
+            offsets.add(allocate(SEGMENT_BYTES));
+        }
+        offsets.get((int) (id / SEGMENT_LONGS)).putLong((int) (id % SEGMENT_LONGS) * 8, offset);
+    }
+
+    /**
+     * @param slot slot number
+     * @return value of the slot
+     */
+    private long getSlot(long slot) {
+        return index[(int) (slot / SEGMENT_LONGS)].getLong((int) (slot % SEGMENT_LONGS) * 8);
+    }
+
+    /**
+     * @param slot slot number
+     * @param value value of the slot
+     */
+    private void setSlot(long slot, long value) {
+        index[(int) (slot / SEGMENT_LONGS)].putLong((int) (slot % SEGMENT_LONGS) * 8, value);
+    }
+
+    /**
+     * Replaces the index with an empty one of the given size and reinserts every stored id
+     *
+     * @param slots number of slots, a power of two
+     */
+    private void createIndex(long slots) {
+        ByteBuffer[] previous = index;
+        long previousSlots = previous == null ? 0 : indexMask + 1;
+        index = new ByteBuffer[(int) ((slots + SEGMENT_LONGS - 1) / SEGMENT_LONGS)];
+        for (int s = 0; s < index.length; s++) {
+            index[s] = allocate((int) Math.min(SEGMENT_BYTES, 8 * (slots - (long) s * SEGMENT_LONGS)));
+        }
+        indexMask = slots - 1;
+        for (long old = 0; old < previousSlots; old++) {
+            long value = previous[(int) (old / SEGMENT_LONGS)].getLong((int) (old % SEGMENT_LONGS) * 8);
+            if (value != 0) {
+                long slot = (int) (value >>> 32) & indexMask;
+                while (getSlot(slot) != 0) {
+                    slot = (slot + 1) & indexMask;
+                }
+                setSlot(slot, value);
+            }
+        }
+    }
+
+    /**
+     * @param bytes size of the buffer
+     * @return zeroed buffer off the heap
+     */
+    private ByteBuffer allocate(int bytes) {
+        allocated += bytes;
+        if (file == null) {
+            return ByteBuffer.allocateDirect(bytes);
+        }
+        try {
+            ByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, fileLength, bytes);
+            fileLength += bytes;
+            return buffer;
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not map state store segment", e);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package uk.ac.imperial.pipe.exploration;
+
+import java.util.Arrays;
+
+/**
+ * Fixed size cache of the results of decision diagram operations.
+ * <p/>
+ * Each operation and its two operands hash to a single slot, and a new result evicts whatever
+ * the slot held before. Results are node numbers, which never change meaning, so losing an
+ * entry only costs recomputing it.
+ */
+final class OperationCache {
+    /**
+     * Operation code of every slot, -1 if empty
+     */
+    private final int[] operations;
+
+    /**
+     * First operand of every slot
+     */
+    private final int[] first;
+
+    /**
+     * Second operand of every slot
+     */
+    private final int[] second;
+
+    /**
+     * Result of every slot
+     */
+    private final int[] results;
+
+    /**
+     * Number of slots less one
+     */
+    private final int mask;
+
+    /**
+     * Number of lookups that found their result
+     */
+    private long hits = 0;
+
+    /**
+     * Number of lookups that did not
+     */
+    private long misses = 0;
+
+    /**
+     * Constructor
+     * @param size number of entries to keep, rounded up to a power of two
+     */
+    OperationCache(int size) {
+        if (size < 1 || size > 1 << 30) {
+            throw new IllegalArgumentException("Cache size must be between one and 2^30: " + size);
+        }
+        int slots = Integer.highestOneBit(size);
+        if (slots < size) {
+            slots <<= 1;
+        }
+        operations = new int[slots];
+        first = new int[slots];
+        second = new int[slots];
+        results = new int[slots];
+        mask = slots - 1;
+        Arrays.fill(operations, -1);
+    }
+
+    /**
+     * @param operation operation code
+     * @param a first operand
+     * @param b second operand
+     * @return cached result, or -1 if not cached
+     */
+    int get(int operation, int a, int b) {
+        int slot = slot(operation, a, b);
+        if (operations[slot] == operation && first[slot] == a && second[slot] == b) {
+            hits++;
+            return results[slot];
+        }
+        misses++;
+        return -1;
+    }
+
+    /**
+     * Stores a result, evicting the entry in its slot
+     *
+     * @param operation operation code
+     * @param a first operand
+     * @param b second operand
+     * @param result result of the operation
+     */
+    void put(int operation, int a, int b, int result) {
+        int slot = slot(operation, a, b);
+        operations[slot] = operation;
+        first[slot] = a;
+        second[slot] = b;
+        results[slot] = result;
+    }
+
+    /**
+     * @return number of lookups that found their result
+     */
+    long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return number of lookups that did not find their result
+     */
+    long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @param operation operation code
+     * @param a first operand
+     * @param b second operand
+     * @return slot the entry belongs in
+     */
+    private int slot(int operation, int a, int b) {
+        long key = ((long) a << 32 | (b & 0xFFFFFFFFL)) ^ (long) operation * 0x9e3779b97f4a7c15L;
+        return (int) StateFingerprint.mix64(key) & mask;
+    }
+}
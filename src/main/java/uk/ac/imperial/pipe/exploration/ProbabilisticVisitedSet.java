@@ -0,0 +1,15 @@
+package uk.ac.imperial.pipe.exploration;
+
+/**
+ * Visited set which trades exactness for memory by storing hashes of states rather than the
+ * states themselves. A new state whose hash collides with a stored one is wrongly reported as
+ * visited and omitted from the exploration, along with any states only reachable through it.
+ * A visited state is never reported as new.
+ */
+public interface ProbabilisticVisitedSet extends VisitedSet {
+    /**
+     * @return estimated probability that at least one new state added so far was wrongly
+     * reported as visited
+     */
+    double getOmissionProbability();
+}
@@ -0,0 +1,130 @@
+package uk.ac.imperial.pipe.exploration;
+
+import java.util.Arrays;
+
+/**
+ * Adds up rates by target state id without boxing, so that parallel firings into the same state
+ * become a single entry. Entries are kept in the order their targets were first added, and
+ * clearing only touches the slots in use, so one accumulator can be reused for every state.
+ */
+final class RateAccumulator {
+    /**
+     * Entry number plus one held in each slot, 0 if empty
+     */
+    private int[] table = new int[16];
+
+    /**
+     * Target of each entry
+     */
+    private long[] targets = new long[8];
+
+    /**
+     * Total rate of each entry
+     */
+    private double[] rates = new double[8];
+
+    /**
+     * Slot of each entry
+     */
+    private int[] slots = new int[8];
+
+    /**
+     * Number of entries
+     */
+    private int size = 0;
+
+    /**
+     * @param target target state id
+     * @param rate rate to add to the target's total
+     */
+    void add(long target, double rate) {
+        int mask = table.length - 1;
+        int slot = (int) StateFingerprint.mix64(target) & mask;
+        while (table[slot] != 0) {
+            int entry = table[slot] - 1;
+            if (targets[entry] == target) {
+                rates[entry] += rate;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (size == targets.length) {
+            targets = Arrays.copyOf(targets, size * 2);
+            rates = Arrays.copyOf(rates, size * 2);
+            slots = Arrays.copyOf(slots, size * 2);
+        }
+        targets[size] = target;
+        rates[size] = rate;
+        slots[size] = slot;
+        table[slot] = ++size;
+        if (size * 2 > table.length) {
+            rehash();
+        }
+    }
+
+    /**
+     * @param target target state id
+     * @return entry number of the target, or -1 if no rate has been added for it
+     */
+    int find(long target) {
+        int mask = table.length - 1;
+        int slot = (int) StateFingerprint.mix64(target) & mask;
+        while (table[slot] != 0) {
+            int entry = table[slot] - 1;
+            if (targets[entry] == target) {
+                return entry;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * @return number of distinct targets
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @param entry entry number, in the order targets were first added
+     * @return target state id of the entry
+     */
+    long target(int entry) {
+        return targets[entry];
+    }
+
+    /**
+     * @param entry entry number, in the order targets were first added
+     * @return total rate into the entry's target
+     */
+    double rate(int entry) {
+        return rates[entry];
+    }
+
+    /**
+     * Removes every entry
+     */
+    void clear() {
+        for (int entry = 0; entry < size; entry++) {
+            table[slots[entry]] = 0;
+        }
+        size = 0;
+    }
+
+    /**
+     * Doubles the table, placing every entry again
+     */
+    private void rehash() {
+        table = new int[table.length * 2];
+        int mask = table.length - 1;
+        for (int entry = 0; entry < size; entry++) {
+            int slot = (int) StateFingerprint.mix64(targets[entry]) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = entry + 1;
+            slots[entry] = slot;
+        }
+    }
+}
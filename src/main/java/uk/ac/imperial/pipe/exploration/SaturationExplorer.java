@@ -0,0 +1,632 @@
+package uk.ac.imperial.pipe.exploration;
+
+import uk.ac.imperial.pipe.animation.CompiledPetriNet;
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Symbolic state space generation by saturation, for nets with too many reachable markings to
+ * enumerate.
+ * <p/>
+ * Every cell of the {@link CompiledPetriNet}, that is every place and token pair, is one level of
+ * a multi-valued decision diagram. Unless an order is given, the levels are ordered with the FORCE
+ * heuristic so that the cells each transition touches sit close together. The local states of a
+ * level are the token counts its cell has been seen to hold, found as the generation goes on. A
+ * transition only reads and changes the cells of its arcs, so its effect splits into a local
+ * effect on each of those levels and it is left out of every other level. Saturation fires each transition at the
+ * highest level it touches, bottom up, until every node is a fixpoint of the transitions below
+ * it, so the diagram never holds more than a few of the intermediate sets a breadth first
+ * generation goes through.
+ * <p/>
+ * This split only holds for nets whose enabling is a conjunction of conditions on single cells,
+ * so nets with functional arc weights, with capacities on places of more than one token type or
+ * with priorities between transitions, such as immediate transitions pre-empting timed ones, are
+ * rejected. The net must be bounded; a level gaining more than the maximum number of local states
+ * stops the generation.
+ */
+public final class SaturationExplorer {
+    /**
+     * Number of operation cache entries when none is given
+     */
+    public static final int DEFAULT_CACHE_SIZE = 1 << 20;
+
+    /**
+     * Number of token counts a cell may hold when none is given
+     */
+    public static final int DEFAULT_MAXIMUM_LOCAL_STATES = 1 << 16;
+
+    /**
+     * Most rounds of the FORCE heuristic when ordering the levels
+     */
+    private static final int FORCE_ITERATIONS = 32;
+
+    /**
+     * Operation code of saturating a node in the cache
+     */
+    private static final int SATURATE = 1;
+
+    /**
+     * Operation code of firing the first transition in the cache, transition t using this plus t
+     */
+    private static final int FIRE = 2;
+
+    /**
+     * Compiled Petri net to explore
+     */
+    private final CompiledPetriNet compiled;
+
+    /**
+     * Number of levels, one per cell
+     */
+    private final int levelCount;
+
+    /**
+     * Cell of each level
+     */
+    private final int[] cellOfLevel;
+
+    /**
+     * Level of each cell
+     */
+    private final int[] levelOfCell;
+
+    /**
+     * Levels each transition touches, ascending
+     */
+    private final int[][] effectLevels;
+
+    /**
+     * Tokens each transition takes from the cell of each level it touches
+     */
+    private final int[][] effectPre;
+
+    /**
+     * Tokens each transition adds to the cell of each level it touches
+     */
+    private final int[][] effectPost;
+
+    /**
+     * Capacity of the cell of each level each transition touches, 0 if unlimited
+     */
+    private final int[][] effectCapacity;
+
+    /**
+     * True for each level a transition touches whose cell must be empty
+     */
+    private final boolean[][] effectInhibited;
+
+    /**
+     * Transitions whose highest level is each level
+     */
+    private final int[][] transitionsByTop;
+
+    /**
+     * Number of operation cache entries
+     */
+    private int cacheSize = DEFAULT_CACHE_SIZE;
+
+    /**
+     * Number of token counts a cell may hold
+     */
+    private int maximumLocalStates = DEFAULT_MAXIMUM_LOCAL_STATES;
+
+    /**
+     * Diagrams of the generation running
+     */
+    private MddForest forest;
+
+    /**
+     * Operation cache of the generation running
+     */
+    private OperationCache cache;
+
+    /**
+     * Token count of each local state of each level, by level then local state
+     */
+    private int[][] localCounts;
+
+    /**
+     * Number of local states of each level
+     */
+    private int[] localSizes;
+
+    /**
+     * Local state of each token count of each level
+     */
+    private List<Map<Integer, Integer>> localIndices;
+
+    /**
+     * Constructor
+     * @param petriNet Petri net to explore
+     */
+    public SaturationExplorer(PetriNet petriNet) {
+        this(new CompiledPetriNet(petriNet));
+    }
+
+    /**
+     * Constructor, choosing the order of the levels so that each transition touches levels close together
+     * @param compiled compiled Petri net to explore
+     * @throws IllegalArgumentException if the net's transitions cannot be split into local effects
+     */
+    public SaturationExplorer(CompiledPetriNet compiled) {
+        this(compiled, null);
+    }
+
+    /**
+     * Constructor
+     * @param compiled compiled Petri net to explore
+     * @param cellOrder every cell once, from the top level down, or null to choose the order
+     * @throws IllegalArgumentException if the net's transitions cannot be split into local effects
+     */
+    public SaturationExplorer(CompiledPetriNet compiled, int[] cellOrder) {
+        if (compiled.hasFunctionalWeights()) {
+            throw new IllegalArgumentException("Saturation requires constant arc weights");
+        }
+        this.compiled = compiled;
+        levelCount = compiled.getMarkingSize();
+        int transitions = compiled.getTransitionCount();
+        checkPriorities();
+        List<Map<Integer, int[]>> cellEffects = new ArrayList<>();
+        for (int t = 0; t < transitions; t++) {
+            cellEffects.add(cellEffects(t));
+        }
+        if (cellOrder == null) {
+            cellOrder = forceOrder(cellEffects);
+        }
+        cellOfLevel = new int[levelCount + 1];
+        levelOfCell = new int[levelCount];
+        Arrays.fill(levelOfCell, -1);
+        if (cellOrder.length != levelCount) {
+            throw new IllegalArgumentException("Cell order has " + cellOrder.length + " cells, expected " + levelCount);
+        }
+        for (int position = 0; position < levelCount; position++) {
+            int cell = cellOrder[position];
+            if (cell < 0 || cell >= levelCount || levelOfCell[cell] >= 0) {
+                throw new IllegalArgumentException("Cell order must hold every cell once");
+            }
+            levelOfCell[cell] = levelCount - position;
+            cellOfLevel[levelCount - position] = cell;
+        }
+        effectLevels = new int[transitions][];
+        effectPre = new int[transitions][];
+        effectPost = new int[transitions][];
+        effectCapacity = new int[transitions][];
+        effectInhibited = new boolean[transitions][];
+        List<List<Integer>> byTop = new ArrayList<>();
+        for (int level = 0; level <= levelCount; level++) {
+            byTop.add(new ArrayList<Integer>());
+        }
+        for (int t = 0; t < transitions; t++) {
+            compileEffects(t, cellEffects.get(t));
+            if (effectLevels[t].length > 0) {
+                byTop.get(effectLevels[t][effectLevels[t].length - 1]).add(t);
+            }
+        }
+        transitionsByTop = new int[levelCount + 1][];
+        for (int level = 0; level <= levelCount; level++) {
+            List<Integer> top = byTop.get(level);
+            transitionsByTop[level] = new int[top.size()];
+            for (int i = 0; i < top.size(); i++) {
+                transitionsByTop[level][i] = top.get(i);
+            }
+        }
+    }
+
+    /**
+     * @param cacheSize number of operation results cached before older ones are evicted
+     */
+    public void setCacheSize(int cacheSize) {
+        if (cacheSize < 1) {
+            throw new IllegalArgumentException("Cache size must be at least one: " + cacheSize);
+        }
+        this.cacheSize = cacheSize;
+    }
+
+    /**
+     * @return number of operation results cached before older ones are evicted
+     */
+    public int getCacheSize() {
+        return cacheSize;
+    }
+
+    /**
+     * @param maximumLocalStates number of token counts a cell may hold before the net is treated as unbounded
+     */
+    public void setMaximumLocalStates(int maximumLocalStates) {
+        if (maximumLocalStates < 1) {
+            throw new IllegalArgumentException("Maximum local states must be at least one: " + maximumLocalStates);
+        }
+        this.maximumLocalStates = maximumLocalStates;
+    }
+
+    /**
+     * @return number of token counts a cell may hold before the net is treated as unbounded
+     */
+    public int getMaximumLocalStates() {
+        return maximumLocalStates;
+    }
+
+    /**
+     * @return the reachable markings from the net's current marking
+     */
+    public SymbolicStateSpace explore() {
+        return explore(compiled.getCurrentMarking());
+    }
+
+    /**
+     * @param initial marking to start from
+     * @return the reachable markings
+     * @throws IllegalStateException if a cell can hold more than the maximum number of local states
+     */
+    public SymbolicStateSpace explore(int[] initial) {
+        if (initial.length != levelCount) {
+            throw new IllegalArgumentException("Marking has " + initial.length + " cells, expected " + levelCount);
+        }
+        cache = new OperationCache(cacheSize);
+        forest = new MddForest(cache);
+        localCounts = new int[levelCount + 1][];
+        localSizes = new int[levelCount + 1];
+        localIndices = new ArrayList<>();
+        localIndices.add(null);
+        for (int level = 1; level <= levelCount; level++) {
+            localCounts[level] = new int[4];
+            localIndices.add(new HashMap<Integer, Integer>());
+        }
+        try {
+            int node = MddForest.TERMINAL;
+            for (int level = 1; level <= levelCount; level++) {
+                int count = initial[cellOf(level)];
+                if (count < 0 || count == CompiledPetriNet.INFINITY) {
+                    throw new IllegalArgumentException("Cell " + cellOf(level) + " has no finite token count");
+                }
+                int[] children = new int[localIndex(level, count) + 1];
+                children[children.length - 1] = node;
+                node = forest.node(level, children);
+            }
+            int root = saturate(levelCount, node);
+            int[][] counts = new int[levelCount + 1][];
+            for (int level = 1; level <= levelCount; level++) {
+                counts[level] = Arrays.copyOf(localCounts[level], localSizes[level]);
+            }
+            return new SymbolicStateSpace(compiled, forest, root, cellOfLevel, counts);
+        } finally {
+            cache = null;
+            forest = null;
+            localCounts = null;
+            localIndices = null;
+        }
+    }
+
+    /**
+     * @param level level number
+     * @return cell of the level
+     */
+    private int cellOf(int level) {
+        return cellOfLevel[level];
+    }
+
+    /**
+     * @param level level number
+     * @param count token count of the level's cell
+     * @return local state of the count, added if new
+     */
+    private int localIndex(int level, int count) {
+        Map<Integer, Integer> indices = localIndices.get(level);
+        Integer index = indices.get(count);
+        if (index != null) {
+            return index;
+        }
+        int size = localSizes[level];
+        if (size == maximumLocalStates) {
+            throw new IllegalStateException("Cell " + cellOf(level) + " holds more than " + maximumLocalStates
+                    + " token counts, the net may be unbounded");
+        }
+        if (size == localCounts[level].length) {
+            localCounts[level] = Arrays.copyOf(localCounts[level], size * 2);
+        }
+        localCounts[level][size] = count;
+        localSizes[level] = size + 1;
+        indices.put(count, size);
+        return size;
+    }
+
+    /**
+     * @param level level of the node
+     * @param node node whose children are saturated
+     * @return node of every marking reachable from the node's markings by transitions whose
+     *         highest level is at most the node's level
+     */
+    private int saturate(int level, int node) {
+        if (level == 0 || node == MddForest.EMPTY) {
+            return node;
+        }
+        int cached = cache.get(SATURATE, node, 0);
+        if (cached >= 0) {
+            return cached;
+        }
+        int[] children = forest.children(node).clone();
+        for (int i = 0; i < children.length; i++) {
+            children[i] = saturate(level - 1, children[i]);
+        }
+        int result = forest.node(level, fixpoint(level, children));
+        cache.put(SATURATE, node, 0, result);
+        cache.put(SATURATE, result, 0, result);
+        return result;
+    }
+
+    /**
+     * Fires every transition whose highest level is the level until nothing changes
+     *
+     * @param level level of the node
+     * @param children saturated children of a node, may be changed
+     * @return saturated children of the node, possibly a longer array
+     */
+    private int[] fixpoint(int level, int[] children) {
+        int[] transitions = transitionsByTop[level];
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int t : transitions) {
+                for (int i = 0; i < children.length; i++) {
+                    if (children[i] == MddForest.EMPTY) {
+                        continue;
+                    }
+                    int j = next(t, effectLevels[t].length - 1, level, i);
+                    if (j < 0) {
+                        continue;
+                    }
+                    int fired = fire(t, level - 1, children[i]);
+                    if (fired == MddForest.EMPTY) {
+                        continue;
+                    }
+                    if (j >= children.length) {
+                        children = Arrays.copyOf(children, Math.max(j + 1, children.length * 2));
+                    }
+                    int union = forest.union(level - 1, children[j], fired);
+                    if (union != children[j]) {
+                        children[j] = union;
+                        changed = true;
+                    }
+                }
+            }
+        }
+        return children;
+    }
+
+    /**
+     * @param t transition number
+     * @param level level of the node, below the transition's highest level
+     * @param node saturated node
+     * @return saturated node of every marking reachable from firing the transition in the node's
+     *         markings and then transitions whose highest level is at most the node's level
+     */
+    private int fire(int t, int level, int node) {
+        int[] levels = effectLevels[t];
+        if (node == MddForest.EMPTY || level < levels[0]) {
+            return node;
+        }
+        int cached = cache.get(FIRE + t, node, 0);
+        if (cached >= 0) {
+            return cached;
+        }
+        int effect = Arrays.binarySearch(levels, level);
+        int[] children = forest.children(node);
+        int[] result = new int[children.length];
+        for (int i = 0; i < children.length; i++) {
+            if (children[i] == MddForest.EMPTY) {
+                continue;
+            }
+            int j = effect < 0 ? i : next(t, effect, level, i);
+            if (j < 0) {
+                continue;
+            }
+            int fired = fire(t, level - 1, children[i]);
+            if (fired == MddForest.EMPTY) {
+                continue;
+            }
+            if (j >= result.length) {
+                result = Arrays.copyOf(result, Math.max(j + 1, result.length * 2));
+            }
+            result[j] = forest.union(level - 1, result[j], fired);
+        }
+        int saturated = forest.node(level, fixpoint(level, result));
+        cache.put(FIRE + t, node, 0, saturated);
+        return saturated;
+    }
+
+    /**
+     * @param t transition number
+     * @param effect position of the level in the transition's effects
+     * @param level level number
+     * @param index local state of the level
+     * @return local state after firing the transition, or -1 if the local state does not enable it
+     */
+    private int next(int t, int effect, int level, int index) {
+        int count = localCounts[level][index];
+        if (count < effectPre[t][effect] || effectInhibited[t][effect] && count != 0) {
+            return -1;
+        }
+        int after = count - effectPre[t][effect] + effectPost[t][effect];
+        if (effectCapacity[t][effect] != 0 && after > effectCapacity[t][effect]) {
+            return -1;
+        }
+        return after == count ? index : localIndex(level, after);
+    }
+
+    /**
+     * @throws IllegalArgumentException if priority rules can stop an enabled transition firing
+     */
+    private void checkPriorities() {
+        boolean timed = false;
+        boolean immediate = false;
+        int priority = 0;
+        for (int t = 0; t < compiled.getTransitionCount(); t++) {
+            if (compiled.isTimed(t)) {
+                timed = true;
+            } else {
+                if (immediate && compiled.getPriority(t) != priority) {
+                    throw new IllegalArgumentException("Saturation requires immediate transitions of one priority");
+                }
+                immediate = true;
+                priority = compiled.getPriority(t);
+            }
+        }
+        if (timed && immediate) {
+            throw new IllegalArgumentException("Saturation requires transitions to be either all timed or all immediate");
+        }
+    }
+
+    /**
+     * Splits a transition into its effect on each cell it touches
+     *
+     * @param t transition number
+     * @return pre, post, capacity and inhibited of each cell the transition touches
+     */
+    private Map<Integer, int[]> cellEffects(int t) {
+        Map<Integer, int[]> effects = new HashMap<>();
+        for (int i = compiled.preStart(t); i < compiled.preEnd(t); i++) {
+            effect(effects, compiled.preCell(i))[0] += compiled.preWeight(i);
+        }
+        for (int i = compiled.postStart(t); i < compiled.postEnd(t); i++) {
+            effect(effects, compiled.postCell(i))[1] += compiled.postWeight(i);
+        }
+        for (int place : compiled.capacityPlaces(t)) {
+            if (compiled.getTokenCount() != 1) {
+                throw new IllegalArgumentException("Saturation requires capacities only on nets with one token type");
+            }
+            effect(effects, compiled.cell(place, 0))[2] = compiled.getCapacity(place);
+        }
+        for (int place : compiled.inhibitorPlaces(t)) {
+            for (int token = 0; token < compiled.getTokenCount(); token++) {
+                effect(effects, compiled.cell(place, token))[3] = 1;
+            }
+        }
+        return effects;
+    }
+
+    /**
+     * Orders the cells with the FORCE heuristic, repeatedly moving each cell towards the centre
+     * of the transitions that touch it and keeping the order whose transitions span the fewest levels
+     *
+     * @param cellEffects effects of each transition by cell
+     * @return every cell once, from the top level down
+     */
+    private int[] forceOrder(List<Map<Integer, int[]>> cellEffects) {
+        final double[] position = new double[levelCount];
+        Integer[] order = new Integer[levelCount];
+        for (int cell = 0; cell < levelCount; cell++) {
+            position[cell] = cell;
+            order[cell] = cell;
+        }
+        int[] best = new int[levelCount];
+        for (int cell = 0; cell < levelCount; cell++) {
+            best[cell] = cell;
+        }
+        long bestSpan = span(cellEffects, position);
+        for (int iteration = 0; iteration < FORCE_ITERATIONS; iteration++) {
+            final double[] target = new double[levelCount];
+            int[] touching = new int[levelCount];
+            for (Map<Integer, int[]> effects : cellEffects) {
+                double centre = 0;
+                for (int cell : effects.keySet()) {
+                    centre += position[cell];
+                }
+                centre /= Math.max(1, effects.size());
+                for (int cell : effects.keySet()) {
+                    target[cell] += centre;
+                    touching[cell]++;
+                }
+            }
+            for (int cell = 0; cell < levelCount; cell++) {
+                target[cell] = touching[cell] == 0 ? position[cell] : target[cell] / touching[cell];
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    int byTarget = Double.compare(target[a], target[b]);
+                    return byTarget != 0 ? byTarget : Double.compare(position[a], position[b]);
+                }
+            });
+            for (int rank = 0; rank < levelCount; rank++) {
+                position[order[rank]] = rank;
+            }
+            long span = span(cellEffects, position);
+            if (span >= bestSpan) {
+                break;
+            }
+            bestSpan = span;
+            for (int rank = 0; rank < levelCount; rank++) {
+                best[rank] = order[rank];
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @param cellEffects effects of each transition by cell
+     * @param position position of each cell
+     * @return total distance between the first and last cell each transition touches
+     */
+    private static long span(List<Map<Integer, int[]>> cellEffects, double[] position) {
+        long span = 0;
+        for (Map<Integer, int[]> effects : cellEffects) {
+            double first = Double.MAX_VALUE;
+            double last = -1;
+            for (int cell : effects.keySet()) {
+                first = Math.min(first, position[cell]);
+                last = Math.max(last, position[cell]);
+            }
+            span += effects.isEmpty() ? 0 : (long) (last - first);
+        }
+        return span;
+    }
+
+    /**
+     * Stores a transition's effect on each level it touches
+     *
+     * @param t transition number
+     * @param cellEffects pre, post, capacity and inhibited of each cell the transition touches
+     */
+    private void compileEffects(int t, Map<Integer, int[]> cellEffects) {
+        TreeMap<Integer, int[]> effects = new TreeMap<>();
+        for (Map.Entry<Integer, int[]> entry : cellEffects.entrySet()) {
+            effects.put(levelOfCell[entry.getKey()], entry.getValue());
+        }
+        int size = effects.size();
+        effectLevels[t] = new int[size];
+        effectPre[t] = new int[size];
+        effectPost[t] = new int[size];
+        effectCapacity[t] = new int[size];
+        effectInhibited[t] = new boolean[size];
+        int i = 0;
+        for (Map.Entry<Integer, int[]> entry : effects.entrySet()) {
+            effectLevels[t][i] = entry.getKey();
+            effectPre[t][i] = entry.getValue()[0];
+            effectPost[t][i] = entry.getValue()[1];
+            effectCapacity[t][i] = entry.getValue()[2];
+            effectInhibited[t][i] = entry.getValue()[3] != 0;
+            i++;
+        }
+    }
+
+    /**
+     * @param effects effects of a transition by cell
+     * @param cell cell the transition touches
+     * @return effect on the cell, added if new
+     */
+    private static int[] effect(Map<Integer, int[]> effects, int cell) {
+        int[] effect = effects.get(cell);
+        if (effect == null) {
+            effect = new int[4];
+            effects.put(cell, effect);
+        }
+        return effect;
+    }
+}
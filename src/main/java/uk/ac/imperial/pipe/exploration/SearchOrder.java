@@ -0,0 +1,18 @@
+package uk.ac.imperial.pipe.exploration;
+
+/**
+ * Order in which a {@link uk.ac.imperial.pipe.exploration.StateSpaceExplorer} expands states
+ */
+public enum SearchOrder {
+    /**
+     * Expand states level by level, all states at distance n from the initial state
+     * are expanded before any state at distance n + 1
+     */
+    BREADTH_FIRST,
+
+    /**
+     * Expand the most recently discovered state first. When exploring with several threads
+     * each thread follows its own depth first order
+     */
+    DEPTH_FIRST
+}
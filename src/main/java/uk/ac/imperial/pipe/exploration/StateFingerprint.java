@@ -0,0 +1,108 @@
+package uk.ac.imperial.pipe.exploration;
+
+import uk.ac.imperial.pipe.animation.CompiledPetriNet;
+import uk.ac.imperial.pipe.animation.Marking;
+import uk.ac.imperial.state.State;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * 64 bit hashes of states for visited sets that store hashes instead of states.
+ * <p/>
+ * States are hashed from their places and token counts in id order, zero counts being skipped so
+ * that a missing count and a count of zero hash alike. A {@link Marking} is hashed the same way
+ * from its cells without creating token maps, so it hashes like any equal state.
+ */
+final class StateFingerprint {
+    /**
+     * Multiplier mixing each value into the hash
+     */
+    private static final long VALUE_MULTIPLIER = 0xff51afd7ed558ccdL;
+
+    /**
+     * Multiplier applied after each value
+     */
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    /**
+     * Utility class
+     */
+    private StateFingerprint() {
+    }
+
+    /**
+     * @param state state to hash
+     * @return well mixed 64 bit hash of the state
+     */
+    static long of(State state) {
+        long hash = 0;
+        int values = 0;
+        if (state instanceof Marking) {
+            Marking marking = (Marking) state;
+            CompiledPetriNet compiled = marking.getCompiledPetriNet();
+            for (int place = 0; place < compiled.getPlaceCount(); place++) {
+                hash = add(hash, compiled.getPlace(place).getId().hashCode());
+                values++;
+                for (int token = 0; token < compiled.getTokenCount(); token++) {
+                    int count = marking.get(compiled.cell(place, token));
+                    if (count != 0) {
+                        hash = add(add(hash, compiled.getTokenId(token).hashCode()), count);
+                        values += 2;
+                    }
+                }
+            }
+        } else {
+            for (String place : new TreeSet<>(state.getPlaces())) {
+                Map<String, Integer> tokens = state.getTokens(place);
+                hash = add(hash, place.hashCode());
+                values++;
+                if (tokens != null) {
+                    for (Map.Entry<String, Integer> entry : new TreeMap<>(tokens).entrySet()) {
+                        if (entry.getValue() != null && entry.getValue() != 0) {
+                            hash = add(add(hash, entry.getKey().hashCode()), entry.getValue());
+                            values += 2;
+                        }
+                    }
+                }
+            }
+        }
+        return mix64(hash ^ values);
+    }
+
+    /**
+     * Cheaper than {@link #of(State)} but only comparable between markings of the same layout
+     *
+     * @param marking token counts of a {@link Marking}
+     * @return well mixed 64 bit hash of the counts
+     */
+    static long of(int[] marking) {
+        long hash = 0;
+        for (int value : marking) {
+            hash = add(hash, value);
+        }
+        return mix64(hash ^ marking.length);
+    }
+
+    /**
+     * @param hash hash so far
+     * @param value value to mix in
+     * @return updated hash
+     */
+    private static long add(long hash, int value) {
+        return Long.rotateLeft(hash ^ value * VALUE_MULTIPLIER, 31) * GOLDEN_GAMMA;
+    }
+
+    /**
+     * SplitMix64 finaliser
+     *
+     * @param z value to mix
+     * @return mixed value
+     */
+    static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,420 @@
+package uk.ac.imperial.pipe.exploration;
+
+import uk.ac.imperial.pipe.animation.AnimationLogic;
+import uk.ac.imperial.pipe.models.petrinet.Transition;
+import uk.ac.imperial.state.State;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Explores the reachable state space of a Petri net using
+ * {@link uk.ac.imperial.pipe.animation.AnimationLogic#getSuccessors(uk.ac.imperial.state.State)},
+ * reporting every state and edge it finds to an {@link uk.ac.imperial.pipe.exploration.ExplorationListener}.
+ * <p/>
+ * States are expanded on a work stealing {@link java.util.concurrent.ForkJoinPool} and
+ * deduplicated in a shared {@link uk.ac.imperial.pipe.exploration.VisitedSet}. Breadth first
+ * exploration expands one level at a time in parallel, depth first exploration gives each
+ * worker its own stack and hands half of it to idle workers.
+ * <p/>
+ * The animation logic must be safe to call from several threads, as
+ * {@link uk.ac.imperial.pipe.animation.PetriNetAnimationLogic} is. Passing a
+ * {@link uk.ac.imperial.pipe.exploration.ProbabilisticVisitedSet} trades a small, reported
+ * chance of missing states for storing only hashes of them.
+ */
+public final class StateSpaceExplorer {
+    /**
+     * Maximum number of states used when no limit has been set
+     */
+    public static final long UNBOUNDED = Long.MAX_VALUE;
+
+    /**
+     * Number of states a worker expands itself before splitting its share of the work
+     */
+    private static final int SPLIT_THRESHOLD = 16;
+
+    /**
+     * Number of locks states are claimed and reported under, a power of two
+     */
+    private static final int LOCK_STRIPES = 256;
+
+    /**
+     * Logic used to work out successors
+     */
+    private final AnimationLogic animationLogic;
+
+    /**
+     * Number of worker threads
+     */
+    private final int parallelism;
+
+    /**
+     * Order states are expanded in
+     */
+    private SearchOrder searchOrder = SearchOrder.BREADTH_FIRST;
+
+    /**
+     * Maximum number of states to report
+     */
+    private long maximumStates = UNBOUNDED;
+
+    /**
+     * Set by {@link #cancel()} to stop the current exploration
+     */
+    private volatile boolean cancelled = false;
+
+    /**
+     * Constructor, uses one worker per available processor
+     * @param animationLogic logic used to work out successors
+     */
+    public StateSpaceExplorer(AnimationLogic animationLogic) {
+        this(animationLogic, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructor
+     * @param animationLogic logic used to work out successors
+     * @param parallelism number of worker threads
+     */
+    public StateSpaceExplorer(AnimationLogic animationLogic, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least one: " + parallelism);
+        }
+        this.animationLogic = animationLogic;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * @param searchOrder order states are expanded in
+     */
+    public void setSearchOrder(SearchOrder searchOrder) {
+        this.searchOrder = searchOrder;
+    }
+
+    /**
+     * @return order states are expanded in
+     */
+    public SearchOrder getSearchOrder() {
+        return searchOrder;
+    }
+
+    /**
+     * Once this many states have been reported the exploration stops. A few edges found by other
+     * workers whilst it is stopping may lead to states discovered beyond the limit, which are not reported.
+     *
+     * @param maximumStates maximum number of states to report
+     */
+    public void setMaximumStates(long maximumStates) {
+        if (maximumStates < 1) {
+            throw new IllegalArgumentException("Maximum states must be at least one: " + maximumStates);
+        }
+        this.maximumStates = maximumStates;
+    }
+
+    /**
+     * @return maximum number of states to report
+     */
+    public long getMaximumStates() {
+        return maximumStates;
+    }
+
+    /**
+     * Stops the exploration currently running, or the next one to start if none is running.
+     * May be called from any thread
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Explores every state reachable from the initial state keeping visited states in memory
+     *
+     * @param initial state to start from
+     * @param listener receives states and edges as they are found
+     * @return summary of the exploration
+     */
+    public ExplorationResult explore(State initial, ExplorationListener listener) {
+        return explore(initial, listener, new ConcurrentVisitedSet());
+    }
+
+    /**
+     * Explores every state reachable from the initial state
+     *
+     * @param initial state to start from
+     * @param listener receives states and edges as they are found
+     * @param visited set used to recognise states already reached, normally empty
+     * @return summary of the exploration
+     */
+    public ExplorationResult explore(State initial, ExplorationListener listener, VisitedSet visited) {
+        Exploration exploration = new Exploration(listener, visited);
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            if (exploration.discover(initial)) {
+                List<State> frontier = new ArrayList<>();
+                frontier.add(initial);
+                if (searchOrder == SearchOrder.BREADTH_FIRST) {
+                    while (!frontier.isEmpty() && !exploration.isStopped()) {
+                        ConcurrentLinkedQueue<State> next = new ConcurrentLinkedQueue<>();
+                        pool.invoke(new LevelTask(exploration, frontier, 0, frontier.size(), next));
+                        frontier = new ArrayList<>(next);
+                    }
+                } else {
+                    pool.invoke(new DepthFirstTask(exploration, new ArrayDeque<>(frontier)));
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        ExplorationResult result = exploration.getResult();
+        cancelled = false;
+        return result;
+    }
+
+    /**
+     * State shared by the workers of a single exploration
+     */
+    private final class Exploration {
+        /**
+         * Receives states and edges
+         */
+        private final ExplorationListener listener;
+
+        /**
+         * States already reached
+         */
+        private final VisitedSet visited;
+
+        /**
+         * Number of states reported
+         */
+        private final AtomicLong states = new AtomicLong();
+
+        /**
+         * Number of edges reported
+         */
+        private final AtomicLong edges = new AtomicLong();
+
+        /**
+         * Set once the state limit has been reached
+         */
+        private volatile boolean limitReached = false;
+
+        /**
+         * Held whilst a state is claimed in the visited set and reported, chosen by the state's hash
+         * code. A worker finding the state already visited takes the same lock before reporting its
+         * edge, so it waits for the state to have been reported
+         */
+        private final Object[] locks = new Object[LOCK_STRIPES];
+
+        /**
+         * Constructor
+         * @param listener receives states and edges
+         * @param visited states already reached
+         */
+        Exploration(ExplorationListener listener, VisitedSet visited) {
+            this.listener = listener;
+            this.visited = visited;
+            for (int i = 0; i < locks.length; i++) {
+                locks[i] = new Object();
+            }
+        }
+
+        /**
+         * @return true if workers should stop expanding states
+         */
+        boolean isStopped() {
+            return cancelled || limitReached;
+        }
+
+        /**
+         * Records the state if it has not been visited before
+         *
+         * @param state reached state
+         * @return true if the state is new and must be expanded
+         */
+        boolean discover(State state) {
+            int hash = state.hashCode();
+            synchronized (locks[(hash ^ (hash >>> 16)) & (LOCK_STRIPES - 1)]) {
+                if (!visited.add(state)) {
+                    return false;
+                }
+                if (states.incrementAndGet() > maximumStates) {
+                    states.decrementAndGet();
+                    limitReached = true;
+                    return false;
+                }
+                listener.state(state);
+                return true;
+            }
+        }
+
+        /**
+         * Reports the successors of the state and adds new ones to the work list
+         *
+         * @param state state to expand
+         * @param work receives states still to be expanded
+         */
+        void expand(State state, Collection<State> work) {
+            Map<State, Collection<Transition>> successors = animationLogic.getSuccessors(state);
+            for (Map.Entry<State, Collection<Transition>> entry : successors.entrySet()) {
+                State successor = entry.getKey();
+                boolean isNew = discover(successor);
+                if (isNew) {
+                    work.add(successor);
+                } else if (limitReached) {
+                    continue;
+                }
+                edges.incrementAndGet();
+                listener.edge(state, successor, entry.getValue());
+            }
+        }
+
+        /**
+         * @return summary of the exploration so far
+         */
+        ExplorationResult getResult() {
+            ExplorationResult.Status status;
+            if (cancelled) {
+                status = ExplorationResult.Status.CANCELLED;
+            } else if (limitReached) {
+                status = ExplorationResult.Status.STATE_LIMIT_REACHED;
+            } else {
+                status = ExplorationResult.Status.COMPLETE;
+            }
+            double omissionProbability = 0;
+            if (visited instanceof ProbabilisticVisitedSet) {
+                omissionProbability = ((ProbabilisticVisitedSet) visited).getOmissionProbability();
+            }
+            return new ExplorationResult(status, states.get(), edges.get(), omissionProbability);
+        }
+    }
+
+    /**
+     * Expands a range of one breadth first level, collecting the next level
+     */
+    private static final class LevelTask extends RecursiveAction {
+        /**
+         * Exploration the level belongs to
+         */
+        private final Exploration exploration;
+
+        /**
+         * States of the current level
+         */
+        private final List<State> level;
+
+        /**
+         * First index of the range to expand
+         */
+        private final int from;
+
+        /**
+         * Index one past the range to expand
+         */
+        private final int to;
+
+        /**
+         * Receives the states of the next level
+         */
+        private final Queue<State> next;
+
+        /**
+         * Constructor
+         * @param exploration exploration the level belongs to
+         * @param level states of the current level
+         * @param from first index of the range to expand
+         * @param to index one past the range to expand
+         * @param next receives the states of the next level
+         */
+        LevelTask(Exploration exploration, List<State> level, int from, int to, Queue<State> next) {
+            this.exploration = exploration;
+            this.level = level;
+            this.from = from;
+            this.to = to;
+            this.next = next;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > SPLIT_THRESHOLD) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new LevelTask(exploration, level, from, middle, next),
+                        new LevelTask(exploration, level, middle, to, next));
+                return;
+            }
+            for (int i = from; i < to && !exploration.isStopped(); i++) {
+                exploration.expand(level.get(i), next);
+            }
+        }
+    }
+
+    /**
+     * Expands states depth first from its own stack, forking half of the stack off
+     * whenever the pool is short of work
+     */
+    private static final class DepthFirstTask extends RecursiveAction {
+        /**
+         * Exploration the task belongs to
+         */
+        private final Exploration exploration;
+
+        /**
+         * States still to be expanded, most recently discovered last
+         */
+        private final Deque<State> stack;
+
+        /**
+         * Constructor
+         * @param exploration exploration the task belongs to
+         * @param stack states still to be expanded
+         */
+        DepthFirstTask(Exploration exploration, Deque<State> stack) {
+            this.exploration = exploration;
+            this.stack = stack;
+        }
+
+        @Override
+        protected void compute() {
+            List<DepthFirstTask> forked = new LinkedList<>();
+            List<State> successors = new ArrayList<>();
+            while (!stack.isEmpty() && !exploration.isStopped()) {
+                successors.clear();
+                exploration.expand(stack.pollLast(), successors);
+                for (int i = successors.size() - 1; i >= 0; i--) {
+                    stack.addLast(successors.get(i));
+                }
+                if (stack.size() > SPLIT_THRESHOLD && getSurplusQueuedTaskCount() == 0) {
+                    forked.add(split());
+                }
+            }
+            for (DepthFirstTask task : forked) {
+                task.join();
+            }
+        }
+
+        /**
+         * Moves the oldest half of the stack into a new forked task
+         *
+         * @return the forked task
+         */
+        private DepthFirstTask split() {
+            Deque<State> half = new ArrayDeque<>();
+            for (int i = stack.size() / 2; i > 0; i--) {
+                half.addLast(stack.pollFirst());
+            }
+            DepthFirstTask task = new DepthFirstTask(exploration, half);
+            task.fork();
+            return task;
+        }
+    }
+}
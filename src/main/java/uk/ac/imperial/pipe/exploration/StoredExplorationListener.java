@@ -0,0 +1,24 @@
+package uk.ac.imperial.pipe.exploration;
+
+/**
+ * Receives the states and edges found by a {@link StoredStateExplorer} as ids of an
+ * {@link OffHeapStateStore}
+ */
+public interface StoredExplorationListener {
+    /**
+     * Called once for each state the first time it is found
+     *
+     * @param id id of the state in the store
+     */
+    void state(long id);
+
+    /**
+     * Called for each firing out of an expanded state, so once for each transition leading from
+     * the source to the target. The exploration's edge count counts the pair once
+     *
+     * @param source id of the state fired in
+     * @param target id of the state reached
+     * @param transition transition number fired
+     */
+    void edge(long source, long target, int transition);
+}
@@ -0,0 +1,205 @@
+package uk.ac.imperial.pipe.exploration;
+
+import uk.ac.imperial.pipe.animation.CompiledPetriNet;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Breadth first exploration of a {@link CompiledPetriNet} whose states live in an
+ * {@link OffHeapStateStore} and are handled by id.
+ * <p/>
+ * Ids are handed out in the order states are found, so the breadth first queue is simply the ids
+ * not yet expanded and needs no memory of its own. Each state is decoded into a reused array,
+ * its successors worked out with the same enabling, timing and priority rules as
+ * {@link uk.ac.imperial.pipe.animation.PetriNetAnimationLogic} and added to the store, so heap
+ * use does not grow with the state space. Instances are not thread safe.
+ */
+public final class StoredStateExplorer {
+    /**
+     * Compiled Petri net to explore
+     */
+    private final CompiledPetriNet compiled;
+
+    /**
+     * Store the states are kept in
+     */
+    private final OffHeapStateStore store;
+
+    /**
+     * Maximum number of states to report
+     */
+    private long maximumStates = StateSpaceExplorer.UNBOUNDED;
+
+    /**
+     * Set by {@link #cancel()} to stop the current exploration
+     */
+    private volatile boolean cancelled = false;
+
+    /**
+     * Marking being expanded
+     */
+    private final int[] marking;
+
+    /**
+     * Successor being worked out
+     */
+    private final int[] successor;
+
+    /**
+     * Transitions allowed to fire in the marking being expanded
+     */
+    private final BitSet firable = new BitSet();
+
+    /**
+     * Constructor
+     * @param store store the states are kept in, its compiled Petri net is explored
+     */
+    public StoredStateExplorer(OffHeapStateStore store) {
+        this.store = store;
+        this.compiled = store.getCompiledPetriNet();
+        marking = new int[compiled.getMarkingSize()];
+        successor = new int[compiled.getMarkingSize()];
+    }
+
+    /**
+     * Once this many states have been stored the exploration stops
+     *
+     * @param maximumStates maximum number of states to report
+     */
+    public void setMaximumStates(long maximumStates) {
+        if (maximumStates < 1) {
+            throw new IllegalArgumentException("Maximum states must be at least one: " + maximumStates);
+        }
+        this.maximumStates = maximumStates;
+    }
+
+    /**
+     * @return maximum number of states to report
+     */
+    public long getMaximumStates() {
+        return maximumStates;
+    }
+
+    /**
+     * Stops the exploration currently running, or the next one to start if none is running.
+     * May be called from any thread
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Works out the successors of a stored state, adding new ones to the store
+     *
+     * @param id id of the state to expand
+     * @param targets receives the id of the state reached by each firing, -(id + 1) if it was
+     *                already stored, at least {@link CompiledPetriNet#getTransitionCount()} long
+     * @param transitions receives the transition number of each firing, as long as targets
+     * @return number of firings
+     */
+    public int getSuccessors(long id, long[] targets, int[] transitions) {
+        store.get(id, marking);
+        return fireAll(targets, transitions, StateSpaceExplorer.UNBOUNDED);
+    }
+
+    /**
+     * Explores every state reachable from the initial marking. States already in the store are
+     * treated as visited, with ids from the store's size onwards left to expand.
+     *
+     * @param initial marking to start from
+     * @param listener receives states and edges as they are found
+     * @return summary of the exploration, counting an edge once for each pair of a state and a successor
+     */
+    public ExplorationResult explore(int[] initial, StoredExplorationListener listener) {
+        long start = store.size();
+        long states = 0;
+        long edges = 0;
+        boolean limitReached = false;
+        long limit = maximumStates > Long.MAX_VALUE - start ? Long.MAX_VALUE : start + maximumStates;
+        long[] targets = new long[compiled.getTransitionCount()];
+        int[] transitions = new int[compiled.getTransitionCount()];
+        long[] reached = new long[compiled.getTransitionCount()];
+
+        long initialId = store.addIfAbsent(initial);
+        if (initialId >= 0) {
+            states++;
+            listener.state(initialId);
+        }
+        for (long id = start; id < store.size() && !cancelled && !limitReached; id++) {
+            store.get(id, marking);
+            int count = fireAll(targets, transitions, limit);
+            int reachedCount = 0;
+            for (int i = 0; i < count; i++) {
+                long target = targets[i];
+                if (target == Long.MIN_VALUE) {
+                    limitReached = true;
+                    continue;
+                }
+                if (target >= 0) {
+                    states++;
+                    listener.state(target);
+                } else {
+                    target = -target - 1;
+                }
+                reached[reachedCount++] = target;
+                listener.edge(id, target, transitions[i]);
+            }
+            edges += countDistinct(reached, reachedCount);
+        }
+
+        ExplorationResult.Status status;
+        if (cancelled) {
+            status = ExplorationResult.Status.CANCELLED;
+        } else if (limitReached) {
+            status = ExplorationResult.Status.STATE_LIMIT_REACHED;
+        } else {
+            status = ExplorationResult.Status.COMPLETE;
+        }
+        cancelled = false;
+        return new ExplorationResult(status, states, edges);
+    }
+
+    /**
+     * @param ids ids to count, sorted in place
+     * @param count number of ids at the start of the array
+     * @return number of different ids
+     */
+    private static int countDistinct(long[] ids, int count) {
+        Arrays.sort(ids, 0, count);
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (i == 0 || ids[i] != ids[i - 1]) {
+                distinct++;
+            }
+        }
+        return distinct;
+    }
+
+    /**
+     * Fires every transition allowed to fire in marking
+     *
+     * @param targets receives the id of each successor, -(id + 1) if already stored or
+     *                {@link Long#MIN_VALUE} if new but not stored because of the limit
+     * @param transitions receives the transition number of each firing
+     * @param limit store size beyond which new states are not added
+     * @return number of firings
+     */
+    private int fireAll(long[] targets, int[] transitions, long limit) {
+        compiled.filterEnabled(compiled.enabledTransitions(marking), firable);
+        int count = 0;
+        for (int t = firable.nextSetBit(0); t >= 0; t = firable.nextSetBit(t + 1)) {
+            compiled.fire(t, marking, successor);
+            long target;
+            if (store.size() < limit) {
+                target = store.addIfAbsent(successor);
+            } else {
+                long existing = store.find(successor);
+                target = existing < 0 ? Long.MIN_VALUE : -(existing + 1);
+            }
+            targets[count] = target;
+            transitions[count++] = t;
+        }
+        return count;
+    }
+}
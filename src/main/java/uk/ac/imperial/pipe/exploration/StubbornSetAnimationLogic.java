@@ -0,0 +1,479 @@
+package uk.ac.imperial.pipe.exploration;
+
+import uk.ac.imperial.pipe.animation.AnimationLogic;
+import uk.ac.imperial.pipe.animation.CompiledPetriNet;
+import uk.ac.imperial.pipe.animation.Marking;
+import uk.ac.imperial.pipe.animation.PetriNetAnimationLogic;
+import uk.ac.imperial.pipe.models.petrinet.Transition;
+import uk.ac.imperial.state.State;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Animation logic whose successors are reduced by partial order reduction: only the enabled
+ * transitions of a stubborn set are fired in each state rather than every enabled transition.
+ * <p/>
+ * A stubborn set is closed under two rules computed from the structure of the Petri net:
+ * <ul>
+ *     <li>An enabled member brings in every transition it can disable or be disabled by, that is
+ *     transitions competing for the tokens of its input places and transitions it can block or be
+ *     blocked by through an inhibitor arc or a place capacity</li>
+ *     <li>A disabled member brings in every transition that can remove one reason it is disabled:
+ *     the producers of a missing input token, or the consumers of an inhibiting or full place</li>
+ * </ul>
+ * Transitions outside the set can then neither affect nor be affected by the enabled members, so
+ * firing only those members preserves every deadlock of the full state space. The set with the
+ * fewest enabled transitions over every enabled seed is used.
+ * <p/>
+ * If visible places are given, every transition that changes one of them is always in the set,
+ * so any marking of the visible places reachable in the full state space is reachable in the
+ * reduced one and reachability queries over them can be answered from the reduced state space.
+ * <p/>
+ * Functional arc weights and several priority levels, including a mix of timed and immediate
+ * transitions, make the structural relations unsound; for such Petri nets every enabled
+ * transition is fired. Instances are safe to share between the threads of a
+ * {@link StateSpaceExplorer}.
+ */
+public final class StubbornSetAnimationLogic implements AnimationLogic {
+    /**
+     * Logic the enabled transitions and successor states are taken from
+     */
+    private final PetriNetAnimationLogic animationLogic;
+
+    /**
+     * Ids of places whose markings reachability must be preserved for
+     */
+    private final Set<String> visiblePlaceIds;
+
+    /**
+     * Structural relations of the compiled Petri net of the animation logic, built on first use
+     */
+    private volatile Relations relations;
+
+    /**
+     * Constructor, preserves deadlocks
+     * @param animationLogic logic the enabled transitions and successor states are taken from
+     */
+    public StubbornSetAnimationLogic(PetriNetAnimationLogic animationLogic) {
+        this(animationLogic, Collections.<String>emptySet());
+    }
+
+    /**
+     * Constructor, preserves deadlocks and the reachable markings of the visible places
+     * @param animationLogic logic the enabled transitions and successor states are taken from
+     * @param visiblePlaceIds ids of the places a reachability query refers to, ids not in the Petri net are ignored
+     */
+    public StubbornSetAnimationLogic(PetriNetAnimationLogic animationLogic, Collection<String> visiblePlaceIds) {
+        this.animationLogic = animationLogic;
+        this.visiblePlaceIds = Collections.unmodifiableSet(new HashSet<>(visiblePlaceIds));
+    }
+
+    /**
+     * @param state Must be a valid state for the Petri net this class represents
+     * @return all enabled transitions, not just those of the stubborn set
+     */
+    @Override
+    public Set<Transition> getEnabledTransitions(State state) {
+        return animationLogic.getEnabledTransitions(state);
+    }
+
+    /**
+     * @param state state to expand
+     * @return successors reached by firing the enabled transitions of a stubborn set of the state
+     */
+    @Override
+    public Map<State, Collection<Transition>> getSuccessors(State state) {
+        CompiledPetriNet compiled = animationLogic.getCompiledPetriNet();
+        BitSet stubborn = getStubbornTransitions(state);
+        Map<State, Collection<Transition>> successors = new HashMap<>();
+        for (int t = stubborn.nextSetBit(0); t >= 0; t = stubborn.nextSetBit(t + 1)) {
+            Transition transition = compiled.getTransition(t);
+            State successor = animationLogic.getFiredState(state, transition);
+            if (!successors.containsKey(successor)) {
+                successors.put(successor, new LinkedList<Transition>());
+            }
+            successors.get(successor).add(transition);
+        }
+        return successors;
+    }
+
+    @Override
+    public State getFiredState(State state, Transition transition) {
+        return animationLogic.getFiredState(state, transition);
+    }
+
+    @Override
+    public double getArcWeight(State state, String weight) {
+        return animationLogic.getArcWeight(state, weight);
+    }
+
+    /**
+     * Clears the caches of the animation logic and the structural relations
+     */
+    @Override
+    public void clear() {
+        animationLogic.clear();
+        relations = null;
+    }
+
+    /**
+     * @param state state to reduce
+     * @return numbers, in {@link PetriNetAnimationLogic#getCompiledPetriNet()}, of the enabled
+     * transitions of the smallest stubborn set found, or all enabled transitions if the Petri net
+     * cannot be reduced
+     */
+    public BitSet getStubbornTransitions(State state) {
+        Relations relations = getRelations();
+        BitSet enabled = animationLogic.getEnabledTransitionMask(state);
+        if (!relations.reducible || enabled.cardinality() <= 1) {
+            return (BitSet) enabled.clone();
+        }
+        Marking marking = animationLogic.getMarking(state);
+        BitSet best = null;
+        int bestSize = Integer.MAX_VALUE;
+        for (int seed = enabled.nextSetBit(0); seed >= 0 && bestSize > 1; seed = enabled.nextSetBit(seed + 1)) {
+            BitSet stubborn = closure(relations, marking, enabled, seed);
+            stubborn.and(enabled);
+            int size = stubborn.cardinality();
+            if (size < bestSize) {
+                best = stubborn;
+                bestSize = size;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return relations of the animation logic's current compiled Petri net
+     */
+    private Relations getRelations() {
+        CompiledPetriNet compiled = animationLogic.getCompiledPetriNet();
+        Relations current = relations;
+        if (current == null || current.compiled != compiled) {
+            current = new Relations(compiled, visiblePlaceIds);
+            relations = current;
+        }
+        return current;
+    }
+
+    /**
+     * @param relations structural relations
+     * @param marking marking the set is for
+     * @param enabled enabled transitions in the marking
+     * @param seed enabled transition to start from
+     * @return stubborn set containing the seed and every visible transition
+     */
+    private static BitSet closure(Relations relations, Marking marking, BitSet enabled, int seed) {
+        BitSet stubborn = new BitSet(relations.compiled.getTransitionCount());
+        int[] stack = new int[relations.compiled.getTransitionCount()];
+        int size = 0;
+        stubborn.set(seed);
+        stack[size++] = seed;
+        for (int t = relations.visible.nextSetBit(0); t >= 0; t = relations.visible.nextSetBit(t + 1)) {
+            if (!stubborn.get(t)) {
+                stubborn.set(t);
+                stack[size++] = t;
+            }
+        }
+        while (size > 0) {
+            int t = stack[--size];
+            int[] required = enabled.get(t) ? relations.dependent[t] : scapegoat(relations, marking, t, stubborn);
+            for (int other : required) {
+                if (!stubborn.get(other)) {
+                    stubborn.set(other);
+                    stack[size++] = other;
+                }
+            }
+        }
+        return stubborn;
+    }
+
+    /**
+     * Finds the reason the transition is disabled that brings the fewest new transitions into the set
+     *
+     * @param relations structural relations
+     * @param marking marking the transition is disabled in
+     * @param transition disabled transition number
+     * @param stubborn transitions already in the set
+     * @return transitions that can remove the reason
+     */
+    private static int[] scapegoat(Relations relations, Marking marking, int transition, BitSet stubborn) {
+        CompiledPetriNet compiled = relations.compiled;
+        int[] best = null;
+        int bestNew = Integer.MAX_VALUE;
+        for (int i = compiled.preStart(transition); i < compiled.preEnd(transition); i++) {
+            int cell = compiled.preCell(i);
+            if (marking.get(cell) < compiled.preWeight(i)) {
+                int added = countNew(relations.cellIncreasers[cell], stubborn);
+                if (added < bestNew) {
+                    best = relations.cellIncreasers[cell];
+                    bestNew = added;
+                }
+            }
+        }
+        for (int place : relations.inhibitors[transition]) {
+            if (totalTokens(compiled, marking, place) > 0) {
+                int added = countNew(relations.placeDecreasers[place], stubborn);
+                if (added < bestNew) {
+                    best = relations.placeDecreasers[place];
+                    bestNew = added;
+                }
+            }
+        }
+        int[] capacities = relations.capacities[transition];
+        for (int j = 0; j < capacities.length; j++) {
+            int place = capacities[j];
+            if (totalTokens(compiled, marking, place) + relations.capacityInflow[transition][j]
+                    > compiled.getCapacity(place)) {
+                int added = countNew(relations.placeDecreasers[place], stubborn);
+                if (added < bestNew) {
+                    best = relations.placeDecreasers[place];
+                    bestNew = added;
+                }
+            }
+        }
+        return best == null ? relations.all : best;
+    }
+
+    /**
+     * @param transitions transition numbers
+     * @param stubborn transitions already in the set
+     * @return number of the transitions not already in the set
+     */
+    private static int countNew(int[] transitions, BitSet stubborn) {
+        int count = 0;
+        for (int t : transitions) {
+            if (!stubborn.get(t)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param compiled compiled Petri net
+     * @param marking marking
+     * @param place place number
+     * @return tokens of every colour in the place
+     */
+    private static int totalTokens(CompiledPetriNet compiled, Marking marking, int place) {
+        int total = 0;
+        for (int k = 0; k < compiled.getTokenCount(); k++) {
+            total += marking.get(compiled.cell(place, k));
+        }
+        return total;
+    }
+
+    /**
+     * @param set set of numbers
+     * @return members of the set in ascending order
+     */
+    private static int[] toArray(BitSet set) {
+        int[] result = new int[set.cardinality()];
+        int i = 0;
+        for (int member = set.nextSetBit(0); member >= 0; member = set.nextSetBit(member + 1)) {
+            result[i++] = member;
+        }
+        return result;
+    }
+
+    /**
+     * @param count number of sets
+     * @return list of empty sets
+     */
+    private static List<BitSet> bitSets(int count) {
+        List<BitSet> sets = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            sets.add(new BitSet());
+        }
+        return sets;
+    }
+
+    /**
+     * Structural relations between the transitions of a compiled Petri net
+     */
+    private static final class Relations {
+        /**
+         * Compiled Petri net the relations are for
+         */
+        private final CompiledPetriNet compiled;
+
+        /**
+         * False if the Petri net has functional weights or more than one priority level
+         */
+        private final boolean reducible;
+
+        /**
+         * For each transition the transitions it can disable or be disabled by
+         */
+        private final int[][] dependent;
+
+        /**
+         * For each marking cell the transitions whose firing increases its count
+         */
+        private final int[][] cellIncreasers;
+
+        /**
+         * For each place the transitions whose firing decreases the count of one of its cells
+         */
+        private final int[][] placeDecreasers;
+
+        /**
+         * For each transition the places of its inhibitor arcs
+         */
+        private final int[][] inhibitors;
+
+        /**
+         * For each transition the capacity restricted places it produces into
+         */
+        private final int[][] capacities;
+
+        /**
+         * For each transition and capacity restricted place the net number of tokens firing adds to it
+         */
+        private final int[][] capacityInflow;
+
+        /**
+         * Transitions that change a visible place
+         */
+        private final BitSet visible = new BitSet();
+
+        /**
+         * Every transition, used when no reason for a transition being disabled can be found
+         */
+        private final int[] all;
+
+        /**
+         * Constructor
+         * @param compiled compiled Petri net
+         * @param visiblePlaceIds ids of the visible places
+         */
+        private Relations(CompiledPetriNet compiled, Set<String> visiblePlaceIds) {
+            this.compiled = compiled;
+            int transitions = compiled.getTransitionCount();
+            int places = compiled.getPlaceCount();
+            reducible = !compiled.hasFunctionalWeights() && hasSingleLevel(compiled);
+
+            List<BitSet> increasers = bitSets(compiled.getMarkingSize());
+            List<BitSet> decreasers = bitSets(places);
+            List<BitSet> placeIncreasers = bitSets(places);
+            List<BitSet> consumers = bitSets(places);
+            List<BitSet> blocked = bitSets(places);
+            List<BitSet> increases = bitSets(transitions);
+            List<BitSet> decreases = bitSets(transitions);
+            List<BitSet> inputs = bitSets(transitions);
+            inhibitors = new int[transitions][];
+            capacities = new int[transitions][];
+            capacityInflow = new int[transitions][];
+
+            int[] delta = new int[compiled.getMarkingSize()];
+            for (int t = 0; t < transitions; t++) {
+                for (int i = compiled.preStart(t); i < compiled.preEnd(t); i++) {
+                    delta[compiled.preCell(i)] -= compiled.preWeight(i);
+                    int place = compiled.placeOfCell(compiled.preCell(i));
+                    inputs.get(t).set(place);
+                    consumers.get(place).set(t);
+                }
+                for (int i = compiled.postStart(t); i < compiled.postEnd(t); i++) {
+                    delta[compiled.postCell(i)] += compiled.postWeight(i);
+                }
+                for (int cell = 0; cell < delta.length; cell++) {
+                    int place = compiled.placeOfCell(cell);
+                    if (delta[cell] > 0) {
+                        increasers.get(cell).set(t);
+                        placeIncreasers.get(place).set(t);
+                        increases.get(t).set(place);
+                    } else if (delta[cell] < 0) {
+                        decreasers.get(place).set(t);
+                        decreases.get(t).set(place);
+                    }
+                }
+
+                inhibitors[t] = compiled.inhibitorPlaces(t);
+                capacities[t] = compiled.capacityPlaces(t);
+                capacityInflow[t] = new int[capacities[t].length];
+                for (int j = 0; j < capacities[t].length; j++) {
+                    int place = capacities[t][j];
+                    for (int k = 0; k < compiled.getTokenCount(); k++) {
+                        capacityInflow[t][j] += delta[compiled.cell(place, k)];
+                    }
+                    blocked.get(place).set(t);
+                }
+                for (int place : inhibitors[t]) {
+                    blocked.get(place).set(t);
+                }
+                Arrays.fill(delta, 0);
+            }
+
+            dependent = new int[transitions][];
+            for (int t = 0; t < transitions; t++) {
+                BitSet dependents = new BitSet(transitions);
+                BitSet decreased = decreases.get(t);
+                for (int p = decreased.nextSetBit(0); p >= 0; p = decreased.nextSetBit(p + 1)) {
+                    dependents.or(consumers.get(p));
+                }
+                BitSet input = inputs.get(t);
+                for (int p = input.nextSetBit(0); p >= 0; p = input.nextSetBit(p + 1)) {
+                    dependents.or(decreasers.get(p));
+                }
+                BitSet increased = increases.get(t);
+                for (int p = increased.nextSetBit(0); p >= 0; p = increased.nextSetBit(p + 1)) {
+                    dependents.or(blocked.get(p));
+                }
+                for (int p : inhibitors[t]) {
+                    dependents.or(placeIncreasers.get(p));
+                }
+                for (int p : capacities[t]) {
+                    dependents.or(placeIncreasers.get(p));
+                }
+                dependents.clear(t);
+                dependent[t] = toArray(dependents);
+            }
+
+            cellIncreasers = new int[increasers.size()][];
+            for (int cell = 0; cell < cellIncreasers.length; cell++) {
+                cellIncreasers[cell] = toArray(increasers.get(cell));
+            }
+            placeDecreasers = new int[places][];
+            for (int p = 0; p < places; p++) {
+                placeDecreasers[p] = toArray(decreasers.get(p));
+            }
+
+            for (String placeId : visiblePlaceIds) {
+                int place = compiled.getPlaceIndex(placeId);
+                if (place >= 0) {
+                    visible.or(decreasers.get(place));
+                    visible.or(placeIncreasers.get(place));
+                }
+            }
+
+            BitSet every = new BitSet(transitions);
+            every.set(0, transitions);
+            all = toArray(every);
+        }
+
+        /**
+         * @param compiled compiled Petri net
+         * @return true if all transitions are timed or all are immediate with the same priority
+         */
+        private static boolean hasSingleLevel(CompiledPetriNet compiled) {
+            for (int t = 1; t < compiled.getTransitionCount(); t++) {
+                if (compiled.isTimed(t) != compiled.isTimed(0)
+                        || !compiled.isTimed(t) && compiled.getPriority(t) != compiled.getPriority(0)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package uk.ac.imperial.pipe.exploration;
+
+import uk.ac.imperial.pipe.animation.CompiledPetriNet;
+
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reachable markings found by a {@link SaturationExplorer}, held as a multi-valued decision
+ * diagram with one level per cell.
+ * <p/>
+ * Counts and bounds are worked out from the diagram's nodes, so they take time in proportion to
+ * the size of the diagram rather than the number of markings.
+ */
+public final class SymbolicStateSpace {
+    /**
+     * Compiled Petri net the markings are numbered by
+     */
+    private final CompiledPetriNet compiled;
+
+    /**
+     * Diagrams the root belongs to
+     */
+    private final MddForest forest;
+
+    /**
+     * Node of the reachable markings
+     */
+    private final int root;
+
+    /**
+     * Cell of each level
+     */
+    private final int[] cellOfLevel;
+
+    /**
+     * Token count of each local state of each level, by level then local state
+     */
+    private final int[][] localCounts;
+
+    /**
+     * Number of reachable markings, worked out when first asked for
+     */
+    private BigInteger stateCount;
+
+    /**
+     * Constructor
+     * @param compiled compiled Petri net the markings are numbered by
+     * @param forest diagrams the root belongs to
+     * @param root node of the reachable markings, at the top level
+     * @param cellOfLevel cell of each level
+     * @param localCounts token count of each local state of each level, by level then local state
+     */
+    SymbolicStateSpace(CompiledPetriNet compiled, MddForest forest, int root, int[] cellOfLevel,
+                       int[][] localCounts) {
+        this.compiled = compiled;
+        this.forest = forest;
+        this.root = root;
+        this.cellOfLevel = cellOfLevel;
+        this.localCounts = localCounts;
+    }
+
+    /**
+     * @return number of reachable markings
+     */
+    public BigInteger getStateCount() {
+        if (stateCount == null) {
+            stateCount = count(root, new HashMap<Integer, BigInteger>());
+        }
+        return stateCount;
+    }
+
+    /**
+     * @return number of nodes in the diagram of the reachable markings, excluding terminal nodes
+     */
+    public int getNodeCount() {
+        Set<Integer> seen = new HashSet<>();
+        Deque<Integer> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            int node = stack.pop();
+            if (node > MddForest.TERMINAL && seen.add(node)) {
+                for (int child : forest.children(node)) {
+                    stack.push(child);
+                }
+            }
+        }
+        return seen.size();
+    }
+
+    /**
+     * @return number of nodes made during the generation, including the terminal nodes
+     */
+    public int getPeakNodeCount() {
+        return forest.size();
+    }
+
+    /**
+     * @param marking token counts of each cell
+     * @return true if the marking is reachable
+     */
+    public boolean contains(int[] marking) {
+        int levels = compiled.getMarkingSize();
+        int node = root;
+        for (int level = levels; level > 0 && node != MddForest.EMPTY; level--) {
+            int index = indexOf(level, marking[cellOfLevel[level]]);
+            node = index < 0 ? MddForest.EMPTY : forest.child(node, index);
+        }
+        return node == MddForest.TERMINAL;
+    }
+
+    /**
+     * @param cell cell number
+     * @return most tokens the cell holds in a reachable marking
+     */
+    public int getBound(int cell) {
+        boolean[] cells = new boolean[compiled.getMarkingSize()];
+        cells[cell] = true;
+        return maximumSum(cells);
+    }
+
+    /**
+     * @param placeId id of a place
+     * @return most tokens of every type the place holds together in a reachable marking
+     */
+    public int getBound(String placeId) {
+        int place = compiled.getPlaceIndex(placeId);
+        if (place < 0) {
+            throw new IllegalArgumentException("No place with id " + placeId);
+        }
+        boolean[] cells = new boolean[compiled.getMarkingSize()];
+        for (int token = 0; token < compiled.getTokenCount(); token++) {
+            cells[compiled.cell(place, token)] = true;
+        }
+        return maximumSum(cells);
+    }
+
+    /**
+     * @param cells cells to add up
+     * @return most tokens the cells hold together in a reachable marking
+     */
+    private int maximumSum(boolean[] cells) {
+        if (root == MddForest.EMPTY) {
+            return 0;
+        }
+        return (int) maximumSum(root, compiled.getMarkingSize(), cells, new HashMap<Integer, Long>());
+    }
+
+    /**
+     * @param node node at the level
+     * @param level level of the node
+     * @param cells cells to add up
+     * @param memo sum already worked out for each node
+     * @return most tokens the cells of the level and below hold together in the node's paths
+     */
+    private long maximumSum(int node, int level, boolean[] cells, Map<Integer, Long> memo) {
+        if (level == 0) {
+            return 0;
+        }
+        Long known = memo.get(node);
+        if (known != null) {
+            return known;
+        }
+        boolean counted = cells[cellOfLevel[level]];
+        int[] children = forest.children(node);
+        long best = 0;
+        for (int i = 0; i < children.length; i++) {
+            if (children[i] != MddForest.EMPTY) {
+                long sum = maximumSum(children[i], level - 1, cells, memo) + (counted ? localCounts[level][i] : 0);
+                best = Math.max(best, sum);
+            }
+        }
+        memo.put(node, best);
+        return best;
+    }
+
+    /**
+     * @param node node to count the paths of
+     * @param memo count already worked out for each node
+     * @return number of paths from the node to the terminal node
+     */
+    private BigInteger count(int node, Map<Integer, BigInteger> memo) {
+        if (node <= MddForest.TERMINAL) {
+            return node == MddForest.TERMINAL ? BigInteger.ONE : BigInteger.ZERO;
+        }
+        BigInteger known = memo.get(node);
+        if (known != null) {
+            return known;
+        }
+        BigInteger total = BigInteger.ZERO;
+        for (int child : forest.children(node)) {
+            if (child != MddForest.EMPTY) {
+                total = total.add(count(child, memo));
+            }
+        }
+        memo.put(node, total);
+        return total;
+    }
+
+    /**
+     * @param level level number
+     * @param count token count
+     * @return local state of the count, or -1 if the level's cell never holds it
+     */
+    private int indexOf(int level, int count) {
+        int[] counts = localCounts[level];
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == count) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,32 @@
+package uk.ac.imperial.pipe.exploration;
+
+/**
+ * Receives the tangible states and rates found by a {@link TangibleStateExplorer} as ids of an
+ * {@link OffHeapStateStore}
+ */
+public interface TangibleExplorationListener {
+    /**
+     * Called for each tangible state the initial marking leads to, before any other call
+     *
+     * @param id id of the state in the store
+     * @param probability probability of starting in the state
+     */
+    void initial(long id, double probability);
+
+    /**
+     * Called once for each tangible state the first time it is found
+     *
+     * @param id id of the state in the store
+     */
+    void state(long id);
+
+    /**
+     * Called once for each pair of tangible states with a non zero rate between them
+     *
+     * @param source id of the state left
+     * @param target id of the state entered, may be the source
+     * @param rate total rate of every timed firing out of the source that leads to the target,
+     *             through any chain of immediate firings
+     */
+    void rate(long source, long target, double rate);
+}
@@ -0,0 +1,579 @@
+package uk.ac.imperial.pipe.exploration;
+
+import uk.ac.imperial.pipe.animation.CompiledPetriNet;
+import uk.ac.imperial.pipe.animation.Marking;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Breadth first exploration of the tangible reachability graph of a generalised stochastic
+ * Petri net, eliminating vanishing markings on the fly.
+ * <p/>
+ * A marking is vanishing if an immediate transition is enabled in it, and tangible otherwise. Only
+ * tangible markings are stored, in an {@link OffHeapStateStore}, and reported. Each timed firing
+ * out of a tangible marking that reaches a vanishing marking is followed through every chain of
+ * immediate firings, each chosen with probability proportional to its weight among the enabled
+ * immediate transitions of highest priority, to the tangible markings it ends in. The rate of
+ * the timed firing is split between them by the probability of ending in each, and rates into
+ * the same tangible marking are added up.
+ * <p/>
+ * The vanishing markings reachable from one vanishing marking are solved together, one strongly
+ * connected component of immediate firings at a time with those it leads to solved first. A
+ * component with loops is solved exactly by eliminating its markings one by one, so loops that are
+ * rarely left are handled as well as any other, while a component no immediate firing leaves is
+ * rejected. The tangible markings each vanishing marking ends in are kept in a small least recently
+ * used cache, so vanishing markings shared by many timed firings are only solved once. Instances
+ * are not thread safe.
+ */
+public final class TangibleStateExplorer {
+    /**
+     * Number of solved vanishing markings cached when none is given
+     */
+    public static final int DEFAULT_CACHE_SIZE = 4096;
+
+    /**
+     * Number of vanishing markings that may be reachable from one vanishing marking when none is given
+     */
+    public static final int DEFAULT_MAXIMUM_VANISHING = 1 << 16;
+
+    /**
+     * Compiled Petri net to explore
+     */
+    private final CompiledPetriNet compiled;
+
+    /**
+     * Store the tangible states are kept in
+     */
+    private final OffHeapStateStore store;
+
+    /**
+     * Maximum number of tangible states to report
+     */
+    private long maximumStates = StateSpaceExplorer.UNBOUNDED;
+
+    /**
+     * Number of solved vanishing markings cached
+     */
+    private int cacheSize = DEFAULT_CACHE_SIZE;
+
+    /**
+     * Number of vanishing markings that may be reachable from one vanishing marking
+     */
+    private int maximumVanishing = DEFAULT_MAXIMUM_VANISHING;
+
+    /**
+     * Set by {@link #cancel()} to stop the current exploration
+     */
+    private volatile boolean cancelled = false;
+
+    /**
+     * Number of vanishing markings solved by the last exploration
+     */
+    private long vanishingCount = 0;
+
+    /**
+     * Tangible markings each recently solved vanishing marking ends in
+     */
+    private Map<Marking, Distribution> cache;
+
+    /**
+     * Constructor
+     * @param store store the tangible states are kept in, its compiled Petri net is explored
+     */
+    public TangibleStateExplorer(OffHeapStateStore store) {
+        this.store = store;
+        this.compiled = store.getCompiledPetriNet();
+    }
+
+    /**
+     * Once this many tangible states have been stored the exploration stops
+     *
+     * @param maximumStates maximum number of tangible states to report
+     */
+    public void setMaximumStates(long maximumStates) {
+        if (maximumStates < 1) {
+            throw new IllegalArgumentException("Maximum states must be at least one: " + maximumStates);
+        }
+        this.maximumStates = maximumStates;
+    }
+
+    /**
+     * @return maximum number of tangible states to report
+     */
+    public long getMaximumStates() {
+        return maximumStates;
+    }
+
+    /**
+     * @param cacheSize number of solved vanishing markings to keep
+     */
+    public void setCacheSize(int cacheSize) {
+        if (cacheSize < 0) {
+            throw new IllegalArgumentException("Cache size cannot be negative: " + cacheSize);
+        }
+        this.cacheSize = cacheSize;
+    }
+
+    /**
+     * @return number of solved vanishing markings to keep
+     */
+    public int getCacheSize() {
+        return cacheSize;
+    }
+
+    /**
+     * @param maximumVanishing number of vanishing markings that may be reachable from one vanishing marking
+     */
+    public void setMaximumVanishing(int maximumVanishing) {
+        if (maximumVanishing < 1) {
+            throw new IllegalArgumentException("Maximum vanishing must be at least one: " + maximumVanishing);
+        }
+        this.maximumVanishing = maximumVanishing;
+    }
+
+    /**
+     * @return number of vanishing markings that may be reachable from one vanishing marking
+     */
+    public int getMaximumVanishing() {
+        return maximumVanishing;
+    }
+
+    /**
+     * @return number of vanishing markings solved by the last exploration, counting a marking
+     *         again if it was evicted from the cache and met again
+     */
+    public long getVanishingCount() {
+        return vanishingCount;
+    }
+
+    /**
+     * Stops the exploration currently running, or the next one to start if none is running.
+     * May be called from any thread
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Explores every tangible state reachable from the initial marking
+     *
+     * @param initial marking to start from, tangible or vanishing
+     * @param listener receives the initial distribution, tangible states and rates as they are found
+     * @return summary of the exploration, counting tangible states and the pairs of them with a rate
+     * @throws IllegalStateException if immediate firings can loop forever without reaching a tangible marking
+     */
+    public ExplorationResult explore(int[] initial, TangibleExplorationListener listener) {
+        vanishingCount = 0;
+        cache = new LinkedHashMap<Marking, Distribution>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Marking, Distribution> eldest) {
+                return size() > cacheSize;
+            }
+        };
+        long start = store.size();
+        long states = 0;
+        long edges = 0;
+        boolean limitReached = false;
+        long limit = maximumStates > Long.MAX_VALUE - start ? Long.MAX_VALUE : start + maximumStates;
+
+        Distribution initialDistribution = resolve(initial.clone());
+        long[] initialIds = new long[initialDistribution.size()];
+        for (int i = 0; i < initialIds.length; i++) {
+            initialIds[i] = store.addIfAbsent(initialDistribution.markings[i].copyCounts());
+            listener.initial(initialIds[i] < 0 ? -initialIds[i] - 1 : initialIds[i],
+                    initialDistribution.probabilities[i]);
+        }
+        for (long id : initialIds) {
+            if (id >= 0) {
+                states++;
+                listener.state(id);
+            }
+        }
+
+        int[] marking = new int[compiled.getMarkingSize()];
+        BitSet firable = new BitSet();
+        RateAccumulator rates = new RateAccumulator();
+        for (long id = start; id < store.size() && !cancelled && !limitReached; id++) {
+            store.get(id, marking);
+            compiled.filterEnabled(compiled.enabledTransitions(marking), firable);
+            rates.clear();
+            for (int t = firable.nextSetBit(0); t >= 0; t = firable.nextSetBit(t + 1)) {
+                double rate = compiled.getRate(t, marking);
+                if (rate <= 0) {
+                    continue;
+                }
+                Distribution reached = resolve(compiled.fire(t, marking));
+                for (int i = 0; i < reached.size(); i++) {
+                    int[] counts = reached.markings[i].copyCounts();
+                    long target;
+                    if (store.size() < limit) {
+                        target = store.addIfAbsent(counts);
+                        if (target >= 0) {
+                            states++;
+                            listener.state(target);
+                        } else {
+                            target = -target - 1;
+                        }
+                    } else {
+                        target = store.find(counts);
+                        if (target < 0) {
+                            limitReached = true;
+                            continue;
+                        }
+                    }
+                    rates.add(target, rate * reached.probabilities[i]);
+                }
+            }
+            for (int i = 0; i < rates.size(); i++) {
+                edges++;
+                listener.rate(id, rates.target(i), rates.rate(i));
+            }
+        }
+        cache = null;
+
+        ExplorationResult.Status status;
+        if (cancelled) {
+            status = ExplorationResult.Status.CANCELLED;
+        } else if (limitReached) {
+            status = ExplorationResult.Status.STATE_LIMIT_REACHED;
+        } else {
+            status = ExplorationResult.Status.COMPLETE;
+        }
+        cancelled = false;
+        return new ExplorationResult(status, states, edges);
+    }
+
+    /**
+     * @param marking marking reached, owned by this method
+     * @return tangible markings the marking ends in and the probability of each
+     */
+    private Distribution resolve(int[] marking) {
+        Marking key = new Marking(compiled, marking);
+        if (!compiled.containsImmediate(compiled.enabledTransitions(marking))) {
+            return new Distribution(new Marking[]{key}, new double[]{1});
+        }
+        Distribution cached = cache.get(key);
+        return cached != null ? cached : solve(key);
+    }
+
+    /**
+     * Works out the tangible markings every vanishing marking reachable from a vanishing marking
+     * ends in, caching them
+     *
+     * @param start vanishing marking not in the cache
+     * @return tangible markings the marking ends in and the probability of each
+     * @throws IllegalStateException if immediate firings can loop forever without reaching a tangible marking
+     */
+    private Distribution solve(Marking start) {
+        List<Marking> vanishing = new ArrayList<>();
+        Map<Marking, Integer> indices = new HashMap<>();
+        List<Map<Marking, Double>> exits = new ArrayList<>();
+        List<Map<Integer, Double>> moves = new ArrayList<>();
+        vanishing.add(start);
+        indices.put(start, 0);
+        Deque<Integer> stack = new ArrayDeque<>();
+        stack.push(0);
+        BitSet firable = new BitSet();
+        while (!stack.isEmpty()) {
+            int index = stack.pop();
+            int[] marking = vanishing.get(index).copyCounts();
+            Map<Marking, Double> exit = new HashMap<>();
+            Map<Integer, Double> move = new HashMap<>();
+            compiled.filterEnabled(compiled.enabledTransitions(marking), firable);
+            double total = 0;
+            for (int t = firable.nextSetBit(0); t >= 0; t = firable.nextSetBit(t + 1)) {
+                total += compiled.getRate(t, marking);
+            }
+            for (int t = firable.nextSetBit(0); t >= 0; t = firable.nextSetBit(t + 1)) {
+                double probability = total > 0 ? compiled.getRate(t, marking) / total : 1.0 / firable.cardinality();
+                if (probability <= 0) {
+                    continue;
+                }
+                int[] successor = compiled.fire(t, marking);
+                Marking next = new Marking(compiled, successor);
+                Integer known = indices.get(next);
+                Distribution cached = known == null ? cache.get(next) : null;
+                if (known != null) {
+                    add(move, known, probability);
+                } else if (cached != null) {
+                    for (int i = 0; i < cached.size(); i++) {
+                        add(exit, cached.markings[i], probability * cached.probabilities[i]);
+                    }
+                } else if (!compiled.containsImmediate(compiled.enabledTransitions(successor))) {
+                    add(exit, next, probability);
+                } else {
+                    if (vanishing.size() == maximumVanishing) {
+                        throw new IllegalStateException("More than " + maximumVanishing
+                                + " vanishing markings are reachable from " + start);
+                    }
+                    indices.put(next, vanishing.size());
+                    add(move, vanishing.size(), probability);
+                    stack.push(vanishing.size());
+                    vanishing.add(next);
+                }
+            }
+            while (exits.size() <= index) {
+                exits.add(null);
+                moves.add(null);
+            }
+            exits.set(index, exit);
+            moves.set(index, move);
+        }
+
+        int count = vanishing.size();
+        vanishingCount += count;
+        List<Map<Marking, Double>> ends = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ends.add(null);
+        }
+        for (int[] component : components(moves)) {
+            solveComponent(component, exits, moves, ends, vanishing);
+        }
+
+        Distribution result = null;
+        for (int i = 0; i < count; i++) {
+            Map<Marking, Double> end = ends.get(i);
+            double total = 0;
+            for (double probability : end.values()) {
+                total += probability;
+            }
+            Marking[] markings = new Marking[end.size()];
+            double[] probabilities = new double[end.size()];
+            int j = 0;
+            for (Map.Entry<Marking, Double> entry : end.entrySet()) {
+                markings[j] = entry.getKey();
+                probabilities[j++] = entry.getValue() / total;
+            }
+            Distribution distribution = new Distribution(markings, probabilities);
+            if (i == 0) {
+                result = distribution;
+            }
+            if (cacheSize > 0) {
+                cache.put(vanishing.get(i), distribution);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Works out the tangible markings the vanishing markings of a strongly connected component end
+     * in, by Gauss-Jordan elimination of the immediate firings between them
+     *
+     * @param members vanishing markings of the component
+     * @param exits probability of each vanishing marking reaching each tangible marking in one firing
+     * @param moves probability of each vanishing marking reaching each vanishing marking in one firing
+     * @param ends receives the ending probabilities of the members, holds those of every component
+     *             they lead to
+     * @param vanishing vanishing markings by index
+     * @throws IllegalStateException if no immediate firing leaves the component
+     */
+    private static void solveComponent(int[] members, List<Map<Marking, Double>> exits,
+                                       List<Map<Integer, Double>> moves, List<Map<Marking, Double>> ends,
+                                       List<Marking> vanishing) {
+        int size = members.length;
+        Map<Integer, Integer> positions = new HashMap<>();
+        for (int p = 0; p < size; p++) {
+            positions.put(members[p], p);
+        }
+        List<Map<Marking, Double>> rowExits = new ArrayList<>();
+        List<Map<Integer, Double>> rowMoves = new ArrayList<>();
+        List<Set<Integer>> predecessors = new ArrayList<>();
+        boolean leaves = false;
+        for (int p = 0; p < size; p++) {
+            Map<Marking, Double> exit = new HashMap<>(exits.get(members[p]));
+            Map<Integer, Double> inside = new HashMap<>();
+            for (Map.Entry<Integer, Double> move : moves.get(members[p]).entrySet()) {
+                Integer position = positions.get(move.getKey());
+                if (position != null) {
+                    add(inside, position, move.getValue());
+                } else {
+                    for (Map.Entry<Marking, Double> entry : ends.get(move.getKey()).entrySet()) {
+                        add(exit, entry.getKey(), move.getValue() * entry.getValue());
+                    }
+                }
+            }
+            leaves |= !exit.isEmpty();
+            rowExits.add(exit);
+            rowMoves.add(inside);
+            predecessors.add(new HashSet<Integer>());
+        }
+        if (!leaves) {
+            throw new IllegalStateException("Immediate transitions can fire forever from " + vanishing.get(members[0]));
+        }
+        for (int p = 0; p < size; p++) {
+            for (int q : rowMoves.get(p).keySet()) {
+                predecessors.get(q).add(p);
+            }
+        }
+
+        // Each row only ever refers to members not yet eliminated, so all are empty at the end
+        for (int k = 0; k < size; k++) {
+            Map<Marking, Double> exitK = rowExits.get(k);
+            Map<Integer, Double> insideK = rowMoves.get(k);
+            Double loop = insideK.remove(k);
+            predecessors.get(k).remove(k);
+            if (loop != null) {
+                if (loop >= 1) {
+                    throw new IllegalStateException("Immediate transitions can fire forever from "
+                            + vanishing.get(members[k]));
+                }
+                scale(exitK, 1 / (1 - loop));
+                scale(insideK, 1 / (1 - loop));
+            }
+            for (int p : predecessors.get(k)) {
+                Map<Integer, Double> insideP = rowMoves.get(p);
+                double probability = insideP.remove(k);
+                for (Map.Entry<Integer, Double> entry : insideK.entrySet()) {
+                    add(insideP, entry.getKey(), probability * entry.getValue());
+                    predecessors.get(entry.getKey()).add(p);
+                }
+                Map<Marking, Double> exitP = rowExits.get(p);
+                for (Map.Entry<Marking, Double> entry : exitK.entrySet()) {
+                    add(exitP, entry.getKey(), probability * entry.getValue());
+                }
+            }
+            predecessors.get(k).clear();
+        }
+        for (int p = 0; p < size; p++) {
+            ends.set(members[p], rowExits.get(p));
+        }
+    }
+
+    /**
+     * Tarjan's algorithm without recursion, so long chains of immediate firings cannot overflow the stack
+     *
+     * @param moves probability of each vanishing marking reaching each vanishing marking in one firing
+     * @return strongly connected components of the vanishing markings, each after every component it leads to
+     */
+    private static List<int[]> components(List<Map<Integer, Double>> moves) {
+        int count = moves.size();
+        int[][] successors = new int[count][];
+        for (int i = 0; i < count; i++) {
+            successors[i] = new int[moves.get(i).size()];
+            int j = 0;
+            for (int successor : moves.get(i).keySet()) {
+                successors[i][j++] = successor;
+            }
+        }
+        int[] order = new int[count];
+        Arrays.fill(order, -1);
+        int[] low = new int[count];
+        boolean[] onStack = new boolean[count];
+        int[] stack = new int[count];
+        int stackSize = 0;
+        int[] callNodes = new int[count];
+        int[] callPositions = new int[count];
+        int next = 0;
+        List<int[]> components = new ArrayList<>();
+        for (int root = 0; root < count; root++) {
+            if (order[root] >= 0) {
+                continue;
+            }
+            int depth = 0;
+            callNodes[0] = root;
+            callPositions[0] = 0;
+            order[root] = low[root] = next++;
+            stack[stackSize++] = root;
+            onStack[root] = true;
+            while (depth >= 0) {
+                int node = callNodes[depth];
+                if (callPositions[depth] < successors[node].length) {
+                    int successor = successors[node][callPositions[depth]++];
+                    if (order[successor] < 0) {
+                        order[successor] = low[successor] = next++;
+                        stack[stackSize++] = successor;
+                        onStack[successor] = true;
+                        depth++;
+                        callNodes[depth] = successor;
+                        callPositions[depth] = 0;
+                    } else if (onStack[successor]) {
+                        low[node] = Math.min(low[node], order[successor]);
+                    }
+                    continue;
+                }
+                if (low[node] == order[node]) {
+                    int bottom = stackSize - 1;
+                    while (stack[bottom] != node) {
+                        bottom--;
+                    }
+                    int[] component = Arrays.copyOfRange(stack, bottom, stackSize);
+                    for (int member : component) {
+                        onStack[member] = false;
+                    }
+                    stackSize = bottom;
+                    components.add(component);
+                }
+                depth--;
+                if (depth >= 0) {
+                    int parent = callNodes[depth];
+                    low[parent] = Math.min(low[parent], low[node]);
+                }
+            }
+        }
+        return components;
+    }
+
+    /**
+     * @param values values to scale
+     * @param factor factor to multiply them by
+     * @param <K> key type
+     */
+    private static <K> void scale(Map<K, Double> values, double factor) {
+        for (Map.Entry<K, Double> entry : values.entrySet()) {
+            entry.setValue(entry.getValue() * factor);
+        }
+    }
+
+    /**
+     * @param totals totals to add to
+     * @param key key to add to
+     * @param value amount to add
+     * @param <K> key type
+     */
+    private static <K> void add(Map<K, Double> totals, K key, double value) {
+        Double total = totals.get(key);
+        totals.put(key, total == null ? value : total + value);
+    }
+
+    /**
+     * Tangible markings and the probability of ending in each
+     */
+    private static final class Distribution {
+        /**
+         * Tangible markings
+         */
+        private final Marking[] markings;
+
+        /**
+         * Probability of ending in each marking
+         */
+        private final double[] probabilities;
+
+        /**
+         * Constructor
+         * @param markings tangible markings
+         * @param probabilities probability of ending in each marking
+         */
+        private Distribution(Marking[] markings, double[] probabilities) {
+            this.markings = markings;
+            this.probabilities = probabilities;
+        }
+
+        /**
+         * @return number of markings
+         */
+        private int size() {
+            return markings.length;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package uk.ac.imperial.pipe.exploration;
+
+import uk.ac.imperial.state.State;
+
+/**
+ * Set of states already reached during an exploration.
+ * <p/>
+ * Implementations must be safe to call from several threads at once.
+ */
+public interface VisitedSet {
+    /**
+     * Atomically adds the state if it is not already present
+     *
+     * @param state state to add
+     * @return true if the state had not been visited before
+     */
+    boolean add(State state);
+
+    /**
+     * @return number of states added
+     */
+    long size();
+}
@@ -0,0 +1,72 @@
+package uk.ac.imperial.pipe.io;
+
+/**
+ * Constants of the binary trace format shared by {@link TraceWriter} and {@link TraceReader}.
+ * <p/>
+ * A trace is a header, a stream of records and an index:
+ * <ul>
+ *     <li>Header: magic, version, flags, checkpoint interval and the ids of the places, tokens and
+ *     transitions, which number the marking cells and transitions of the records</li>
+ *     <li>Checkpoint record: tag 0, step, time if timed and the count of every marking cell. A checkpoint
+ *     whose step is one after the previous record's is a change of marking that is not a firing, such as
+ *     an undo, otherwise it repeats the marking of its step</li>
+ *     <li>Firing record: tag transition + 1, time if timed, number of changed cells and for each the
+ *     cell and its zig-zag encoded change</li>
+ *     <li>Index: a fixed width (step, offset) entry per checkpoint, followed by the offset of the index,
+ *     the number of steps, the number of checkpoints and the magic again</li>
+ * </ul>
+ * Integers are unsigned LEB128 varints, times and index entries are big endian.
+ */
+final class TraceFormat {
+    /**
+     * Marks the start and end of a trace
+     */
+    static final int MAGIC = 0x50545243;
+
+    /**
+     * Version of the format
+     */
+    static final int VERSION = 1;
+
+    /**
+     * Flag set when records carry a time
+     */
+    static final int TIMED = 1;
+
+    /**
+     * Tag of a checkpoint record
+     */
+    static final int CHECKPOINT = 0;
+
+    /**
+     * Bytes in an index entry
+     */
+    static final int INDEX_ENTRY_SIZE = 16;
+
+    /**
+     * Bytes after the last index entry
+     */
+    static final int FOOTER_SIZE = 28;
+
+    /**
+     * Utility class
+     */
+    private TraceFormat() {
+    }
+
+    /**
+     * @param value signed value
+     * @return value mapped so that small magnitudes have small unsigned values
+     */
+    static int zigZag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    /**
+     * @param value zig-zag encoded value
+     * @return signed value
+     */
+    static int unZigZag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
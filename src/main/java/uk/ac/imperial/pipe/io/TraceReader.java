@@ -0,0 +1,482 @@
+package uk.ac.imperial.pipe.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Replays a trace written by a {@link TraceWriter}.
+ * <p/>
+ * The file is memory mapped rather than read onto the heap, so traces larger than memory can be
+ * replayed. The reader is a cursor over the steps of the trace: {@link #next()} decodes the next
+ * step, a firing or a recorded change of marking that is not a firing, and {@link #seek(long)} moves to any step by binary searching the checkpoint index and
+ * decoding at most a checkpoint interval of firings, in O(log n) for a trace of n steps.
+ * <p/>
+ * Instances are not thread safe, open a reader per thread to replay a trace concurrently.
+ */
+public final class TraceReader implements Closeable {
+    /**
+     * Log2 of the number of bytes mapped per segment
+     */
+    private static final int SEGMENT_BITS = 30;
+
+    /**
+     * Mask of the offset within a segment
+     */
+    private static final long SEGMENT_MASK = (1L << SEGMENT_BITS) - 1;
+
+    /**
+     * Charset ids are read in
+     */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Open file
+     */
+    private final RandomAccessFile file;
+
+    /**
+     * File mapped in segments of at most 2^SEGMENT_BITS bytes
+     */
+    private final MappedByteBuffer[] segments;
+
+    /**
+     * True if records carry a time
+     */
+    private final boolean timed;
+
+    /**
+     * Number of firings between periodic checkpoints
+     */
+    private final int checkpointInterval;
+
+    /**
+     * Ids of the places numbering the marking
+     */
+    private final List<String> placeIds;
+
+    /**
+     * Ids of the tokens numbering the marking
+     */
+    private final List<String> tokenIds;
+
+    /**
+     * Ids of the transitions numbering the firings
+     */
+    private final List<String> transitionIds;
+
+    /**
+     * Offset of the index, which is also the end of the records
+     */
+    private final long indexOffset;
+
+    /**
+     * Number of steps in the trace
+     */
+    private final long stepCount;
+
+    /**
+     * Number of checkpoints in the index
+     */
+    private final long checkpoints;
+
+    /**
+     * Marking after the current step
+     */
+    private final int[] marking;
+
+    /**
+     * Cells changed by the current step
+     */
+    private int[] changedCells = new int[16];
+
+    /**
+     * Change of each cell changed by the current step
+     */
+    private int[] changes = new int[16];
+
+    /**
+     * Number of cells changed by the current step
+     */
+    private int changeCount = 0;
+
+    /**
+     * Offset of the next byte to decode
+     */
+    private long position;
+
+    /**
+     * Current step, that is the number of steps applied to the marking
+     */
+    private long step = 0;
+
+    /**
+     * Transition number of the current firing, -1 after a seek or for a step that is not a firing
+     */
+    private int transition = -1;
+
+    /**
+     * Time of the current step
+     */
+    private double time = Double.NaN;
+
+    /**
+     * Opens the trace and positions the reader at step 0
+     * @param trace trace file written by a {@link TraceWriter}
+     * @throws IOException if the file cannot be read or is not a complete trace
+     */
+    public TraceReader(File trace) throws IOException {
+        file = new RandomAccessFile(trace, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            long length = channel.size();
+            if (length < 8 + TraceFormat.FOOTER_SIZE) {
+                throw new IOException("Not a trace file: " + trace);
+            }
+            segments = new MappedByteBuffer[(int) ((length + SEGMENT_MASK) >>> SEGMENT_BITS)];
+            for (int s = 0; s < segments.length; s++) {
+                long start = (long) s << SEGMENT_BITS;
+                segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_MASK + 1, length - start));
+            }
+
+            position = length - TraceFormat.FOOTER_SIZE;
+            indexOffset = readLong();
+            stepCount = readLong();
+            checkpoints = readLong();
+            if (readInt() != TraceFormat.MAGIC) {
+                throw new IOException("Trace was not closed or is corrupt: " + trace);
+            }
+
+            position = 0;
+            if (readInt() != TraceFormat.MAGIC) {
+                throw new IOException("Not a trace file: " + trace);
+            }
+            int version = readInt();
+            if (version != TraceFormat.VERSION) {
+                throw new IOException("Unsupported trace version " + version);
+            }
+            timed = (readVarInt() & TraceFormat.TIMED) != 0;
+            checkpointInterval = readVarInt();
+            placeIds = readStrings();
+            tokenIds = readStrings();
+            transitionIds = readStrings();
+            marking = new int[placeIds.size() * tokenIds.size()];
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+        seek(0);
+    }
+
+    /**
+     * @return number of steps in the trace, firings and other changes of marking
+     */
+    public long getStepCount() {
+        return stepCount;
+    }
+
+    /**
+     * @return true if the firings carry a time
+     */
+    public boolean isTimed() {
+        return timed;
+    }
+
+    /**
+     * @return number of firings between periodic checkpoints
+     */
+    public int getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
+    /**
+     * @return ids of the places, place p's count of token k is in cell p * tokens + k
+     */
+    public List<String> getPlaceIds() {
+        return placeIds;
+    }
+
+    /**
+     * @return ids of the tokens
+     */
+    public List<String> getTokenIds() {
+        return tokenIds;
+    }
+
+    /**
+     * @return ids of the transitions, indexed by transition number
+     */
+    public List<String> getTransitionIds() {
+        return transitionIds;
+    }
+
+    /**
+     * @return current step, that is the number of steps applied to the marking
+     */
+    public long getStep() {
+        return step;
+    }
+
+    /**
+     * @return transition number of the current firing, -1 after a seek or for a step that is not a firing
+     */
+    public int getTransition() {
+        return transition;
+    }
+
+    /**
+     * @return time of the current step, NaN for an untimed trace
+     */
+    public double getTime() {
+        return time;
+    }
+
+    /**
+     * @param cell marking cell
+     * @return token count of the cell after the current step
+     */
+    public int get(int cell) {
+        return marking[cell];
+    }
+
+    /**
+     * @return copy of the marking after the current step
+     */
+    public int[] getMarking() {
+        return marking.clone();
+    }
+
+    /**
+     * @return number of cells changed by the current step
+     */
+    public int getChangeCount() {
+        return changeCount;
+    }
+
+    /**
+     * @param i change number
+     * @return cell changed
+     */
+    public int getChangedCell(int i) {
+        return changedCells[i];
+    }
+
+    /**
+     * @param i change number
+     * @return change in the cell's count
+     */
+    public int getChange(int i) {
+        return changes[i];
+    }
+
+    /**
+     * Decodes the next step and applies it to the marking
+     *
+     * @return false if the trace has no more steps
+     */
+    public boolean next() {
+        while (position < indexOffset) {
+            int tag = readVarInt();
+            if (tag == TraceFormat.CHECKPOINT) {
+                long previous = step;
+                readCheckpoint();
+                if (step != previous) {
+                    return true;
+                }
+                continue;
+            }
+            transition = tag - 1;
+            if (timed) {
+                time = readDouble();
+            }
+            changeCount = readVarInt();
+            if (changeCount > changedCells.length) {
+                changedCells = Arrays.copyOf(changedCells, changeCount);
+                changes = Arrays.copyOf(changes, changeCount);
+            }
+            for (int i = 0; i < changeCount; i++) {
+                int cell = readVarInt();
+                int change = TraceFormat.unZigZag(readVarInt());
+                changedCells[i] = cell;
+                changes[i] = change;
+                marking[cell] += change;
+            }
+            step++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Moves to the given step by restoring the last checkpoint at or before it and replaying
+     * the steps after the checkpoint
+     *
+     * @param target step to move to, between 0 and {@link #getStepCount()}
+     */
+    public void seek(long target) {
+        if (target < 0 || target > stepCount) {
+            throw new IndexOutOfBoundsException("Step " + target + " is not between 0 and " + stepCount);
+        }
+        long low = 0;
+        long high = checkpoints - 1;
+        while (low < high) {
+            long middle = (low + high + 1) >>> 1;
+            if (readLong(indexOffset + middle * TraceFormat.INDEX_ENTRY_SIZE) <= target) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        position = readLong(indexOffset + low * TraceFormat.INDEX_ENTRY_SIZE + 8);
+        if (readVarInt() != TraceFormat.CHECKPOINT) {
+            throw new IllegalStateException("Trace index does not point at a checkpoint");
+        }
+        readCheckpoint();
+        changeCount = 0;
+        while (step < target && next()) {
+            // replay steps after the checkpoint
+        }
+    }
+
+    /**
+     * Releases the file. The mapped memory is released once the reader is garbage collected.
+     *
+     * @throws IOException if the file cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    /**
+     * Restores the marking from the checkpoint record following its tag, keeping the cells
+     * it changed as the changes of the current step
+     */
+    private void readCheckpoint() {
+        step = readVarLong();
+        time = timed ? readDouble() : Double.NaN;
+        changeCount = 0;
+        for (int cell = 0; cell < marking.length; cell++) {
+            int count = readVarInt();
+            if (count != marking[cell]) {
+                if (changeCount == changedCells.length) {
+                    changedCells = Arrays.copyOf(changedCells, 2 * changeCount);
+                    changes = Arrays.copyOf(changes, 2 * changeCount);
+                }
+                changedCells[changeCount] = cell;
+                changes[changeCount] = count - marking[cell];
+                changeCount++;
+                marking[cell] = count;
+            }
+        }
+        transition = -1;
+    }
+
+    /**
+     * @return list of strings preceded by their number
+     */
+    private List<String> readStrings() {
+        String[] strings = new String[readVarInt()];
+        for (int i = 0; i < strings.length; i++) {
+            byte[] bytes = new byte[readVarInt()];
+            for (int b = 0; b < bytes.length; b++) {
+                bytes[b] = readByte();
+            }
+            strings[i] = new String(bytes, UTF_8);
+        }
+        return Collections.unmodifiableList(Arrays.asList(strings));
+    }
+
+    /**
+     * @param offset offset in the file
+     * @return byte at the offset
+     */
+    private byte get(long offset) {
+        return segments[(int) (offset >>> SEGMENT_BITS)].get((int) (offset & SEGMENT_MASK));
+    }
+
+    /**
+     * @return byte at the position, advancing it
+     */
+    private byte readByte() {
+        return get(position++);
+    }
+
+    /**
+     * @return unsigned varint at the position
+     */
+    private int readVarInt() {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = readByte();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    /**
+     * @return unsigned varint at the position
+     */
+    private long readVarLong() {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    /**
+     * @return big endian int at the position
+     */
+    private int readInt() {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            value = (value << 8) | (readByte() & 0xFF);
+        }
+        return value;
+    }
+
+    /**
+     * @return big endian long at the position
+     */
+    private long readLong() {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (readByte() & 0xFF);
+        }
+        return value;
+    }
+
+    /**
+     * @param offset offset in the file
+     * @return big endian long at the offset, leaving the position unchanged
+     */
+    private long readLong(long offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (get(offset + i) & 0xFF);
+        }
+        return value;
+    }
+
+    /**
+     * @return double at the position
+     */
+    private double readDouble() {
+        return Double.longBitsToDouble(readLong());
+    }
+}
@@ -0,0 +1,414 @@
+package uk.ac.imperial.pipe.io;
+
+import uk.ac.imperial.pipe.animation.CompiledPetriNet;
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Streams a firing sequence of a {@link CompiledPetriNet} to a compact binary file that can be
+ * replayed with a {@link TraceReader}.
+ * <p/>
+ * Each firing is stored as its transition, an optional time and the token changes it made, varint
+ * encoded, so a typical firing takes a handful of bytes. Every checkpoint interval firings the full
+ * marking is written as a checkpoint and its position added to an index written on {@link #close()},
+ * which lets a reader seek to any step without decoding the trace from the start. A change of
+ * marking that is not a firing, such as an undo, is a step of its own recorded as a checkpoint.
+ * <p/>
+ * Only the cells a transition consumes from or produces into are compared when recording, so the
+ * cost of a firing does not depend on the size of the marking. Instances are not thread safe.
+ */
+public final class TraceWriter implements Closeable {
+    /**
+     * Number of firings between checkpoints when none is given
+     */
+    public static final int DEFAULT_CHECKPOINT_INTERVAL = 4096;
+
+    /**
+     * Charset ids are written in
+     */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Compiled Petri net whose firings are recorded
+     */
+    private final CompiledPetriNet compiled;
+
+    /**
+     * True if records carry a time
+     */
+    private final boolean timed;
+
+    /**
+     * Number of firings between checkpoints
+     */
+    private final int checkpointInterval;
+
+    /**
+     * File being written
+     */
+    private final OutputStream out;
+
+    /**
+     * Bytes waiting to be written to the file
+     */
+    private final byte[] buffer = new byte[1 << 16];
+
+    /**
+     * Number of bytes in the buffer
+     */
+    private int buffered = 0;
+
+    /**
+     * Number of bytes written to the file
+     */
+    private long flushed = 0;
+
+    /**
+     * Marking after the last recorded firing
+     */
+    private final int[] marking;
+
+    /**
+     * Cells changed by the firing being recorded
+     */
+    private int[] changedCells = new int[16];
+
+    /**
+     * Change of each cell changed by the firing being recorded
+     */
+    private int[] changes = new int[16];
+
+    /**
+     * Step and offset of every checkpoint, two entries per checkpoint
+     */
+    private long[] index = new long[64];
+
+    /**
+     * Number of checkpoints written
+     */
+    private int checkpoints = 0;
+
+    /**
+     * Number of steps recorded, firings and other changes of marking
+     */
+    private long steps = 0;
+
+    /**
+     * Time of the last recorded firing
+     */
+    private double time = 0;
+
+    /**
+     * True once closed
+     */
+    private boolean closed = false;
+
+    /**
+     * Constructor, records an untimed trace starting from the Petri net's current marking
+     * @param file file to write, replaced if it exists
+     * @param petriNet Petri net whose firings are recorded
+     * @throws IOException if the file cannot be written
+     */
+    public TraceWriter(File file, PetriNet petriNet) throws IOException {
+        this(file, new CompiledPetriNet(petriNet), false, DEFAULT_CHECKPOINT_INTERVAL, null);
+    }
+
+    /**
+     * Constructor
+     * @param file file to write, replaced if it exists
+     * @param compiled compiled Petri net whose firings are recorded
+     * @param timed true if each firing is recorded with a time
+     * @param checkpointInterval number of firings between full marking checkpoints
+     * @param initial marking the trace starts from, or null for the compiled Petri net's current marking
+     * @throws IOException if the file cannot be written
+     */
+    public TraceWriter(File file, CompiledPetriNet compiled, boolean timed, int checkpointInterval, int[] initial)
+            throws IOException {
+        if (checkpointInterval < 1) {
+            throw new IllegalArgumentException("Checkpoint interval must be positive: " + checkpointInterval);
+        }
+        this.compiled = compiled;
+        this.timed = timed;
+        this.checkpointInterval = checkpointInterval;
+        marking = initial == null ? compiled.getCurrentMarking() : initial.clone();
+        if (marking.length != compiled.getMarkingSize()) {
+            throw new IllegalArgumentException("Initial marking has " + marking.length + " cells, expected "
+                    + compiled.getMarkingSize());
+        }
+        out = new FileOutputStream(file);
+        writeHeader();
+        writeCheckpoint();
+    }
+
+    /**
+     * @return number of steps recorded, firings and other changes of marking
+     */
+    public long getStepCount() {
+        return steps;
+    }
+
+    /**
+     * Records an untimed firing
+     *
+     * @param transition transition number that fired
+     * @param after marking after the firing
+     * @throws IOException if the file cannot be written
+     */
+    public void record(int transition, int[] after) throws IOException {
+        record(transition, Double.NaN, after);
+    }
+
+    /**
+     * Records a firing
+     *
+     * @param transition transition number that fired
+     * @param time time of the firing, ignored for an untimed trace
+     * @param after marking after the firing
+     * @throws IOException if the file cannot be written
+     */
+    public void record(int transition, double time, int[] after) throws IOException {
+        checkOpen();
+        int count = 0;
+        for (int i = compiled.preStart(transition); i < compiled.preEnd(transition); i++) {
+            count = addChange(count, compiled.preCell(i), after);
+        }
+        for (int i = compiled.postStart(transition); i < compiled.postEnd(transition); i++) {
+            count = addChange(count, compiled.postCell(i), after);
+        }
+
+        writeVarInt(transition + 1);
+        if (timed) {
+            writeDouble(time);
+        }
+        writeVarInt(count);
+        for (int i = 0; i < count; i++) {
+            writeVarInt(changedCells[i]);
+            writeVarInt(TraceFormat.zigZag(changes[i]));
+        }
+        this.time = time;
+        steps++;
+        if (steps % checkpointInterval == 0) {
+            writeCheckpoint();
+        }
+    }
+
+    /**
+     * Records a change of marking that is not a firing, such as an undo, as a step of its own
+     * written as a checkpoint. Replaying the trace past this step continues from the given marking.
+     *
+     * @param current marking to continue from
+     * @throws IOException if the file cannot be written
+     */
+    public void checkpoint(int[] current) throws IOException {
+        checkOpen();
+        System.arraycopy(current, 0, marking, 0, marking.length);
+        steps++;
+        writeCheckpoint();
+    }
+
+    /**
+     * Writes the index and closes the file. The trace cannot be read until it is closed.
+     *
+     * @throws IOException if the file cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            long indexOffset = position();
+            for (int i = 0; i < 2 * checkpoints; i++) {
+                writeLong(index[i]);
+            }
+            writeLong(indexOffset);
+            writeLong(steps);
+            writeLong(checkpoints);
+            writeInt(TraceFormat.MAGIC);
+            flush();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Updates the marking from the cell and adds it to the changes of the firing being recorded
+     * if it changed. A cell visited twice has no change the second time.
+     *
+     * @param count number of changes so far
+     * @param cell marking cell
+     * @param after marking after the firing
+     * @return number of changes
+     */
+    private int addChange(int count, int cell, int[] after) {
+        int change = after[cell] - marking[cell];
+        if (change == 0) {
+            return count;
+        }
+        marking[cell] = after[cell];
+        if (count == changedCells.length) {
+            changedCells = Arrays.copyOf(changedCells, 2 * count);
+            changes = Arrays.copyOf(changes, 2 * count);
+        }
+        changedCells[count] = cell;
+        changes[count] = change;
+        return count + 1;
+    }
+
+    /**
+     * Writes the magic, flags and the ids numbering the cells and transitions
+     *
+     * @throws IOException if the file cannot be written
+     */
+    private void writeHeader() throws IOException {
+        writeInt(TraceFormat.MAGIC);
+        writeInt(TraceFormat.VERSION);
+        writeVarInt(timed ? TraceFormat.TIMED : 0);
+        writeVarInt(checkpointInterval);
+        writeVarInt(compiled.getPlaceCount());
+        for (int p = 0; p < compiled.getPlaceCount(); p++) {
+            writeString(compiled.getPlace(p).getId());
+        }
+        writeVarInt(compiled.getTokenCount());
+        for (int k = 0; k < compiled.getTokenCount(); k++) {
+            writeString(compiled.getTokenId(k));
+        }
+        writeVarInt(compiled.getTransitionCount());
+        for (int t = 0; t < compiled.getTransitionCount(); t++) {
+            writeString(compiled.getTransition(t).getId());
+        }
+    }
+
+    /**
+     * Writes the current marking as a checkpoint and indexes it
+     *
+     * @throws IOException if the file cannot be written
+     */
+    private void writeCheckpoint() throws IOException {
+        if (2 * checkpoints == index.length) {
+            index = Arrays.copyOf(index, 2 * index.length);
+        }
+        index[2 * checkpoints] = steps;
+        index[2 * checkpoints + 1] = position();
+        checkpoints++;
+
+        writeVarInt(TraceFormat.CHECKPOINT);
+        writeVarLong(steps);
+        if (timed) {
+            writeDouble(time);
+        }
+        for (int count : marking) {
+            writeVarInt(count);
+        }
+    }
+
+    /**
+     * @throws IOException if the writer has been closed
+     */
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Trace writer is closed");
+        }
+    }
+
+    /**
+     * @return offset in the file of the next byte written
+     */
+    private long position() {
+        return flushed + buffered;
+    }
+
+    /**
+     * @param value byte to write
+     * @throws IOException if the file cannot be written
+     */
+    private void writeByte(int value) throws IOException {
+        if (buffered == buffer.length) {
+            flush();
+        }
+        buffer[buffered++] = (byte) value;
+    }
+
+    /**
+     * @param value value to write as an unsigned varint
+     * @throws IOException if the file cannot be written
+     */
+    private void writeVarInt(int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        writeByte(value);
+    }
+
+    /**
+     * @param value value to write as an unsigned varint
+     * @throws IOException if the file cannot be written
+     */
+    private void writeVarLong(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        writeByte((int) value);
+    }
+
+    /**
+     * @param value value to write big endian
+     * @throws IOException if the file cannot be written
+     */
+    private void writeInt(int value) throws IOException {
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            writeByte(value >>> shift);
+        }
+    }
+
+    /**
+     * @param value value to write big endian
+     * @throws IOException if the file cannot be written
+     */
+    private void writeLong(long value) throws IOException {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            writeByte((int) (value >>> shift));
+        }
+    }
+
+    /**
+     * @param value value to write
+     * @throws IOException if the file cannot be written
+     */
+    private void writeDouble(double value) throws IOException {
+        writeLong(Double.doubleToRawLongBits(value));
+    }
+
+    /**
+     * @param value string to write as its UTF-8 length and bytes
+     * @throws IOException if the file cannot be written
+     */
+    private void writeString(String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF_8);
+        writeVarInt(bytes.length);
+        for (byte b : bytes) {
+            writeByte(b);
+        }
+    }
+
+    /**
+     * Writes the buffered bytes to the file
+     *
+     * @throws IOException if the file cannot be written
+     */
+    private void flush() throws IOException {
+        out.write(buffer, 0, buffered);
+        flushed += buffered;
+        buffered = 0;
+    }
+}
@@ -1,18 +1,10 @@
 package uk.ac.imperial.pipe.models.petrinet;
 
-import uk.ac.imperial.pipe.parsers.FunctionalResults;
-import uk.ac.imperial.pipe.parsers.PetriNetWeightParser;
-import uk.ac.imperial.pipe.parsers.StateEvalVisitor;
 import uk.ac.imperial.pipe.visitor.component.PetriNetComponentVisitor;
 import uk.ac.imperial.state.State;
 
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Point2D;
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
-
-import static java.lang.Math.floor;
 
 
 /**
@@ -67,6 +59,11 @@ public final class DiscreteTransition extends AbstractConnectable implements Tra
      */
     private boolean enabled = false;
 
+    /**
+     * Compiled rate of this transition, rebuilt when its rate, server semantics or inbound arcs change
+     */
+    private volatile RateEvaluator rateEvaluator;
+
     /**
      * Constructor with default rate and priority
      * @param id
@@ -298,34 +295,33 @@ public final class DiscreteTransition extends AbstractConnectable implements Tra
      */
     @Override
     public void setRate(Rate rate) {
+        Rate old = this.rate;
         this.rate = rate;
+        changeSupport.firePropertyChange(RATE_CHANGE_MESSAGE, old, rate);
     }
 
     /**
      * Evaluate the transitions rate against the given state
      * <p/>
      * If an infinite server the transition will return its rate * enabling degree
+     * <p/>
+     * The rate is compiled once and memoised on the token counts of the places it depends on
      *
      * @param state given state of a petri net to evaluate the functional rate of
-     * @return actual evaluated rate of the Petri net
+     * @return actual evaluated rate of the Petri net, or -1 if the rate expression cannot be parsed,
+     * references components not in the Petri net or evaluates to less than zero
      */
     @Override
     public Double getActualRate(PetriNet petriNet, State state) {
-        StateEvalVisitor stateEvalVisitor = new StateEvalVisitor(petriNet, state);
-        PetriNetWeightParser parser = new PetriNetWeightParser(stateEvalVisitor, petriNet);
-        FunctionalResults<Double> results = parser.evaluateExpression(getRateExpr());
-        if (results.hasErrors()) {
-            //TODO:
-            return -1.;
-        }
-        Double rate = results.getResult();
-
-        if (!isInfiniteServer()) {
-            return rate;
+        RateEvaluator evaluator = rateEvaluator;
+        if (evaluator == null || !evaluator.isValidFor(petriNet, this)) {
+            evaluator = RateEvaluator.create(petriNet, this);
+            if (evaluator == null) {
+                return -1.;
+            }
+            rateEvaluator = evaluator;
         }
-        Map<String, Map<String, Double>> arcWeights = evaluateInboundArcWeights(parser, petriNet.inboundArcs(this));
-        int enablingDegree = getEnablingDegree(state, arcWeights);
-        return rate * enablingDegree;
+        return evaluator.evaluate(state);
     }
 
     /**
@@ -346,94 +342,6 @@ public final class DiscreteTransition extends AbstractConnectable implements Tra
         return infiniteServer;
     }
 
-    /**
-     * @param parser parser for a given state of Petri net
-     * @param arcs   set of inbound arcs to evaluate weight against the current state
-     * @return map of arc place id -> arc weights associated with it
-     */
-    private Map<String, Map<String, Double>> evaluateInboundArcWeights(PetriNetWeightParser parser,
-                                                                       Collection<InboundArc> arcs) {
-        Map<String, Map<String, Double>> result = new HashMap<>();
-        for (InboundArc arc : arcs) {
-            String placeId = arc.getSource().getId();
-            Map<String, String> arcWeights = arc.getTokenWeights();
-            Map<String, Double> weights = evaluateArcWeight(parser, arcWeights);
-            result.put(placeId, weights);
-        }
-
-        return result;
-    }
-
-    /**
-     * A Transition is enabled if all its input places are marked with at least one token
-     * This method calculates the minimum number of tokens needed in order for a transition to be enabled
-     * <p/>
-     * The enabling degree is the number of times that a transition is enabled
-     *
-     * @param state state of the petri net
-     * @param arcWeights evaluated arc weights for the given state
-     * @return number of times this transition is enabled for the given state
-     */
-    private int getEnablingDegree(State state, Map<String, Map<String, Double>> arcWeights) {
-        int enablingDegree = Integer.MAX_VALUE;
-
-        for (Map.Entry<String, Map<String, Double>> entry : arcWeights.entrySet()) {
-            String placeId = entry.getKey();
-            Map<String, Double> weights = entry.getValue();
-            for (Map.Entry<String, Double> weightEntry : weights.entrySet()) {
-                String tokenId = weightEntry.getKey();
-                Double weight = weightEntry.getValue();
-
-                int requiredTokenCount = (int) floor(weight);
-                if (requiredTokenCount == 0) {
-                    enablingDegree = 0;
-                } else {
-                    Map<String, Integer> tokenCount = state.getTokens(placeId);
-                    int placeTokenCount = tokenCount.get(tokenId);
-                    int currentDegree = placeTokenCount / requiredTokenCount;
-                    if (currentDegree < enablingDegree) {
-                        enablingDegree = currentDegree;
-                    }
-                }
-            }
-
-        }
-        return enablingDegree;
-    }
-
-    /**
-     * Parses a string representation of a weight with respect to the Petri net
-     *
-     * @param parser     parser for a given state of the Petri net
-     * @param arcWeights arc weights
-     * @return arc weights evaluated to the current state
-     */
-
-    private Map<String, Double> evaluateArcWeight(PetriNetWeightParser parser, Map<String, String> arcWeights) {
-        Map<String, Double> result = new HashMap<>();
-        for (Map.Entry<String, String> entry : arcWeights.entrySet()) {
-            String tokenId = entry.getKey();
-            double arcWeight = getArcWeight(parser, arcWeights.get(tokenId));
-            result.put(tokenId, arcWeight);
-        }
-        return result;
-    }
-
-    /**
-     * @param parser parser for a given state of the Petri net
-     * @param weight arc functional rate
-     * @return arc weight for a given state
-     */
-    private double getArcWeight(PetriNetWeightParser parser, String weight) {
-        FunctionalResults<Double> result = parser.evaluateExpression(weight);
-        if (result.hasErrors()) {
-            //TODO:
-            throw new RuntimeException("Could not parse arc weight");
-        }
-
-        return result.getResult();
-    }
-
     /**
      *
      * @param infiniteServer true => infite server, false => single server
@@ -32,8 +32,8 @@ public class InboundNormalArc extends InboundArc {
         Place place = getSource();
         Map<String, Integer> tokenCounts = state.getTokens(place.getId());
         Map<String, String> tokenWeights = getTokenWeights();
-        StateEvalVisitor stateEvalVisitor = new StateEvalVisitor(petriNet, state);
-        FunctionalWeightParser<Double> functionalWeightParser = new PetriNetWeightParser(stateEvalVisitor, petriNet);
+        FunctionalWeightParser<Double> functionalWeightParser =
+                new CompiledWeightParser(new StateExpressionContext(petriNet, state), petriNet);
 
 
         for (Map.Entry<String, String> entry : tokenWeights.entrySet()) {
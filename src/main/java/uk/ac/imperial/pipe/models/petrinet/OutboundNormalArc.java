@@ -1,9 +1,9 @@
 package uk.ac.imperial.pipe.models.petrinet;
 
+import uk.ac.imperial.pipe.parsers.CompiledWeightParser;
 import uk.ac.imperial.pipe.parsers.FunctionalResults;
 import uk.ac.imperial.pipe.parsers.FunctionalWeightParser;
-import uk.ac.imperial.pipe.parsers.PetriNetWeightParser;
-import uk.ac.imperial.pipe.parsers.StateEvalVisitor;
+import uk.ac.imperial.pipe.parsers.StateExpressionContext;
 import uk.ac.imperial.state.State;
 
 import java.util.Map;
@@ -74,8 +74,8 @@ public class OutboundNormalArc extends OutboundArc {
      *@param arc  @return the sum of total number of tokens that the specified arc needs for its weight
      */
     private int getTokenCounts(PetriNet petriNet, State state, AbstractArc<? extends Connectable, ? extends Connectable> arc) {
-        StateEvalVisitor stateEvalVisitor = new StateEvalVisitor(petriNet, state);
-        FunctionalWeightParser<Double> functionalWeightParser = new PetriNetWeightParser(stateEvalVisitor, petriNet);
+        FunctionalWeightParser<Double> functionalWeightParser =
+                new CompiledWeightParser(new StateExpressionContext(petriNet, state), petriNet);
 
         int count = 0;
         for (Map.Entry<String, String> entry : arc.tokenWeights.entrySet()) {
@@ -8,6 +8,7 @@ import uk.ac.imperial.pipe.exceptions.PetriNetComponentException;
 import uk.ac.imperial.pipe.exceptions.PetriNetComponentNotFoundException;
 import uk.ac.imperial.pipe.models.petrinet.name.PetriNetName;
 import uk.ac.imperial.pipe.parsers.EvalVisitor;
+import uk.ac.imperial.pipe.parsers.ExpressionCache;
 import uk.ac.imperial.pipe.parsers.FunctionalResults;
 import uk.ac.imperial.pipe.parsers.FunctionalWeightParser;
 import uk.ac.imperial.pipe.parsers.PetriNetWeightParser;
@@ -18,6 +19,7 @@ import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Petri net class that houses Petri net components and performs the logic on their
@@ -89,11 +91,41 @@ public class PetriNet {
      */
     public static final String DELETE_RATE_PARAMETER_CHANGE_MESSAGE = "deleteRateParameter";
 
+    /**
+     * Message fired once after the token counts of several places have been changed together,
+     * e.g. by firing a sequence of transitions. The new value is the collection of changed places
+     */
+    public static final String MARKING_CHANGE_MESSAGE = "markingChange";
+
     /**
      * Property change support used to fire messages and register listeners to
      */
     protected final PropertyChangeSupport changeSupport = new PropertyChangeSupport(this);
 
+    /**
+     * Messages of component changes that alter how the Petri net fires, rather than its marking or layout
+     */
+    private static final Set<String> STRUCTURE_CHANGE_MESSAGES = new HashSet<>(Arrays.asList(
+            PetriNetComponent.ID_CHANGE_MESSAGE, Arc.SOURCE_CHANGE_MESSAGE, Arc.TARGET_CHANGE_MESSAGE,
+            Arc.WEIGHT_CHANGE_MESSAGE, Transition.PRIORITY_CHANGE_MESSAGE, Transition.RATE_CHANGE_MESSAGE,
+            Transition.TIMED_CHANGE_MESSAGE, Transition.INFINITE_SEVER_CHANGE_MESSAGE,
+            Place.CAPACITY_CHANGE_MESSAGE, RateParameter.EXPRESSION_CHANGE_MESSAGE));
+
+    /**
+     * Incremented whenever a component is added or removed or changes how the Petri net fires
+     */
+    private final AtomicLong structureVersion = new AtomicLong();
+
+    /**
+     * Increments the structure version on structural changes of the components it listens to
+     */
+    private final PropertyChangeListener structureChangeListener = new StructureChangeListener();
+
+    /**
+     * Compiled functional expressions of this Petri net, shared by every parser that evaluates them
+     */
+    private final ExpressionCache expressionCache = new ExpressionCache();
+
     /**
      * Functional weight parser
      */
@@ -284,6 +316,26 @@ public class PetriNet {
         changeSupport.removePropertyChangeListener(listener);
     }
 
+    /**
+     * Snapshots of the Petri net, such as compiled forms of it, are out of date once this changes.
+     * Token counts and layout changes leave it unchanged
+     *
+     * @return number of times components have been added, removed or changed in a way that
+     * alters how the Petri net fires
+     */
+    public long getStructureVersion() {
+        return structureVersion.get();
+    }
+
+    /**
+     * Notifies listeners that the token counts of the places have been changed together
+     *
+     * @param changed places whose token counts changed
+     */
+    public void fireMarkingChange(Collection<Place> changed) {
+        changeSupport.firePropertyChange(MARKING_CHANGE_MESSAGE, null, changed);
+    }
+
     /**
      *
      * @return PNML name
@@ -335,6 +387,9 @@ public class PetriNet {
         if (!places.containsValue(place)) {
             places.put(place.getId(), place);
             place.addPropertyChangeListener(new NameChangeListener<>(place, places));
+            place.addPropertyChangeListener(new ExpressionCacheInvalidator());
+            place.addPropertyChangeListener(structureChangeListener);
+            structureVersion.incrementAndGet();
             changeSupport.firePropertyChange(NEW_PLACE_CHANGE_MESSAGE, null, place);
         }
     }
@@ -361,6 +416,7 @@ public class PetriNet {
         for (InboundArc arc : outboundArcs(place)) {
             removeArc(arc);
         }
+        structureVersion.incrementAndGet();
         changeSupport.firePropertyChange(DELETE_PLACE_CHANGE_MESSAGE, place, null);
     }
 
@@ -435,6 +491,7 @@ public class PetriNet {
     public void removeArc(InboundArc arc) {
         inboundArcs.remove(arc.getId());
         transitionInboundArcs.remove(arc.getTarget().getId(), arc);
+        structureVersion.incrementAndGet();
         changeSupport.firePropertyChange(DELETE_ARC_CHANGE_MESSAGE, arc, null);
     }
 
@@ -448,6 +505,8 @@ public class PetriNet {
             transitions.put(transition.getId(), transition);
             transition.addPropertyChangeListener(new NameChangeListener<>(transition, transitions));
             transition.addPropertyChangeListener(new NameChangeArcListener());
+            transition.addPropertyChangeListener(structureChangeListener);
+            structureVersion.incrementAndGet();
             changeSupport.firePropertyChange(NEW_TRANSITION_CHANGE_MESSAGE, null, transition);
         }
     }
@@ -465,6 +524,7 @@ public class PetriNet {
         }
         transitionOutboundArcs.removeAll(transition.getId());
         transitionInboundArcs.removeAll(transition.getId());
+        structureVersion.incrementAndGet();
         changeSupport.firePropertyChange(DELETE_TRANSITION_CHANGE_MESSAGE, transition, null);
     }
 
@@ -487,6 +547,7 @@ public class PetriNet {
     public void removeArc(OutboundArc arc) {
         outboundArcs.remove(arc.getId());
         transitionOutboundArcs.remove(arc.getSource().getId(), arc);
+        structureVersion.incrementAndGet();
         changeSupport.firePropertyChange(DELETE_ARC_CHANGE_MESSAGE, arc, null);
     }
 
@@ -508,6 +569,8 @@ public class PetriNet {
             inboundArcs.put(inboundArc.getId(), inboundArc);
             transitionInboundArcs.put(inboundArc.getTarget().getId(), inboundArc);
             inboundArc.addPropertyChangeListener(new NameChangeListener<>(inboundArc, inboundArcs));
+            inboundArc.addPropertyChangeListener(structureChangeListener);
+            structureVersion.incrementAndGet();
             changeSupport.firePropertyChange(NEW_ARC_CHANGE_MESSAGE, null, inboundArc);
         }
     }
@@ -521,6 +584,8 @@ public class PetriNet {
             outboundArcs.put(outboundArc.getId(), outboundArc);
             transitionOutboundArcs.put(outboundArc.getSource().getId(), outboundArc);
             outboundArc.addPropertyChangeListener(new NameChangeListener<>(outboundArc, outboundArcs));
+            outboundArc.addPropertyChangeListener(structureChangeListener);
+            structureVersion.incrementAndGet();
             changeSupport.firePropertyChange(NEW_ARC_CHANGE_MESSAGE, null, outboundArc);
         }
     }
@@ -561,6 +626,9 @@ public class PetriNet {
             tokens.put(token.getId(), token);
             token.addPropertyChangeListener(new NameChangeListener<>(token, tokens));
             token.addPropertyChangeListener(new TokenNameChanger());
+            token.addPropertyChangeListener(new ExpressionCacheInvalidator());
+            token.addPropertyChangeListener(structureChangeListener);
+            structureVersion.incrementAndGet();
             changeSupport.firePropertyChange(NEW_TOKEN_CHANGE_MESSAGE, null, token);
         }
     }
@@ -576,6 +644,7 @@ public class PetriNet {
         Collection<Transition> referencedTransitions = getTransitionsReferencingToken(token);
         if (referencedPlaces.isEmpty() && referencedTransitions.isEmpty()) {
             tokens.remove(token.getId());
+            structureVersion.incrementAndGet();
             changeSupport.firePropertyChange(DELETE_TOKEN_CHANGE_MESSAGE, token, null);
             return;
         }
@@ -679,6 +748,8 @@ public class PetriNet {
         if (!rateParameters.containsValue(rateParameter)) {
             rateParameters.put(rateParameter.getId(), rateParameter);
             rateParameter.addPropertyChangeListener(new NameChangeListener<>(rateParameter, rateParameters));
+            rateParameter.addPropertyChangeListener(structureChangeListener);
+            structureVersion.incrementAndGet();
             changeSupport.firePropertyChange(NEW_RATE_PARAMETER_CHANGE_MESSAGE, null, rateParameter);
         }
     }
@@ -705,6 +776,7 @@ public class PetriNet {
     public void removeRateParameter(RateParameter parameter) {
         removeRateParameterFromTransitions(parameter);
         rateParameters.remove(parameter.getId());
+        structureVersion.incrementAndGet();
         changeSupport.firePropertyChange(DELETE_RATE_PARAMETER_CHANGE_MESSAGE, parameter, null);
     }
 
@@ -844,6 +916,14 @@ public class PetriNet {
         return functionalWeightParser.evaluateExpression(expr);
     }
 
+    /**
+     *
+     * @return cache of compiled functional expressions for this Petri net
+     */
+    public ExpressionCache getExpressionCache() {
+        return expressionCache;
+    }
+
     /**
      * Listener for changing a components name in the set it is referenced by
      * @param <T>
@@ -910,6 +990,41 @@ public class PetriNet {
         }
     }
 
+    /**
+     * Compiled expressions refer to places and tokens by id, so they are
+     * discarded whenever a place or token is renamed
+     */
+    private class ExpressionCacheInvalidator implements PropertyChangeListener {
+
+        /**
+         * Clears the expression cache if the components id has changed
+         * @param evt
+         */
+        @Override
+        public void propertyChange(PropertyChangeEvent evt) {
+            if (evt.getPropertyName().equals(PetriNetComponent.ID_CHANGE_MESSAGE)) {
+                expressionCache.clear();
+            }
+        }
+    }
+
+    /**
+     * Counts the changes of a component that alter how the Petri net fires
+     */
+    private class StructureChangeListener implements PropertyChangeListener {
+
+        /**
+         * Increments the structure version if the change is structural
+         * @param evt
+         */
+        @Override
+        public void propertyChange(PropertyChangeEvent evt) {
+            if (STRUCTURE_CHANGE_MESSAGES.contains(evt.getPropertyName())) {
+                structureVersion.incrementAndGet();
+            }
+        }
+    }
+
     /**
      * Listens for name changes of a token
      */
@@ -13,6 +13,11 @@ public interface Place extends Connectable {
      */
     String TOKEN_CHANGE_MESSAGE = "tokens";
 
+    /**
+     * Message fired when the places capacity changes
+     */
+    String CAPACITY_CHANGE_MESSAGE = "capacity";
+
     double getMarkingXOffset();
 
     void setMarkingXOffset(double markingXOffset);
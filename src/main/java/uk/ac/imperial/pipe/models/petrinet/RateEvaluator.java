@@ -0,0 +1,446 @@
+package uk.ac.imperial.pipe.models.petrinet;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.primitives.Doubles;
+import uk.ac.imperial.pipe.animation.CompiledPetriNet;
+import uk.ac.imperial.pipe.animation.Marking;
+import uk.ac.imperial.pipe.parsers.CompiledExpression;
+import uk.ac.imperial.pipe.parsers.ExpressionCache;
+import uk.ac.imperial.pipe.parsers.StateExpressionContext;
+import uk.ac.imperial.state.State;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static java.lang.Math.floor;
+
+/**
+ * Evaluates the actual rate of a transition from its rate expression and, for an infinite server,
+ * its enabling degree, compiled once rather than parsed on every call.
+ * <p/>
+ * The result only depends on the token counts of the places the rate and inbound arc weights
+ * reference and the places the inbound arcs come from, so results are memoised on the projection
+ * of the state onto those places: an int array of the count of every token of the Petri net on each
+ * of them, read straight from the cells of a {@link Marking}. Expressions referencing a place
+ * capacity are not memoised.
+ * <p/>
+ * An evaluator is a snapshot of the transition and its inbound arcs, {@link #isValidFor(PetriNet, Transition)}
+ * checks whether it is still up to date. Instances are thread safe.
+ */
+final class RateEvaluator {
+    /**
+     * Maximum number of memoised projections
+     */
+    private static final int MEMO_SIZE = 4096;
+
+    /**
+     * Constant arc weight marking an arc weight that is a functional expression
+     */
+    private static final int FUNCTIONAL_WEIGHT = -1;
+
+    /**
+     * Petri net the transition belongs to
+     */
+    private final PetriNet petriNet;
+
+    /**
+     * Rate expression the evaluator was compiled from
+     */
+    private final String rateExpression;
+
+    /**
+     * Rate if the expression is a number, otherwise NaN
+     */
+    private final double constantRate;
+
+    /**
+     * Compiled rate if the expression is not a number
+     */
+    private final CompiledExpression rate;
+
+    /**
+     * Server semantics the evaluator was compiled for
+     */
+    private final boolean infiniteServer;
+
+    /**
+     * Source place id -> token weights of the inbound arcs the evaluator was compiled for
+     */
+    private final Map<String, Map<String, String>> arcWeights = new HashMap<>();
+
+    /**
+     * Source place of each inbound arc weight
+     */
+    private final String[] weightPlaces;
+
+    /**
+     * Token of each inbound arc weight
+     */
+    private final String[] weightTokens;
+
+    /**
+     * Each inbound arc weight floored to an integer, or {@link #FUNCTIONAL_WEIGHT}
+     */
+    private final int[] constantWeights;
+
+    /**
+     * Compiled expression of each functional inbound arc weight
+     */
+    private final CompiledExpression[] functionalWeights;
+
+    /**
+     * Ids of the places whose token counts the result depends on
+     */
+    private final String[] projection;
+
+    /**
+     * Ids of the Petri net's tokens when the evaluator was compiled, in projection order
+     */
+    private final String[] tokenIds;
+
+    /**
+     * Marking cells of the projection for the compiled Petri net Markings were last seen with
+     */
+    private volatile MarkingCells markingCells;
+
+    /**
+     * Projection of a state -> result, null if results are not memoised
+     */
+    private final Cache<Projection, Double> memo;
+
+    /**
+     * Constructor
+     * @param petriNet Petri net the transition belongs to
+     * @param transition transition to evaluate the rate of
+     * @param rate compiled rate expression, null if it is a number
+     */
+    private RateEvaluator(PetriNet petriNet, Transition transition, CompiledExpression rate) {
+        this.petriNet = petriNet;
+        this.rateExpression = transition.getRateExpr();
+        this.rate = rate;
+        this.constantRate = rate == null ? Doubles.tryParse(rateExpression) : Double.NaN;
+        this.infiniteServer = transition.isInfiniteServer();
+
+        Set<String> places = new LinkedHashSet<>();
+        boolean memoisable = true;
+        if (rate != null) {
+            places.addAll(rate.getMarkingPlaces());
+            memoisable = !rate.isCapacityDependent();
+        }
+
+        List<String> weightPlaceList = new ArrayList<>();
+        List<String> weightTokenList = new ArrayList<>();
+        List<String> weightList = new ArrayList<>();
+        if (infiniteServer) {
+            for (InboundArc arc : petriNet.inboundArcs(transition)) {
+                String placeId = arc.getSource().getId();
+                arcWeights.put(placeId, new HashMap<>(arc.getTokenWeights()));
+                places.add(placeId);
+                for (Map.Entry<String, String> entry : arc.getTokenWeights().entrySet()) {
+                    weightPlaceList.add(placeId);
+                    weightTokenList.add(entry.getKey());
+                    weightList.add(entry.getValue());
+                }
+            }
+        }
+
+        int weights = weightList.size();
+        weightPlaces = weightPlaceList.toArray(new String[weights]);
+        weightTokens = weightTokenList.toArray(new String[weights]);
+        constantWeights = new int[weights];
+        functionalWeights = new CompiledExpression[weights];
+        ExpressionCache cache = petriNet.getExpressionCache();
+        for (int i = 0; i < weights; i++) {
+            Double maybeDouble = Doubles.tryParse(weightList.get(i));
+            if (maybeDouble != null) {
+                constantWeights[i] = (int) floor(maybeDouble);
+            } else {
+                CompiledExpression weight = cache.get(weightList.get(i));
+                constantWeights[i] = FUNCTIONAL_WEIGHT;
+                functionalWeights[i] = weight;
+                places.addAll(weight.getMarkingPlaces());
+                memoisable &= !weight.isCapacityDependent();
+            }
+        }
+
+        projection = places.toArray(new String[places.size()]);
+        List<String> tokenIdList = new ArrayList<>();
+        for (Token token : petriNet.getTokens()) {
+            tokenIdList.add(token.getId());
+        }
+        tokenIds = tokenIdList.toArray(new String[tokenIdList.size()]);
+        boolean constant = rate == null && !infiniteServer;
+        memo = memoisable && !constant ? CacheBuilder.newBuilder().maximumSize(MEMO_SIZE)
+                .<Projection, Double>build() : null;
+    }
+
+    /**
+     * @param petriNet Petri net the transition belongs to
+     * @param transition transition to evaluate the rate of
+     * @return evaluator of the transitions rate, or null if its rate expression cannot be evaluated
+     */
+    static RateEvaluator create(PetriNet petriNet, Transition transition) {
+        String expression = transition.getRateExpr();
+        if (Doubles.tryParse(expression) != null) {
+            return new RateEvaluator(petriNet, transition, null);
+        }
+        CompiledExpression rate = petriNet.getExpressionCache().get(expression);
+        if (rate.hasErrors() || !rate.allComponentsIn(petriNet)) {
+            return null;
+        }
+        return new RateEvaluator(petriNet, transition, rate);
+    }
+
+    /**
+     * @param petriNet Petri net the transition belongs to
+     * @param transition transition to evaluate the rate of
+     * @return true if the evaluator was compiled from the transitions current rate, server semantics,
+     * inbound arcs and the tokens of this Petri net
+     */
+    boolean isValidFor(PetriNet petriNet, Transition transition) {
+        if (petriNet != this.petriNet || transition.isInfiniteServer() != infiniteServer
+                || !transition.getRateExpr().equals(rateExpression)) {
+            return false;
+        }
+        ExpressionCache cache = petriNet.getExpressionCache();
+        if (rate != null && cache.get(rateExpression) != rate) {
+            return false;
+        }
+        if (memo != null && !sameTokens(petriNet.getTokens())) {
+            return false;
+        }
+        if (!infiniteServer) {
+            return true;
+        }
+        Collection<InboundArc> arcs = petriNet.inboundArcs(transition);
+        if (arcs.size() != arcWeights.size()) {
+            return false;
+        }
+        for (InboundArc arc : arcs) {
+            if (!arc.getTokenWeights().equals(arcWeights.get(arc.getSource().getId()))) {
+                return false;
+            }
+        }
+        for (CompiledExpression weight : functionalWeights) {
+            if (weight != null && cache.get(weight.getExpression()) != weight) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param state state of the Petri net
+     * @return rate evaluated against the state, multiplied by the enabling degree for an infinite server,
+     * or -1 if the rate evaluates to less than zero
+     */
+    double evaluate(State state) {
+        if (memo == null) {
+            return compute(state);
+        }
+        Projection key = project(state);
+        Double result = memo.getIfPresent(key);
+        if (result == null) {
+            result = compute(state);
+            memo.put(key, result);
+        }
+        return result;
+    }
+
+    /**
+     * @param tokens tokens of the Petri net
+     * @return true if they are the tokens the projection was laid out for, in the same order
+     */
+    private boolean sameTokens(Collection<Token> tokens) {
+        if (tokens.size() != tokenIds.length) {
+            return false;
+        }
+        int index = 0;
+        for (Token token : tokens) {
+            if (!token.getId().equals(tokenIds[index++])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param state state of the Petri net
+     * @return count of every token on each of the places the result depends on, zero if missing
+     */
+    private Projection project(State state) {
+        int[] counts = new int[projection.length * tokenIds.length];
+        if (state instanceof Marking) {
+            Marking marking = (Marking) state;
+            int[] cells = getMarkingCells(marking.getCompiledPetriNet());
+            for (int i = 0; i < counts.length; i++) {
+                if (cells[i] >= 0) {
+                    counts[i] = marking.get(cells[i]);
+                }
+            }
+            return new Projection(counts);
+        }
+        int i = 0;
+        for (String placeId : projection) {
+            Map<String, Integer> tokens = state.getTokens(placeId);
+            for (String tokenId : tokenIds) {
+                Integer count = tokens == null ? null : tokens.get(tokenId);
+                counts[i++] = count == null ? 0 : count;
+            }
+        }
+        return new Projection(counts);
+    }
+
+    /**
+     * @param compiledPetriNet layout of a marking
+     * @return cell of each projection entry in the layout, -1 if the place or token is not in it
+     */
+    private int[] getMarkingCells(CompiledPetriNet compiledPetriNet) {
+        MarkingCells known = markingCells;
+        if (known != null && known.compiledPetriNet == compiledPetriNet) {
+            return known.cells;
+        }
+        int[] cells = new int[projection.length * tokenIds.length];
+        int i = 0;
+        for (String placeId : projection) {
+            int place = compiledPetriNet.getPlaceIndex(placeId);
+            for (String tokenId : tokenIds) {
+                int token = compiledPetriNet.getTokenIndex(tokenId);
+                cells[i++] = place < 0 || token < 0 ? -1 : compiledPetriNet.cell(place, token);
+            }
+        }
+        markingCells = new MarkingCells(compiledPetriNet, cells);
+        return cells;
+    }
+
+    /**
+     * @param state state of the Petri net
+     * @return rate evaluated against the state, multiplied by the enabling degree for an infinite server
+     */
+    private double compute(State state) {
+        StateExpressionContext context = new StateExpressionContext(petriNet, state);
+        double result = constantRate;
+        if (rate != null) {
+            result = rate.evaluate(context);
+            if (result < 0) {
+                return -1;
+            }
+        }
+        if (!infiniteServer) {
+            return result;
+        }
+        return result * getEnablingDegree(state, context);
+    }
+
+    /**
+     * The enabling degree is the number of times that the transition is enabled, the minimum over its
+     * inbound arc weights of the tokens in the arcs place divided by the weight. A weight of zero gives
+     * a degree of zero.
+     *
+     * @param state state of the Petri net
+     * @param context context to evaluate functional weights in
+     * @return number of times the transition is enabled in the state
+     */
+    private int getEnablingDegree(State state, StateExpressionContext context) {
+        int enablingDegree = Integer.MAX_VALUE;
+        for (int i = 0; i < constantWeights.length; i++) {
+            int requiredTokenCount = constantWeights[i];
+            if (requiredTokenCount == FUNCTIONAL_WEIGHT) {
+                requiredTokenCount = (int) floor(evaluateWeight(functionalWeights[i], context));
+            }
+            if (requiredTokenCount == 0) {
+                enablingDegree = 0;
+            } else {
+                Map<String, Integer> tokens = state.getTokens(weightPlaces[i]);
+                Integer count = tokens == null ? null : tokens.get(weightTokens[i]);
+                int currentDegree = (count == null ? 0 : count) / requiredTokenCount;
+                if (currentDegree < enablingDegree) {
+                    enablingDegree = currentDegree;
+                }
+            }
+        }
+        return enablingDegree;
+    }
+
+    /**
+     * @param weight compiled functional arc weight
+     * @param context context to evaluate it in
+     * @return evaluated weight
+     */
+    private double evaluateWeight(CompiledExpression weight, StateExpressionContext context) {
+        if (weight.hasErrors() || !weight.allComponentsIn(petriNet)) {
+            throw new RuntimeException("Could not parse arc weight");
+        }
+        double result = weight.evaluate(context);
+        if (result < 0) {
+            throw new RuntimeException("Could not parse arc weight");
+        }
+        return result;
+    }
+
+    /**
+     * Token counts of a state on the places the result depends on, as a memo key
+     */
+    private static final class Projection {
+        /**
+         * Count of every token on each place of the projection
+         */
+        private final int[] counts;
+
+        /**
+         * Hash of the counts
+         */
+        private final int hash;
+
+        /**
+         * Constructor
+         * @param counts count of every token on each place of the projection
+         */
+        private Projection(int[] counts) {
+            this.counts = counts;
+            this.hash = Arrays.hashCode(counts);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return this == o || o instanceof Projection && Arrays.equals(counts, ((Projection) o).counts);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * Cells of the projection entries in the layout of a compiled Petri net
+     */
+    private static final class MarkingCells {
+        /**
+         * Layout the cells belong to
+         */
+        private final CompiledPetriNet compiledPetriNet;
+
+        /**
+         * Cell of each projection entry, -1 if the place or token is not in the layout
+         */
+        private final int[] cells;
+
+        /**
+         * Constructor
+         * @param compiledPetriNet layout the cells belong to
+         * @param cells cell of each projection entry
+         */
+        private MarkingCells(CompiledPetriNet compiledPetriNet, int[] cells) {
+            this.compiledPetriNet = compiledPetriNet;
+            this.cells = cells;
+        }
+    }
+}
@@ -74,7 +74,7 @@ public interface Transition extends Connectable {
      * If an infinite server the transition will return its rate * enabling degree
      *
      * @param state given state of a petri net to evaluate the functional rate of
-     * @return actual evaluated rate of the Petri net
+     * @return actual evaluated rate of the Petri net, or -1 if the rate cannot be evaluated or is less than zero
      */
     Double getActualRate(PetriNet petriNet, State state);
 
@@ -0,0 +1,204 @@
+package uk.ac.imperial.pipe.parsers;
+
+import com.google.common.primitives.Doubles;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.ParseTreeWalker;
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A functional expression that has been parsed once into an evaluatable syntax tree.
+ * <p/>
+ * Instances are immutable and can safely be shared between threads, see
+ * {@link uk.ac.imperial.pipe.parsers.ExpressionCache}
+ */
+public final class CompiledExpression {
+    /**
+     * Original expression
+     */
+    private final String expression;
+
+    /**
+     * ANTLR parse tree of the expression, null if the expression is a plain number
+     */
+    private final ParseTree parseTree;
+
+    /**
+     * Compiled syntax tree, null if the expression contains syntax errors
+     */
+    private final ExpressionNode root;
+
+    /**
+     * Syntax errors found whilst parsing the expression
+     */
+    private final List<String> errors;
+
+    /**
+     * Ids of all components referenced by the expression, places and tokens
+     */
+    private final Set<String> components;
+
+    /**
+     * Ids of places whose token counts the expression depends on
+     */
+    private final Set<String> markingPlaces;
+
+    /**
+     * True if the expression references the capacity of a place
+     */
+    private final boolean capacityDependent;
+
+    /**
+     * True if the expression does not reference any Petri net component
+     */
+    private final boolean constant;
+
+    /**
+     * Value of the expression if it is constant
+     */
+    private final double constantValue;
+
+    /**
+     * Private constructor, use {@link #compile(String)}
+     */
+    private CompiledExpression(String expression, ParseTree parseTree, ExpressionNode root, List<String> errors,
+                               Set<String> components, Set<String> markingPlaces, boolean capacityDependent,
+                               boolean constant) {
+        this.expression = expression;
+        this.parseTree = parseTree;
+        this.root = root;
+        this.errors = Collections.unmodifiableList(errors);
+        this.components = Collections.unmodifiableSet(components);
+        this.markingPlaces = Collections.unmodifiableSet(markingPlaces);
+        this.capacityDependent = capacityDependent;
+        this.constant = constant;
+        this.constantValue = constant ? root.evaluate(null) : -1;
+    }
+
+    /**
+     * Parses and compiles the expression
+     *
+     * @param expression functional expression conforming to the rate grammar
+     * @return compiled expression, which may contain syntax errors
+     */
+    public static CompiledExpression compile(String expression) {
+        Double maybeDouble = Doubles.tryParse(expression);
+        if (maybeDouble != null) {
+            return new CompiledExpression(expression, null, new ExpressionNode.Constant(maybeDouble),
+                    new ArrayList<String>(), new HashSet<String>(), new HashSet<String>(), false, true);
+        }
+
+        RateGrammarErrorListener errorListener = new RateGrammarErrorListener();
+        ParseTree parseTree = GrammarUtils.parse(expression, errorListener);
+
+        PetriNetWeightParser.ComponentListener listener = new PetriNetWeightParser.ComponentListener();
+        new ParseTreeWalker().walk(listener, parseTree);
+
+        if (errorListener.hasErrors()) {
+            return new CompiledExpression(expression, parseTree, null, new ArrayList<>(errorListener.getErrors()),
+                    listener.getComponentIds(), new HashSet<String>(), false, false);
+        }
+
+        ExpressionCompiler compiler = new ExpressionCompiler();
+        ExpressionNode root = compiler.visit(parseTree);
+        boolean capacityDependent = !compiler.getCapacityPlaces().isEmpty();
+        boolean constant = compiler.getMarkingPlaces().isEmpty() && !capacityDependent;
+        return new CompiledExpression(expression, parseTree, root, new ArrayList<String>(),
+                listener.getComponentIds(), compiler.getMarkingPlaces(), capacityDependent, constant);
+    }
+
+    /**
+     * @return the expression this was compiled from
+     */
+    public String getExpression() {
+        return expression;
+    }
+
+    /**
+     * @return parse tree of the expression for evaluation by a
+     * {@link uk.ac.imperial.pipe.parsers.RateGrammarBaseVisitor}, null if the expression is a plain number
+     */
+    public ParseTree getParseTree() {
+        return parseTree;
+    }
+
+    /**
+     * @return true if the expression contains syntax errors
+     */
+    public boolean hasErrors() {
+        return !errors.isEmpty();
+    }
+
+    /**
+     * @return syntax errors found whilst parsing the expression
+     */
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    /**
+     * @return ids of places and tokens referenced in the expression
+     */
+    public Set<String> getComponents() {
+        return components;
+    }
+
+    /**
+     * @return ids of places whose token counts the expression depends on
+     */
+    public Set<String> getMarkingPlaces() {
+        return markingPlaces;
+    }
+
+    /**
+     * @return true if the expression references the capacity of a place, which is not part of a marking
+     */
+    public boolean isCapacityDependent() {
+        return capacityDependent;
+    }
+
+    /**
+     * @return true if the expression references no Petri net components and so always evaluates to the same value
+     */
+    public boolean isConstant() {
+        return constant;
+    }
+
+    /**
+     * @return value of a constant expression
+     */
+    public double getConstantValue() {
+        return constantValue;
+    }
+
+    /**
+     * @param petriNet Petri net the expression belongs to
+     * @return true if every component referenced in the expression exists in the Petri net
+     */
+    public boolean allComponentsIn(PetriNet petriNet) {
+        for (String id : components) {
+            if (!petriNet.containsComponent(id)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Evaluates the expression, it must not contain any errors
+     *
+     * @param context values of the components referenced by the expression
+     * @return evaluated result
+     */
+    public double evaluate(ExpressionContext context) {
+        if (constant) {
+            return constantValue;
+        }
+        return root.evaluate(context);
+    }
+}
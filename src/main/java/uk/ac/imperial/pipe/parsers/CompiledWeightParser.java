@@ -0,0 +1,68 @@
+package uk.ac.imperial.pipe.parsers;
+
+import com.google.common.primitives.Doubles;
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Evaluates functional expressions using the Petri nets cache of compiled expressions,
+ * reading component values from an {@link uk.ac.imperial.pipe.parsers.ExpressionContext}.
+ * <p/>
+ * Produces the same results as a {@link uk.ac.imperial.pipe.parsers.PetriNetWeightParser} without
+ * walking an ANTLR parse tree for every evaluation.
+ */
+public final class CompiledWeightParser implements FunctionalWeightParser<Double> {
+    /**
+     * Petri net to parse results against
+     */
+    private final PetriNet petriNet;
+
+    /**
+     * Source of component values
+     */
+    private final ExpressionContext context;
+
+    /**
+     * Constructor
+     * @param context source of component values
+     * @param petriNet Petri net the expressions belong to
+     */
+    public CompiledWeightParser(ExpressionContext context, PetriNet petriNet) {
+        this.context = context;
+        this.petriNet = petriNet;
+    }
+
+    /**
+     * Evaluate the expression against the context
+     * @param expression to evaluate
+     * @return evaluated results which contain error, component and the actual value if no errors were reported
+     */
+    @Override
+    public FunctionalResults<Double> evaluateExpression(String expression) {
+        Double maybeDouble = Doubles.tryParse(expression);
+        if (maybeDouble != null) {
+            return new FunctionalResults<>(maybeDouble, new HashSet<String>());
+        }
+
+        CompiledExpression compiled = petriNet.getExpressionCache().get(expression);
+        List<String> errors = new LinkedList<>(compiled.getErrors());
+        if (!compiled.allComponentsIn(petriNet)) {
+            errors.add("Not all referenced components exist in the Petri net!");
+        }
+
+        if (!errors.isEmpty()) {
+            return new FunctionalResults<>(-1., errors, compiled.getComponents());
+        }
+
+        double result = compiled.evaluate(context);
+        if (result < 0) {
+            errors.add("Expression result cannot be less than zero!");
+            return new FunctionalResults<>(-1., errors, compiled.getComponents());
+        }
+
+        return new FunctionalResults<>(result, compiled.getComponents());
+    }
+}
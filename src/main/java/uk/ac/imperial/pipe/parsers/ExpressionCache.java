@@ -0,0 +1,45 @@
+package uk.ac.imperial.pipe.parsers;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Thread safe cache of compiled functional expressions so that each distinct
+ * expression is only parsed once
+ */
+public final class ExpressionCache {
+    /**
+     * Expression -> compiled expression
+     */
+    private final ConcurrentMap<String, CompiledExpression> compiled = new ConcurrentHashMap<>();
+
+    /**
+     * @param expression functional expression conforming to the rate grammar
+     * @return compiled version of the expression, parsing it if it has not been seen before
+     */
+    public CompiledExpression get(String expression) {
+        CompiledExpression result = compiled.get(expression);
+        if (result == null) {
+            result = CompiledExpression.compile(expression);
+            CompiledExpression existing = compiled.putIfAbsent(expression, result);
+            if (existing != null) {
+                return existing;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Removes all compiled expressions
+     */
+    public void clear() {
+        compiled.clear();
+    }
+
+    /**
+     * @return number of compiled expressions currently held
+     */
+    public int size() {
+        return compiled.size();
+    }
+}
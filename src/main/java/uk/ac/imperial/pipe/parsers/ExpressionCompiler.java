@@ -0,0 +1,94 @@
+package uk.ac.imperial.pipe.parsers;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Compiles a syntactically valid parse tree into an {@link uk.ac.imperial.pipe.parsers.ExpressionNode}
+ * tree, recording which places the expression reads whilst doing so
+ */
+final class ExpressionCompiler extends RateGrammarBaseVisitor<ExpressionNode> {
+
+    /**
+     * Ids of places whose token counts the expression depends on
+     */
+    private final Set<String> markingPlaces = new HashSet<>();
+
+    /**
+     * Ids of places whose capacity the expression depends on
+     */
+    private final Set<String> capacityPlaces = new HashSet<>();
+
+    @Override
+    public ExpressionNode visitMultOrDiv(RateGrammarParser.MultOrDivContext ctx) {
+        return new ExpressionNode.BinaryOperation(visit(ctx.expression(0)), visit(ctx.expression(1)),
+                ctx.op.getType());
+    }
+
+    @Override
+    public ExpressionNode visitAddOrSubtract(RateGrammarParser.AddOrSubtractContext ctx) {
+        return new ExpressionNode.BinaryOperation(visit(ctx.expression(0)), visit(ctx.expression(1)),
+                ctx.op.getType());
+    }
+
+    @Override
+    public ExpressionNode visitParenExpression(RateGrammarParser.ParenExpressionContext ctx) {
+        return visit(ctx.expression());
+    }
+
+    @Override
+    public ExpressionNode visitToken_number(RateGrammarParser.Token_numberContext ctx) {
+        String placeId = ctx.ID().getText();
+        markingPlaces.add(placeId);
+        return new ExpressionNode.PlaceTokens(placeId);
+    }
+
+    @Override
+    public ExpressionNode visitToken_color_number(RateGrammarParser.Token_color_numberContext ctx) {
+        String placeId = ctx.ID().get(0).getText();
+        String tokenId = ctx.ID().get(1).getText();
+        markingPlaces.add(placeId);
+        return new ExpressionNode.PlaceColorTokens(placeId, tokenId);
+    }
+
+    @Override
+    public ExpressionNode visitCapacity(RateGrammarParser.CapacityContext ctx) {
+        String placeId = ctx.ID().getText();
+        capacityPlaces.add(placeId);
+        return new ExpressionNode.Capacity(placeId);
+    }
+
+    @Override
+    public ExpressionNode visitInteger(RateGrammarParser.IntegerContext ctx) {
+        return new ExpressionNode.Constant(Double.valueOf(ctx.INT().getText()));
+    }
+
+    @Override
+    public ExpressionNode visitDouble(RateGrammarParser.DoubleContext ctx) {
+        return new ExpressionNode.Constant(Double.valueOf(ctx.DOUBLE().getText()));
+    }
+
+    @Override
+    public ExpressionNode visitFloor(RateGrammarParser.FloorContext ctx) {
+        return new ExpressionNode.Floor(visit(ctx.expression()));
+    }
+
+    @Override
+    public ExpressionNode visitCeil(RateGrammarParser.CeilContext ctx) {
+        return new ExpressionNode.Ceil(visit(ctx.expression()));
+    }
+
+    /**
+     * @return ids of places whose token counts the compiled expression depends on
+     */
+    Set<String> getMarkingPlaces() {
+        return markingPlaces;
+    }
+
+    /**
+     * @return ids of places whose capacity the compiled expression depends on
+     */
+    Set<String> getCapacityPlaces() {
+        return capacityPlaces;
+    }
+}
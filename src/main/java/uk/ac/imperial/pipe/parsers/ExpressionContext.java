@@ -0,0 +1,26 @@
+package uk.ac.imperial.pipe.parsers;
+
+/**
+ * Supplies the values of the Petri net components that a
+ * {@link uk.ac.imperial.pipe.parsers.CompiledExpression} references when it is evaluated
+ */
+public interface ExpressionContext {
+    /**
+     * @param placeId id of the place
+     * @return total number of tokens of every colour in the place
+     */
+    double getTokenCount(String placeId);
+
+    /**
+     * @param placeId id of the place
+     * @param tokenId id of the token
+     * @return number of tokens of the given colour in the place
+     */
+    double getTokenCount(String placeId, String tokenId);
+
+    /**
+     * @param placeId id of the place
+     * @return capacity of the place
+     */
+    double getCapacity(String placeId);
+}
@@ -0,0 +1,208 @@
+package uk.ac.imperial.pipe.parsers;
+
+/**
+ * Node of the abstract syntax tree a functional expression is compiled into.
+ * <p/>
+ * Nodes are immutable and so a compiled tree can be evaluated by many threads at once.
+ */
+abstract class ExpressionNode {
+
+    /**
+     * @param context values of the components referenced by the expression
+     * @return value of this node
+     */
+    abstract double evaluate(ExpressionContext context);
+
+    /**
+     * A numeric literal
+     */
+    static final class Constant extends ExpressionNode {
+        /**
+         * Literal value
+         */
+        private final double value;
+
+        /**
+         * Constructor
+         * @param value literal value
+         */
+        Constant(double value) {
+            this.value = value;
+        }
+
+        @Override
+        double evaluate(ExpressionContext context) {
+            return value;
+        }
+    }
+
+    /**
+     * Binary arithmetic operation
+     */
+    static final class BinaryOperation extends ExpressionNode {
+        /**
+         * Left hand side
+         */
+        private final ExpressionNode left;
+
+        /**
+         * Right hand side
+         */
+        private final ExpressionNode right;
+
+        /**
+         * Operator token type as defined in {@link uk.ac.imperial.pipe.parsers.RateGrammarParser}
+         */
+        private final int operator;
+
+        /**
+         * Constructor
+         * @param left left hand side
+         * @param right right hand side
+         * @param operator token type of the operator
+         */
+        BinaryOperation(ExpressionNode left, ExpressionNode right, int operator) {
+            this.left = left;
+            this.right = right;
+            this.operator = operator;
+        }
+
+        @Override
+        double evaluate(ExpressionContext context) {
+            double lhs = left.evaluate(context);
+            double rhs = right.evaluate(context);
+            switch (operator) {
+                case RateGrammarParser.MUL:
+                    return lhs * rhs;
+                case RateGrammarParser.DIV:
+                    return lhs / rhs;
+                case RateGrammarParser.ADD:
+                    return lhs + rhs;
+                default:
+                    return lhs - rhs;
+            }
+        }
+    }
+
+    /**
+     * ceil(expression)
+     */
+    static final class Ceil extends ExpressionNode {
+        /**
+         * Expression to round up
+         */
+        private final ExpressionNode expression;
+
+        /**
+         * Constructor
+         * @param expression expression to round up
+         */
+        Ceil(ExpressionNode expression) {
+            this.expression = expression;
+        }
+
+        @Override
+        double evaluate(ExpressionContext context) {
+            return Math.ceil(expression.evaluate(context));
+        }
+    }
+
+    /**
+     * floor(expression)
+     */
+    static final class Floor extends ExpressionNode {
+        /**
+         * Expression to round down
+         */
+        private final ExpressionNode expression;
+
+        /**
+         * Constructor
+         * @param expression expression to round down
+         */
+        Floor(ExpressionNode expression) {
+            this.expression = expression;
+        }
+
+        @Override
+        double evaluate(ExpressionContext context) {
+            return Math.floor(expression.evaluate(context));
+        }
+    }
+
+    /**
+     * #(place), the total number of tokens in a place
+     */
+    static final class PlaceTokens extends ExpressionNode {
+        /**
+         * Place id
+         */
+        private final String placeId;
+
+        /**
+         * Constructor
+         * @param placeId place id
+         */
+        PlaceTokens(String placeId) {
+            this.placeId = placeId;
+        }
+
+        @Override
+        double evaluate(ExpressionContext context) {
+            return context.getTokenCount(placeId);
+        }
+    }
+
+    /**
+     * #(place, token), the number of tokens of a single colour in a place
+     */
+    static final class PlaceColorTokens extends ExpressionNode {
+        /**
+         * Place id
+         */
+        private final String placeId;
+
+        /**
+         * Token id
+         */
+        private final String tokenId;
+
+        /**
+         * Constructor
+         * @param placeId place id
+         * @param tokenId token id
+         */
+        PlaceColorTokens(String placeId, String tokenId) {
+            this.placeId = placeId;
+            this.tokenId = tokenId;
+        }
+
+        @Override
+        double evaluate(ExpressionContext context) {
+            return context.getTokenCount(placeId, tokenId);
+        }
+    }
+
+    /**
+     * cap(place), the capacity of a place
+     */
+    static final class Capacity extends ExpressionNode {
+        /**
+         * Place id
+         */
+        private final String placeId;
+
+        /**
+         * Constructor
+         * @param placeId place id
+         */
+        Capacity(String placeId) {
+            this.placeId = placeId;
+        }
+
+        @Override
+        double evaluate(ExpressionContext context) {
+            return context.getCapacity(placeId);
+        }
+    }
+}
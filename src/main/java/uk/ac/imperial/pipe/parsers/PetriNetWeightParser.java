@@ -2,8 +2,6 @@ package uk.ac.imperial.pipe.parsers;
 
 import com.google.common.primitives.Doubles;
 import org.antlr.v4.runtime.misc.NotNull;
-import org.antlr.v4.runtime.tree.ParseTree;
-import org.antlr.v4.runtime.tree.ParseTreeWalker;
 import uk.ac.imperial.pipe.models.petrinet.PetriNet;
 
 import java.util.HashSet;
@@ -12,7 +10,10 @@ import java.util.List;
 import java.util.Set;
 
 /**
- * Parses functional expressions related to the specified Petri net
+ * Parses functional expressions related to the specified Petri net.
+ * <p/>
+ * Expressions are only parsed once, the parse tree is shared via the Petri nets
+ * {@link uk.ac.imperial.pipe.parsers.ExpressionCache}
  */
 public class PetriNetWeightParser implements FunctionalWeightParser<Double> {
 
@@ -38,36 +39,6 @@ public class PetriNetWeightParser implements FunctionalWeightParser<Double> {
     }
 
 
-    /**
-     *
-     * @param parseTree
-     * @return components referenced by the functional expression that is being parsed
-     */
-    //TODO: Use memoization
-    private Set<String> getReferencedComponents(ParseTree parseTree) {
-        ParseTreeWalker walker = new ParseTreeWalker();
-        ComponentListener listener = new ComponentListener();
-        walker.walk(listener, parseTree);
-        return listener.getComponentIds();
-    }
-
-
-
-    /**
-     *
-     * @return true if all referenced components in expression
-     * are valid in the Petri net
-     */
-    private boolean allComponentsInPetriNet(Set<String> components) {
-        for (String id : components) {
-            if (!petriNet.containsComponent(id)) {
-                return false;
-            }
-        }
-        return true;
-    }
-
-
     /**
      * Evaluate the expression against the given Petri net
      * @param expression to evaluate
@@ -80,17 +51,11 @@ public class PetriNetWeightParser implements FunctionalWeightParser<Double> {
             return new FunctionalResults<>(maybeDouble, new HashSet<String>());
         }
 
+        CompiledExpression compiled = petriNet.getExpressionCache().get(expression);
+        List<String> errors = new LinkedList<>(compiled.getErrors());
 
-        RateGrammarErrorListener errorListener = new RateGrammarErrorListener();
-        ParseTree parseTree = GrammarUtils.parse(expression, errorListener);
-
-        List<String> errors = new LinkedList<>();
-        if (errorListener.hasErrors()) {
-            errors.addAll(errorListener.getErrors());
-        }
-
-        Set<String> components = getReferencedComponents(parseTree);
-        if (!allComponentsInPetriNet(components)) {
+        Set<String> components = compiled.getComponents();
+        if (!compiled.allComponentsIn(petriNet)) {
             errors.add("Not all referenced components exist in the Petri net!");
         }
 
@@ -98,13 +63,13 @@ public class PetriNetWeightParser implements FunctionalWeightParser<Double> {
             return new FunctionalResults<>(-1., errors, components);
         }
 
-        Double result = evalVisitor.visit(parseTree);
+        Double result = evalVisitor.visit(compiled.getParseTree());
         if (result < 0) {
             errors.add("Expression result cannot be less than zero!");
             return new FunctionalResults<>(-1., errors, components);
         }
 
-        return new FunctionalResults<>(evalVisitor.visit(parseTree), components);
+        return new FunctionalResults<>(result, components);
     }
 
     /**
@@ -0,0 +1,63 @@
+package uk.ac.imperial.pipe.parsers;
+
+import uk.ac.imperial.pipe.exceptions.PetriNetComponentNotFoundException;
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+import uk.ac.imperial.pipe.models.petrinet.Place;
+import uk.ac.imperial.state.State;
+
+import java.util.Map;
+
+/**
+ * Reads token counts from a State so that the underlying Petri net need not be edited.
+ * This is the {@link uk.ac.imperial.pipe.parsers.ExpressionContext} equivalent of
+ * {@link uk.ac.imperial.pipe.parsers.StateEvalVisitor}
+ */
+public final class StateExpressionContext implements ExpressionContext {
+    /**
+     * Petri net
+     */
+    private final PetriNet petriNet;
+
+    /**
+     * A state of the given Petri net
+     */
+    private final State state;
+
+    /**
+     * Constructor
+     * @param petriNet
+     * @param state
+     */
+    public StateExpressionContext(PetriNet petriNet, State state) {
+        this.petriNet = petriNet;
+        this.state = state;
+    }
+
+    @Override
+    public double getTokenCount(String placeId) {
+        if (!state.containsTokens(placeId)) {
+            return 0;
+        }
+        double count = 0;
+        for (Integer value : state.getTokens(placeId).values()) {
+            count += value;
+        }
+        return count;
+    }
+
+    @Override
+    public double getTokenCount(String placeId, String tokenId) {
+        Map<String, Integer> tokens = state.getTokens(placeId);
+        Integer count = tokens == null ? null : tokens.get(tokenId);
+        return count == null ? 0 : count;
+    }
+
+    @Override
+    public double getCapacity(String placeId) {
+        try {
+            return petriNet.getComponent(placeId, Place.class).getCapacity();
+        } catch (PetriNetComponentNotFoundException ignored) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package uk.ac.imperial.pipe.simulation;
+
+import java.util.Arrays;
+
+/**
+ * Indexed binary min heap of transition firing times used by the next reaction method.
+ * <p/>
+ * Each transition number is scheduled at most once, and its time can be changed or removed
+ * in O(log n) without searching the heap.
+ */
+final class EventQueue {
+    /**
+     * Marks a transition that is not scheduled
+     */
+    private static final int ABSENT = -1;
+
+    /**
+     * Heap position -> transition number
+     */
+    private final int[] heap;
+
+    /**
+     * Transition number -> heap position, or {@link #ABSENT}
+     */
+    private final int[] position;
+
+    /**
+     * Transition number -> scheduled firing time
+     */
+    private final double[] times;
+
+    /**
+     * Number of scheduled transitions
+     */
+    private int size = 0;
+
+    /**
+     * Constructor
+     * @param transitions number of transitions that can be scheduled
+     */
+    EventQueue(int transitions) {
+        heap = new int[transitions];
+        position = new int[transitions];
+        times = new double[transitions];
+        Arrays.fill(position, ABSENT);
+    }
+
+    /**
+     * @return true if no transition is scheduled
+     */
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @param transition transition number
+     * @return true if the transition is scheduled
+     */
+    boolean contains(int transition) {
+        return position[transition] != ABSENT;
+    }
+
+    /**
+     * @param transition scheduled transition number
+     * @return time the transition is scheduled to fire
+     */
+    double getTime(int transition) {
+        return times[transition];
+    }
+
+    /**
+     * @return transition number scheduled to fire first, the queue must not be empty
+     */
+    int peek() {
+        return heap[0];
+    }
+
+    /**
+     * Schedules the transition, replacing any time it was previously scheduled for
+     *
+     * @param transition transition number
+     * @param time time the transition fires
+     */
+    void schedule(int transition, double time) {
+        int index = position[transition];
+        if (index == ABSENT) {
+            index = size++;
+            heap[index] = transition;
+            position[transition] = index;
+            times[transition] = time;
+            siftUp(index);
+        } else {
+            double previous = times[transition];
+            times[transition] = time;
+            if (time < previous) {
+                siftUp(index);
+            } else {
+                siftDown(index);
+            }
+        }
+    }
+
+    /**
+     * Removes the transition if it is scheduled
+     *
+     * @param transition transition number
+     */
+    void remove(int transition) {
+        int index = position[transition];
+        if (index == ABSENT) {
+            return;
+        }
+        position[transition] = ABSENT;
+        size--;
+        if (index == size) {
+            return;
+        }
+        int last = heap[size];
+        heap[index] = last;
+        position[last] = index;
+        siftDown(index);
+        siftUp(position[last]);
+    }
+
+    /**
+     * Removes every scheduled transition
+     */
+    void clear() {
+        for (int i = 0; i < size; i++) {
+            position[heap[i]] = ABSENT;
+        }
+        size = 0;
+    }
+
+    /**
+     * @param index heap position whose time may be smaller than its parent's
+     */
+    private void siftUp(int index) {
+        int transition = heap[index];
+        double time = times[transition];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            int other = heap[parent];
+            if (times[other] <= time) {
+                break;
+            }
+            heap[index] = other;
+            position[other] = index;
+            index = parent;
+        }
+        heap[index] = transition;
+        position[transition] = index;
+    }
+
+    /**
+     * @param index heap position whose time may be larger than its children's
+     */
+    private void siftDown(int index) {
+        int transition = heap[index];
+        double time = times[transition];
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && times[heap[child + 1]] < times[heap[child]]) {
+                child++;
+            }
+            int other = heap[child];
+            if (time <= times[other]) {
+                break;
+            }
+            heap[index] = other;
+            position[other] = index;
+            index = child;
+        }
+        heap[index] = transition;
+        position[transition] = index;
+    }
+}
@@ -0,0 +1,419 @@
+package uk.ac.imperial.pipe.simulation;
+
+import uk.ac.imperial.pipe.animation.CompiledPetriNet;
+import uk.ac.imperial.pipe.io.TraceWriter;
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Discrete event simulation of a Petri net with generalised stochastic Petri net semantics.
+ * <p/>
+ * Immediate transitions fire in zero time, the one to fire is chosen from the enabled immediate
+ * transitions of highest priority with probability proportional to their weight. Otherwise
+ * enabled timed transitions race with exponentially distributed delays given by their rate.
+ * <p/>
+ * The race is implemented with the next reaction method: each enabled timed transition holds an
+ * absolute firing time in an {@link EventQueue}. After a firing only the transitions in the
+ * compiled Petri net's dependency graph are rechecked, times of those whose rate changed are
+ * rescaled and newly enabled transitions draw a fresh delay, so a step costs O(degree log n)
+ * rather than O(n).
+ * <p/>
+ * The simulator works on its own marking and never modifies the Petri net. Instances are not
+ * thread safe but any number of simulators may share a compiled Petri net.
+ */
+public final class GspnSimulator {
+    /**
+     * Maximum number of consecutive immediate firings before the net is considered to be stuck
+     * in a cycle of vanishing markings
+     */
+    private static final int MAX_VANISHING_FIRINGS = 1 << 20;
+
+    /**
+     * Compiled Petri net being simulated
+     */
+    private final CompiledPetriNet compiled;
+
+    /**
+     * Source of randomness
+     */
+    private final SplitMixRandom random;
+
+    /**
+     * Transitions enabled in the current marking before timing and priority rules are applied
+     */
+    private final BitSet enabled;
+
+    /**
+     * Scratch set of the immediate transitions allowed to fire
+     */
+    private final BitSet firable;
+
+    /**
+     * Firing times of the enabled timed transitions
+     */
+    private final EventQueue events;
+
+    /**
+     * Rate each scheduled timed transition was scheduled with
+     */
+    private final double[] rates;
+
+    /**
+     * Integral of each marking cell over time since statistics were last reset
+     */
+    private final double[] cellIntegrals;
+
+    /**
+     * Time each cell was last integrated up to
+     */
+    private final double[] cellTimes;
+
+    /**
+     * Number of times each transition fired since statistics were last reset
+     */
+    private final long[] firingCounts;
+
+    /**
+     * Current marking
+     */
+    private int[] marking;
+
+    /**
+     * Buffer the next marking is written into
+     */
+    private int[] next;
+
+    /**
+     * Current simulated time
+     */
+    private double time;
+
+    /**
+     * Total number of firings since the last reset
+     */
+    private long firings;
+
+    /**
+     * Number of immediate transitions fired since time last advanced
+     */
+    private int vanishingFirings;
+
+    /**
+     * Records every firing if set
+     */
+    private TraceWriter traceWriter;
+
+    /**
+     * Constructor, starts from the Petri net's current marking
+     * @param petriNet Petri net to simulate
+     * @param seed seed of the random number generator
+     */
+    public GspnSimulator(PetriNet petriNet, long seed) {
+        this(new CompiledPetriNet(petriNet), new SplitMixRandom(seed));
+    }
+
+    /**
+     * Constructor, starts from the compiled Petri net's current marking
+     * @param compiled compiled Petri net to simulate
+     * @param random source of randomness, owned by this simulator from now on
+     */
+    public GspnSimulator(CompiledPetriNet compiled, SplitMixRandom random) {
+        this.compiled = compiled;
+        this.random = random;
+        enabled = new BitSet(compiled.getTransitionCount());
+        firable = new BitSet(compiled.getTransitionCount());
+        events = new EventQueue(compiled.getTransitionCount());
+        rates = new double[compiled.getTransitionCount()];
+        cellIntegrals = new double[compiled.getMarkingSize()];
+        cellTimes = new double[compiled.getMarkingSize()];
+        firingCounts = new long[compiled.getTransitionCount()];
+        reset(compiled.getCurrentMarking());
+    }
+
+    /**
+     * Restarts the simulation at time 0 from the given marking
+     *
+     * @param initial marking of the compiled Petri net, left unchanged
+     */
+    public void reset(int[] initial) {
+        marking = initial.clone();
+        next = new int[marking.length];
+        time = 0;
+        firings = 0;
+        vanishingFirings = 0;
+        enabled.clear();
+        enabled.or(compiled.enabledTransitions(marking));
+        events.clear();
+        for (int t = enabled.nextSetBit(0); t >= 0; t = enabled.nextSetBit(t + 1)) {
+            if (compiled.isTimed(t)) {
+                reschedule(t, true);
+            }
+        }
+        resetStatistics();
+    }
+
+    /**
+     * @param traceWriter timed trace started from the current marking that every firing is recorded to,
+     *                    or null to stop recording. The caller remains responsible for closing it.
+     */
+    public void setTraceWriter(TraceWriter traceWriter) {
+        this.traceWriter = traceWriter;
+    }
+
+    /**
+     * @return compiled Petri net being simulated
+     */
+    public CompiledPetriNet getCompiledPetriNet() {
+        return compiled;
+    }
+
+    /**
+     * @return current simulated time
+     */
+    public double getTime() {
+        return time;
+    }
+
+    /**
+     * @return number of firings since the last reset
+     */
+    public long getFirings() {
+        return firings;
+    }
+
+    /**
+     * @return copy of the current marking
+     */
+    public int[] getMarking() {
+        return marking.clone();
+    }
+
+    /**
+     * Fires the next transition
+     *
+     * @return transition number fired or -1 if no transition is enabled, leaving the time unchanged
+     */
+    public int step() {
+        return step(Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Fires the next transition if it fires no later than until. Otherwise time advances to until,
+     * unless until is infinite and no transition is enabled.
+     *
+     * @param until time not to advance beyond
+     * @return transition number fired or -1 if no transition fired
+     */
+    public int step(double until) {
+        if (compiled.containsImmediate(enabled)) {
+            if (++vanishingFirings > MAX_VANISHING_FIRINGS) {
+                throw new IllegalStateException(
+                        "More than " + MAX_VANISHING_FIRINGS + " immediate firings without time advancing");
+            }
+            int transition = chooseImmediate();
+            fire(transition);
+            return transition;
+        }
+        if (events.isEmpty() || events.getTime(events.peek()) > until) {
+            if (until > time && until != Double.POSITIVE_INFINITY) {
+                time = until;
+            }
+            return -1;
+        }
+        int transition = events.peek();
+        time = events.getTime(transition);
+        vanishingFirings = 0;
+        fire(transition);
+        return transition;
+    }
+
+    /**
+     * Simulates until the given time
+     *
+     * @param until time to simulate up to
+     */
+    public void advance(double until) {
+        while (step(until) >= 0) {
+            // keep firing
+        }
+    }
+
+    /**
+     * Estimates steady state place occupancy and transition throughput with the method of batch
+     * means. After a warm up period the run is split into batches of equal length, the mean of
+     * each batch is one sample of the returned statistics.
+     *
+     * @param warmUp simulated time discarded before the first batch
+     * @param batchLength simulated time of each batch
+     * @param batches number of batches, at least two for confidence intervals
+     * @return statistics whose samples are the batch means
+     */
+    public SimulationResult run(double warmUp, double batchLength, int batches) {
+        advance(time + warmUp);
+        Map<String, SampleStatistics> occupancy = new HashMap<>();
+        for (int p = 0; p < compiled.getPlaceCount(); p++) {
+            occupancy.put(compiled.getPlace(p).getId(), new SampleStatistics());
+        }
+        Map<String, SampleStatistics> throughput = new HashMap<>();
+        for (int t = 0; t < compiled.getTransitionCount(); t++) {
+            throughput.put(compiled.getTransition(t).getId(), new SampleStatistics());
+        }
+
+        long firingsBefore = firings;
+        for (int batch = 0; batch < batches; batch++) {
+            resetStatistics();
+            advance(time + batchLength);
+            integrateAll();
+            for (int p = 0; p < compiled.getPlaceCount(); p++) {
+                double integral = 0;
+                for (int k = 0; k < compiled.getTokenCount(); k++) {
+                    integral += cellIntegrals[compiled.cell(p, k)];
+                }
+                occupancy.get(compiled.getPlace(p).getId()).add(integral / batchLength);
+            }
+            for (int t = 0; t < compiled.getTransitionCount(); t++) {
+                throughput.get(compiled.getTransition(t).getId()).add(firingCounts[t] / batchLength);
+            }
+        }
+        return new SimulationResult(occupancy, throughput, batches * batchLength, firings - firingsBefore);
+    }
+
+    /**
+     * Fires the transition at the current time and updates the transitions it affects
+     *
+     * @param transition enabled transition number
+     */
+    private void fire(int transition) {
+        integrate(transition);
+        compiled.fire(transition, marking, next);
+        int[] previous = marking;
+        marking = next;
+        next = previous;
+        firings++;
+        firingCounts[transition]++;
+        if (traceWriter != null) {
+            try {
+                traceWriter.record(transition, time, marking);
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not record firing to trace", e);
+            }
+        }
+
+        boolean timed = compiled.isTimed(transition);
+        if (timed) {
+            events.remove(transition);
+        }
+        for (int i = compiled.affectedStart(transition); i < compiled.affectedEnd(transition); i++) {
+            int affected = compiled.affected(i);
+            boolean isEnabled = compiled.isEnabled(affected, marking);
+            enabled.set(affected, isEnabled);
+            if (compiled.isTimed(affected)) {
+                reschedule(affected, isEnabled);
+            }
+        }
+        if (timed && enabled.get(transition) && !events.contains(transition)) {
+            reschedule(transition, true);
+        }
+    }
+
+    /**
+     * Updates the firing time of a timed transition whose enabling or rate may have changed.
+     * Because delays are exponential a transition that stays enabled keeps its remaining delay,
+     * scaled by the ratio of its old and new rate.
+     *
+     * @param transition timed transition number
+     * @param isEnabled true if the transition is enabled in the current marking
+     */
+    private void reschedule(int transition, boolean isEnabled) {
+        double rate = isEnabled ? compiled.getRate(transition, marking) : 0;
+        if (rate <= 0) {
+            events.remove(transition);
+        } else if (events.contains(transition)) {
+            double remaining = events.getTime(transition) - time;
+            events.schedule(transition, time + remaining * rates[transition] / rate);
+        } else {
+            events.schedule(transition, time + random.nextExponential(rate));
+        }
+        rates[transition] = rate;
+    }
+
+    /**
+     * Chooses one of the enabled immediate transitions of highest priority with probability
+     * proportional to its weight, or uniformly if all their weights are zero
+     *
+     * @return transition number to fire
+     */
+    private int chooseImmediate() {
+        compiled.filterEnabled(enabled, firable);
+        double total = 0;
+        for (int t = firable.nextSetBit(0); t >= 0; t = firable.nextSetBit(t + 1)) {
+            total += compiled.getRate(t, marking);
+        }
+        if (total <= 0) {
+            int choice = (int) (random.nextDouble() * firable.cardinality());
+            int t = firable.nextSetBit(0);
+            for (int i = 0; i < choice; i++) {
+                t = firable.nextSetBit(t + 1);
+            }
+            return t;
+        }
+        double target = random.nextDouble() * total;
+        int last = -1;
+        for (int t = firable.nextSetBit(0); t >= 0; t = firable.nextSetBit(t + 1)) {
+            target -= compiled.getRate(t, marking);
+            if (target < 0) {
+                return t;
+            }
+            last = t;
+        }
+        return last;
+    }
+
+    /**
+     * Integrates the cells the transition changes up to the current time
+     *
+     * @param transition transition about to fire
+     */
+    private void integrate(int transition) {
+        for (int i = compiled.preStart(transition); i < compiled.preEnd(transition); i++) {
+            integrateCell(compiled.preCell(i));
+        }
+        for (int i = compiled.postStart(transition); i < compiled.postEnd(transition); i++) {
+            integrateCell(compiled.postCell(i));
+        }
+    }
+
+    /**
+     * Integrates every cell up to the current time
+     */
+    private void integrateAll() {
+        for (int cell = 0; cell < cellIntegrals.length; cell++) {
+            integrateCell(cell);
+        }
+    }
+
+    /**
+     * @param cell marking cell to integrate up to the current time
+     */
+    private void integrateCell(int cell) {
+        cellIntegrals[cell] += marking[cell] * (time - cellTimes[cell]);
+        cellTimes[cell] = time;
+    }
+
+    /**
+     * Starts a new statistics period at the current time
+     */
+    private void resetStatistics() {
+        for (int cell = 0; cell < cellIntegrals.length; cell++) {
+            cellIntegrals[cell] = 0;
+            cellTimes[cell] = time;
+        }
+        for (int t = 0; t < firingCounts.length; t++) {
+            firingCounts[t] = 0;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package uk.ac.imperial.pipe.simulation;
+
+/**
+ * Outcome of a {@link ReplicationRunner}
+ */
+public final class ReplicationResult {
+    /**
+     * Statistics whose samples are the replication means
+     */
+    private final SimulationResult estimates;
+
+    /**
+     * Number of replications folded into the estimates
+     */
+    private final int replications;
+
+    /**
+     * Confidence level the precision was checked at
+     */
+    private final double confidence;
+
+    /**
+     * True if every interval reached the target relative half width
+     */
+    private final boolean precise;
+
+    /**
+     * Constructor
+     * @param estimates statistics whose samples are the replication means
+     * @param replications number of replications folded into the estimates
+     * @param confidence confidence level the precision was checked at
+     * @param precise true if every interval reached the target relative half width
+     */
+    public ReplicationResult(SimulationResult estimates, int replications, double confidence, boolean precise) {
+        this.estimates = estimates;
+        this.replications = replications;
+        this.confidence = confidence;
+        this.precise = precise;
+    }
+
+    /**
+     * @return statistics whose samples are the replication means
+     */
+    public SimulationResult getEstimates() {
+        return estimates;
+    }
+
+    /**
+     * @return number of replications folded into the estimates
+     */
+    public int getReplications() {
+        return replications;
+    }
+
+    /**
+     * @return confidence level the precision was checked at
+     */
+    public double getConfidence() {
+        return confidence;
+    }
+
+    /**
+     * @return true if every interval reached the target relative half width before the maximum
+     * number of replications
+     */
+    public boolean isPrecise() {
+        return precise;
+    }
+}
@@ -0,0 +1,253 @@
+package uk.ac.imperial.pipe.simulation;
+
+import uk.ac.imperial.pipe.animation.CompiledPetriNet;
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Estimates steady state measures of a Petri net by running independent replications of a
+ * {@link GspnSimulator} in parallel.
+ * <p/>
+ * Every replication simulates the same read only {@link CompiledPetriNet} from its initial marking
+ * with its own random stream split from a single seed. The mean place occupancy and transition
+ * throughput of each replication after its warm up period is one sample of the returned statistics.
+ * Replications are launched until the confidence interval of every measure is narrower than the
+ * target relative half width, or the maximum number of replications has run.
+ * <p/>
+ * Results are folded in the order replications were started, so a run is reproducible for a
+ * given seed regardless of the number of threads.
+ */
+public final class ReplicationRunner {
+    /**
+     * Compiled Petri net shared by all replications
+     */
+    private final CompiledPetriNet compiled;
+
+    /**
+     * Number of replications run at once
+     */
+    private final int parallelism;
+
+    /**
+     * Seed the random stream of every replication is split from
+     */
+    private long seed = 0;
+
+    /**
+     * Simulated time discarded at the start of each replication
+     */
+    private double warmUp = 0;
+
+    /**
+     * Simulated time measured in each replication
+     */
+    private double runLength = 1000;
+
+    /**
+     * Confidence level of the intervals
+     */
+    private double confidence = 0.95;
+
+    /**
+     * Relative half width every interval must reach before stopping
+     */
+    private double targetRelativeHalfWidth = 0.05;
+
+    /**
+     * Replications run before checking the stopping rule
+     */
+    private int minimumReplications = 10;
+
+    /**
+     * Replications after which the runner stops regardless of precision
+     */
+    private int maximumReplications = 10000;
+
+    /**
+     * Constructor, runs one replication per available processor
+     * @param petriNet Petri net to simulate from its current marking
+     */
+    public ReplicationRunner(PetriNet petriNet) {
+        this(new CompiledPetriNet(petriNet), Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructor
+     * @param compiled compiled Petri net to simulate from its current marking
+     * @param parallelism number of replications run at once
+     */
+    public ReplicationRunner(CompiledPetriNet compiled, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least one: " + parallelism);
+        }
+        this.compiled = compiled;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * @param seed seed the random stream of every replication is split from
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * @param warmUp simulated time discarded at the start of each replication
+     */
+    public void setWarmUp(double warmUp) {
+        this.warmUp = warmUp;
+    }
+
+    /**
+     * @param runLength simulated time measured in each replication
+     */
+    public void setRunLength(double runLength) {
+        if (runLength <= 0) {
+            throw new IllegalArgumentException("Run length must be positive: " + runLength);
+        }
+        this.runLength = runLength;
+    }
+
+    /**
+     * @param confidence confidence level of the intervals, e.g. 0.95
+     */
+    public void setConfidence(double confidence) {
+        this.confidence = confidence;
+    }
+
+    /**
+     * @param targetRelativeHalfWidth relative half width every interval must reach before stopping
+     */
+    public void setTargetRelativeHalfWidth(double targetRelativeHalfWidth) {
+        this.targetRelativeHalfWidth = targetRelativeHalfWidth;
+    }
+
+    /**
+     * @param minimumReplications replications run before checking the stopping rule, at least two
+     * @param maximumReplications replications after which the runner stops regardless of precision
+     */
+    public void setReplications(int minimumReplications, int maximumReplications) {
+        if (minimumReplications < 2 || maximumReplications < minimumReplications) {
+            throw new IllegalArgumentException(
+                    "Invalid replication bounds: " + minimumReplications + ", " + maximumReplications);
+        }
+        this.minimumReplications = minimumReplications;
+        this.maximumReplications = maximumReplications;
+    }
+
+    /**
+     * Runs replications until the target precision or maximum number of replications is reached
+     *
+     * @return statistics whose samples are the replication means
+     */
+    public ReplicationResult run() {
+        Map<String, SampleStatistics> occupancy = new HashMap<>();
+        for (int p = 0; p < compiled.getPlaceCount(); p++) {
+            occupancy.put(compiled.getPlace(p).getId(), new SampleStatistics());
+        }
+        Map<String, SampleStatistics> throughput = new HashMap<>();
+        for (int t = 0; t < compiled.getTransitionCount(); t++) {
+            throughput.put(compiled.getTransition(t).getId(), new SampleStatistics());
+        }
+
+        SplitMixRandom random = new SplitMixRandom(seed);
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism, new DaemonThreadFactory());
+        Deque<Future<SimulationResult>> running = new ArrayDeque<>();
+        int started = 0;
+        int completed = 0;
+        long firings = 0;
+        boolean precise = false;
+        try {
+            while (completed < maximumReplications && !precise) {
+                while (started < maximumReplications && running.size() < 2 * parallelism) {
+                    running.addLast(executor.submit(new Replication(random.split())));
+                    started++;
+                }
+                SimulationResult result = running.removeFirst().get();
+                completed++;
+                firings += result.getFirings();
+                addMeans(result.getPlaceOccupancy(), occupancy);
+                addMeans(result.getThroughput(), throughput);
+                precise = completed >= minimumReplications && isPrecise(occupancy) && isPrecise(throughput);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Replication failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        SimulationResult estimates = new SimulationResult(occupancy, throughput, completed * runLength, firings);
+        return new ReplicationResult(estimates, completed, confidence, precise);
+    }
+
+    /**
+     * @param means id -> statistics whose mean is the replications result
+     * @param samples id -> statistics to add the replications result to
+     */
+    private static void addMeans(Map<String, SampleStatistics> means, Map<String, SampleStatistics> samples) {
+        for (Map.Entry<String, SampleStatistics> entry : means.entrySet()) {
+            samples.get(entry.getKey()).add(entry.getValue().getMean());
+        }
+    }
+
+    /**
+     * @param samples id -> statistics of the replication means
+     * @return true if every confidence interval has reached the target relative half width
+     */
+    private boolean isPrecise(Map<String, SampleStatistics> samples) {
+        for (SampleStatistics statistics : samples.values()) {
+            if (!(statistics.getRelativeHalfWidth(confidence) <= targetRelativeHalfWidth)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A single replication from the initial marking
+     */
+    private final class Replication implements Callable<SimulationResult> {
+        /**
+         * Random stream owned by this replication
+         */
+        private final SplitMixRandom random;
+
+        /**
+         * Constructor
+         * @param random random stream owned by this replication
+         */
+        Replication(SplitMixRandom random) {
+            this.random = random;
+        }
+
+        @Override
+        public SimulationResult call() {
+            GspnSimulator simulator = new GspnSimulator(compiled, random);
+            return simulator.run(warmUp, runLength, 1);
+        }
+    }
+
+    /**
+     * Creates daemon threads so an abandoned run does not keep the JVM alive
+     */
+    private static final class DaemonThreadFactory implements ThreadFactory {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "pipe-replication");
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
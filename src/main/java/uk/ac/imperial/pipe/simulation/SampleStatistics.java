@@ -0,0 +1,90 @@
+package uk.ac.imperial.pipe.simulation;
+
+/**
+ * Running mean and variance of independent samples, such as batch means of a single
+ * simulation run or the results of independent replications, with Student t confidence intervals.
+ * <p/>
+ * Uses Welford's algorithm so it is numerically stable for long runs. Instances are not thread safe.
+ */
+public final class SampleStatistics {
+    /**
+     * Number of samples
+     */
+    private long count = 0;
+
+    /**
+     * Mean of the samples
+     */
+    private double mean = 0;
+
+    /**
+     * Sum of squared differences from the mean
+     */
+    private double squares = 0;
+
+    /**
+     * @param sample value to add
+     */
+    public void add(double sample) {
+        count++;
+        double delta = sample - mean;
+        mean += delta / count;
+        squares += delta * (sample - mean);
+    }
+
+    /**
+     * @return number of samples
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return mean of the samples, 0 if there are none
+     */
+    public double getMean() {
+        return mean;
+    }
+
+    /**
+     * @return unbiased sample variance, NaN if there are fewer than two samples
+     */
+    public double getVariance() {
+        return count < 2 ? Double.NaN : squares / (count - 1);
+    }
+
+    /**
+     * @return standard error of the mean, NaN if there are fewer than two samples
+     */
+    public double getStandardError() {
+        return Math.sqrt(getVariance() / count);
+    }
+
+    /**
+     * @param confidence confidence level in (0, 1), e.g. 0.95
+     * @return half width of the confidence interval around the mean, NaN if there are fewer than two samples
+     */
+    public double getHalfWidth(double confidence) {
+        if (count < 2) {
+            return Double.NaN;
+        }
+        return StudentT.quantile((1 + confidence) / 2, count - 1) * getStandardError();
+    }
+
+    /**
+     * @param confidence confidence level in (0, 1), e.g. 0.95
+     * @return half width of the confidence interval relative to the mean, infinite if the mean is 0
+     */
+    public double getRelativeHalfWidth(double confidence) {
+        double halfWidth = getHalfWidth(confidence);
+        if (halfWidth == 0) {
+            return 0;
+        }
+        return mean == 0 ? Double.POSITIVE_INFINITY : halfWidth / Math.abs(mean);
+    }
+
+    @Override
+    public String toString() {
+        return "SampleStatistics{count=" + count + ", mean=" + mean + ", variance=" + getVariance() + "}";
+    }
+}
@@ -0,0 +1,88 @@
+package uk.ac.imperial.pipe.simulation;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Steady state estimates produced by a simulation
+ */
+public final class SimulationResult {
+    /**
+     * Place id -> mean number of tokens of every colour in the place
+     */
+    private final Map<String, SampleStatistics> placeOccupancy;
+
+    /**
+     * Transition id -> mean number of firings per unit of time
+     */
+    private final Map<String, SampleStatistics> throughput;
+
+    /**
+     * Simulated time the estimates are based on, excluding warm up
+     */
+    private final double time;
+
+    /**
+     * Number of firings the estimates are based on, excluding warm up
+     */
+    private final long firings;
+
+    /**
+     * Constructor
+     * @param placeOccupancy place id -> mean number of tokens of every colour in the place
+     * @param throughput transition id -> mean number of firings per unit of time
+     * @param time simulated time the estimates are based on
+     * @param firings number of firings the estimates are based on
+     */
+    public SimulationResult(Map<String, SampleStatistics> placeOccupancy, Map<String, SampleStatistics> throughput,
+                            double time, long firings) {
+        this.placeOccupancy = Collections.unmodifiableMap(placeOccupancy);
+        this.throughput = Collections.unmodifiableMap(throughput);
+        this.time = time;
+        this.firings = firings;
+    }
+
+    /**
+     * @return place id -> mean number of tokens of every colour in the place
+     */
+    public Map<String, SampleStatistics> getPlaceOccupancy() {
+        return placeOccupancy;
+    }
+
+    /**
+     * @param placeId id of the place
+     * @return mean number of tokens of every colour in the place, null if the place was not simulated
+     */
+    public SampleStatistics getPlaceOccupancy(String placeId) {
+        return placeOccupancy.get(placeId);
+    }
+
+    /**
+     * @return transition id -> mean number of firings per unit of time
+     */
+    public Map<String, SampleStatistics> getThroughput() {
+        return throughput;
+    }
+
+    /**
+     * @param transitionId id of the transition
+     * @return mean number of firings per unit of time, null if the transition was not simulated
+     */
+    public SampleStatistics getThroughput(String transitionId) {
+        return throughput.get(transitionId);
+    }
+
+    /**
+     * @return simulated time the estimates are based on, excluding warm up
+     */
+    public double getTime() {
+        return time;
+    }
+
+    /**
+     * @return number of firings the estimates are based on, excluding warm up
+     */
+    public long getFirings() {
+        return firings;
+    }
+}
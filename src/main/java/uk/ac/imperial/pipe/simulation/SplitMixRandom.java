@@ -0,0 +1,107 @@
+package uk.ac.imperial.pipe.simulation;
+
+/**
+ * Seedable pseudo random number generator using the SplitMix64 algorithm.
+ * <p/>
+ * {@link #split()} creates a new generator whose stream is statistically independent of this one,
+ * so that each thread or replication can be given its own generator from a single seed and
+ * results are reproducible regardless of scheduling. Instances are not thread safe.
+ */
+public final class SplitMixRandom {
+    /**
+     * Odd constant derived from the golden ratio, used as the default increment
+     */
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    /**
+     * Scales the top 53 bits of a long to a double in [0, 1)
+     */
+    private static final double DOUBLE_UNIT = 0x1.0p-53;
+
+    /**
+     * Current position in the stream
+     */
+    private long seed;
+
+    /**
+     * Odd increment identifying the stream
+     */
+    private final long gamma;
+
+    /**
+     * Constructor
+     * @param seed initial seed, equal seeds produce equal streams
+     */
+    public SplitMixRandom(long seed) {
+        this(seed, GOLDEN_GAMMA);
+    }
+
+    /**
+     * Constructor
+     * @param seed initial seed
+     * @param gamma odd increment identifying the stream
+     */
+    private SplitMixRandom(long seed, long gamma) {
+        this.seed = seed;
+        this.gamma = gamma;
+    }
+
+    /**
+     * @return a new generator whose stream is independent of this one, advancing this generator
+     */
+    public SplitMixRandom split() {
+        return new SplitMixRandom(nextLong(), mixGamma(nextSeed()));
+    }
+
+    /**
+     * @return next uniformly distributed long
+     */
+    public long nextLong() {
+        return mix64(nextSeed());
+    }
+
+    /**
+     * @return next uniformly distributed double in [0, 1)
+     */
+    public double nextDouble() {
+        return (nextLong() >>> 11) * DOUBLE_UNIT;
+    }
+
+    /**
+     * @param rate rate of the exponential distribution, must be positive
+     * @return next exponentially distributed double with the given rate
+     */
+    public double nextExponential(double rate) {
+        return -Math.log(1.0 - nextDouble()) / rate;
+    }
+
+    /**
+     * @return the seed advanced by gamma
+     */
+    private long nextSeed() {
+        seed += gamma;
+        return seed;
+    }
+
+    /**
+     * @param z value to mix
+     * @return well distributed bits of z
+     */
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * @param z value to mix
+     * @return odd increment with enough bit transitions to give a good stream
+     */
+    private static long mixGamma(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        z = (z ^ (z >>> 33)) | 1L;
+        int transitions = Long.bitCount(z ^ (z >>> 1));
+        return transitions < 24 ? z ^ 0xaaaaaaaaaaaaaaaaL : z;
+    }
+}
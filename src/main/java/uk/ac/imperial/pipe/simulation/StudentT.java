@@ -0,0 +1,95 @@
+package uk.ac.imperial.pipe.simulation;
+
+/**
+ * Quantiles of the Student t distribution used to build confidence intervals
+ */
+final class StudentT {
+    /**
+     * Numerator coefficients of the central region of the normal quantile
+     */
+    private static final double[] A = {-3.969683028665376e+01, 2.209460984245205e+02, -2.759285104469687e+02,
+            1.383577518672690e+02, -3.066479806614716e+01, 2.506628277459239e+00};
+
+    /**
+     * Denominator coefficients of the central region of the normal quantile
+     */
+    private static final double[] B = {-5.447609879822406e+01, 1.615858368580409e+02, -1.556989798598866e+02,
+            6.680131188771972e+01, -1.328068155288572e+01};
+
+    /**
+     * Numerator coefficients of the tails of the normal quantile
+     */
+    private static final double[] C = {-7.784894002430293e-03, -3.223964580411365e-01, -2.400758277161838e+00,
+            -2.549732539343734e+00, 4.374664141464968e+00, 2.938163982698783e+00};
+
+    /**
+     * Denominator coefficients of the tails of the normal quantile
+     */
+    private static final double[] D = {7.784695709041462e-03, 3.224671290700398e-01, 2.445134137142996e+00,
+            3.754408661907416e+00};
+
+    /**
+     * Boundary between the tails and central region of the normal quantile
+     */
+    private static final double LOW = 0.02425;
+
+    /**
+     * Private utility constructor
+     */
+    private StudentT() {}
+
+    /**
+     * Exact for one and two degrees of freedom, otherwise a Cornish-Fisher expansion of the
+     * normal quantile which is accurate to three decimal places from three degrees of freedom
+     *
+     * @param p probability in (0, 1)
+     * @param degreesOfFreedom degrees of freedom, at least one
+     * @return value t such that P(T <= t) = p
+     */
+    static double quantile(double p, long degreesOfFreedom) {
+        if (degreesOfFreedom == 1) {
+            return Math.tan(Math.PI * (p - 0.5));
+        }
+        if (degreesOfFreedom == 2) {
+            return (2 * p - 1) / Math.sqrt(2 * p * (1 - p));
+        }
+        double z = normalQuantile(p);
+        double v = degreesOfFreedom;
+        double z2 = z * z;
+        double z3 = z2 * z;
+        double z5 = z3 * z2;
+        double z7 = z5 * z2;
+        double z9 = z7 * z2;
+        return z + (z3 + z) / (4 * v) + (5 * z5 + 16 * z3 + 3 * z) / (96 * v * v)
+                + (3 * z7 + 19 * z5 + 17 * z3 - 15 * z) / (384 * v * v * v)
+                + (79 * z9 + 776 * z7 + 1482 * z5 - 1920 * z3 - 945 * z) / (92160 * v * v * v * v);
+    }
+
+    /**
+     * Rational approximation of the standard normal quantile with relative error below 1.2e-9
+     *
+     * @param p probability in (0, 1)
+     * @return value z such that P(Z <= z) = p
+     */
+    static double normalQuantile(double p) {
+        if (p < LOW) {
+            return tail(Math.sqrt(-2 * Math.log(p)));
+        }
+        if (p > 1 - LOW) {
+            return -tail(Math.sqrt(-2 * Math.log(1 - p)));
+        }
+        double q = p - 0.5;
+        double r = q * q;
+        return (((((A[0] * r + A[1]) * r + A[2]) * r + A[3]) * r + A[4]) * r + A[5]) * q
+                / (((((B[0] * r + B[1]) * r + B[2]) * r + B[3]) * r + B[4]) * r + 1);
+    }
+
+    /**
+     * @param q sqrt(-2 log p) of the tail probability p
+     * @return lower tail normal quantile
+     */
+    private static double tail(double q) {
+        return (((((C[0] * q + C[1]) * q + C[2]) * q + C[3]) * q + C[4]) * q + C[5])
+                / ((((D[0] * q + D[1]) * q + D[2]) * q + D[3]) * q + 1);
+    }
+}
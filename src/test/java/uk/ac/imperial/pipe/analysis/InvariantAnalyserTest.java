@@ -0,0 +1,126 @@
+package uk.ac.imperial.pipe.analysis;
+
+import org.junit.Test;
+import uk.ac.imperial.pipe.animation.CompiledPetriNet;
+import uk.ac.imperial.pipe.dsl.*;
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+
+import java.awt.Color;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class InvariantAnalyserTest {
+
+    /**
+     * @return Petri net where T0 takes two tokens from P0 into one in P1 and T1 turns it back into two
+     */
+    private static PetriNet weightedCycle() {
+        return APetriNet.with(AToken.called("Default").withColor(Color.BLACK)).and(
+                APlace.withId("P0").containing(4, "Default").tokens()).and(APlace.withId("P1")).and(
+                AnImmediateTransition.withId("T0")).and(AnImmediateTransition.withId("T1")).and(
+                ANormalArc.withSource("P0").andTarget("T0").with("2", "Default").tokens()).and(
+                ANormalArc.withSource("T0").andTarget("P1").with("1", "Default").token()).and(
+                ANormalArc.withSource("P1").andTarget("T1").with("1", "Default").token()).andFinally(
+                ANormalArc.withSource("T1").andTarget("P0").with("2", "Default").tokens());
+    }
+
+    /**
+     * @return mutual exclusion of two processes: Ai -> Ti -> Bi -> Ui -> Ai, Ti taking and Ui returning the lock L, and an isolated place Z
+     */
+    private static PetriNet mutex() {
+        APetriNet builder = APetriNet.with(AToken.called("Default").withColor(Color.BLACK)).and(
+                APlace.withId("L").containing(1, "Default").token());
+        for (int i = 0; i < 2; i++) {
+            builder = builder.and(APlace.withId("A" + i).containing(1, "Default").token()).and(
+                    APlace.withId("B" + i)).and(AnImmediateTransition.withId("T" + i)).and(
+                    AnImmediateTransition.withId("U" + i)).and(
+                    ANormalArc.withSource("A" + i).andTarget("T" + i).with("1", "Default").token()).and(
+                    ANormalArc.withSource("L").andTarget("T" + i).with("1", "Default").token()).and(
+                    ANormalArc.withSource("T" + i).andTarget("B" + i).with("1", "Default").token()).and(
+                    ANormalArc.withSource("B" + i).andTarget("U" + i).with("1", "Default").token()).and(
+                    ANormalArc.withSource("U" + i).andTarget("A" + i).with("1", "Default").token()).and(
+                    ANormalArc.withSource("U" + i).andTarget("L").with("1", "Default").token());
+        }
+        return builder.andFinally(APlace.withId("Z"));
+    }
+
+    @Test
+    public void buildsSparseIncidenceMatrix() {
+        IncidenceMatrix matrix = new IncidenceMatrix(weightedCycle());
+        CompiledPetriNet compiled = matrix.getCompiledPetriNet();
+        int p0 = compiled.cell(compiled.getPlaceIndex("P0"), 0);
+        int t0 = compiled.getTransitionIndex(compiled.getTransition(0));
+
+        assertEquals(2, matrix.getRowCount());
+        assertEquals(2, matrix.getColumnCount());
+        assertEquals(4, matrix.getEntryCount());
+        assertEquals("T0", compiled.getTransition(t0).getId());
+        assertEquals(-2, matrix.get(p0, t0));
+        assertEquals(2, matrix.rowEnd(p0) - matrix.rowStart(p0));
+        assertFalse(matrix.hasFunctionalEntries());
+    }
+
+    @Test
+    public void findsWeightedPlaceInvariant() {
+        IncidenceMatrix matrix = new IncidenceMatrix(weightedCycle());
+        CompiledPetriNet compiled = matrix.getCompiledPetriNet();
+        InvariantAnalyser analyser = new InvariantAnalyser(matrix);
+
+        List<Invariant> invariants = analyser.getPlaceInvariants();
+        assertEquals(1, invariants.size());
+        assertEquals(1, invariants.get(0).get(compiled.cell(compiled.getPlaceIndex("P0"), 0)));
+        assertEquals(2, invariants.get(0).get(compiled.cell(compiled.getPlaceIndex("P1"), 0)));
+        assertTrue(analyser.isCoveredByPlaceInvariants());
+        assertTrue(Arrays.equals(new int[]{4, 2}, analyser.getCellBounds(compiled.getCurrentMarking())));
+    }
+
+    @Test
+    public void findsTransitionInvariant() {
+        InvariantAnalyser analyser = new InvariantAnalyser(new IncidenceMatrix(weightedCycle()));
+
+        List<Invariant> invariants = analyser.getTransitionInvariants();
+        assertEquals(1, invariants.size());
+        assertEquals(new Invariant(new int[]{0, 1}, new int[]{1, 1}), invariants.get(0));
+        assertTrue(analyser.isCoveredByTransitionInvariants());
+    }
+
+    @Test
+    public void findsEveryMinimalInvariantOfMutex() {
+        IncidenceMatrix matrix = new IncidenceMatrix(mutex());
+        CompiledPetriNet compiled = matrix.getCompiledPetriNet();
+        InvariantAnalyser analyser = new InvariantAnalyser(matrix);
+
+        assertEquals(4, analyser.getPlaceInvariants().size());
+        assertEquals(2, analyser.getTransitionInvariants().size());
+        int z = compiled.cell(compiled.getPlaceIndex("Z"), 0);
+        int[] bounds = analyser.getCellBounds(compiled.getCurrentMarking());
+        for (int cell = 0; cell < bounds.length; cell++) {
+            assertEquals(cell == z ? 0 : 1, bounds[cell]);
+        }
+    }
+
+    @Test
+    public void leavesFunctionalCellsOutOfPlaceInvariants() {
+        PetriNet petriNet = APetriNet.with(AToken.called("Default").withColor(Color.BLACK)).and(
+                APlace.withId("P0").containing(1, "Default").token()).and(APlace.withId("P1")).and(
+                AnImmediateTransition.withId("T0")).and(AnImmediateTransition.withId("T1")).and(
+                ANormalArc.withSource("P0").andTarget("T0").with("#(P0)", "Default").tokens()).and(
+                ANormalArc.withSource("T0").andTarget("P1").with("1", "Default").token()).and(
+                ANormalArc.withSource("P1").andTarget("T1").with("1", "Default").token()).andFinally(
+                ANormalArc.withSource("T1").andTarget("P0").with("1", "Default").token());
+        IncidenceMatrix matrix = new IncidenceMatrix(petriNet);
+        CompiledPetriNet compiled = matrix.getCompiledPetriNet();
+        int p0 = compiled.cell(compiled.getPlaceIndex("P0"), 0);
+
+        assertTrue(matrix.hasFunctionalEntries());
+        assertTrue(matrix.isFunctionalRow(p0));
+        InvariantAnalyser analyser = new InvariantAnalyser(matrix);
+        assertTrue(analyser.getPlaceInvariants().isEmpty());
+        assertFalse(analyser.isCoveredByPlaceInvariants());
+        assertTrue(analyser.getTransitionInvariants().isEmpty());
+    }
+}
@@ -0,0 +1,91 @@
+package uk.ac.imperial.pipe.analysis;
+
+import org.junit.Test;
+import uk.ac.imperial.pipe.dsl.*;
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+
+import java.awt.Color;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SiphonTrapAnalyserTest {
+
+    /**
+     * @return mutual exclusion of two processes: Ai -> Ti -> Bi -> Ui -> Ai, Ti taking and Ui returning the lock L
+     */
+    private static PetriNet mutex() {
+        APetriNet builder = APetriNet.with(AToken.called("Default").withColor(Color.BLACK)).and(
+                APlace.withId("L").containing(1, "Default").token());
+        for (int i = 0; i < 2; i++) {
+            builder = builder.and(APlace.withId("A" + i).containing(1, "Default").token()).and(
+                    APlace.withId("B" + i)).and(AnImmediateTransition.withId("T" + i)).and(
+                    AnImmediateTransition.withId("U" + i)).and(
+                    ANormalArc.withSource("A" + i).andTarget("T" + i).with("1", "Default").token()).and(
+                    ANormalArc.withSource("L").andTarget("T" + i).with("1", "Default").token()).and(
+                    ANormalArc.withSource("T" + i).andTarget("B" + i).with("1", "Default").token()).and(
+                    ANormalArc.withSource("B" + i).andTarget("U" + i).with("1", "Default").token()).and(
+                    ANormalArc.withSource("U" + i).andTarget("A" + i).with("1", "Default").token());
+        }
+        return builder.and(ANormalArc.withSource("U0").andTarget("L").with("1", "Default").token()).andFinally(
+                ANormalArc.withSource("U1").andTarget("L").with("1", "Default").token());
+    }
+
+    @Test
+    public void mutexIsDeadlockFree() {
+        DeadlockCheckResult result = new SiphonTrapAnalyser(mutex()).check();
+
+        assertEquals(DeadlockCheckResult.Verdict.DEADLOCK_FREE, result.getVerdict());
+        assertTrue(result.isDeadlockFree());
+        assertTrue(result.getWitness().isEmpty());
+    }
+
+    @Test
+    public void enumeratesMinimalSiphons() {
+        List<Set<String>> siphons = new SiphonTrapAnalyser(mutex()).getMinimalSiphons();
+
+        assertEquals(new HashSet<>(Arrays.asList(new HashSet<>(Arrays.asList("A0", "B0")),
+                new HashSet<>(Arrays.asList("A1", "B1")), new HashSet<>(Arrays.asList("L", "B0", "B1")))),
+                new HashSet<>(siphons));
+    }
+
+    @Test
+    public void reportsSiphonThatEmpties() {
+        PetriNet petriNet = APetriNet.with(AToken.called("Default").withColor(Color.BLACK)).and(
+                APlace.withId("P0").containing(1, "Default").token()).and(APlace.withId("P1")).and(
+                AnImmediateTransition.withId("T0")).and(
+                ANormalArc.withSource("P0").andTarget("T0").with("1", "Default").token()).andFinally(
+                ANormalArc.withSource("T0").andTarget("P1").with("1", "Default").token());
+
+        DeadlockCheckResult result = new SiphonTrapAnalyser(petriNet).check();
+
+        assertEquals(DeadlockCheckResult.Verdict.INCONCLUSIVE, result.getVerdict());
+        assertEquals(Collections.singleton("P0"), result.getWitness());
+    }
+
+    @Test
+    public void sourceTransitionIsNeverDead() {
+        PetriNet petriNet = APetriNet.with(AToken.called("Default").withColor(Color.BLACK)).and(
+                APlace.withId("P0")).and(AnImmediateTransition.withId("T0")).andFinally(
+                ANormalArc.withSource("T0").andTarget("P0").with("1", "Default").token());
+
+        assertTrue(new SiphonTrapAnalyser(petriNet).check().isDeadlockFree());
+    }
+
+    @Test
+    public void inhibitorArcsAreNotOrdinary() {
+        PetriNet petriNet = APetriNet.with(AToken.called("Default").withColor(Color.BLACK)).and(
+                APlace.withId("P0")).and(AnImmediateTransition.withId("T0")).andFinally(
+                AnInhibitorArc.withSource("P0").andTarget("T0"));
+
+        SiphonTrapAnalyser analyser = new SiphonTrapAnalyser(petriNet);
+        assertFalse(analyser.isOrdinary());
+        assertEquals(DeadlockCheckResult.Verdict.NOT_APPLICABLE, analyser.check().getVerdict());
+    }
+}
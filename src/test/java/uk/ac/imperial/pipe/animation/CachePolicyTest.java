@@ -0,0 +1,76 @@
+package uk.ac.imperial.pipe.animation;
+
+import com.google.common.cache.CacheStats;
+import org.junit.Before;
+import org.junit.Test;
+import uk.ac.imperial.pipe.dsl.*;
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+import uk.ac.imperial.state.State;
+
+import java.awt.Color;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CachePolicyTest {
+
+    private PetriNet petriNet;
+
+    @Before
+    public void setUp() {
+        petriNet = APetriNet.with(AToken.called("Default").withColor(Color.BLACK)).and(
+                APlace.withId("P0").containing(2, "Default").tokens()).and(AnImmediateTransition.withId("T0")).andFinally(
+                ANormalArc.withSource("P0").andTarget("T0").with("1", "Default").token());
+    }
+
+    @Test
+    public void unboundedCacheRecordsHitsAndMisses() {
+        PetriNetAnimationLogic logic = new PetriNetAnimationLogic(petriNet);
+        State state = AnimationUtils.getState(petriNet);
+        logic.getEnabledTransitions(state);
+        logic.getEnabledTransitions(state);
+
+        CacheStats stats = logic.getCacheStats();
+        assertEquals(1, stats.hitCount());
+        assertEquals(1, stats.missCount());
+        assertEquals(1, logic.getCacheSize());
+    }
+
+    @Test
+    public void boundedCacheEvicts() {
+        PetriNetAnimationLogic logic = new PetriNetAnimationLogic(petriNet, CachePolicy.maximumSize(1));
+        CompiledPetriNet compiled = logic.getCompiledPetriNet();
+        logic.getEnabledTransitions(new Marking(compiled, new int[]{2}));
+        logic.getEnabledTransitions(new Marking(compiled, new int[]{1}));
+
+        assertEquals(1, logic.getCacheSize());
+        assertEquals(1, logic.getCacheStats().evictionCount());
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void publicMapViewsCache() {
+        PetriNetAnimationLogic logic = new PetriNetAnimationLogic(petriNet, CachePolicy.maximumSize(1));
+        CompiledPetriNet compiled = logic.getCompiledPetriNet();
+        Marking first = new Marking(compiled, new int[]{2});
+        Marking second = new Marking(compiled, new int[]{1});
+        logic.getEnabledTransitions(first);
+        assertEquals(logic.getEnabledTransitions(first), logic.cachedEnabledTransitions.get(first));
+
+        logic.getEnabledTransitions(second);
+        assertEquals(1, logic.cachedEnabledTransitions.size());
+        assertTrue(logic.cachedEnabledTransitions.containsKey(second));
+    }
+
+    @Test
+    public void disabledCacheAlwaysRecomputes() {
+        PetriNetAnimationLogic logic = new PetriNetAnimationLogic(petriNet, CachePolicy.disabled());
+        State state = AnimationUtils.getState(petriNet);
+        assertEquals(1, logic.getEnabledTransitions(state).size());
+        assertEquals(1, logic.getEnabledTransitions(state).size());
+
+        assertEquals(0, logic.getCacheStats().hitCount());
+        assertEquals(2, logic.getCacheStats().missCount());
+        assertEquals(0, logic.getCacheSize());
+    }
+}
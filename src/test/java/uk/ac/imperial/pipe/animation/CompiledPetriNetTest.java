@@ -0,0 +1,160 @@
+package uk.ac.imperial.pipe.animation;
+
+import org.junit.Test;
+import uk.ac.imperial.pipe.dsl.*;
+import uk.ac.imperial.pipe.exceptions.PetriNetComponentNotFoundException;
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+import uk.ac.imperial.pipe.models.petrinet.Transition;
+
+import java.awt.Color;
+import java.util.BitSet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CompiledPetriNetTest {
+
+    @Test
+    public void numbersComponentsById() {
+        PetriNet petriNet = APetriNet.with(AToken.called("Red").withColor(Color.RED)).and(
+                AToken.called("Default").withColor(Color.BLACK)).and(APlace.withId("P1")).and(
+                APlace.withId("P0")).andFinally(AnImmediateTransition.withId("T0"));
+        CompiledPetriNet compiled = new CompiledPetriNet(petriNet);
+
+        assertEquals(0, compiled.getPlaceIndex("P0"));
+        assertEquals(1, compiled.getPlaceIndex("P1"));
+        assertEquals(0, compiled.getTokenIndex("Default"));
+        assertEquals(1, compiled.getTokenIndex("Red"));
+        assertEquals(-1, compiled.getPlaceIndex("P2"));
+        assertEquals(4, compiled.getMarkingSize());
+    }
+
+    @Test
+    public void resolvesConstantWeights() throws PetriNetComponentNotFoundException {
+        PetriNet petriNet = APetriNet.with(AToken.called("Default").withColor(Color.BLACK)).and(
+                APlace.withId("P0").containing(2, "Default").tokens()).and(APlace.withId("P1")).and(
+                AnImmediateTransition.withId("T0")).and(
+                ANormalArc.withSource("P0").andTarget("T0").with("2", "Default").tokens()).andFinally(
+                ANormalArc.withSource("T0").andTarget("P1").with("#(P0)", "Default").tokens());
+        CompiledPetriNet compiled = new CompiledPetriNet(petriNet);
+        int t0 = compiled.getTransitionIndex(petriNet.getComponent("T0", Transition.class));
+
+        assertEquals(1, compiled.preEnd(t0) - compiled.preStart(t0));
+        assertEquals(2, compiled.preWeight(compiled.preStart(t0)));
+        assertEquals(CompiledPetriNet.FUNCTIONAL_WEIGHT, compiled.postWeight(compiled.postStart(t0)));
+        assertTrue(compiled.hasFunctionalWeights());
+    }
+
+    @Test
+    public void firesAgainstMarkingBeforeFiring() throws PetriNetComponentNotFoundException {
+        PetriNet petriNet = APetriNet.with(AToken.called("Default").withColor(Color.BLACK)).and(
+                APlace.withId("P0").containing(3, "Default").tokens()).and(APlace.withId("P1")).and(
+                AnImmediateTransition.withId("T0")).and(
+                ANormalArc.withSource("P0").andTarget("T0").with("1", "Default").token()).andFinally(
+                ANormalArc.withSource("T0").andTarget("P1").with("#(P0)", "Default").tokens());
+        CompiledPetriNet compiled = new CompiledPetriNet(petriNet);
+        int t0 = compiled.getTransitionIndex(petriNet.getComponent("T0", Transition.class));
+
+        int[] marking = compiled.getCurrentMarking();
+        assertTrue(compiled.isEnabled(t0, marking));
+        assertArrayEquals(new int[]{2, 3}, compiled.fire(t0, marking));
+        assertArrayEquals(new int[]{3, 0}, marking);
+    }
+
+    @Test
+    public void inhibitorArcDisablesTransition() throws PetriNetComponentNotFoundException {
+        PetriNet petriNet = APetriNet.with(AToken.called("Default").withColor(Color.BLACK)).and(
+                APlace.withId("P0").containing(1, "Default").token()).and(
+                AnImmediateTransition.withId("T0")).andFinally(
+                AnInhibitorArc.withSource("P0").andTarget("T0"));
+        CompiledPetriNet compiled = new CompiledPetriNet(petriNet);
+        int t0 = compiled.getTransitionIndex(petriNet.getComponent("T0", Transition.class));
+
+        assertFalse(compiled.isEnabled(t0, new int[]{1}));
+        assertTrue(compiled.isEnabled(t0, new int[]{0}));
+    }
+
+    @Test
+    public void capacityDisablesTransition() throws PetriNetComponentNotFoundException {
+        PetriNet petriNet = APetriNet.with(AToken.called("Default").withColor(Color.BLACK)).and(
+                APlace.withId("P0").andCapacity(2)).and(AnImmediateTransition.withId("T0")).andFinally(
+                ANormalArc.withSource("T0").andTarget("P0").with("2", "Default").tokens());
+        CompiledPetriNet compiled = new CompiledPetriNet(petriNet);
+        int t0 = compiled.getTransitionIndex(petriNet.getComponent("T0", Transition.class));
+
+        assertTrue(compiled.isEnabled(t0, new int[]{0}));
+        assertFalse(compiled.isEnabled(t0, new int[]{1}));
+    }
+
+    @Test
+    public void infiniteCountsAreNotChangedByFiring() throws PetriNetComponentNotFoundException {
+        PetriNet petriNet = APetriNet.with(AToken.called("Default").withColor(Color.BLACK)).and(
+                APlace.withId("P0")).and(AnImmediateTransition.withId("T0")).andFinally(
+                ANormalArc.withSource("T0").andTarget("P0").with("1", "Default").token());
+        CompiledPetriNet compiled = new CompiledPetriNet(petriNet);
+        int t0 = compiled.getTransitionIndex(petriNet.getComponent("T0", Transition.class));
+
+        int[] marking = {CompiledPetriNet.INFINITY};
+        assertArrayEquals(marking, compiled.fire(t0, marking));
+    }
+
+    @Test
+    public void functionalWeightReferenceIsADependency() throws PetriNetComponentNotFoundException {
+        PetriNet petriNet = APetriNet.with(AToken.called("Default").withColor(Color.BLACK)).and(
+                APlace.withId("P0").containing(1, "Default").token()).and(APlace.withId("P1")).and(
+                APlace.withId("P2").containing(1, "Default").token()).and(AnImmediateTransition.withId("T0")).and(
+                AnImmediateTransition.withId("T1")).and(
+                ANormalArc.withSource("T0").andTarget("P1").with("1", "Default").token()).and(
+                ANormalArc.withSource("P2").andTarget("T1").with("#(P1)", "Default").tokens()).andFinally(
+                ANormalArc.withSource("P0").andTarget("T0").with("1", "Default").token());
+        CompiledPetriNet compiled = new CompiledPetriNet(petriNet);
+        int t0 = compiled.getTransitionIndex(petriNet.getComponent("T0", Transition.class));
+        int t1 = compiled.getTransitionIndex(petriNet.getComponent("T1", Transition.class));
+
+        boolean t1Affected = false;
+        for (int i = compiled.affectedStart(t0); i < compiled.affectedEnd(t0); i++) {
+            t1Affected |= compiled.affected(i) == t1;
+        }
+        assertTrue(t1Affected);
+    }
+
+    @Test
+    public void incrementalEnablingMatchesFullCheck() throws PetriNetComponentNotFoundException {
+        PetriNet petriNet = APetriNet.with(AToken.called("Default").withColor(Color.BLACK)).and(
+                APlace.withId("P0").containing(1, "Default").token()).and(APlace.withId("P1")).and(
+                AnImmediateTransition.withId("T0")).and(AnImmediateTransition.withId("T1")).and(
+                ANormalArc.withSource("P0").andTarget("T0").with("1", "Default").token()).and(
+                ANormalArc.withSource("T0").andTarget("P1").with("1", "Default").token()).andFinally(
+                ANormalArc.withSource("P1").andTarget("T1").with("1", "Default").token());
+        CompiledPetriNet compiled = new CompiledPetriNet(petriNet);
+        int t0 = compiled.getTransitionIndex(petriNet.getComponent("T0", Transition.class));
+
+        int[] marking = compiled.getCurrentMarking();
+        BitSet enabled = compiled.enabledTransitions(marking);
+        int[] successor = compiled.fire(t0, marking);
+        assertEquals(compiled.enabledTransitions(successor), compiled.enabledTransitions(t0, successor, enabled));
+    }
+
+    @Test
+    public void filterKeepsHighestPriorityImmediates() throws PetriNetComponentNotFoundException {
+        PetriNet petriNet = APetriNet.with(AToken.called("Default").withColor(Color.BLACK)).and(
+                AnImmediateTransition.withId("T0").andPriority(1)).and(
+                AnImmediateTransition.withId("T1").andPriority(2)).andFinally(ATimedTransition.withId("T2"));
+        CompiledPetriNet compiled = new CompiledPetriNet(petriNet);
+        int t1 = compiled.getTransitionIndex(petriNet.getComponent("T1", Transition.class));
+        int t2 = compiled.getTransitionIndex(petriNet.getComponent("T2", Transition.class));
+
+        BitSet result = new BitSet();
+        compiled.filterEnabled(compiled.enabledTransitions(new int[0]), result);
+        BitSet expected = new BitSet();
+        expected.set(t1);
+        assertEquals(expected, result);
+
+        BitSet timedOnly = new BitSet();
+        timedOnly.set(t2);
+        compiled.filterEnabled(timedOnly, result);
+        assertEquals(timedOnly, result);
+    }
+}
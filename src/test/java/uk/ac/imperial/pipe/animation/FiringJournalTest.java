@@ -0,0 +1,87 @@
+package uk.ac.imperial.pipe.animation;
+
+import org.junit.Before;
+import org.junit.Test;
+import uk.ac.imperial.pipe.dsl.*;
+import uk.ac.imperial.pipe.exceptions.PetriNetComponentNotFoundException;
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+import uk.ac.imperial.pipe.models.petrinet.Transition;
+
+import java.awt.Color;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FiringJournalTest {
+
+    private CompiledPetriNet compiled;
+
+    private int t0;
+
+    private FiringJournal journal;
+
+    @Before
+    public void setUp() throws PetriNetComponentNotFoundException {
+        PetriNet petriNet = APetriNet.with(AToken.called("Default").withColor(Color.BLACK)).and(
+                APlace.withId("P0").containing(4, "Default").tokens()).and(APlace.withId("P1")).and(
+                AnImmediateTransition.withId("T0")).and(
+                ANormalArc.withSource("P0").andTarget("T0").with("1", "Default").token()).andFinally(
+                ANormalArc.withSource("T0").andTarget("P1").with("#(P0)", "Default").tokens());
+        compiled = new CompiledPetriNet(petriNet);
+        t0 = compiled.getTransitionIndex(petriNet.getComponent("T0", Transition.class));
+        journal = new FiringJournal();
+    }
+
+    @Test
+    public void recordsOnlyChangedCells() {
+        int[] before = compiled.getCurrentMarking();
+        int[] after = compiled.fire(t0, before);
+        journal.record(compiled, t0, before, after);
+
+        assertEquals(1, journal.size());
+        assertEquals(t0, journal.getTransition(0));
+        assertEquals(2, journal.deltaEnd(0) - journal.deltaStart(0));
+    }
+
+    @Test
+    public void undoAndRedoReplayMarkingDependentWeights() {
+        int[] initial = compiled.getCurrentMarking();
+        int[] first = compiled.fire(t0, initial);
+        journal.record(compiled, t0, initial, first);
+        int[] second = compiled.fire(t0, first);
+        journal.record(compiled, t0, first, second);
+
+        int[] marking = second.clone();
+        assertEquals(t0, journal.undo(marking));
+        assertArrayEquals(first, marking);
+        journal.jumpTo(0, marking);
+        assertArrayEquals(initial, marking);
+        assertFalse(journal.canUndo());
+
+        journal.jumpTo(2, marking);
+        assertArrayEquals(second, marking);
+        assertFalse(journal.canRedo());
+    }
+
+    @Test
+    public void recordingDiscardsRedoableSteps() {
+        int[] initial = compiled.getCurrentMarking();
+        int[] first = compiled.fire(t0, initial);
+        journal.record(compiled, t0, initial, first);
+        int[] second = compiled.fire(t0, first);
+        journal.record(compiled, t0, first, second);
+
+        journal.undo(second.clone());
+        journal.record(compiled, t0, first, second);
+        assertEquals(2, journal.size());
+        assertTrue(journal.canUndo());
+        assertFalse(journal.canRedo());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void cannotUndoEmptyJournal() {
+        journal.undo(compiled.getCurrentMarking());
+    }
+}
@@ -0,0 +1,125 @@
+package uk.ac.imperial.pipe.animation;
+
+import org.junit.Before;
+import org.junit.Test;
+import uk.ac.imperial.pipe.dsl.*;
+import uk.ac.imperial.pipe.exceptions.PetriNetComponentNotFoundException;
+import uk.ac.imperial.pipe.models.petrinet.OutboundArc;
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+import uk.ac.imperial.pipe.models.petrinet.Place;
+import uk.ac.imperial.pipe.models.petrinet.Transition;
+
+import java.awt.Color;
+import java.beans.PropertyChangeListener;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class MarkingAnimatorTest {
+
+    private PetriNet petriNet;
+
+    private Place p0;
+
+    private Place p1;
+
+    private Transition t0;
+
+    @Before
+    public void setUp() throws PetriNetComponentNotFoundException {
+        petriNet = APetriNet.with(AToken.called("Default").withColor(Color.BLACK)).and(
+                APlace.withId("P0").containing(2, "Default").tokens()).and(APlace.withId("P1")).and(
+                APlace.withId("P2")).and(AnImmediateTransition.withId("T0")).and(
+                ANormalArc.withSource("P0").andTarget("T0").with("1", "Default").token()).andFinally(
+                ANormalArc.withSource("T0").andTarget("P1").with("1", "Default").token());
+        p0 = petriNet.getComponent("P0", Place.class);
+        p1 = petriNet.getComponent("P1", Place.class);
+        t0 = petriNet.getComponent("T0", Transition.class);
+    }
+
+    @Test
+    public void firingDoesNotTouchPetriNetUntilWriteBack() {
+        MarkingAnimator animator = new MarkingAnimator(petriNet);
+        PropertyChangeListener listener = mock(PropertyChangeListener.class);
+        p0.addPropertyChangeListener(listener);
+
+        animator.fireTransition(t0);
+        animator.fireTransition(t0);
+        assertEquals(2, p0.getTokenCount("Default"));
+        assertEquals(0, animator.getState().getTokens("P0").get("Default").intValue());
+        verify(listener, never()).propertyChange(any(java.beans.PropertyChangeEvent.class));
+
+        animator.writeBack();
+        assertEquals(0, p0.getTokenCount("Default"));
+        assertEquals(2, p1.getTokenCount("Default"));
+        verify(listener, times(1)).propertyChange(any(java.beans.PropertyChangeEvent.class));
+    }
+
+    @Test
+    public void writesBackAfterEveryFiringWithZeroInterval() {
+        MarkingAnimator animator = new MarkingAnimator(petriNet);
+        animator.setWriteBackInterval(0);
+        animator.fireTransition(t0);
+        assertEquals(1, p0.getTokenCount("Default"));
+        assertEquals(1, p1.getTokenCount("Default"));
+    }
+
+    @Test
+    public void resetRestoresSavedMarking() {
+        MarkingAnimator animator = new MarkingAnimator(petriNet);
+        animator.fireTransition(t0);
+        animator.reset();
+        assertEquals(2, animator.getState().getTokens("P0").get("Default").intValue());
+        assertEquals(2, p0.getTokenCount("Default"));
+    }
+
+    @Test
+    public void firingBackwardsTwiceIsRecordedAsTwoSteps() {
+        p0.setTokenCount("Default", 0);
+        p1.setTokenCount("Default", 2);
+        MarkingAnimator animator = new MarkingAnimator(petriNet);
+        animator.fireTransitionBackwards(t0);
+        animator.fireTransitionBackwards(t0);
+        assertEquals(2, animator.getState().getTokens("P0").get("Default").intValue());
+        assertEquals(0, animator.getState().getTokens("P1").get("Default").intValue());
+        assertEquals(2, animator.getStep());
+
+        animator.jumpTo(0);
+        assertEquals(0, animator.getState().getTokens("P0").get("Default").intValue());
+        assertEquals(2, animator.getState().getTokens("P1").get("Default").intValue());
+    }
+
+    @Test
+    public void usesNewArcWeightAfterFirstFiring() throws PetriNetComponentNotFoundException {
+        MarkingAnimator animator = new MarkingAnimator(petriNet);
+        animator.fireTransition(t0);
+
+        petriNet.getComponent("T0 TO P1", OutboundArc.class).setWeight("Default", "3");
+        animator.fireTransition(t0);
+
+        assertEquals(0, animator.getState().getTokens("P0").get("Default").intValue());
+        assertEquals(4, animator.getState().getTokens("P1").get("Default").intValue());
+        assertEquals(1, animator.getStep());
+    }
+
+    @Test
+    public void longRunsDoNotCacheMarkings() {
+        MarkingAnimator animator = new MarkingAnimator(petriNet);
+        animator.fireRandom(1000);
+        animator.getEnabledTransitions();
+        assertEquals(0, animator.getAnimationLogic().getCacheSize());
+    }
+
+    @Test
+    public void firesBackwards() {
+        MarkingAnimator animator = new MarkingAnimator(petriNet);
+        animator.fireTransition(t0);
+        animator.fireTransitionBackwards(t0);
+        assertEquals(2, animator.getState().getTokens("P0").get("Default").intValue());
+        assertEquals(0, animator.getState().getTokens("P1").get("Default").intValue());
+    }
+}
@@ -0,0 +1,110 @@
+package uk.ac.imperial.pipe.animation;
+
+import org.junit.Before;
+import org.junit.Test;
+import uk.ac.imperial.pipe.dsl.*;
+import uk.ac.imperial.pipe.exceptions.PetriNetComponentNotFoundException;
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+import uk.ac.imperial.pipe.models.petrinet.Transition;
+import uk.ac.imperial.state.HashedStateBuilder;
+import uk.ac.imperial.state.State;
+
+import java.awt.Color;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MarkingTest {
+
+    private PetriNet petriNet;
+
+    private CompiledPetriNet compiled;
+
+    @Before
+    public void setUp() {
+        petriNet = APetriNet.with(AToken.called("Default").withColor(Color.BLACK)).and(
+                AToken.called("Red").withColor(Color.RED)).and(
+                APlace.withId("P0").containing(2, "Default").tokens()).and(APlace.withId("P1")).and(
+                AnImmediateTransition.withId("T0")).and(
+                ANormalArc.withSource("P0").andTarget("T0").with("1", "Default").token()).andFinally(
+                ANormalArc.withSource("T0").andTarget("P1").with("1", "Red").token());
+        compiled = new CompiledPetriNet(petriNet);
+    }
+
+    @Test
+    public void equalCountsAreEqual() {
+        Marking first = new Marking(compiled, new int[]{1, 0, 0, 2});
+        Marking second = new Marking(compiled, new int[]{1, 0, 0, 2});
+        assertEquals(first, second);
+        assertEquals(first.hashCode(), second.hashCode());
+        assertNotEquals(first, new Marking(compiled, new int[]{1, 0, 0, 1}));
+    }
+
+    @Test
+    public void convertsToHashedStateWithSameTokens() {
+        State hashed = new HashedStateBuilder().placeWithToken("P0", "Default", 1).placeWithToken("P0", "Red", 0)
+                                               .placeWithToken("P1", "Default", 0).placeWithToken("P1", "Red", 2)
+                                               .build();
+        Marking marking = new Marking(compiled, new int[]{1, 0, 0, 2});
+        assertEquals(hashed.hashCode(), marking.hashCode());
+        assertFalse(marking.equals(hashed));
+        assertFalse(hashed.equals(marking));
+        assertEquals(hashed, marking.toHashedState());
+        assertNotEquals(hashed, new Marking(compiled, new int[]{1, 0, 0, 1}).toHashedState());
+        assertEquals(marking, new Marking(new CompiledPetriNet(petriNet), new int[]{1, 0, 0, 2}));
+    }
+
+    @Test
+    public void firedStatesAreFoundAmongHashedStates() throws PetriNetComponentNotFoundException {
+        PetriNetAnimationLogic logic = new PetriNetAnimationLogic(petriNet);
+        Transition transition = petriNet.getComponent("T0", Transition.class);
+        State initial = new HashedStateBuilder().placeWithToken("P0", "Default", 2).placeWithToken("P0", "Red", 0)
+                                                .placeWithToken("P1", "Default", 0).placeWithToken("P1", "Red", 0)
+                                                .build();
+        State fired = new HashedStateBuilder().placeWithToken("P0", "Default", 1).placeWithToken("P0", "Red", 0)
+                                              .placeWithToken("P1", "Default", 0).placeWithToken("P1", "Red", 1)
+                                              .build();
+        Set<State> visited = new HashSet<>();
+        visited.add(initial);
+        visited.add(fired);
+
+        assertFalse(visited.add(logic.getFiredState(initial, transition)));
+        assertEquals(2, visited.size());
+        for (State successor : logic.getSuccessors(initial).keySet()) {
+            assertFalse(visited.add(successor));
+        }
+        assertEquals(2, visited.size());
+    }
+
+    @Test
+    public void exposesTokensByPlaceId() {
+        Marking marking = new Marking(compiled, new int[]{1, 0, 0, 2});
+        assertThat(marking.getPlaces()).containsExactly("P0", "P1");
+        assertEquals(1, marking.getTokens("P0").get("Default").intValue());
+        assertEquals(2, marking.getTokens("P1").get("Red").intValue());
+        assertTrue(marking.containsTokens("P1"));
+        assertFalse(marking.containsTokens("P2"));
+        assertNull(marking.getTokens("P2"));
+    }
+
+    @Test
+    public void animationLogicFiresIntoMarking() throws PetriNetComponentNotFoundException {
+        PetriNetAnimationLogic logic = new PetriNetAnimationLogic(petriNet);
+        State initial = AnimationUtils.getState(petriNet);
+        Transition transition = petriNet.getComponent("T0", Transition.class);
+        State fired = logic.getFiredState(logic.getMarking(initial), transition);
+
+        assertTrue(fired instanceof Marking);
+        assertFalse(logic.getFiredState(initial, transition) instanceof Marking);
+        assertEquals(1, fired.getTokens("P0").get("Default").intValue());
+        assertEquals(1, fired.getTokens("P1").get("Red").intValue());
+        assertSame(fired, logic.getMarking(fired));
+    }
+}
@@ -3,6 +3,7 @@ package uk.ac.imperial.pipe.animation;
 import org.junit.Test;
 import uk.ac.imperial.pipe.dsl.*;
 import uk.ac.imperial.pipe.exceptions.PetriNetComponentNotFoundException;
+import uk.ac.imperial.pipe.models.petrinet.InboundArc;
 import uk.ac.imperial.pipe.models.petrinet.Place;
 import uk.ac.imperial.pipe.models.petrinet.Token;
 import uk.ac.imperial.pipe.models.petrinet.Transition;
@@ -10,11 +11,19 @@ import uk.ac.imperial.pipe.models.petrinet.PetriNet;
 import uk.ac.imperial.pipe.visitor.ClonePetriNet;
 
 import java.awt.Color;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.Arrays;
 import java.util.Collection;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
 public class PetriNetAnimatorTest {
 
@@ -244,6 +253,170 @@ public class PetriNetAnimatorTest {
         assertEquals(copy, petriNet);
     }
 
+    @Test
+    public void undoRestoresFunctionalWeightFiring() throws PetriNetComponentNotFoundException {
+        PetriNet petriNet = APetriNet.with(AToken.called("Default").withColor(Color.BLACK)).and(
+                APlace.withId("P0").containing(3, "Default").tokens()).and(APlace.withId("P1")).and(
+                AnImmediateTransition.withId("T0")).and(
+                ANormalArc.withSource("P0").andTarget("T0").with("#(P0)", "Default").tokens()).andFinally(
+                ANormalArc.withSource("T0").andTarget("P1").with("#(P0)", "Default").tokens());
+        Place p0 = petriNet.getComponent("P0", Place.class);
+        Place p1 = petriNet.getComponent("P1", Place.class);
+        Transition transition = petriNet.getComponent("T0", Transition.class);
+
+        Animator animator = new PetriNetAnimator(petriNet);
+        animator.fireTransition(transition);
+        assertEquals(0, p0.getTokenCount("Default"));
+        assertEquals(3, p1.getTokenCount("Default"));
+
+        animator.fireTransitionBackwards(transition);
+        assertEquals(3, p0.getTokenCount("Default"));
+        assertEquals(0, p1.getTokenCount("Default"));
+        assertEquals(0, animator.getStep());
+    }
+
+    @Test
+    public void firingBackwardsEvaluatesWeightsBeforeFiringAndIsRecorded()
+            throws PetriNetComponentNotFoundException {
+        PetriNet petriNet = APetriNet.with(AToken.called("Default").withColor(Color.BLACK)).and(
+                APlace.withId("P0").containing(1, "Default").token()).and(
+                APlace.withId("P1").containing(2, "Default").tokens()).and(AnImmediateTransition.withId("T0")).and(
+                ANormalArc.withSource("P0").andTarget("T0").with("1", "Default").token()).andFinally(
+                ANormalArc.withSource("T0").andTarget("P1").with("#(P0)", "Default").tokens());
+        Place p0 = petriNet.getComponent("P0", Place.class);
+        Place p1 = petriNet.getComponent("P1", Place.class);
+        Transition transition = petriNet.getComponent("T0", Transition.class);
+
+        Animator animator = new PetriNetAnimator(petriNet);
+        animator.fireTransitionBackwards(transition);
+        assertEquals(2, p0.getTokenCount("Default"));
+        assertEquals(0, p1.getTokenCount("Default"));
+        assertEquals(1, animator.getStep());
+
+        assertTrue(animator.undo());
+        assertEquals(1, p0.getTokenCount("Default"));
+        assertEquals(2, p1.getTokenCount("Default"));
+        assertTrue(animator.redo());
+        assertEquals(2, p0.getTokenCount("Default"));
+        assertEquals(0, p1.getTokenCount("Default"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsBackwardFiringFromUnreachableMarking() throws PetriNetComponentNotFoundException {
+        PetriNet petriNet = createSimplePetriNet(1);
+        new PetriNetAnimator(petriNet).fireTransitionBackwards(petriNet.getComponent("T1", Transition.class));
+    }
+
+    @Test
+    public void redoAndJumpReplayRecordedFirings() throws PetriNetComponentNotFoundException {
+        PetriNet petriNet = createSimplePetriNet(1);
+        Place p1 = petriNet.getComponent("P1", Place.class);
+        Place p2 = petriNet.getComponent("P2", Place.class);
+        p1.setTokenCount("Default", 3);
+        Transition transition = petriNet.getComponent("T1", Transition.class);
+
+        Animator animator = new PetriNetAnimator(petriNet);
+        animator.fireTransition(transition);
+        animator.fireTransition(transition);
+        animator.fireTransition(transition);
+        assertEquals(3, animator.getStep());
+
+        animator.jumpTo(1);
+        assertEquals(2, p1.getTokenCount("Default"));
+        assertEquals(1, p2.getTokenCount("Default"));
+
+        assertTrue(animator.redo());
+        assertEquals(1, p1.getTokenCount("Default"));
+        assertTrue(animator.undo());
+        assertTrue(animator.undo());
+        assertFalse(animator.undo());
+        assertEquals(3, p1.getTokenCount("Default"));
+        assertEquals(0, p2.getTokenCount("Default"));
+
+        animator.fireTransition(transition);
+        assertFalse(animator.redo());
+        assertEquals(1, animator.getStep());
+    }
+
+
+    @Test
+    public void everyEntryPointFiresOneMarkingChange() throws PetriNetComponentNotFoundException {
+        PetriNet petriNet = createSimplePetriNet(1);
+        petriNet.getComponent("P1", Place.class).setTokenCount("Default", 2);
+        Transition transition = petriNet.getComponent("T1", Transition.class);
+        PropertyChangeListener netListener = mock(PropertyChangeListener.class);
+        Animator animator = new PetriNetAnimator(petriNet);
+        petriNet.addPropertyChangeListener(netListener);
+
+        animator.fireTransition(transition);
+        animator.fireTransition(transition);
+        animator.undo();
+        animator.redo();
+        animator.jumpTo(0);
+        animator.fireTransition(transition);
+        animator.reset();
+
+        verify(netListener, times(7)).propertyChange(any(PropertyChangeEvent.class));
+    }
+
+    @Test
+    public void fireSequenceNotifiesOncePerChangedPlace() throws PetriNetComponentNotFoundException {
+        PetriNet petriNet = createSimplePetriNet(1);
+        Place p1 = petriNet.getComponent("P1", Place.class);
+        Place p2 = petriNet.getComponent("P2", Place.class);
+        p1.setTokenCount("Default", 3);
+        Transition transition = petriNet.getComponent("T1", Transition.class);
+        PropertyChangeListener placeListener = mock(PropertyChangeListener.class);
+        PropertyChangeListener netListener = mock(PropertyChangeListener.class);
+        p2.addPropertyChangeListener(placeListener);
+        petriNet.addPropertyChangeListener(netListener);
+
+        Animator animator = new PetriNetAnimator(petriNet);
+        int fired = animator.fireSequence(Arrays.asList(transition, transition, transition, transition));
+
+        assertEquals(3, fired);
+        assertEquals(0, p1.getTokenCount("Default"));
+        assertEquals(3, p2.getTokenCount("Default"));
+        verify(placeListener, times(1)).propertyChange(any(PropertyChangeEvent.class));
+        verify(netListener, times(1)).propertyChange(any(PropertyChangeEvent.class));
+
+        assertTrue(animator.undo());
+        assertEquals(2, p2.getTokenCount("Default"));
+    }
+
+    @Test
+    public void fireRandomStopsWhenNothingIsEnabled() throws PetriNetComponentNotFoundException {
+        PetriNet petriNet = createSimplePetriNet(1);
+        Place p2 = petriNet.getComponent("P2", Place.class);
+
+        Animator animator = new PetriNetAnimator(petriNet);
+        assertEquals(1, animator.fireRandom(10));
+        assertEquals(1, p2.getTokenCount("Default"));
+        assertEquals(1, animator.getStep());
+    }
+
+    @Test
+    public void usesNewArcWeightAfterFirstFiring() throws PetriNetComponentNotFoundException {
+        PetriNet petriNet = createSimplePetriNet(1);
+        Place p1 = petriNet.getComponent("P1", Place.class);
+        Place p2 = petriNet.getComponent("P2", Place.class);
+        p1.setTokenCount("Default", 5);
+        Transition transition = petriNet.getComponent("T1", Transition.class);
+
+        Animator animator = new PetriNetAnimator(petriNet);
+        animator.fireTransition(transition);
+        assertEquals(4, p1.getTokenCount("Default"));
+
+        petriNet.getComponent("P1 TO T1", InboundArc.class).setWeight("Default", "2");
+        assertEquals(0, animator.getStep());
+        assertFalse(animator.undo());
+        animator.fireTransition(transition);
+
+        assertEquals(2, p1.getTokenCount("Default"));
+        assertEquals(2, p2.getTokenCount("Default"));
+        assertTrue(animator.undo());
+        assertEquals(4, p1.getTokenCount("Default"));
+    }
 
     /**
      * Create simple Petri net with P1 -> T1 -> P2
@@ -0,0 +1,111 @@
+package uk.ac.imperial.pipe.exploration;
+
+import org.junit.Test;
+import uk.ac.imperial.pipe.animation.CompiledPetriNet;
+import uk.ac.imperial.pipe.dsl.*;
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+
+import java.awt.Color;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CoverabilityExplorerTest {
+
+    /**
+     * @return Petri net where T0 moves the token from P0 to P1 and T1 moves it back, adding a token to P2
+     */
+    private static PetriNet unboundedNet() {
+        return APetriNet.with(AToken.called("Default").withColor(Color.BLACK)).and(
+                APlace.withId("P0").containing(1, "Default").token()).and(APlace.withId("P1")).and(
+                APlace.withId("P2")).and(AnImmediateTransition.withId("T0")).and(
+                AnImmediateTransition.withId("T1")).and(
+                ANormalArc.withSource("P0").andTarget("T0").with("1", "Default").token()).and(
+                ANormalArc.withSource("T0").andTarget("P1").with("1", "Default").token()).and(
+                ANormalArc.withSource("P1").andTarget("T1").with("1", "Default").token()).and(
+                ANormalArc.withSource("T1").andTarget("P0").with("1", "Default").token()).andFinally(
+                ANormalArc.withSource("T1").andTarget("P2").with("1", "Default").token());
+    }
+
+    @Test
+    public void acceleratesUnboundedPlace() {
+        CoverabilityResult result = new CoverabilityExplorer(unboundedNet()).explore();
+
+        assertTrue(result.isComplete());
+        assertFalse(result.isBounded());
+        assertEquals(Collections.singletonList("P2"), result.getUnboundedPlaceIds());
+        assertEquals(1, result.getBound("P0"));
+        assertEquals(1, result.getBound("P1"));
+        assertEquals(CompiledPetriNet.INFINITY, result.getBound("P2"));
+        assertTrue(result.covers(new int[]{0, 1, 1000}));
+        assertFalse(result.covers(new int[]{1, 1, 0}));
+    }
+
+    @Test
+    public void cancelBeforeExploringStopsNextExploration() {
+        CoverabilityExplorer explorer = new CoverabilityExplorer(unboundedNet());
+        explorer.cancel();
+
+        assertEquals(ExplorationResult.Status.CANCELLED, explorer.explore().getStatus());
+        assertTrue(explorer.explore().isComplete());
+    }
+
+    @Test
+    public void keepsOnlyMinimalCoveringMarkings() {
+        CoverabilityResult result = new CoverabilityExplorer(unboundedNet()).explore();
+
+        assertEquals(2, result.getMarkings().size());
+        for (int[] marking : result.getMarkings()) {
+            assertEquals(CompiledPetriNet.INFINITY, marking[2]);
+        }
+    }
+
+    @Test
+    public void boundedNetHasEveryReachableMarking() {
+        PetriNet petriNet = APetriNet.with(AToken.called("Default").withColor(Color.BLACK)).and(
+                APlace.withId("P0").containing(2, "Default").token()).and(APlace.withId("P1")).and(
+                AnImmediateTransition.withId("T0")).and(
+                ANormalArc.withSource("P0").andTarget("T0").with("1", "Default").token()).andFinally(
+                ANormalArc.withSource("T0").andTarget("P1").with("1", "Default").token());
+
+        CoverabilityResult result = new CoverabilityExplorer(petriNet).explore();
+
+        assertTrue(result.isComplete());
+        assertTrue(result.isBounded());
+        assertEquals(2, result.getBound("P0"));
+        assertEquals(2, result.getBound("P1"));
+        assertEquals(3, result.getMarkings().size());
+    }
+
+    @Test
+    public void doesNotAccelerateInhibitingPlace() {
+        PetriNet petriNet = APetriNet.with(AToken.called("Default").withColor(Color.BLACK)).and(
+                APlace.withId("P0").containing(1, "Default").token()).and(APlace.withId("P1")).and(
+                AnImmediateTransition.withId("T0")).and(AnImmediateTransition.withId("T1")).and(
+                ANormalArc.withSource("P0").andTarget("T0").with("1", "Default").token()).and(
+                ANormalArc.withSource("T0").andTarget("P0").with("1", "Default").token()).and(
+                ANormalArc.withSource("T0").andTarget("P1").with("1", "Default").token()).andFinally(
+                AnInhibitorArc.withSource("P1").andTarget("T0"));
+
+        CoverabilityResult result = new CoverabilityExplorer(petriNet).explore();
+
+        assertTrue(result.isComplete());
+        assertTrue(result.isBounded());
+        assertEquals(1, result.getBound("P1"));
+    }
+
+    @Test
+    public void stopsAtNodeLimit() {
+        CoverabilityExplorer explorer = new CoverabilityExplorer(unboundedNet());
+        explorer.setMaximumNodes(1);
+
+        CoverabilityResult result = explorer.explore(new int[]{1, 0, 0});
+
+        assertEquals(ExplorationResult.Status.STATE_LIMIT_REACHED, result.getStatus());
+        assertEquals(1, result.getNodeCount());
+        assertTrue(Arrays.equals(new int[]{0, 1, 0}, result.getMarkings().get(1)));
+    }
+}
@@ -0,0 +1,169 @@
+package uk.ac.imperial.pipe.exploration;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import uk.ac.imperial.pipe.animation.CompiledPetriNet;
+import uk.ac.imperial.pipe.dsl.*;
+import uk.ac.imperial.pipe.exceptions.PetriNetComponentNotFoundException;
+import uk.ac.imperial.pipe.models.petrinet.NormalRate;
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+import uk.ac.imperial.pipe.models.petrinet.Transition;
+
+import java.awt.Color;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CtmcExporterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static PetriNet choiceNet(int p0, int p1) {
+        return APetriNet.with(AToken.called("Default").withColor(Color.BLACK)).and(
+                APlace.withId("P0").containing(p0, "Default").tokens()).and(
+                APlace.withId("P1").containing(p1, "Default").tokens()).and(APlace.withId("P2")).and(
+                APlace.withId("P3")).and(ATimedTransition.withId("T0").andRate("2")).and(
+                AnImmediateTransition.withId("I1").andProbability("1")).and(
+                AnImmediateTransition.withId("I2").andProbability("3")).and(
+                ATimedTransition.withId("T2").andRate("1")).and(ATimedTransition.withId("T3").andRate("1")).and(
+                ANormalArc.withSource("P0").andTarget("T0").with("1", "Default").token()).and(
+                ANormalArc.withSource("T0").andTarget("P1").with("1", "Default").token()).and(
+                ANormalArc.withSource("P1").andTarget("I1").with("1", "Default").token()).and(
+                ANormalArc.withSource("I1").andTarget("P2").with("1", "Default").token()).and(
+                ANormalArc.withSource("P1").andTarget("I2").with("1", "Default").token()).and(
+                ANormalArc.withSource("I2").andTarget("P3").with("1", "Default").token()).and(
+                ANormalArc.withSource("P2").andTarget("T2").with("1", "Default").token()).and(
+                ANormalArc.withSource("T2").andTarget("P0").with("1", "Default").token()).and(
+                ANormalArc.withSource("P3").andTarget("T3").with("1", "Default").token()).andFinally(
+                ANormalArc.withSource("T3").andTarget("P0").with("1", "Default").token());
+    }
+
+    @Test
+    public void buildsGeneratorWithDiagonal() {
+        CompiledPetriNet compiled = new CompiledPetriNet(choiceNet(1, 0));
+        OffHeapStateStore store = new OffHeapStateStore(compiled);
+
+        CsrGenerator generator = new CtmcExporter(store).toCsr();
+
+        assertEquals(ExplorationResult.Status.COMPLETE, generator.getStatus());
+        assertEquals(3, generator.getStateCount());
+        assertEquals(7, generator.getEntryCount());
+        int p0 = (int) store.find(new int[]{1, 0, 0, 0});
+        int p2 = (int) store.find(new int[]{0, 0, 1, 0});
+        int p3 = (int) store.find(new int[]{0, 0, 0, 1});
+        assertEquals(-2, generator.get(p0, p0), 1e-12);
+        assertEquals(0.5, generator.get(p0, p2), 1e-12);
+        assertEquals(1.5, generator.get(p0, p3), 1e-12);
+        assertEquals(1, generator.get(p3, p0), 1e-12);
+        assertEquals(0, generator.get(p2, p3), 0);
+        assertEquals(1, generator.getInitialDistribution()[p0], 0);
+    }
+
+    @Test
+    public void rowsAreSortedAndSumToZero() {
+        CompiledPetriNet compiled = new CompiledPetriNet(choiceNet(3, 0));
+        CsrGenerator generator = new CtmcExporter(new OffHeapStateStore(compiled)).toCsr();
+
+        assertEquals(10, generator.getStateCount());
+        for (int row = 0; row < generator.getStateCount(); row++) {
+            double sum = 0;
+            for (int entry = generator.getRowStart(row); entry < generator.getRowEnd(row); entry++) {
+                if (entry > generator.getRowStart(row)) {
+                    assertTrue(generator.getColumn(entry - 1) < generator.getColumn(entry));
+                }
+                sum += generator.getValue(entry);
+            }
+            assertEquals(0, sum, 1e-9);
+        }
+    }
+
+    @Test
+    public void mergesParallelTimedFiringsAndKeepsAbsorbingRows() {
+        PetriNet petriNet = APetriNet.with(AToken.called("Default").withColor(Color.BLACK)).and(
+                APlace.withId("P0").containing(1, "Default").token()).and(APlace.withId("P1")).and(
+                ATimedTransition.withId("T0").andRate("1")).and(ATimedTransition.withId("T1").andRate("2")).and(
+                ANormalArc.withSource("P0").andTarget("T0").with("1", "Default").token()).and(
+                ANormalArc.withSource("T0").andTarget("P1").with("1", "Default").token()).and(
+                ANormalArc.withSource("P0").andTarget("T1").with("1", "Default").token()).andFinally(
+                ANormalArc.withSource("T1").andTarget("P1").with("1", "Default").token());
+        CompiledPetriNet compiled = new CompiledPetriNet(petriNet);
+
+        CsrGenerator generator = new CtmcExporter(new OffHeapStateStore(compiled)).toCsr();
+
+        assertEquals(2, generator.getStateCount());
+        assertEquals(3, generator.getEntryCount());
+        assertEquals(3, generator.get(0, 1), 0);
+        assertEquals(-3, generator.get(0, 0), 0);
+        assertEquals(1, generator.getRowEnd(1) - generator.getRowStart(1));
+        assertEquals(0, generator.get(1, 1), 0);
+    }
+
+    @Test
+    public void startsFromDistributionOfVanishingInitialMarking() {
+        CompiledPetriNet compiled = new CompiledPetriNet(choiceNet(0, 1));
+        OffHeapStateStore store = new OffHeapStateStore(compiled);
+
+        double[] initial = new CtmcExporter(store).toCsr().getInitialDistribution();
+
+        assertEquals(0.25, initial[(int) store.find(new int[]{0, 0, 1, 0})], 1e-12);
+        assertEquals(0.75, initial[(int) store.find(new int[]{0, 0, 0, 1})], 1e-12);
+    }
+
+    @Test
+    public void writesSameEntriesAsCoordinates() throws IOException {
+        CompiledPetriNet compiled = new CompiledPetriNet(choiceNet(2, 1));
+        CsrGenerator generator = new CtmcExporter(new OffHeapStateStore(compiled)).toCsr();
+        File file = folder.newFile("generator.coo");
+
+        ExplorationResult result = new CtmcExporter(new OffHeapStateStore(compiled)).writeCoo(file);
+
+        assertTrue(result.isComplete());
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            assertEquals(CtmcExporter.COO_MAGIC, in.readInt());
+            assertEquals(CtmcExporter.COO_VERSION, in.readInt());
+            assertEquals(generator.getStateCount(), in.readLong());
+            long initialCount = in.readLong();
+            assertEquals(generator.getEntryCount(), in.readLong());
+            double[] initial = new double[generator.getStateCount()];
+            for (long i = 0; i < initialCount; i++) {
+                initial[(int) in.readLong()] += in.readDouble();
+            }
+            for (int i = 0; i < initial.length; i++) {
+                assertEquals(generator.getInitialDistribution()[i], initial[i], 0);
+            }
+            for (int row = 0; row < generator.getStateCount(); row++) {
+                for (int entry = generator.getRowStart(row); entry < generator.getRowEnd(row); entry++) {
+                    assertEquals(row, in.readLong());
+                    assertEquals(generator.getColumn(entry), in.readLong());
+                    assertEquals(generator.getValue(entry), in.readDouble(), 0);
+                }
+            }
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsStoreInUse() {
+        CompiledPetriNet compiled = new CompiledPetriNet(choiceNet(1, 0));
+        OffHeapStateStore store = new OffHeapStateStore(compiled);
+        store.addIfAbsent(compiled.getCurrentMarking());
+
+        new CtmcExporter(store).toCsr();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsStoreCompiledBeforeTheNetChanged() throws PetriNetComponentNotFoundException {
+        PetriNet petriNet = choiceNet(1, 0);
+        CompiledPetriNet compiled = new CompiledPetriNet(petriNet);
+        petriNet.getComponent("T0", Transition.class).setRate(new NormalRate("4"));
+
+        new CtmcExporter(new OffHeapStateStore(compiled)).toCsr();
+    }
+}
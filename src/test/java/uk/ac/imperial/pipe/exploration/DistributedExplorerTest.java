@@ -0,0 +1,218 @@
+package uk.ac.imperial.pipe.exploration;
+
+import org.junit.Test;
+import uk.ac.imperial.pipe.animation.CompiledPetriNet;
+import uk.ac.imperial.pipe.dsl.*;
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+
+import java.awt.Color;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DistributedExplorerTest {
+
+    /**
+     * Two independent cycles of P and Q tokens, with (P + 1) * (Q + 1) states
+     */
+    private static PetriNet cycles(int p, int q) {
+        return APetriNet.with(AToken.called("Default").withColor(Color.BLACK)).and(
+                APlace.withId("P0").containing(p, "Default").tokens()).and(APlace.withId("P1")).and(
+                APlace.withId("Q0").containing(q, "Default").tokens()).and(APlace.withId("Q1")).and(
+                ATimedTransition.withId("T0")).and(ATimedTransition.withId("T1")).and(
+                ATimedTransition.withId("T2")).and(ATimedTransition.withId("T3")).and(
+                ANormalArc.withSource("P0").andTarget("T0").with("1", "Default").token()).and(
+                ANormalArc.withSource("T0").andTarget("P1").with("1", "Default").token()).and(
+                ANormalArc.withSource("P1").andTarget("T1").with("1", "Default").token()).and(
+                ANormalArc.withSource("T1").andTarget("P0").with("1", "Default").token()).and(
+                ANormalArc.withSource("Q0").andTarget("T2").with("1", "Default").token()).and(
+                ANormalArc.withSource("T2").andTarget("Q1").with("1", "Default").token()).and(
+                ANormalArc.withSource("Q1").andTarget("T3").with("1", "Default").token()).andFinally(
+                ANormalArc.withSource("T3").andTarget("Q0").with("1", "Default").token());
+    }
+
+    private static List<InetSocketAddress> addresses(int workers) throws IOException {
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (int i = 0; i < workers; i++) {
+            try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+                addresses.add(new InetSocketAddress(InetAddress.getLoopbackAddress(), socket.getLocalPort()));
+            }
+        }
+        return addresses;
+    }
+
+    private static List<ExplorationResult> exploreInThreads(final List<DistributedExplorer> explorers,
+                                                            final int[] initial) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(explorers.size());
+        try {
+            List<Future<ExplorationResult>> futures = new ArrayList<>();
+            for (final DistributedExplorer explorer : explorers) {
+                futures.add(executor.submit(new Callable<ExplorationResult>() {
+                    @Override
+                    public ExplorationResult call() throws IOException {
+                        return explorer.explore(initial);
+                    }
+                }));
+            }
+            List<ExplorationResult> results = new ArrayList<>();
+            for (Future<ExplorationResult> future : futures) {
+                results.add(future.get(60, TimeUnit.SECONDS));
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void singleWorkerExploresEverything() throws Exception {
+        CompiledPetriNet compiled = new CompiledPetriNet(cycles(3, 0));
+        DistributedExplorer explorer = new DistributedExplorer(compiled, addresses(1), 0);
+
+        ExplorationResult result = explorer.explore(compiled.getCurrentMarking());
+
+        assertTrue(result.isComplete());
+        assertEquals(4, result.getStateCount());
+        assertEquals(6, result.getEdgeCount());
+    }
+
+    @Test
+    public void cancelBeforeExploringStopsNextExploration() throws Exception {
+        CompiledPetriNet compiled = new CompiledPetriNet(cycles(3, 0));
+        DistributedExplorer explorer = new DistributedExplorer(compiled, addresses(1), 0);
+        explorer.cancel();
+
+        assertEquals(ExplorationResult.Status.CANCELLED, explorer.explore(compiled.getCurrentMarking()).getStatus());
+        assertTrue(explorer.explore(compiled.getCurrentMarking()).isComplete());
+    }
+
+    @Test
+    public void countsParallelTransitionsAsOneEdge() throws Exception {
+        PetriNet petriNet = APetriNet.with(AToken.called("Default").withColor(Color.BLACK)).and(
+                APlace.withId("P0").containing(2, "Default").tokens()).and(APlace.withId("P1")).and(
+                ATimedTransition.withId("T0")).and(ATimedTransition.withId("T1")).and(
+                ATimedTransition.withId("T2")).and(
+                ANormalArc.withSource("P0").andTarget("T0").with("1", "Default").token()).and(
+                ANormalArc.withSource("T0").andTarget("P1").with("1", "Default").token()).and(
+                ANormalArc.withSource("P0").andTarget("T1").with("1", "Default").token()).and(
+                ANormalArc.withSource("T1").andTarget("P1").with("1", "Default").token()).and(
+                ANormalArc.withSource("P1").andTarget("T2").with("1", "Default").token()).andFinally(
+                ANormalArc.withSource("T2").andTarget("P0").with("1", "Default").token());
+        CompiledPetriNet compiled = new CompiledPetriNet(petriNet);
+        DistributedExplorer explorer = new DistributedExplorer(compiled, addresses(1), 0);
+
+        ExplorationResult result = explorer.explore(compiled.getCurrentMarking());
+
+        assertEquals(3, result.getStateCount());
+        assertEquals(4, result.getEdgeCount());
+    }
+
+    @Test
+    public void workersShareStateSpaceByOwner() throws Exception {
+        CompiledPetriNet compiled = new CompiledPetriNet(cycles(30, 20));
+        List<InetSocketAddress> addresses = addresses(3);
+        List<DistributedExplorer> explorers = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            DistributedExplorer explorer = new DistributedExplorer(compiled, addresses, i);
+            explorer.setBatchSize(7);
+            explorers.add(explorer);
+        }
+
+        List<ExplorationResult> results = exploreInThreads(explorers, compiled.getCurrentMarking());
+
+        ExplorationResult expected = new StoredStateExplorer(new OffHeapStateStore(compiled)).explore(
+                compiled.getCurrentMarking(), new IgnoringListener());
+        ExplorationResult total = results.get(0);
+        assertTrue(total.isComplete());
+        assertEquals(31 * 21, total.getStateCount());
+        assertEquals(expected.getStateCount(), total.getStateCount());
+        assertEquals(expected.getEdgeCount(), total.getEdgeCount());
+
+        long[] workerStates = explorers.get(0).getWorkerStates();
+        long sum = 0;
+        for (int i = 0; i < 3; i++) {
+            assertTrue(results.get(i).isComplete());
+            assertTrue(workerStates[i] > 0);
+            if (i > 0) {
+                assertEquals(workerStates[i], results.get(i).getStateCount());
+            }
+            sum += workerStates[i];
+        }
+        assertEquals(total.getStateCount(), sum);
+    }
+
+    @Test
+    public void runsAsSeparateProcesses() throws Exception {
+        List<InetSocketAddress> addresses = addresses(2);
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        List<Process> processes = new ArrayList<>();
+        try {
+            for (int i = 0; i < 2; i++) {
+                ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                        Worker.class.getName(), Integer.toString(i), Integer.toString(addresses.get(0).getPort()),
+                        Integer.toString(addresses.get(1).getPort()));
+                builder.redirectErrorStream(true);
+                processes.add(builder.start());
+            }
+            List<String> output = new ArrayList<>();
+            for (Process process : processes) {
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                    String line = reader.readLine();
+                    output.add(line);
+                }
+                assertTrue(process.waitFor(60, TimeUnit.SECONDS));
+            }
+            assertEquals("COMPLETE 36 120", output.get(0));
+            assertTrue(output.get(1).startsWith("COMPLETE "));
+        } finally {
+            for (Process process : processes) {
+                process.destroy();
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsWorkerNotInList() throws Exception {
+        new DistributedExplorer(cycles(1, 1), addresses(2), 2);
+    }
+
+    /**
+     * Entry point of the worker processes started by {@link #runsAsSeparateProcesses()}
+     */
+    public static final class Worker {
+        public static void main(String[] args) throws IOException {
+            List<InetSocketAddress> addresses = new ArrayList<>();
+            for (int i = 1; i < args.length; i++) {
+                addresses.add(new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(args[i])));
+            }
+            CompiledPetriNet compiled = new CompiledPetriNet(cycles(5, 5));
+            ExplorationResult result = new DistributedExplorer(compiled, addresses, Integer.parseInt(args[0])).explore(
+                    compiled.getCurrentMarking());
+            System.out.println(result.getStatus() + " " + result.getStateCount() + " " + result.getEdgeCount());
+        }
+    }
+
+    private static final class IgnoringListener implements StoredExplorationListener {
+        @Override
+        public void state(long id) {
+        }
+
+        @Override
+        public void edge(long source, long target, int transition) {
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package uk.ac.imperial.pipe.exploration;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import uk.ac.imperial.pipe.animation.AnimationUtils;
+import uk.ac.imperial.pipe.animation.CompiledPetriNet;
+import uk.ac.imperial.pipe.animation.PetriNetAnimationLogic;
+import uk.ac.imperial.pipe.dsl.*;
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+import uk.ac.imperial.pipe.models.petrinet.Transition;
+import uk.ac.imperial.state.State;
+
+import java.awt.Color;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ExternalMemoryExplorerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private PetriNet cycle(int tokens) {
+        return APetriNet.with(AToken.called("Default").withColor(Color.BLACK)).and(
+                APlace.withId("P0").containing(tokens, "Default").tokens()).and(APlace.withId("P1")).and(
+                ATimedTransition.withId("T0")).and(ATimedTransition.withId("T1")).and(
+                ANormalArc.withSource("P0").andTarget("T0").with("1", "Default").token()).and(
+                ANormalArc.withSource("T0").andTarget("P1").with("1", "Default").token()).and(
+                ANormalArc.withSource("P1").andTarget("T1").with("1", "Default").token()).andFinally(
+                ANormalArc.withSource("T1").andTarget("P0").with("1", "Default").token());
+    }
+
+    @Test
+    public void exploresEveryState() throws IOException {
+        PetriNet petriNet = cycle(3);
+        ExternalMemoryExplorer explorer = new ExternalMemoryExplorer(petriNet, folder.getRoot());
+
+        ExplorationResult result = explorer.explore(AnimationUtils.getState(petriNet));
+
+        assertTrue(result.isComplete());
+        assertEquals(4, result.getStateCount());
+        assertEquals(6, result.getEdgeCount());
+        assertEquals(Arrays.asList(1L, 1L, 1L, 1L), explorer.getLayerSizes());
+    }
+
+    @Test
+    public void matchesInMemoryExplorationWithManyRuns() throws IOException {
+        PetriNet petriNet = cycle(200);
+        ExternalMemoryExplorer explorer = new ExternalMemoryExplorer(petriNet, folder.getRoot());
+        explorer.setRunSize(1);
+
+        ExplorationResult result = explorer.explore(AnimationUtils.getState(petriNet));
+        ExplorationResult expected = new StateSpaceExplorer(new PetriNetAnimationLogic(petriNet), 2).explore(
+                AnimationUtils.getState(petriNet), new IgnoringListener());
+
+        assertTrue(result.isComplete());
+        assertEquals(expected.getStateCount(), result.getStateCount());
+        assertEquals(expected.getEdgeCount(), result.getEdgeCount());
+    }
+
+    @Test
+    public void everyExplorerCountsParallelTransitionsAsOneEdge() throws IOException {
+        PetriNet petriNet = APetriNet.with(AToken.called("Default").withColor(Color.BLACK)).and(
+                APlace.withId("P0").containing(2, "Default").tokens()).and(APlace.withId("P1")).and(
+                ATimedTransition.withId("T0")).and(ATimedTransition.withId("T1")).and(
+                ATimedTransition.withId("T2")).and(
+                ANormalArc.withSource("P0").andTarget("T0").with("1", "Default").token()).and(
+                ANormalArc.withSource("T0").andTarget("P1").with("1", "Default").token()).and(
+                ANormalArc.withSource("P0").andTarget("T1").with("1", "Default").token()).and(
+                ANormalArc.withSource("T1").andTarget("P1").with("1", "Default").token()).and(
+                ANormalArc.withSource("P1").andTarget("T2").with("1", "Default").token()).andFinally(
+                ANormalArc.withSource("T2").andTarget("P0").with("1", "Default").token());
+        CompiledPetriNet compiled = new CompiledPetriNet(petriNet);
+
+        ExplorationResult external = new ExternalMemoryExplorer(petriNet, folder.getRoot()).explore(
+                AnimationUtils.getState(petriNet));
+        ExplorationResult inMemory = new StateSpaceExplorer(new PetriNetAnimationLogic(petriNet), 2).explore(
+                AnimationUtils.getState(petriNet), new IgnoringListener());
+        ExplorationResult stored = new StoredStateExplorer(new OffHeapStateStore(compiled)).explore(
+                compiled.getCurrentMarking(), new StoredExplorationListener() {
+                    @Override
+                    public void state(long id) {
+                    }
+
+                    @Override
+                    public void edge(long source, long target, int transition) {
+                    }
+                });
+
+        assertEquals(3, inMemory.getStateCount());
+        assertEquals(4, inMemory.getEdgeCount());
+        assertEquals(4, external.getEdgeCount());
+        assertEquals(4, stored.getEdgeCount());
+    }
+
+    @Test
+    public void removesDuplicatesWithinLayer() throws IOException {
+        PetriNet petriNet = APetriNet.with(AToken.called("Default").withColor(Color.BLACK)).and(
+                APlace.withId("P0").containing(1, "Default").tokens()).and(
+                APlace.withId("P1").containing(1, "Default").tokens()).and(APlace.withId("Q0")).and(
+                APlace.withId("Q1")).and(AnImmediateTransition.withId("T0")).and(
+                AnImmediateTransition.withId("T1")).and(
+                ANormalArc.withSource("P0").andTarget("T0").with("1", "Default").token()).and(
+                ANormalArc.withSource("T0").andTarget("Q0").with("1", "Default").token()).and(
+                ANormalArc.withSource("P1").andTarget("T1").with("1", "Default").token()).andFinally(
+                ANormalArc.withSource("T1").andTarget("Q1").with("1", "Default").token());
+        ExternalMemoryExplorer explorer = new ExternalMemoryExplorer(petriNet, folder.getRoot());
+        explorer.setRunSize(1);
+
+        ExplorationResult result = explorer.explore(AnimationUtils.getState(petriNet));
+
+        assertEquals(4, result.getStateCount());
+        assertEquals(4, result.getEdgeCount());
+        assertEquals(Arrays.asList(1L, 2L, 1L), explorer.getLayerSizes());
+    }
+
+    @Test
+    public void mergesManyRunsInBoundedPasses() throws IOException {
+        PetriNet petriNet = APetriNet.with(AToken.called("Default").withColor(Color.BLACK)).and(
+                APlace.withId("P0").containing(20, "Default").tokens()).and(APlace.withId("P1")).and(
+                APlace.withId("Q0").containing(20, "Default").tokens()).and(APlace.withId("Q1")).and(
+                ATimedTransition.withId("T0")).and(ATimedTransition.withId("T1")).and(
+                ATimedTransition.withId("T2")).and(ATimedTransition.withId("T3")).and(
+                ANormalArc.withSource("P0").andTarget("T0").with("1", "Default").token()).and(
+                ANormalArc.withSource("T0").andTarget("P1").with("1", "Default").token()).and(
+                ANormalArc.withSource("P1").andTarget("T1").with("1", "Default").token()).and(
+                ANormalArc.withSource("T1").andTarget("P0").with("1", "Default").token()).and(
+                ANormalArc.withSource("Q0").andTarget("T2").with("1", "Default").token()).and(
+                ANormalArc.withSource("T2").andTarget("Q1").with("1", "Default").token()).and(
+                ANormalArc.withSource("Q1").andTarget("T3").with("1", "Default").token()).andFinally(
+                ANormalArc.withSource("T3").andTarget("Q0").with("1", "Default").token());
+        File directory = folder.newFolder("merge");
+        ExternalMemoryExplorer explorer = new ExternalMemoryExplorer(petriNet, directory);
+        explorer.setRunSize(1);
+        explorer.setMergeFanIn(3);
+
+        ExplorationResult result = explorer.explore(AnimationUtils.getState(petriNet));
+        ExplorationResult expected = new StateSpaceExplorer(new PetriNetAnimationLogic(petriNet), 2).explore(
+                AnimationUtils.getState(petriNet), new IgnoringListener());
+
+        assertTrue(result.isComplete());
+        assertEquals(21 * 21, result.getStateCount());
+        assertEquals(expected.getEdgeCount(), result.getEdgeCount());
+        assertEquals(0, directory.list().length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMergeFanInBelowTwo() {
+        new ExternalMemoryExplorer(cycle(1), folder.getRoot()).setMergeFanIn(1);
+    }
+
+    @Test
+    public void stopsAfterLayerReachingMaximumStates() throws IOException {
+        PetriNet petriNet = cycle(10);
+        ExternalMemoryExplorer explorer = new ExternalMemoryExplorer(petriNet, folder.getRoot());
+        explorer.setMaximumStates(3);
+
+        ExplorationResult result = explorer.explore(AnimationUtils.getState(petriNet));
+
+        assertEquals(ExplorationResult.Status.STATE_LIMIT_REACHED, result.getStatus());
+        assertEquals(3, result.getStateCount());
+    }
+
+    @Test
+    public void deletesItsFiles() throws IOException {
+        File directory = folder.newFolder("work");
+        PetriNet petriNet = cycle(5);
+
+        new ExternalMemoryExplorer(petriNet, directory).explore(AnimationUtils.getState(petriNet));
+
+        assertEquals(0, directory.listFiles().length);
+    }
+
+    private static final class IgnoringListener implements ExplorationListener {
+        @Override
+        public void state(State state) {
+        }
+
+        @Override
+        public void edge(State source, State target, Collection<Transition> transitions) {
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package uk.ac.imperial.pipe.exploration;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import uk.ac.imperial.pipe.animation.CompiledPetriNet;
+import uk.ac.imperial.pipe.animation.Marking;
+import uk.ac.imperial.pipe.dsl.*;
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class OffHeapStateStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final PetriNet petriNet = APetriNet.with(AToken.called("Default").withColor(Color.BLACK)).and(
+            APlace.withId("P0").containing(3, "Default").tokens()).and(APlace.withId("P1")).and(
+            ATimedTransition.withId("T0")).and(ATimedTransition.withId("T1")).and(
+            ANormalArc.withSource("P0").andTarget("T0").with("1", "Default").token()).and(
+            ANormalArc.withSource("T0").andTarget("P1").with("1", "Default").token()).and(
+            ANormalArc.withSource("P1").andTarget("T1").with("1", "Default").token()).andFinally(
+            ANormalArc.withSource("T1").andTarget("P0").with("1", "Default").token());
+
+    private final CompiledPetriNet compiled = new CompiledPetriNet(petriNet);
+
+    @Test
+    public void givesStableIdsInOrderAdded() {
+        OffHeapStateStore store = new OffHeapStateStore(compiled);
+
+        assertEquals(0, store.addIfAbsent(new int[]{3, 0}));
+        assertEquals(1, store.addIfAbsent(new int[]{2, 1}));
+        assertEquals(-1, store.addIfAbsent(new int[]{3, 0}));
+        assertEquals(-2, store.addIfAbsent(new int[]{2, 1}));
+        assertEquals(1, store.find(new int[]{2, 1}));
+        assertEquals(-1, store.find(new int[]{1, 2}));
+        assertEquals(2, store.size());
+        assertEquals(new Marking(compiled, new int[]{2, 1}), store.getMarking(1));
+    }
+
+    @Test
+    public void keepsIdsAsIndexGrows() {
+        OffHeapStateStore store = new OffHeapStateStore(compiled);
+        for (int i = 0; i < 20000; i++) {
+            assertEquals(i, store.addIfAbsent(new int[]{i, i * 1000}));
+        }
+        int[] marking = new int[2];
+        for (int i = 0; i < 20000; i++) {
+            assertEquals(-(i + 1), store.addIfAbsent(new int[]{i, i * 1000}));
+            store.get(i, marking);
+            assertArrayEquals(new int[]{i, i * 1000}, marking);
+        }
+    }
+
+    @Test
+    public void mapsSegmentsFromFile() throws IOException {
+        try (OffHeapStateStore store = new OffHeapStateStore(compiled, folder.newFile("states"))) {
+            store.addIfAbsent(new int[]{CompiledPetriNet.INFINITY, 0});
+            store.addIfAbsent(new int[]{1, 2});
+
+            assertEquals(0, store.find(new int[]{CompiledPetriNet.INFINITY, 0}));
+            assertEquals(new Marking(compiled, new int[]{1, 2}), store.getMarking(1));
+            assertTrue(store.getAllocatedBytes() > 0);
+        }
+    }
+
+    @Test
+    public void exploresByIds() {
+        OffHeapStateStore store = new OffHeapStateStore(compiled);
+        final List<Long> states = new ArrayList<>();
+        final List<long[]> edges = new ArrayList<>();
+
+        ExplorationResult result = new StoredStateExplorer(store).explore(compiled.getCurrentMarking(),
+                new StoredExplorationListener() {
+                    @Override
+                    public void state(long id) {
+                        states.add(id);
+                    }
+
+                    @Override
+                    public void edge(long source, long target, int transition) {
+                        edges.add(new long[]{source, target, transition});
+                    }
+                });
+
+        assertTrue(result.isComplete());
+        assertEquals(4, result.getStateCount());
+        assertEquals(6, result.getEdgeCount());
+        assertEquals(4, store.size());
+        assertEquals(4, states.size());
+        assertEquals(6, edges.size());
+        assertEquals(new Marking(compiled, new int[]{3, 0}), store.getMarking(0));
+    }
+
+    @Test
+    public void stopsAtMaximumStates() {
+        OffHeapStateStore store = new OffHeapStateStore(compiled);
+        StoredStateExplorer explorer = new StoredStateExplorer(store);
+        explorer.setMaximumStates(2);
+
+        ExplorationResult result = explorer.explore(compiled.getCurrentMarking(), new StoredExplorationListener() {
+            @Override
+            public void state(long id) {
+            }
+
+            @Override
+            public void edge(long source, long target, int transition) {
+                assertTrue(target < 2);
+            }
+        });
+
+        assertEquals(ExplorationResult.Status.STATE_LIMIT_REACHED, result.getStatus());
+        assertEquals(2, result.getStateCount());
+        assertEquals(2, store.size());
+    }
+}
@@ -0,0 +1,110 @@
+package uk.ac.imperial.pipe.exploration;
+
+import org.junit.Test;
+import uk.ac.imperial.pipe.animation.AnimationUtils;
+import uk.ac.imperial.pipe.animation.CompiledPetriNet;
+import uk.ac.imperial.pipe.animation.Marking;
+import uk.ac.imperial.pipe.animation.PetriNetAnimationLogic;
+import uk.ac.imperial.pipe.dsl.*;
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+import uk.ac.imperial.pipe.models.petrinet.Transition;
+import uk.ac.imperial.state.State;
+
+import java.awt.Color;
+import java.util.Collection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ProbabilisticVisitedSetTest {
+
+    private final PetriNet petriNet = APetriNet.with(AToken.called("Default").withColor(Color.BLACK)).and(
+            APlace.withId("P0").containing(3, "Default").tokens()).and(APlace.withId("P1")).and(
+            ATimedTransition.withId("T0")).and(ATimedTransition.withId("T1")).and(
+            ANormalArc.withSource("P0").andTarget("T0").with("1", "Default").token()).and(
+            ANormalArc.withSource("T0").andTarget("P1").with("1", "Default").token()).and(
+            ANormalArc.withSource("P1").andTarget("T1").with("1", "Default").token()).andFinally(
+            ANormalArc.withSource("T1").andTarget("P0").with("1", "Default").token());
+
+    private final CompiledPetriNet compiled = new CompiledPetriNet(petriNet);
+
+    private Marking marking(int p0, int p1) {
+        return new Marking(compiled, new int[]{p0, p1});
+    }
+
+    @Test
+    public void fingerprintSetRecognisesVisitedStates() {
+        FingerprintVisitedSet visited = new FingerprintVisitedSet(1000);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(visited.add(marking(i, 0)));
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertFalse(visited.add(marking(i, 0)));
+        }
+        assertEquals(1000, visited.size());
+        assertTrue(visited.getOmissionProbability() > 0);
+        assertTrue(visited.getOmissionProbability() < 1e-12);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void fingerprintSetThrowsWhenFull() {
+        FingerprintVisitedSet visited = new FingerprintVisitedSet(2);
+        visited.add(marking(0, 0));
+        visited.add(marking(1, 0));
+        visited.add(marking(2, 0));
+    }
+
+    @Test
+    public void bitstateSetRecognisesVisitedStates() {
+        BitstateVisitedSet visited = new BitstateVisitedSet(1 << 16);
+        assertEquals(1 << 19, visited.getBitCount());
+        int added = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (visited.add(marking(i, 1))) {
+                added++;
+            }
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertFalse(visited.add(marking(i, 1)));
+        }
+        assertEquals(added, visited.size());
+        assertTrue(added >= 999);
+        assertTrue(visited.getFalsePositiveRate() < 1e-6);
+        assertTrue(visited.getOmissionProbability() < 1e-3);
+    }
+
+    @Test
+    public void tinyBitstateReportsLikelyOmissions() {
+        BitstateVisitedSet visited = new BitstateVisitedSet(8, 2);
+        for (int i = 0; i < 200; i++) {
+            visited.add(marking(i, 2));
+        }
+        assertTrue(visited.size() < 200);
+        assertTrue(visited.getOmissionProbability() > 0.99);
+    }
+
+    @Test
+    public void explorerReportsOmissionProbability() {
+        StateSpaceExplorer explorer = new StateSpaceExplorer(new PetriNetAnimationLogic(petriNet), 2);
+        ExplorationResult result = explorer.explore(AnimationUtils.getState(petriNet), new CountingListener(),
+                new FingerprintVisitedSet(100));
+
+        assertTrue(result.isComplete());
+        assertEquals(4, result.getStateCount());
+        assertTrue(result.getOmissionProbability() > 0);
+
+        ExplorationResult exact = explorer.explore(AnimationUtils.getState(petriNet), new CountingListener());
+        assertEquals(0, exact.getOmissionProbability(), 0);
+    }
+
+    private static final class CountingListener implements ExplorationListener {
+        @Override
+        public void state(State state) {
+        }
+
+        @Override
+        public void edge(State source, State target, Collection<Transition> transitions) {
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package uk.ac.imperial.pipe.exploration;
+
+import org.junit.Test;
+import uk.ac.imperial.pipe.animation.CompiledPetriNet;
+import uk.ac.imperial.pipe.dsl.*;
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+
+import java.awt.Color;
+import java.math.BigInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SaturationExplorerTest {
+
+    /**
+     * Independent two place cycles, each with the given number of tokens
+     */
+    private static PetriNet cycles(int count, int tokens) {
+        APetriNet net = APetriNet.with(AToken.called("Default").withColor(Color.BLACK));
+        for (int i = 0; i < count; i++) {
+            net = net.and(APlace.withId("P" + i).containing(tokens, "Default").tokens()).and(
+                    APlace.withId("Q" + i)).and(ATimedTransition.withId("T" + i)).and(
+                    ATimedTransition.withId("U" + i)).and(
+                    ANormalArc.withSource("P" + i).andTarget("T" + i).with("1", "Default").token()).and(
+                    ANormalArc.withSource("T" + i).andTarget("Q" + i).with("1", "Default").token()).and(
+                    ANormalArc.withSource("Q" + i).andTarget("U" + i).with("1", "Default").token()).and(
+                    ANormalArc.withSource("U" + i).andTarget("P" + i).with("1", "Default").token());
+        }
+        return net.andFinally(APlace.withId("Unused"));
+    }
+
+    @Test
+    public void findsReachableMarkingsOfCycle() {
+        CompiledPetriNet compiled = new CompiledPetriNet(cycles(1, 3));
+
+        SymbolicStateSpace states = new SaturationExplorer(compiled).explore();
+
+        assertEquals(BigInteger.valueOf(4), states.getStateCount());
+        assertEquals(3, states.getBound("P0"));
+        assertEquals(3, states.getBound("Q0"));
+        assertEquals(0, states.getBound("Unused"));
+        assertTrue(states.contains(new int[]{1, 2, 0}));
+        assertFalse(states.contains(new int[]{1, 1, 0}));
+        assertFalse(states.contains(new int[]{4, 0, 0}));
+    }
+
+    @Test
+    public void countsHugeConcurrentStateSpaceWithoutEnumerating() {
+        SaturationExplorer explorer = new SaturationExplorer(cycles(30, 3));
+        explorer.setCacheSize(1 << 12);
+
+        SymbolicStateSpace states = explorer.explore();
+
+        assertEquals(BigInteger.valueOf(4).pow(30), states.getStateCount());
+        assertEquals(3, states.getBound("Q29"));
+        assertTrue(states.getNodeCount() < 1000);
+    }
+
+    @Test
+    public void matchesExplicitExplorationWithInhibitorAndCapacity() {
+        PetriNet petriNet = APetriNet.with(AToken.called("Default").withColor(Color.BLACK)).and(
+                APlace.withId("P0").containing(5, "Default").tokens()).and(APlace.withId("P1").andCapacity(3)).and(
+                APlace.withId("P2")).and(ATimedTransition.withId("T0")).and(ATimedTransition.withId("T1")).and(
+                ATimedTransition.withId("T2")).and(ATimedTransition.withId("T3")).and(
+                ANormalArc.withSource("P0").andTarget("T0").with("1", "Default").token()).and(
+                ANormalArc.withSource("T0").andTarget("P1").with("1", "Default").token()).and(
+                ANormalArc.withSource("P1").andTarget("T1").with("1", "Default").token()).and(
+                ANormalArc.withSource("T1").andTarget("P0").with("1", "Default").token()).and(
+                ANormalArc.withSource("P0").andTarget("T2").with("2", "Default").tokens()).and(
+                ANormalArc.withSource("T2").andTarget("P2").with("1", "Default").token()).and(
+                AnInhibitorArc.withSource("P1").andTarget("T2")).and(
+                ANormalArc.withSource("P2").andTarget("T3").with("1", "Default").token()).andFinally(
+                ANormalArc.withSource("T3").andTarget("P0").with("2", "Default").tokens());
+        CompiledPetriNet compiled = new CompiledPetriNet(petriNet);
+
+        SymbolicStateSpace states = new SaturationExplorer(compiled).explore();
+
+        OffHeapStateStore store = new OffHeapStateStore(compiled);
+        new StoredStateExplorer(store).explore(compiled.getCurrentMarking(), new StoredExplorationListener() {
+            @Override
+            public void state(long id) {
+            }
+
+            @Override
+            public void edge(long source, long target, int transition) {
+            }
+        });
+        assertEquals(BigInteger.valueOf(store.size()), states.getStateCount());
+        int[] marking = new int[compiled.getMarkingSize()];
+        for (long id = 0; id < store.size(); id++) {
+            store.get(id, marking);
+            assertTrue(states.contains(marking));
+        }
+        assertEquals(3, states.getBound("P1"));
+        assertEquals(2, states.getBound("P2"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsImmediateTransitionsPreemptingTimed() {
+        new SaturationExplorer(APetriNet.with(AToken.called("Default").withColor(Color.BLACK)).and(
+                APlace.withId("P0")).and(ATimedTransition.withId("T0")).andFinally(
+                AnImmediateTransition.withId("T1")));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void stopsOnUnboundedPlace() {
+        SaturationExplorer explorer = new SaturationExplorer(APetriNet.with(
+                AToken.called("Default").withColor(Color.BLACK)).and(APlace.withId("P0")).and(
+                ATimedTransition.withId("T0")).andFinally(
+                ANormalArc.withSource("T0").andTarget("P0").with("1", "Default").token()));
+        explorer.setMaximumLocalStates(100);
+
+        explorer.explore();
+    }
+}
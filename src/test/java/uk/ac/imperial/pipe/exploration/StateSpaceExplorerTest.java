@@ -0,0 +1,153 @@
+package uk.ac.imperial.pipe.exploration;
+
+import org.junit.Before;
+import org.junit.Test;
+import uk.ac.imperial.pipe.animation.AnimationUtils;
+import uk.ac.imperial.pipe.animation.PetriNetAnimationLogic;
+import uk.ac.imperial.pipe.dsl.*;
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+import uk.ac.imperial.pipe.models.petrinet.Transition;
+import uk.ac.imperial.state.State;
+
+import java.awt.Color;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StateSpaceExplorerTest {
+
+    private PetriNet petriNet;
+
+    @Before
+    public void setUp() {
+        petriNet = APetriNet.with(AToken.called("Default").withColor(Color.BLACK)).and(
+                APlace.withId("P0").containing(3, "Default").tokens()).and(APlace.withId("P1")).and(
+                ATimedTransition.withId("T0")).and(ATimedTransition.withId("T1")).and(
+                ANormalArc.withSource("P0").andTarget("T0").with("1", "Default").token()).and(
+                ANormalArc.withSource("T0").andTarget("P1").with("1", "Default").token()).and(
+                ANormalArc.withSource("P1").andTarget("T1").with("1", "Default").token()).andFinally(
+                ANormalArc.withSource("T1").andTarget("P0").with("1", "Default").token());
+    }
+
+    @Test
+    public void breadthFirstFindsEveryState() {
+        assertExploresCycle(SearchOrder.BREADTH_FIRST);
+    }
+
+    @Test
+    public void depthFirstFindsEveryState() {
+        assertExploresCycle(SearchOrder.DEPTH_FIRST);
+    }
+
+    @Test
+    public void stopsAtMaximumStates() {
+        StateSpaceExplorer explorer = new StateSpaceExplorer(new PetriNetAnimationLogic(petriNet), 1);
+        explorer.setMaximumStates(2);
+        CollectingListener listener = new CollectingListener();
+        ExplorationResult result = explorer.explore(AnimationUtils.getState(petriNet), listener);
+
+        assertEquals(ExplorationResult.Status.STATE_LIMIT_REACHED, result.getStatus());
+        assertEquals(2, result.getStateCount());
+        assertEquals(2, listener.states.size());
+        for (State target : listener.targets) {
+            assertTrue(listener.states.contains(target));
+        }
+    }
+
+    @Test
+    public void cancelStopsExploration() {
+        final StateSpaceExplorer explorer = new StateSpaceExplorer(new PetriNetAnimationLogic(petriNet), 1);
+        final AtomicLong reported = new AtomicLong();
+        ExplorationResult result = explorer.explore(AnimationUtils.getState(petriNet), new ExplorationListener() {
+            @Override
+            public void state(State state) {
+                reported.incrementAndGet();
+                explorer.cancel();
+            }
+
+            @Override
+            public void edge(State source, State target, Collection<Transition> transitions) {
+            }
+        });
+
+        assertEquals(ExplorationResult.Status.CANCELLED, result.getStatus());
+        assertEquals(1, reported.get());
+    }
+
+    @Test
+    public void cancelBeforeExploringStopsNextExploration() {
+        StateSpaceExplorer explorer = new StateSpaceExplorer(new PetriNetAnimationLogic(petriNet), 1);
+        explorer.cancel();
+
+        assertEquals(ExplorationResult.Status.CANCELLED,
+                explorer.explore(AnimationUtils.getState(petriNet), new CollectingListener()).getStatus());
+        assertTrue(explorer.explore(AnimationUtils.getState(petriNet), new CollectingListener()).isComplete());
+    }
+
+    @Test
+    public void reportsStatesBeforeEdgesIntoThem() {
+        PetriNet large = APetriNet.with(AToken.called("Default").withColor(Color.BLACK)).and(
+                APlace.withId("P0").containing(60, "Default").tokens()).and(APlace.withId("P1")).and(
+                APlace.withId("P2")).and(ATimedTransition.withId("T0")).and(ATimedTransition.withId("T1")).and(
+                ATimedTransition.withId("T2")).and(
+                ANormalArc.withSource("P0").andTarget("T0").with("1", "Default").token()).and(
+                ANormalArc.withSource("T0").andTarget("P1").with("1", "Default").token()).and(
+                ANormalArc.withSource("P1").andTarget("T1").with("1", "Default").token()).and(
+                ANormalArc.withSource("T1").andTarget("P2").with("1", "Default").token()).and(
+                ANormalArc.withSource("P2").andTarget("T2").with("1", "Default").token()).andFinally(
+                ANormalArc.withSource("T2").andTarget("P0").with("1", "Default").token());
+        final Set<State> reported = Collections.synchronizedSet(new HashSet<State>());
+        final AtomicLong early = new AtomicLong();
+
+        ExplorationResult result = new StateSpaceExplorer(new PetriNetAnimationLogic(large), 8).explore(
+                AnimationUtils.getState(large), new ExplorationListener() {
+                    @Override
+                    public void state(State state) {
+                        reported.add(state);
+                    }
+
+                    @Override
+                    public void edge(State source, State target, Collection<Transition> transitions) {
+                        if (!reported.contains(target)) {
+                            early.incrementAndGet();
+                        }
+                    }
+                });
+
+        assertEquals(61 * 62 / 2, result.getStateCount());
+        assertEquals(0, early.get());
+    }
+
+    private void assertExploresCycle(SearchOrder order) {
+        StateSpaceExplorer explorer = new StateSpaceExplorer(new PetriNetAnimationLogic(petriNet), 4);
+        explorer.setSearchOrder(order);
+        CollectingListener listener = new CollectingListener();
+        ExplorationResult result = explorer.explore(AnimationUtils.getState(petriNet), listener);
+
+        assertTrue(result.isComplete());
+        assertEquals(4, result.getStateCount());
+        assertEquals(6, result.getEdgeCount());
+        assertEquals(4, listener.states.size());
+    }
+
+    private static final class CollectingListener implements ExplorationListener {
+        private final Set<State> states = Collections.synchronizedSet(new HashSet<State>());
+
+        private final Set<State> targets = Collections.synchronizedSet(new HashSet<State>());
+
+        @Override
+        public void state(State state) {
+            states.add(state);
+        }
+
+        @Override
+        public void edge(State source, State target, Collection<Transition> transitions) {
+            targets.add(target);
+        }
+    }
+}
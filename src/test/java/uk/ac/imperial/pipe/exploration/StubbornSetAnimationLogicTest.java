@@ -0,0 +1,114 @@
+package uk.ac.imperial.pipe.exploration;
+
+import org.junit.Test;
+import uk.ac.imperial.pipe.animation.AnimationLogic;
+import uk.ac.imperial.pipe.animation.AnimationUtils;
+import uk.ac.imperial.pipe.animation.PetriNetAnimationLogic;
+import uk.ac.imperial.pipe.dsl.*;
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+import uk.ac.imperial.pipe.models.petrinet.Transition;
+import uk.ac.imperial.state.State;
+
+import java.awt.Color;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StubbornSetAnimationLogicTest {
+
+    /**
+     * @param count number of independent transitions
+     * @return Petri net with Pi -> Ti -> Qi for each i, every Pi holding a token
+     */
+    private static PetriNet independentNet(int count) {
+        APetriNet builder = APetriNet.with(AToken.called("Default").withColor(Color.BLACK));
+        for (int i = 0; i < count; i++) {
+            builder = builder.and(APlace.withId("P" + i).containing(1, "Default").token()).and(
+                    APlace.withId("Q" + i)).and(AnImmediateTransition.withId("T" + i)).and(
+                    ANormalArc.withSource("P" + i).andTarget("T" + i).with("1", "Default").token()).and(
+                    ANormalArc.withSource("T" + i).andTarget("Q" + i).with("1", "Default").token());
+        }
+        return builder.andFinally(APlace.withId("Z"));
+    }
+
+    @Test
+    public void firesOneOfIndependentTransitions() {
+        PetriNet petriNet = independentNet(4);
+        StubbornSetAnimationLogic logic = new StubbornSetAnimationLogic(new PetriNetAnimationLogic(petriNet));
+
+        assertEquals(1, logic.getStubbornTransitions(AnimationUtils.getState(petriNet)).cardinality());
+        assertEquals(16, explore(new PetriNetAnimationLogic(petriNet), petriNet).states.size());
+        Listener reduced = explore(logic, petriNet);
+        assertEquals(5, reduced.states.size());
+        assertEquals(1, reduced.deadlocks(logic).size());
+    }
+
+    @Test
+    public void preservesDeadlocksOfConflicts() {
+        PetriNet petriNet = APetriNet.with(AToken.called("Default").withColor(Color.BLACK)).and(
+                APlace.withId("P0").containing(1, "Default").token()).and(APlace.withId("A")).and(
+                APlace.withId("B")).and(APlace.withId("C").containing(1, "Default").token()).and(
+                APlace.withId("D")).and(AnImmediateTransition.withId("T0")).and(
+                AnImmediateTransition.withId("T1")).and(AnImmediateTransition.withId("T2")).and(
+                ANormalArc.withSource("P0").andTarget("T0").with("1", "Default").token()).and(
+                ANormalArc.withSource("P0").andTarget("T1").with("1", "Default").token()).and(
+                ANormalArc.withSource("T0").andTarget("A").with("1", "Default").token()).and(
+                ANormalArc.withSource("T1").andTarget("B").with("1", "Default").token()).and(
+                ANormalArc.withSource("C").andTarget("T2").with("1", "Default").token()).andFinally(
+                ANormalArc.withSource("T2").andTarget("D").with("1", "Default").token());
+        PetriNetAnimationLogic full = new PetriNetAnimationLogic(petriNet);
+        StubbornSetAnimationLogic logic = new StubbornSetAnimationLogic(new PetriNetAnimationLogic(petriNet));
+
+        Set<State> fullDeadlocks = explore(full, petriNet).deadlocks(full);
+        Listener reduced = explore(logic, petriNet);
+        assertEquals(2, fullDeadlocks.size());
+        assertEquals(fullDeadlocks, reduced.deadlocks(logic));
+        assertTrue(reduced.states.size() < explore(full, petriNet).states.size());
+    }
+
+    @Test
+    public void keepsVisiblePlaceMarkings() {
+        PetriNet petriNet = independentNet(3);
+        StubbornSetAnimationLogic logic =
+                new StubbornSetAnimationLogic(new PetriNetAnimationLogic(petriNet), Arrays.asList("Q0", "Q1"));
+
+        Set<String> visibleMarkings = new HashSet<>();
+        for (State state : explore(logic, petriNet).states) {
+            visibleMarkings.add(state.getTokens("Q0").get("Default") + "," + state.getTokens("Q1").get("Default"));
+        }
+        assertEquals(new HashSet<>(Arrays.asList("0,0", "1,0", "0,1", "1,1")), visibleMarkings);
+    }
+
+    private static Listener explore(AnimationLogic logic, PetriNet petriNet) {
+        Listener listener = new Listener();
+        new StateSpaceExplorer(logic, 2).explore(AnimationUtils.getState(petriNet), listener);
+        return listener;
+    }
+
+    private static final class Listener implements ExplorationListener {
+        private final Set<State> states = new HashSet<>();
+
+        @Override
+        public synchronized void state(State state) {
+            states.add(state);
+        }
+
+        @Override
+        public void edge(State source, State target, Collection<Transition> transitions) {
+        }
+
+        private Set<State> deadlocks(AnimationLogic logic) {
+            Set<State> deadlocks = new HashSet<>();
+            for (State state : states) {
+                if (logic.getEnabledTransitions(state).isEmpty()) {
+                    deadlocks.add(state);
+                }
+            }
+            return deadlocks;
+        }
+    }
+}
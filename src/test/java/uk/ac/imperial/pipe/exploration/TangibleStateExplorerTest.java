@@ -0,0 +1,185 @@
+package uk.ac.imperial.pipe.exploration;
+
+import org.junit.Test;
+import uk.ac.imperial.pipe.animation.CompiledPetriNet;
+import uk.ac.imperial.pipe.animation.Marking;
+import uk.ac.imperial.pipe.dsl.*;
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+
+import java.awt.Color;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TangibleStateExplorerTest {
+
+    private static APetriNet choiceNet(int p0, int p1) {
+        return APetriNet.with(AToken.called("Default").withColor(Color.BLACK)).and(
+                APlace.withId("P0").containing(p0, "Default").tokens()).and(
+                APlace.withId("P1").containing(p1, "Default").tokens()).and(APlace.withId("P2")).and(
+                APlace.withId("P3")).and(ATimedTransition.withId("T0").andRate("2")).and(
+                AnImmediateTransition.withId("I1").andProbability("1")).and(
+                AnImmediateTransition.withId("I2").andProbability("3")).and(
+                ATimedTransition.withId("T2").andRate("1")).and(ATimedTransition.withId("T3").andRate("1")).and(
+                ANormalArc.withSource("P0").andTarget("T0").with("1", "Default").token()).and(
+                ANormalArc.withSource("T0").andTarget("P1").with("1", "Default").token()).and(
+                ANormalArc.withSource("P1").andTarget("I1").with("1", "Default").token()).and(
+                ANormalArc.withSource("I1").andTarget("P2").with("1", "Default").token()).and(
+                ANormalArc.withSource("P1").andTarget("I2").with("1", "Default").token()).and(
+                ANormalArc.withSource("I2").andTarget("P3").with("1", "Default").token()).and(
+                ANormalArc.withSource("P2").andTarget("T2").with("1", "Default").token()).and(
+                ANormalArc.withSource("T2").andTarget("P0").with("1", "Default").token()).and(
+                ANormalArc.withSource("P3").andTarget("T3").with("1", "Default").token()).and(
+                ANormalArc.withSource("T3").andTarget("P0").with("1", "Default").token());
+    }
+
+    @Test
+    public void splitsTimedRateOverImmediateChoice() {
+        CompiledPetriNet compiled = new CompiledPetriNet(choiceNet(1, 0).andFinally(APlace.withId("Unused")));
+        OffHeapStateStore store = new OffHeapStateStore(compiled);
+        RecordingListener listener = new RecordingListener(store);
+
+        TangibleStateExplorer explorer = new TangibleStateExplorer(store);
+        ExplorationResult result = explorer.explore(compiled.getCurrentMarking(), listener);
+
+        assertTrue(result.isComplete());
+        assertEquals(3, result.getStateCount());
+        assertEquals(4, result.getEdgeCount());
+        assertEquals(1, explorer.getVanishingCount());
+        assertEquals(0.5, listener.rate(new int[]{1, 0, 0, 0, 0}, new int[]{0, 0, 1, 0, 0}), 1e-12);
+        assertEquals(1.5, listener.rate(new int[]{1, 0, 0, 0, 0}, new int[]{0, 0, 0, 1, 0}), 1e-12);
+        assertEquals(1, listener.rate(new int[]{0, 0, 0, 1, 0}, new int[]{1, 0, 0, 0, 0}), 1e-12);
+    }
+
+    @Test
+    public void startsFromDistributionOfVanishingInitialMarking() {
+        CompiledPetriNet compiled = new CompiledPetriNet(choiceNet(0, 1).andFinally(APlace.withId("Unused")));
+        OffHeapStateStore store = new OffHeapStateStore(compiled);
+        RecordingListener listener = new RecordingListener(store);
+
+        new TangibleStateExplorer(store).explore(compiled.getCurrentMarking(), listener);
+
+        assertEquals(2, listener.initial.size());
+        assertEquals(0.25, listener.initial.get(new Marking(compiled, new int[]{0, 0, 1, 0, 0})), 1e-12);
+        assertEquals(0.75, listener.initial.get(new Marking(compiled, new int[]{0, 0, 0, 1, 0})), 1e-12);
+    }
+
+    @Test
+    public void resolvesLoopsOfImmediateFirings() {
+        PetriNet petriNet = choiceNet(1, 0).and(AnImmediateTransition.withId("Back").andProbability("1")).and(
+                ANormalArc.withSource("P3").andTarget("Back").with("1", "Default").token()).andFinally(
+                ANormalArc.withSource("Back").andTarget("P1").with("1", "Default").token());
+        CompiledPetriNet compiled = new CompiledPetriNet(petriNet);
+        OffHeapStateStore store = new OffHeapStateStore(compiled);
+        RecordingListener listener = new RecordingListener(store);
+
+        TangibleStateExplorer explorer = new TangibleStateExplorer(store);
+        explorer.setCacheSize(0);
+        ExplorationResult result = explorer.explore(compiled.getCurrentMarking(), listener);
+
+        assertEquals(2, result.getStateCount());
+        assertEquals(2, listener.rate(new int[]{1, 0, 0, 0}, new int[]{0, 0, 1, 0}), 1e-9);
+    }
+
+    @Test
+    public void resolvesLoopsOfImmediateFiringsThatRarelyEnd() {
+        PetriNet petriNet = APetriNet.with(AToken.called("Default").withColor(Color.BLACK)).and(
+                APlace.withId("P0").containing(1, "Default").token()).and(APlace.withId("P1")).and(
+                APlace.withId("P2")).and(APlace.withId("P3")).and(ATimedTransition.withId("T0").andRate("2")).and(
+                AnImmediateTransition.withId("I1").andProbability("1")).and(
+                AnImmediateTransition.withId("I2").andProbability("999999")).and(
+                AnImmediateTransition.withId("Back").andProbability("1")).and(
+                ATimedTransition.withId("T2").andRate("1")).and(
+                ANormalArc.withSource("P0").andTarget("T0").with("1", "Default").token()).and(
+                ANormalArc.withSource("T0").andTarget("P1").with("1", "Default").token()).and(
+                ANormalArc.withSource("P1").andTarget("I1").with("1", "Default").token()).and(
+                ANormalArc.withSource("I1").andTarget("P2").with("1", "Default").token()).and(
+                ANormalArc.withSource("P1").andTarget("I2").with("1", "Default").token()).and(
+                ANormalArc.withSource("I2").andTarget("P3").with("1", "Default").token()).and(
+                ANormalArc.withSource("P3").andTarget("Back").with("1", "Default").token()).and(
+                ANormalArc.withSource("Back").andTarget("P1").with("1", "Default").token()).and(
+                ANormalArc.withSource("P2").andTarget("T2").with("1", "Default").token()).andFinally(
+                ANormalArc.withSource("T2").andTarget("P0").with("1", "Default").token());
+        CompiledPetriNet compiled = new CompiledPetriNet(petriNet);
+        OffHeapStateStore store = new OffHeapStateStore(compiled);
+        RecordingListener listener = new RecordingListener(store);
+
+        TangibleStateExplorer explorer = new TangibleStateExplorer(store);
+        ExplorationResult result = explorer.explore(compiled.getCurrentMarking(), listener);
+
+        assertTrue(result.isComplete());
+        assertEquals(2, result.getStateCount());
+        assertEquals(2, explorer.getVanishingCount());
+        assertEquals(2, listener.rate(new int[]{1, 0, 0, 0}, new int[]{0, 0, 1, 0}), 1e-9);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsImmediateFiringsThatNeverEnd() {
+        PetriNet petriNet = APetriNet.with(AToken.called("Default").withColor(Color.BLACK)).and(
+                APlace.withId("P0").containing(1, "Default").token()).and(APlace.withId("P1")).and(
+                AnImmediateTransition.withId("I0")).and(AnImmediateTransition.withId("I1")).and(
+                ANormalArc.withSource("P0").andTarget("I0").with("1", "Default").token()).and(
+                ANormalArc.withSource("I0").andTarget("P1").with("1", "Default").token()).and(
+                ANormalArc.withSource("P1").andTarget("I1").with("1", "Default").token()).andFinally(
+                ANormalArc.withSource("I1").andTarget("P0").with("1", "Default").token());
+        CompiledPetriNet compiled = new CompiledPetriNet(petriNet);
+        OffHeapStateStore store = new OffHeapStateStore(compiled);
+
+        new TangibleStateExplorer(store).explore(compiled.getCurrentMarking(), new RecordingListener(store));
+    }
+
+    @Test
+    public void mergesParallelTimedFirings() {
+        PetriNet petriNet = APetriNet.with(AToken.called("Default").withColor(Color.BLACK)).and(
+                APlace.withId("P0").containing(1, "Default").token()).and(APlace.withId("P1")).and(
+                ATimedTransition.withId("T0").andRate("1")).and(ATimedTransition.withId("T1").andRate("2")).and(
+                ANormalArc.withSource("P0").andTarget("T0").with("1", "Default").token()).and(
+                ANormalArc.withSource("T0").andTarget("P1").with("1", "Default").token()).and(
+                ANormalArc.withSource("P0").andTarget("T1").with("1", "Default").token()).andFinally(
+                ANormalArc.withSource("T1").andTarget("P1").with("1", "Default").token());
+        CompiledPetriNet compiled = new CompiledPetriNet(petriNet);
+        OffHeapStateStore store = new OffHeapStateStore(compiled);
+        RecordingListener listener = new RecordingListener(store);
+
+        ExplorationResult result = new TangibleStateExplorer(store).explore(compiled.getCurrentMarking(), listener);
+
+        assertEquals(1, result.getEdgeCount());
+        assertEquals(3, listener.rate(new int[]{1, 0}, new int[]{0, 1}), 0);
+    }
+
+    private static final class RecordingListener implements TangibleExplorationListener {
+        private final OffHeapStateStore store;
+
+        private final Map<Marking, Double> initial = new HashMap<>();
+
+        private final Map<String, Double> rates = new HashMap<>();
+
+        private RecordingListener(OffHeapStateStore store) {
+            this.store = store;
+        }
+
+        @Override
+        public void initial(long id, double probability) {
+            initial.put(store.getMarking(id), probability);
+        }
+
+        @Override
+        public void state(long id) {
+        }
+
+        @Override
+        public void rate(long source, long target, double rate) {
+            String key = store.getMarking(source) + "->" + store.getMarking(target);
+            assertTrue(!rates.containsKey(key));
+            rates.put(key, rate);
+        }
+
+        private double rate(int[] source, int[] target) {
+            CompiledPetriNet compiled = store.getCompiledPetriNet();
+            Double rate = rates.get(new Marking(compiled, source) + "->" + new Marking(compiled, target));
+            return rate == null ? 0 : rate;
+        }
+    }
+}
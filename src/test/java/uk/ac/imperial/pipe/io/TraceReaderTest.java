@@ -0,0 +1,130 @@
+package uk.ac.imperial.pipe.io;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import uk.ac.imperial.pipe.animation.PetriNetAnimator;
+import uk.ac.imperial.pipe.dsl.*;
+import uk.ac.imperial.pipe.exceptions.PetriNetComponentNotFoundException;
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+import uk.ac.imperial.pipe.models.petrinet.Transition;
+import uk.ac.imperial.pipe.simulation.GspnSimulator;
+import uk.ac.imperial.pipe.simulation.SplitMixRandom;
+import uk.ac.imperial.pipe.animation.CompiledPetriNet;
+
+import java.awt.Color;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TraceReaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static PetriNet queueNet() {
+        return APetriNet.with(AToken.called("Default").withColor(Color.BLACK)).and(
+                APlace.withId("P0").containing(5, "Default").tokens()).and(APlace.withId("P1")).and(
+                ATimedTransition.withId("T0").andRate("2")).and(ATimedTransition.withId("T1").andRate("1")).and(
+                ANormalArc.withSource("P0").andTarget("T0").with("1", "Default").token()).and(
+                ANormalArc.withSource("T0").andTarget("P1").with("1", "Default").token()).and(
+                ANormalArc.withSource("P1").andTarget("T1").with("1", "Default").token()).andFinally(
+                ANormalArc.withSource("T1").andTarget("P0").with("1", "Default").token());
+    }
+
+    @Test
+    public void replaysAndSeeksSimulationTrace() throws IOException {
+        CompiledPetriNet compiled = new CompiledPetriNet(queueNet());
+        GspnSimulator simulator = new GspnSimulator(compiled, new SplitMixRandom(3));
+        File file = folder.newFile("simulation.trace");
+        List<int[]> markings = new ArrayList<>();
+        List<Double> times = new ArrayList<>();
+        markings.add(simulator.getMarking());
+        times.add(0.0);
+        try (TraceWriter writer = new TraceWriter(file, compiled, true, 8, null)) {
+            simulator.setTraceWriter(writer);
+            for (int i = 0; i < 100; i++) {
+                simulator.step();
+                markings.add(simulator.getMarking());
+                times.add(simulator.getTime());
+            }
+        }
+
+        try (TraceReader reader = new TraceReader(file)) {
+            assertEquals(100, reader.getStepCount());
+            assertTrue(reader.isTimed());
+            assertEquals(Arrays.asList("P0", "P1"), reader.getPlaceIds());
+            for (int step = 1; step <= 100; step++) {
+                assertTrue(reader.next());
+                assertEquals(step, reader.getStep());
+                assertEquals(times.get(step), reader.getTime(), 0);
+                assertArrayEquals(markings.get(step), reader.getMarking());
+            }
+            assertFalse(reader.next());
+
+            for (int step : new int[]{57, 0, 100, 8, 9, 31}) {
+                reader.seek(step);
+                assertEquals(step, reader.getStep());
+                assertArrayEquals(markings.get(step), reader.getMarking());
+                assertEquals(times.get(step), reader.getTime(), 0);
+            }
+        }
+    }
+
+    @Test
+    public void recordsAnimationUndoAsCheckpoint() throws IOException, PetriNetComponentNotFoundException {
+        PetriNet petriNet = queueNet();
+        Transition t0 = petriNet.getComponent("T0", Transition.class);
+        File file = folder.newFile("animation.trace");
+        PetriNetAnimator animator = new PetriNetAnimator(petriNet);
+        try (TraceWriter writer = new TraceWriter(file, petriNet)) {
+            animator.setTraceWriter(writer);
+            animator.fireTransition(t0);
+            animator.fireTransition(t0);
+            animator.undo();
+            animator.fireTransition(t0);
+        }
+
+        int[][] markings = {{5, 0}, {4, 1}, {3, 2}, {4, 1}, {3, 2}};
+        try (TraceReader reader = new TraceReader(file)) {
+            assertEquals(4, reader.getStepCount());
+            assertTrue(reader.next());
+            assertEquals(0, reader.getTransition());
+            assertEquals(2, reader.getChangeCount());
+            assertTrue(reader.next());
+            assertTrue(reader.next());
+            assertEquals(3, reader.getStep());
+            assertEquals(-1, reader.getTransition());
+            assertEquals(2, reader.getChangeCount());
+            assertArrayEquals(markings[3], reader.getMarking());
+            assertTrue(reader.next());
+            assertArrayEquals(markings[4], reader.getMarking());
+            assertFalse(reader.next());
+
+            for (int step = 0; step < markings.length; step++) {
+                reader.seek(step);
+                assertEquals(step, reader.getStep());
+                assertArrayEquals(markings[step], reader.getMarking());
+            }
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsUnclosedTrace() throws IOException {
+        File file = folder.newFile("unclosed.trace");
+        TraceWriter writer = new TraceWriter(file, queueNet());
+        try {
+            writer.record(0, new int[]{4, 1});
+            new TraceReader(file);
+        } finally {
+            writer.close();
+        }
+    }
+}
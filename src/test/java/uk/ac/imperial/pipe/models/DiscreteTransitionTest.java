@@ -2,6 +2,8 @@ package uk.ac.imperial.pipe.models;
 
 import org.junit.Test;
 import uk.ac.imperial.pipe.animation.AnimationUtils;
+import uk.ac.imperial.pipe.animation.CompiledPetriNet;
+import uk.ac.imperial.pipe.animation.Marking;
 import uk.ac.imperial.pipe.dsl.*;
 import uk.ac.imperial.pipe.exceptions.PetriNetComponentNotFoundException;
 import uk.ac.imperial.pipe.models.petrinet.*;
@@ -195,6 +197,74 @@ public class DiscreteTransitionTest {
         assertEquals(4, actualRate, 0.0001);
     }
 
+    @Test
+    public void functionalRateEvaluatedPerState() throws PetriNetComponentNotFoundException {
+        PetriNet petriNet = APetriNet.with(AToken.called("Default").withColor(Color.BLACK)).and(
+                APlace.withId("P0").and(5, "Default").tokens()).and(APlace.withId("P1").and(2, "Default").tokens()).and(
+                ATimedTransition.withId("T0").andIsASingle().server().andRate("#(P0) * 2")).andFinally(
+                ANormalArc.withSource("P0").andTarget("T0").with("1", "Default").token());
+        Transition t0 = petriNet.getComponent("T0", Transition.class);
+        Place p0 = petriNet.getComponent("P0", Place.class);
+
+        State five = AnimationUtils.getState(petriNet);
+        assertEquals(10, t0.getActualRate(petriNet, five), 0.0001);
+        p0.setTokenCount("Default", 3);
+        State three = AnimationUtils.getState(petriNet);
+        assertEquals(6, t0.getActualRate(petriNet, three), 0.0001);
+        assertEquals(10, t0.getActualRate(petriNet, five), 0.0001);
+    }
+
+    @Test
+    public void actualRateFollowsRateAndArcChanges() throws PetriNetComponentNotFoundException {
+        PetriNet petriNet = APetriNet.with(AToken.called("Default").withColor(Color.BLACK)).and(
+                APlace.withId("P0").and(6, "Default").tokens()).and(
+                ATimedTransition.withId("T0").andIsAnInfinite().server().andRate("1")).andFinally(
+                ANormalArc.withSource("P0").andTarget("T0").with("1", "Default").token());
+        Transition t0 = petriNet.getComponent("T0", Transition.class);
+        State state = AnimationUtils.getState(petriNet);
+        assertEquals(6, t0.getActualRate(petriNet, state), 0.0001);
+
+        t0.setRate(new NormalRate("2"));
+        assertEquals(12, t0.getActualRate(petriNet, state), 0.0001);
+
+        for (InboundArc arc : petriNet.inboundArcs(t0)) {
+            arc.setWeight("Default", "3");
+        }
+        assertEquals(4, t0.getActualRate(petriNet, state), 0.0001);
+
+        t0.setInfiniteServer(false);
+        assertEquals(2, t0.getActualRate(petriNet, state), 0.0001);
+    }
+
+    @Test
+    public void markingsAndHashedStatesShareMemoisedRates() throws PetriNetComponentNotFoundException {
+        PetriNet petriNet = APetriNet.with(AToken.called("Default").withColor(Color.BLACK)).and(
+                AToken.called("Red").withColor(Color.RED)).and(
+                APlace.withId("P0").and(2, "Default").tokens()).and(
+                ATimedTransition.withId("T0").andIsASingle().server().andRate("#(P0) + 1")).andFinally(
+                ANormalArc.withSource("P0").andTarget("T0").with("1", "Default").token());
+        Transition t0 = petriNet.getComponent("T0", Transition.class);
+        Place p0 = petriNet.getComponent("P0", Place.class);
+        CompiledPetriNet compiled = new CompiledPetriNet(petriNet);
+
+        State hashed = AnimationUtils.getState(petriNet);
+        assertEquals(3, t0.getActualRate(petriNet, hashed), 0.0001);
+        assertEquals(3, t0.getActualRate(petriNet, new Marking(compiled, compiled.getCurrentMarking())), 0.0001);
+        p0.setTokenCount("Red", 4);
+        assertEquals(7, t0.getActualRate(petriNet, new Marking(compiled, compiled.getCurrentMarking())), 0.0001);
+        assertEquals(7, t0.getActualRate(petriNet, AnimationUtils.getState(petriNet)), 0.0001);
+        assertEquals(3, t0.getActualRate(petriNet, hashed), 0.0001);
+    }
+
+    @Test
+    public void unevaluableRateIsMinusOne() throws PetriNetComponentNotFoundException {
+        PetriNet petriNet = APetriNet.with(AToken.called("Default").withColor(Color.BLACK)).and(
+                APlace.withId("P0").and(2, "Default").tokens()).andFinally(
+                ATimedTransition.withId("T0").andIsASingle().server().andRate("#(P9) * 2"));
+        Transition t0 = petriNet.getComponent("T0", Transition.class);
+        assertEquals(-1, t0.getActualRate(petriNet, AnimationUtils.getState(petriNet)), 0.0001);
+    }
+
     @Test
     public void visitDiscreteTransitionVisitor(){
         DiscreteTransition transition = new DiscreteTransition("id", "name");
@@ -0,0 +1,106 @@
+package uk.ac.imperial.pipe.parsers;
+
+import org.junit.Test;
+import uk.ac.imperial.pipe.dsl.APetriNet;
+import uk.ac.imperial.pipe.dsl.APlace;
+import uk.ac.imperial.pipe.dsl.AToken;
+import uk.ac.imperial.pipe.exceptions.PetriNetComponentNotFoundException;
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+import uk.ac.imperial.pipe.models.petrinet.Place;
+import uk.ac.imperial.state.HashedStateBuilder;
+import uk.ac.imperial.state.State;
+
+import java.awt.Color;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CompiledExpressionTest {
+
+    @Test
+    public void plainNumberIsConstant() {
+        CompiledExpression expression = CompiledExpression.compile("4");
+        assertTrue(expression.isConstant());
+        assertEquals(4, expression.getConstantValue(), 0.0001);
+    }
+
+    @Test
+    public void arithmeticWithoutComponentsIsConstant() {
+        CompiledExpression expression = CompiledExpression.compile("ceil(3 / 2) * 2 + 1");
+        assertTrue(expression.isConstant());
+        assertEquals(5, expression.evaluate(null), 0.0001);
+    }
+
+    @Test
+    public void recordsSyntaxErrors() {
+        CompiledExpression expression = CompiledExpression.compile("2 *");
+        assertTrue(expression.hasErrors());
+        assertThat(expression.getErrors()).containsExactly("line 1:3 no viable alternative at input '<EOF>'");
+    }
+
+    @Test
+    public void recordsReferencedComponents() {
+        CompiledExpression expression = CompiledExpression.compile("#(P0) + #(P1, Red)");
+        assertFalse(expression.isConstant());
+        assertThat(expression.getComponents()).containsOnly("P0", "P1", "Red");
+        assertThat(expression.getMarkingPlaces()).containsOnly("P0", "P1");
+    }
+
+    @Test
+    public void evaluatesAgainstState() {
+        PetriNet petriNet = APetriNet.with(AToken.called("Default").withColor(Color.BLACK)).andFinally(
+                APlace.withId("P0"));
+        HashedStateBuilder builder = new HashedStateBuilder();
+        builder.placeWithToken("P0", "Default", 4);
+        builder.placeWithToken("P0", "Red", 6);
+        State state = builder.build();
+
+        CompiledExpression expression = CompiledExpression.compile("#(P0) * 2 - #(P0, Red)");
+        assertEquals(14, expression.evaluate(new StateExpressionContext(petriNet, state)), 0.0001);
+    }
+
+    @Test
+    public void cacheOnlyCompilesOnce() {
+        ExpressionCache cache = new ExpressionCache();
+        CompiledExpression first = cache.get("#(P0) * 2");
+        CompiledExpression second = cache.get("#(P0) * 2");
+        assertSame(first, second);
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void renamingPlaceClearsPetriNetCache() throws PetriNetComponentNotFoundException {
+        PetriNet petriNet = APetriNet.with(AToken.called("Default").withColor(Color.BLACK)).andFinally(
+                APlace.withId("P0").containing(1, "Default").token());
+        petriNet.parseExpression("#(P0) * 2");
+        assertEquals(1, petriNet.getExpressionCache().size());
+
+        Place place = petriNet.getComponent("P0", Place.class);
+        place.setId("P1");
+        assertEquals(0, petriNet.getExpressionCache().size());
+    }
+
+    @Test
+    public void compiledParserMatchesVisitorParser() {
+        PetriNet petriNet = APetriNet.with(AToken.called("Default").withColor(Color.BLACK)).andFinally(
+                APlace.withId("P0").containing(5, "Default").tokens());
+        HashedStateBuilder builder = new HashedStateBuilder();
+        builder.placeWithToken("P0", "Default", 5);
+        State state = builder.build();
+
+        FunctionalWeightParser<Double> visitorParser =
+                new PetriNetWeightParser(new StateEvalVisitor(petriNet, state), petriNet);
+        FunctionalWeightParser<Double> compiledParser =
+                new CompiledWeightParser(new StateExpressionContext(petriNet, state), petriNet);
+
+        for (String expression : new String[]{"#(P0)", "floor(#(P0) / 2)", "#(P0, Default) - 6", "#(P2)", "2 +"}) {
+            FunctionalResults<Double> expected = visitorParser.evaluateExpression(expression);
+            FunctionalResults<Double> actual = compiledParser.evaluateExpression(expression);
+            assertEquals(expected.getResult(), actual.getResult());
+            assertEquals(expected.getErrors(), actual.getErrors());
+        }
+    }
+}
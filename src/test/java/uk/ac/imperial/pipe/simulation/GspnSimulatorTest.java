@@ -0,0 +1,98 @@
+package uk.ac.imperial.pipe.simulation;
+
+import org.junit.Test;
+import uk.ac.imperial.pipe.dsl.*;
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+
+import java.awt.Color;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class GspnSimulatorTest {
+
+    private static PetriNet twoStateNet() {
+        return APetriNet.with(AToken.called("Default").withColor(Color.BLACK)).and(
+                APlace.withId("P0").containing(1, "Default").token()).and(APlace.withId("P1")).and(
+                ATimedTransition.withId("T0").andRate("2")).and(ATimedTransition.withId("T1").andRate("1")).and(
+                ANormalArc.withSource("P0").andTarget("T0").with("1", "Default").token()).and(
+                ANormalArc.withSource("T0").andTarget("P1").with("1", "Default").token()).and(
+                ANormalArc.withSource("P1").andTarget("T1").with("1", "Default").token()).andFinally(
+                ANormalArc.withSource("T1").andTarget("P0").with("1", "Default").token());
+    }
+
+    @Test
+    public void estimatesSteadyStateOfTwoStateChain() {
+        GspnSimulator simulator = new GspnSimulator(twoStateNet(), 42);
+        SimulationResult result = simulator.run(10, 2000, 10);
+
+        assertEquals(2.0 / 3, result.getPlaceOccupancy("P1").getMean(), 0.03);
+        assertEquals(1.0 / 3, result.getPlaceOccupancy("P0").getMean(), 0.03);
+        assertEquals(2.0 / 3, result.getThroughput("T0").getMean(), 0.03);
+        assertEquals(10, result.getThroughput("T1").getCount());
+    }
+
+    @Test
+    public void choosesImmediatesByWeight() {
+        PetriNet petriNet = APetriNet.with(AToken.called("Default").withColor(Color.BLACK)).and(
+                APlace.withId("P0").containing(1, "Default").token()).and(APlace.withId("P1")).and(
+                APlace.withId("P2")).and(AnImmediateTransition.withId("I0").andProbability("3")).and(
+                AnImmediateTransition.withId("I1").andProbability("1")).and(ATimedTransition.withId("T0")).and(
+                ATimedTransition.withId("T1")).and(
+                ANormalArc.withSource("P0").andTarget("I0").with("1", "Default").token()).and(
+                ANormalArc.withSource("P0").andTarget("I1").with("1", "Default").token()).and(
+                ANormalArc.withSource("I0").andTarget("P1").with("1", "Default").token()).and(
+                ANormalArc.withSource("I1").andTarget("P2").with("1", "Default").token()).and(
+                ANormalArc.withSource("P1").andTarget("T0").with("1", "Default").token()).and(
+                ANormalArc.withSource("P2").andTarget("T1").with("1", "Default").token()).and(
+                ANormalArc.withSource("T0").andTarget("P0").with("1", "Default").token()).andFinally(
+                ANormalArc.withSource("T1").andTarget("P0").with("1", "Default").token());
+        GspnSimulator simulator = new GspnSimulator(petriNet, 7);
+        SimulationResult result = simulator.run(0, 5000, 4);
+
+        double i0 = result.getThroughput("I0").getMean();
+        double i1 = result.getThroughput("I1").getMean();
+        assertEquals(0.75, i0 / (i0 + i1), 0.03);
+        assertEquals(0, result.getPlaceOccupancy("P0").getMean(), 0.0001);
+    }
+
+    @Test
+    public void equalSeedsGiveEqualRuns() {
+        GspnSimulator first = new GspnSimulator(twoStateNet(), 11);
+        GspnSimulator second = new GspnSimulator(twoStateNet(), 11);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(first.step(), second.step());
+        }
+        assertEquals(first.getTime(), second.getTime(), 0);
+        assertArrayEquals(first.getMarking(), second.getMarking());
+    }
+
+    @Test
+    public void deadMarkingAdvancesTime() {
+        PetriNet petriNet = APetriNet.with(AToken.called("Default").withColor(Color.BLACK)).and(
+                APlace.withId("P0").containing(1, "Default").token()).and(ATimedTransition.withId("T0")).andFinally(
+                ANormalArc.withSource("P0").andTarget("T0").with("1", "Default").token());
+        GspnSimulator simulator = new GspnSimulator(petriNet, 3);
+        simulator.advance(100);
+
+        assertEquals(1, simulator.getFirings());
+        assertEquals(100, simulator.getTime(), 0);
+        assertEquals(-1, simulator.step());
+    }
+
+    @Test
+    public void stepInDeadMarkingKeepsTimeFinite() {
+        PetriNet petriNet = APetriNet.with(AToken.called("Default").withColor(Color.BLACK)).and(
+                APlace.withId("P0").containing(1, "Default").token()).and(ATimedTransition.withId("T0")).andFinally(
+                ANormalArc.withSource("P0").andTarget("T0").with("1", "Default").token());
+        GspnSimulator simulator = new GspnSimulator(petriNet, 3);
+        assertEquals(0, simulator.step());
+        double fired = simulator.getTime();
+
+        assertEquals(-1, simulator.step());
+        assertEquals(-1, simulator.step());
+        assertEquals(fired, simulator.getTime(), 0);
+        assertFalse(Double.isInfinite(simulator.getTime()));
+    }
+}
@@ -0,0 +1,58 @@
+package uk.ac.imperial.pipe.simulation;
+
+import org.junit.Test;
+import uk.ac.imperial.pipe.animation.CompiledPetriNet;
+import uk.ac.imperial.pipe.dsl.*;
+import uk.ac.imperial.pipe.models.petrinet.PetriNet;
+
+import java.awt.Color;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ReplicationRunnerTest {
+
+    private static CompiledPetriNet twoStateNet() {
+        PetriNet petriNet = APetriNet.with(AToken.called("Default").withColor(Color.BLACK)).and(
+                APlace.withId("P0").containing(1, "Default").token()).and(APlace.withId("P1")).and(
+                ATimedTransition.withId("T0").andRate("2")).and(ATimedTransition.withId("T1").andRate("1")).and(
+                ANormalArc.withSource("P0").andTarget("T0").with("1", "Default").token()).and(
+                ANormalArc.withSource("T0").andTarget("P1").with("1", "Default").token()).and(
+                ANormalArc.withSource("P1").andTarget("T1").with("1", "Default").token()).andFinally(
+                ANormalArc.withSource("T1").andTarget("P0").with("1", "Default").token());
+        return new CompiledPetriNet(petriNet);
+    }
+
+    @Test
+    public void stopsOnceTargetPrecisionIsReached() {
+        ReplicationRunner runner = new ReplicationRunner(twoStateNet(), 4);
+        runner.setSeed(1);
+        runner.setWarmUp(5);
+        runner.setRunLength(200);
+        runner.setTargetRelativeHalfWidth(0.02);
+        ReplicationResult result = runner.run();
+
+        assertTrue(result.isPrecise());
+        SampleStatistics p1 = result.getEstimates().getPlaceOccupancy("P1");
+        assertTrue(p1.getRelativeHalfWidth(0.95) <= 0.02);
+        assertEquals(2.0 / 3, p1.getMean(), 0.03);
+        assertEquals(result.getReplications(), p1.getCount());
+    }
+
+    @Test
+    public void resultsDoNotDependOnParallelism() {
+        ReplicationRunner sequential = new ReplicationRunner(twoStateNet(), 1);
+        ReplicationRunner parallel = new ReplicationRunner(twoStateNet(), 4);
+        for (ReplicationRunner runner : new ReplicationRunner[]{sequential, parallel}) {
+            runner.setSeed(99);
+            runner.setRunLength(50);
+            runner.setReplications(20, 20);
+        }
+
+        ReplicationResult first = sequential.run();
+        ReplicationResult second = parallel.run();
+        assertEquals(20, first.getReplications());
+        assertEquals(first.getEstimates().getThroughput("T0").getMean(),
+                second.getEstimates().getThroughput("T0").getMean(), 0);
+    }
+}
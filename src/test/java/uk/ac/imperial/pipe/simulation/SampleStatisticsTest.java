@@ -0,0 +1,35 @@
+package uk.ac.imperial.pipe.simulation;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class SampleStatisticsTest {
+
+    @Test
+    public void computesMeanAndVariance() {
+        SampleStatistics statistics = new SampleStatistics();
+        for (double sample : new double[]{2, 4, 4, 4, 5, 5, 7, 9}) {
+            statistics.add(sample);
+        }
+        assertEquals(5, statistics.getMean(), 1e-12);
+        assertEquals(32.0 / 7, statistics.getVariance(), 1e-12);
+    }
+
+    @Test
+    public void studentTQuantiles() {
+        assertEquals(12.706, StudentT.quantile(0.975, 1), 0.001);
+        assertEquals(4.303, StudentT.quantile(0.975, 2), 0.001);
+        assertEquals(2.228, StudentT.quantile(0.975, 10), 0.001);
+        assertEquals(1.960, StudentT.normalQuantile(0.975), 0.001);
+    }
+
+    @Test
+    public void halfWidthUsesStudentT() {
+        SampleStatistics statistics = new SampleStatistics();
+        statistics.add(1);
+        statistics.add(3);
+        assertEquals(12.706, statistics.getHalfWidth(0.95), 0.001);
+        assertEquals(12.706 / 2, statistics.getRelativeHalfWidth(0.95), 0.001);
+    }
+}